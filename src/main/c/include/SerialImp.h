@@ -150,8 +150,79 @@ struct event_info_struct
 #	if defined(TIOCGICOUNT)
 	struct serial_icounter_struct osis;
 #endif /* TIOCGICOUNT */
+	/* set when the port is served by a shared event_dispatcher */
+	struct event_dispatcher *dispatcher;
+	struct event_info_struct *dispatch_next;
+	jobject dispatch_jobj;
+	int dispatch_fault;
+	int dispatch_renotify;
+	/* notify fd of the port's receive_ring being watched, -1 if none */
+	int ring_notify;
 };
 
+/*
+	When each chunk of a read came in, see RXTXPort.readStamped().  Three
+	jlongs a chunk: its offset in the high and its length in the low 32
+	bits, then CLOCK_MONOTONIC and CLOCK_REALTIME in nanoseconds.  Once
+	max chunks are there the last one grows.
+*/
+#define READ_STAMPS 256
+struct read_stamps
+{
+	int max, n;
+	jlong stamps[ 3 * READ_STAMPS ];
+};
+
+#if !defined(WIN32)
+/*
+	Bytes drained from a port by a thread of its own, see
+	RXTXPort.nativeStartReceiveRing().  Readers copy out of buffer under
+	lock.  notify becomes readable when bytes land in an empty ring, the
+	event loops watch it since the port fd is no longer theirs to read.
+	users counts the threads between acquire_receive_ring() and
+	release_receive_ring(), the ring is not freed while there are any.
+	stamps keeps when the bytes came in, the lefts add up to count.
+*/
+struct receive_ring
+{
+	int fd;
+	unsigned char *buffer;
+	int size, head, count;
+	int high_water;
+	jlong dropped;
+	int users;
+	int stopping, hangup, error;
+	unsigned int wakeups;
+	int wakefd[ 2 ];
+	int notify[ 2 ];
+	/* the bytes of each read() of the drain thread, oldest first */
+	struct ring_stamp {
+		int left;
+		jlong monotonic, realtime;
+	} stamps[ READ_STAMPS ];
+	int stamp_head, stamp_count;
+	pthread_t tid;
+	pthread_mutex_t lock;
+	pthread_cond_t changed;
+};
+#endif /* !WIN32 */
+
+#if defined(__linux__)
+/*
+	One epoll loop serving the events of many ports, see
+	RXTXPort.nativeDispatch().  Ports are handed over through pending
+	and wakefd so that only the dispatcher thread walks ports.
+*/
+struct event_dispatcher
+{
+	int epfd;
+	int wakefd;
+	pthread_mutex_t lock;
+	struct event_info_struct *pending;
+	struct event_info_struct *ports;
+};
+#endif /* __linux__ */
+
 /*  Ports known on the OS */
 #if defined(__linux__)
 /*
@@ -472,7 +543,20 @@ int translate_parity( JNIEnv *, tcflag_t *, jint );
 void system_wait();
 void finalize_event_info_struct( struct event_info_struct * );
 int read_byte_array( JNIEnv *, jobject *, int, unsigned char *, int, int );
+int read_byte_range( JNIEnv *, jobject *, int, unsigned char *, int, int, int,
+	struct read_stamps * );
+int write_bytes( int, char *, int, jboolean );
+#ifdef WIN32
+/* there is no <sys/uio.h>; write_vector() writes piece by piece */
+struct iovec { void *iov_base; size_t iov_len; };
+#endif /* WIN32 */
+long write_vector( int, struct iovec *, int, jboolean );
+void wake_dispatcher( struct event_dispatcher * );
 size_t get_java_var_long( JNIEnv *, jobject, char *, char * );
+int get_java_fd( JNIEnv *, jobject );
+int get_java_timeout( JNIEnv *, jobject );
+int get_java_pid( JNIEnv *, jobject );
+struct event_info_struct *get_java_eis( JNIEnv *, jobject );
 size_t get_java_var( JNIEnv *, jobject, char *, char * );
 jboolean is_interrupted( struct event_info_struct * );
 int send_event(struct event_info_struct *, jint, int );
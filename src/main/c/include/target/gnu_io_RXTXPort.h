@@ -55,6 +55,42 @@ extern "C" {
 #define gnu_io_RXTXPort_debug_events 0L
 #undef gnu_io_RXTXPort_debug_verbose
 #define gnu_io_RXTXPort_debug_verbose 0L
+#undef gnu_io_RXTXPort_OPEN
+#define gnu_io_RXTXPort_OPEN 0L
+#undef gnu_io_RXTXPort_CLOSING
+#define gnu_io_RXTXPort_CLOSING 1L
+#undef gnu_io_RXTXPort_CLOSED
+#define gnu_io_RXTXPort_CLOSED 2L
+#undef gnu_io_RXTXPort_POLLED_WRITE_CHUNK
+#define gnu_io_RXTXPort_POLLED_WRITE_CHUNK 1024L
+#undef gnu_io_RXTXPort_DEFAULT_RECEIVE_RING
+#define gnu_io_RXTXPort_DEFAULT_RECEIVE_RING 65536L
+#undef gnu_io_RXTXPort_READ_STAMPS
+#define gnu_io_RXTXPort_READ_STAMPS 256L
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeOpenDispatcher
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_nativeOpenDispatcher
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeDispatch
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_nativeDispatch
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeAttachDispatcher
+ * Signature: (J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_gnu_io_RXTXPort_nativeAttachDispatcher
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     gnu_io_RXTXPort
  * Method:    Initialize
@@ -218,11 +254,27 @@ JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_writeByte
 /*
  * Class:     gnu_io_RXTXPort
  * Method:    writeArray
- * Signature: ([BIIZ)V
+ * Signature: ([BIIZ)I
  */
-JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_writeArray
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_writeArray
   (JNIEnv *, jobject, jbyteArray, jint, jint, jboolean);
 
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    writeDirect
+ * Signature: (Ljava/nio/ByteBuffer;IIZ)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_writeDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jboolean);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    writeGather
+ * Signature: ([Ljava/lang/Object;[I[IIZ)J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_writeGather
+  (JNIEnv *, jobject, jobjectArray, jintArray, jintArray, jint, jboolean);
+
 /*
  * Class:     gnu_io_RXTXPort
  * Method:    nativeDrain
@@ -255,13 +307,93 @@ JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readByte
 JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readArray
   (JNIEnv *, jobject, jbyteArray, jint, jint);
 
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    readStamped
+ * Signature: (Ljava/lang/Object;II[J)J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_readStamped
+  (JNIEnv *, jobject, jobject, jint, jint, jlongArray);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    readDirect
+ * Signature: (Ljava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readDirect
+  (JNIEnv *, jobject, jobject, jint, jint);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    readAvailable
+ * Signature: (Ljava/lang/Object;II)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readAvailable
+  (JNIEnv *, jobject, jobject, jint, jint);
+
 /*
  * Class:     gnu_io_RXTXPort
  * Method:    readTerminatedArray
- * Signature: ([BII[B)I
+ * Signature: ([BII[B[BII)J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_readTerminatedArray
+  (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray, jbyteArray, jint, jint);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    readFrame
+ * Signature: ([BIIIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readFrame
+  (JNIEnv *, jobject, jbyteArray, jint, jint, jint, jint, jlong);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeStartReceiveRing
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_nativeStartReceiveRing
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeStopReceiveRing
+ * Signature: ()[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_gnu_io_RXTXPort_nativeStopReceiveRing
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeResizeReceiveRing
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_nativeResizeReceiveRing
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    wakeReceiveRing
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_wakeReceiveRing
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeReceiveRingHighWater
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_nativeReceiveRingHighWater
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    nativeReceiveRingDropped
+ * Signature: ()J
  */
-JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_readTerminatedArray
-  (JNIEnv *, jobject, jbyteArray, jint, jint, jbyteArray);
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_nativeReceiveRingDropped
+  (JNIEnv *, jobject);
 
 /*
  * Class:     gnu_io_RXTXPort
@@ -279,6 +411,30 @@ JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_eventLoop
 JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_interruptEventLoop
   (JNIEnv *, jobject);
 
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    modemWatchInit
+ * Signature: ([I)J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_RXTXPort_modemWatchInit
+  (JNIEnv *, jobject, jintArray);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    waitModemLines
+ * Signature: ([I)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_RXTXPort_waitModemLines
+  (JNIEnv *, jobject, jintArray);
+
+/*
+ * Class:     gnu_io_RXTXPort
+ * Method:    interruptModemWait
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_RXTXPort_interruptModemWait
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     gnu_io_RXTXPort
  * Method:    nativeSetEventFlag
@@ -0,0 +1,41 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class gnu_io_ReadinessPoller */
+
+#ifndef _Included_gnu_io_ReadinessPoller
+#define _Included_gnu_io_ReadinessPoller
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef gnu_io_ReadinessPoller_OP_READ
+#define gnu_io_ReadinessPoller_OP_READ 1L
+#undef gnu_io_ReadinessPoller_OP_WRITE
+#define gnu_io_ReadinessPoller_OP_WRITE 4L
+/*
+ * Class:     gnu_io_ReadinessPoller
+ * Method:    nativeOpen
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_ReadinessPoller_nativeOpen
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     gnu_io_ReadinessPoller
+ * Method:    nativePoll
+ * Signature: (J[I[IIJ)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_ReadinessPoller_nativePoll
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jint, jlong);
+
+/*
+ * Class:     gnu_io_ReadinessPoller
+ * Method:    nativeWakeup
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_ReadinessPoller_nativeWakeup
+  (JNIEnv *, jclass, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
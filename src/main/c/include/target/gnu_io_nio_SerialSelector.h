@@ -0,0 +1,45 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class gnu_io_nio_SerialSelector */
+
+#ifndef _Included_gnu_io_nio_SerialSelector
+#define _Included_gnu_io_nio_SerialSelector
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     gnu_io_nio_SerialSelector
+ * Method:    nativeOpen
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_gnu_io_nio_SerialSelector_nativeOpen
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     gnu_io_nio_SerialSelector
+ * Method:    nativePoll
+ * Signature: (J[I[IIJ)I
+ */
+JNIEXPORT jint JNICALL Java_gnu_io_nio_SerialSelector_nativePoll
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jint, jlong);
+
+/*
+ * Class:     gnu_io_nio_SerialSelector
+ * Method:    nativeWakeup
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_nio_SerialSelector_nativeWakeup
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     gnu_io_nio_SerialSelector
+ * Method:    nativeClose
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_gnu_io_nio_SerialSelector_nativeClose
+  (JNIEnv *, jclass, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -62,6 +62,8 @@
 #	include "config.h"
 #endif
 #include "gnu_io_RXTXPort.h"
+#include "gnu_io_nio_SerialSelector.h"
+#include "gnu_io_ReadinessPoller.h"
 #endif /* dima */
 #ifdef __LCC__ /* windows lcc compiler for fd_set. probably wrong */
 #   include<winsock.h>
@@ -79,6 +81,11 @@
 #include <sys/param.h>
 #include <sys/utsname.h>
 #include <pthread.h>
+#include <poll.h>
+#include <sys/uio.h>
+#ifndef IOV_MAX
+#define IOV_MAX 1024
+#endif /* IOV_MAX */
 #else
 #	include "win32termios.h"
 /*  FIXME  returns 0 in all cases on win32
@@ -121,6 +128,8 @@
 #include <sys/sysmacros.h>
 #	include <linux/serial.h>
 #	include <linux/version.h>
+#	include <sys/epoll.h>
+#	include <sys/eventfd.h>
 #endif /* __linux__ */
 #if defined(__sun__)
 #	include <sys/filio.h>
@@ -156,6 +165,29 @@ extern int errno;
 
 JavaVM *javaVM = NULL;
 
+/*
+	The class gnu.io.RXTXPort and its field and method IDs.  They stay
+	valid for as long as the class is loaded so they are resolved once in
+	RXTXPort.Initialize() rather than on every call; the class is held
+	by a global reference.
+*/
+static jclass jclass_RXTXPort = NULL;
+static jfieldID jfid_fd = NULL;
+static jfieldID jfid_eis = NULL;
+static jfieldID jfid_timeout = NULL;
+static jfieldID jfid_pid = NULL;
+static jfieldID jfid_speed = NULL;
+static jfieldID jfid_dataBits = NULL;
+static jfieldID jfid_stopBits = NULL;
+static jfieldID jfid_parity = NULL;
+static jfieldID jfid_pushBuffer = NULL;
+static jfieldID jfid_modemLinesWatched = NULL;
+static jfieldID jfid_receiveRing = NULL;
+static jmethodID jmid_sendEvent = NULL;
+static jmethodID jmid_eventLoopDetached = NULL;
+static jmethodID jmid_unlockMonitorThread = NULL;
+static jmethodID jmid_dataReceived = NULL;
+
 
 struct preopened *preopened_port = NULL;
 
@@ -164,6 +196,8 @@ struct preopened *preopened_port = NULL;
  * */
 #define RXTXPort(foo) Java_gnu_io_RXTXPort_ ## foo
 #define RXTXVersion(foo) Java_gnu_io_RXTXVersion_ ## foo
+#define SerialSelector(foo) Java_gnu_io_nio_SerialSelector_ ## foo
+#define ReadinessPoller(foo) Java_gnu_io_ReadinessPoller_ ## foo
 #define RXTXCommDriver(foo) Java_gnu_io_RXTXCommDriver_ ## foo
 
 #if defined(__sun__) || defined(__hpux__)
@@ -230,15 +264,10 @@ struct event_info_struct build_threadsafe_eis(
 	struct event_info_struct myeis = *eis;
 
 	myeis.env = env;
-	myeis.jclazz = (*env)->GetObjectClass( env, *jobj );
+	myeis.jclazz = jclass_RXTXPort;
 	myeis.jobj = jobj;
-	myeis.fd = get_java_var( env, *jobj, "fd", "I" );
-	myeis.send_event = (*env)->GetMethodID(
-		env,
-		myeis.jclazz,
-		"sendEvent",
-		"(IZ)Z"
-	);
+	myeis.fd = get_java_fd( env, *jobj );
+	myeis.send_event = jmid_sendEvent;
 	return( myeis );
 }
 
@@ -288,6 +317,40 @@ JNIEXPORT void JNICALL RXTXPort(Initialize)(
 	}
 #endif /* !WIN32 */
 	ENTER( "RXTXPort:Initialize" );
+	if( !( jfid_fd = (*env)->GetFieldID( env, jclazz, "fd", "I" ) ) ||
+		!( jfid_eis = (*env)->GetFieldID( env, jclazz, "eis", "J" ) ) ||
+		!( jfid_timeout =
+			(*env)->GetFieldID( env, jclazz, "timeout", "I" ) ) ||
+		!( jfid_pid = (*env)->GetFieldID( env, jclazz, "pid", "I" ) ) ||
+		!( jfid_speed = (*env)->GetFieldID( env, jclazz, "speed", "I" ) ) ||
+		!( jfid_dataBits =
+			(*env)->GetFieldID( env, jclazz, "dataBits", "I" ) ) ||
+		!( jfid_stopBits =
+			(*env)->GetFieldID( env, jclazz, "stopBits", "I" ) ) ||
+		!( jfid_parity =
+			(*env)->GetFieldID( env, jclazz, "parity", "I" ) ) ||
+		!( jfid_pushBuffer =
+			(*env)->GetFieldID( env, jclazz, "pushBuffer", "[B" ) ) ||
+		!( jfid_modemLinesWatched = (*env)->GetFieldID( env, jclazz,
+			"modemLinesWatched", "Z" ) ) ||
+		!( jfid_receiveRing =
+			(*env)->GetFieldID( env, jclazz, "receiveRing", "J" ) ) ||
+		!( jmid_sendEvent = (*env)->GetMethodID( env, jclazz,
+			"sendEvent", "(IZ)Z" ) ) ||
+		!( jmid_eventLoopDetached = (*env)->GetMethodID( env, jclazz,
+			"eventLoopDetached", "(Z)V" ) ) ||
+		!( jmid_unlockMonitorThread = (*env)->GetMethodID( env, jclazz,
+			"unlockMonitorThread", "()V" ) ) ||
+		!( jmid_dataReceived = (*env)->GetMethodID( env, jclazz,
+			"dataReceived", "([BIJJ)V" ) ) ||
+		( !jclass_RXTXPort &&
+		!( jclass_RXTXPort = (*env)->NewGlobalRef( env, jclazz ) ) ) )
+	{
+		/* NoSuchFieldError/NoSuchMethodError is pending */
+		report_error( "RXTXPort:Initialize: cannot resolve field IDs\n" );
+		LEAVE( "RXTXPort:Initialize" );
+		return;
+	}
 #ifdef PRERELEASE
 	/*  this is just for avoiding confusion while testing new libraries */
 	printf("RXTX Prerelease for testing  Thu Feb 21 19:31:38\n");
@@ -530,19 +593,9 @@ void set_java_vars( JNIEnv *env, jobject jobj, int fd )
 	int jparity = -1;
 	int stop_bits = STOPBITS_1_5;
 	int baudrate;
-	jclass jclazz = (*env)->GetObjectClass( env, jobj );
-	jfieldID jfspeed = (*env)->GetFieldID( env, jclazz, "speed", "I" );
-	jfieldID jfdataBits =
-		(*env)->GetFieldID( env, jclazz, "dataBits", "I" );
-	jfieldID jfstopBits =
-		(*env)->GetFieldID( env, jclazz, "stopBits", "I" );
-	jfieldID jfparity =
-		(*env)->GetFieldID( env, jclazz, "parity", "I" );
-	(*env)->DeleteLocalRef( env, jclazz );
 	if( tcgetattr( fd, &ttyset ) < 0 )
 	{
 		report( "Cannot Get Serial Port Settings\n" );
-		(*env)->DeleteLocalRef( env, jclazz );
 		return;
 	}
 
@@ -598,11 +651,11 @@ cf{get,set}{i,o}speed and shouldn't be provided or used.
 #else
     	baudrate = cfgetispeed(&ttyset);
 #endif
-	(*env)->SetIntField(env, jobj, jfspeed,
+	(*env)->SetIntField(env, jobj, jfid_speed,
 		( jint ) get_java_baudrate(baudrate) );
-	(*env)->SetIntField(env, jobj, jfdataBits, ( jint ) databits );
-	(*env)->SetIntField(env, jobj, jfstopBits, ( jint ) stop_bits );
-	(*env)->SetIntField(env, jobj, jfparity, ( jint ) jparity );
+	(*env)->SetIntField(env, jobj, jfid_dataBits, ( jint ) databits );
+	(*env)->SetIntField(env, jobj, jfid_stopBits, ( jint ) stop_bits );
+	(*env)->SetIntField(env, jobj, jfid_parity, ( jint ) jparity );
 }
 /*----------------------------------------------------------
 RXTXPort.controlRs485
@@ -668,23 +721,13 @@ JNIEXPORT jint JNICALL RXTXPort(open)(
 	int  pid = -1;
 	char message[80];
 	const char *filename;
-	jclass jclazz = (*env)->GetObjectClass( env, jobj );
-	jfieldID jfid = (*env)->GetFieldID( env, jclazz, "pid", "I" );
 	report_time_start( );
 
-	if( !jfid ) {
-		(*env)->ExceptionDescribe( env );
-		(*env)->ExceptionClear( env );
-		(*env)->DeleteLocalRef( env, jclazz );
-		return -1;
-	}
-
 #ifndef WIN32
 	pid = getpid();
 #endif /* WIN32 */
 
-	(*env)->SetIntField(env, jobj, jfid, ( jint ) pid );
-	(*env)->DeleteLocalRef( env, jclazz );
+	(*env)->SetIntField(env, jobj, jfid_pid, ( jint ) pid );
 
  	filename = (*env)->GetStringUTFChars( env, jstr, 0 );
 
@@ -787,11 +830,10 @@ JNIEXPORT void JNICALL RXTXPort(nativeClose)( JNIEnv *env,
 	jobject jobj,jstring jstr )
 {
 	int result, pid;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	const char *filename = (*env)->GetStringUTFChars( env, jstr, 0 );
-	jclass jclazz = (*env)->GetObjectClass( env, jobj );
 	report_time_start( );
-	pid = get_java_var( env, jobj,"pid","I" );
+	pid = get_java_pid( env, jobj );
 
 	//report_warning("nativeClose() Attempting Close pid\n");
 
@@ -801,7 +843,7 @@ JNIEXPORT void JNICALL RXTXPort(nativeClose)( JNIEnv *env,
 	if( !pid ) {
 		(*env)->ExceptionDescribe( env );
 		(*env)->ExceptionClear( env );
-		(*env)->DeleteLocalRef( env, jclazz );
+		(*env)->ReleaseStringUTFChars( env, jstr, filename );
 		report_warning("nativeClose(): Close not detecting thread pid");
 		return;
 	}
@@ -843,8 +885,6 @@ JNIEXPORT void JNICALL RXTXPort(nativeClose)( JNIEnv *env,
 		//report_warning("nativeClose(): Close not detecting File Descriptor");
 	}
 	//report_warning("nativeClose() Attempt OK\n");
-	report("nativeClose: Delete jclazz\n");
-	(*env)->DeleteLocalRef( env, jclazz );
 	report("nativeClose: release filename\n");
 	(*env)->ReleaseStringUTFChars( env, jstr, filename );
 	LEAVE( "RXTXPort:nativeClose" );
@@ -977,7 +1017,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(nativeSetSerialPortParams)(
 	JNIEnv *env, jobject jobj, jint speed, jint dataBits, jint stopBits,
 	jint parity )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	int cspeed = translate_speed( env, speed );
 
 	ENTER( "RXTXPort:nativeSetSerialPortParams" );
@@ -1432,7 +1472,6 @@ init_threads( )
 ----------------------------------------------------------*/
 int init_threads( struct event_info_struct *eis )
 {
-	jfieldID jeis;
 #if !defined(TIOCSERGETLSR) & !defined(WIN32)
 	sigset_t newmask, oldmask;
 	struct sigaction newaction, oldaction;
@@ -1479,10 +1518,8 @@ int init_threads( struct event_info_struct *eis )
 	eis->drain_tid = tid;
 	eis->drain_loop_running = 1;
 #endif /* TIOCSERGETLSR */
-	report("init_threads: get eis\n");
-	jeis  = (*eis->env)->GetFieldID( eis->env, eis->jclazz, "eis", "J" );
 	report("init_threads: set eis\n");
-	(*eis->env)->SetLongField(eis->env, *eis->jobj, jeis, ( size_t ) eis );
+	(*eis->env)->SetLongField(eis->env, *eis->jobj, jfid_eis, ( size_t ) eis );
 	report("init_threads:  stop\n");
 	report_time_end( );
 	return( 1 );
@@ -1513,7 +1550,7 @@ JNIEXPORT void JNICALL RXTXPort(writeByte)( JNIEnv *env,
 	struct event_info_struct *index = master_index;
 #endif
 	unsigned char byte = (unsigned char)ji;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	int result;
 	char msg[80];
 #if defined ( __sun__ )
@@ -1567,62 +1604,61 @@ fail:
 }
 
 /*----------------------------------------------------------
-RXTXPort.writeArray
+set_writing
 
-   accept:      jbarray: bytes used for writing
-                offset: offset in array to start writing
-                count: Number of bytes to write
+   accept:      fd: file descriptor written to
                 jboolean interrupted (no events if true)
-   perform:     write length bytes of jbarray
+   perform:     tell the drain loop to look out for OUTPUT_BUFFER_EMPTY
    return:      none
-   exceptions:  IOException
+   exceptions:  none
+   comments:    only where there is no TIOCSERGETLSR
 ----------------------------------------------------------*/
-JNIEXPORT void JNICALL RXTXPort(writeArray)( JNIEnv *env,
-	jobject jobj, jbyteArray jbarray, jint offset, jint count,
-		jboolean interrupted )
+static void set_writing( int fd, jboolean interrupted )
 {
 #ifndef TIOCSERGETLSR
 	struct event_info_struct *index = master_index;
+
+	if( !interrupted )
+	{
+		if( index )
+		{
+			while( index->fd != fd &&
+				index->next ) index = index->next;
+		}
+		index->writing = 1;
+		report( "write_bytes:  index->writing = 1" );
+	}
 #endif /* TIOCSERGETLSR */
-	int fd;
-	int result=0,total=0;
-	jbyte *body;
-#if defined ( __sun__ )
-	int icount;
-#endif /* __sun__ */
-	/*
-	char message[1000];
-	*/
-#if defined ( __sun__ )
-	struct timespec retspec;
+}
 
-	retspec.tv_sec = 0;
-	retspec.tv_nsec = 50000;
-#endif /* __sun__ */
-	fd = get_java_var( env, jobj,"fd","I" );
-	body = (*env)->GetByteArrayElements( env, jbarray, 0 );
-	/* result=WRITE (fd, body + total + offset, count - total);
-	(*env)->ReleaseByteArrayElements( env, jbarray, body, 0 ); */
-/* return; OH CRAP */
+/*----------------------------------------------------------
+write_bytes
 
-	report_time_start();
-	ENTER( "writeArray" );
-	/* warning Roy Rogers */
-	/*
-	sprintf( message, "::::RXTXPort:writeArray(%s);\n", (char *) body );
-	report_verbose( message );
-	*/
+   accept:      fd: file descriptor to write to
+                buffer: bytes used for writing
+                count: Number of bytes to write
+                jboolean interrupted (no events if true)
+   perform:     write count bytes of buffer, retrying on EINTR and
+                short writes
+   return:      number of bytes written, -1 on error (errno is set)
+   exceptions:  none
+   comments:    shared by writeArray() and writeDirect()
+----------------------------------------------------------*/
+int write_bytes( int fd, char *buffer, int count, jboolean interrupted )
+{
+	int result=0,total=0;
 
 	do {
-		result=localWrite(fd, (void * ) ((char *) body + total + offset), count - total); /* dima */
+		result=localWrite(fd, (void * ) ( buffer + total ), count - total); /* dima */
 		if(result >0){
 			total += result;
 		}
-		report("writeArray()\n");
-	}  while ( ( total < count ) && (result < 0 && errno==EINTR ) );
+		report("write_bytes()\n");
+	}  while ( ( total < count ) &&
+		( result > 0 || ( result < 0 && errno==EINTR ) ) );
 	if( result < 0 )
 	{
-		goto fail;
+		return -1;
 	}
 /*
 	This makes write for win32, glinux and Sol behave the same
@@ -1633,19 +1669,135 @@ JNIEXPORT void JNICALL RXTXPort(writeArray)( JNIEnv *env,
 		icount++;
 	}  while (result && errno==EINTR && icount <3);
 #endif */ /* __sun__ */
-	(*env)->ReleaseByteArrayElements( env, jbarray, body, 0 );
-#ifndef TIOCSERGETLSR
-	if( !interrupted )
+	set_writing( fd, interrupted );
+	return total;
+}
+
+/*----------------------------------------------------------
+write_vector
+
+   accept:      fd: file descriptor to write to
+                iov: the pieces to write, in order
+                iovcnt: number of pieces
+                jboolean interrupted (no events if true)
+   perform:     write all the pieces with writev(), retrying on EINTR
+                and short writes
+   return:      number of bytes written, -1 on error (errno is set)
+   exceptions:  none
+   comments:    iov is used up as the write goes along.  WIN32 has no
+                writev() and gets one write_bytes() per piece.
+----------------------------------------------------------*/
+long write_vector( int fd, struct iovec *iov, int iovcnt,
+	jboolean interrupted )
+{
+	long total = 0;
+#ifndef WIN32
+	ssize_t result;
+
+	while( iovcnt > 0 && iov->iov_len == 0 )
 	{
-		if( index )
+		iov++;
+		iovcnt--;
+	}
+	while( iovcnt > 0 )
+	{
+		result = writev( fd, iov, iovcnt > IOV_MAX ? IOV_MAX : iovcnt );
+		report( "write_vector()\n" );
+		if( result < 0 )
 		{
-			while( index->fd != fd &&
-				index->next ) index = index->next;
+			if( errno == EINTR )
+				continue;
+			report_error( "Write action failed! " );
+			report_error( strerror( errno ) );
+			return -1;
+		}
+		if( result == 0 )
+			break;
+		total += result;
+		/* step over what went out, pieces may be partly written */
+		while( iovcnt > 0 && (size_t) result >= iov->iov_len )
+		{
+			result -= iov->iov_len;
+			iov++;
+			iovcnt--;
+		}
+		if( iovcnt > 0 )
+		{
+			iov->iov_base = (char *) iov->iov_base + result;
+			iov->iov_len -= result;
 		}
-		index->writing = 1;
-		report( "writeArray:  index->writing = 1" );
 	}
-#endif /* TIOCSERGETLSR */
+	set_writing( fd, interrupted );
+#else
+	int i, result;
+
+	for( i = 0; i < iovcnt; i++ )
+	{
+		result = write_bytes( fd, iov[i].iov_base, iov[i].iov_len,
+			interrupted );
+		if( result < 0 )
+			return -1;
+		total += result;
+	}
+#endif /* !WIN32 */
+	return total;
+}
+
+/*----------------------------------------------------------
+RXTXPort.writeArray
+
+   accept:      jbarray: bytes used for writing
+                offset: offset in array to start writing
+                count: Number of bytes to write
+                jboolean interrupted (no events if true)
+   perform:     write length bytes of jbarray
+   return:      number of bytes written, which write_bytes() leaves
+                short if the driver stops taking them
+   exceptions:  IOException
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(writeArray)( JNIEnv *env,
+	jobject jobj, jbyteArray jbarray, jint offset, jint count,
+		jboolean interrupted )
+{
+	int fd;
+	int result=0;
+	jbyte *body;
+	/* small writes are copied here instead of the whole array */
+	jbyte slice[ 4096 ];
+	/*
+	char message[1000];
+	*/
+	fd = get_java_fd( env, jobj );
+
+	report_time_start();
+	ENTER( "writeArray" );
+	if( count <= (jint) sizeof( slice ) )
+	{
+		/*
+		   GetByteArrayElements() may copy the entire array even
+		   when only a few bytes of it are written.
+		*/
+		(*env)->GetByteArrayRegion( env, jbarray, offset, count, slice );
+		if( (*env)->ExceptionCheck( env ) )
+		{
+			LEAVE( "RXTXPort:writeArray" );
+			return -1;
+		}
+		result = write_bytes( fd, (char *) slice, count, interrupted );
+	}
+	else
+	{
+		body = (*env)->GetByteArrayElements( env, jbarray, 0 );
+		/* warning Roy Rogers */
+		/*
+		sprintf( message, "::::RXTXPort:writeArray(%s);\n", (char *) body );
+		report_verbose( message );
+		*/
+		result = write_bytes( fd, (char *) body + offset, count,
+			interrupted );
+		/* nothing was modified, don't copy the array back */
+		(*env)->ReleaseByteArrayElements( env, jbarray, body, JNI_ABORT );
+	}
 	/*
 		50 ms sleep to make sure read can get in
 
@@ -1660,9 +1812,205 @@ JNIEXPORT void JNICALL RXTXPort(writeArray)( JNIEnv *env,
 	*/
 	LEAVE( "RXTXPort:writeArray" );
 	report_time_end();
-fail:
-	if( result < 0 ) throw_java_exception( env, IO_EXCEPTION,
-		"writeArray", strerror( errno ) );
+	if( result < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "writeArray",
+			strerror( errno ) );
+		return -1;
+	}
+	return( result );
+}
+
+/*----------------------------------------------------------
+RXTXPort.writeDirect
+
+   accept:      jbuffer: direct java.nio.ByteBuffer used for writing
+                offset: offset in the buffer to start writing
+                count: Number of bytes to write
+                jboolean interrupted (no events if true)
+   perform:     write count bytes of jbuffer straight from its
+                backing memory
+   return:      number of bytes written
+   exceptions:  IOException
+   comments:    No copy is made; the Java side only calls this for
+                direct buffers.
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(writeDirect)( JNIEnv *env,
+	jobject jobj, jobject jbuffer, jint offset, jint count,
+		jboolean interrupted )
+{
+	int fd = get_java_fd( env, jobj );
+	int result;
+	char *body = (char *) (*env)->GetDirectBufferAddress( env, jbuffer );
+	jlong capacity = (*env)->GetDirectBufferCapacity( env, jbuffer );
+
+	ENTER( "writeDirect" );
+	if( !body )
+	{
+		LEAVE( "RXTXPort:writeDirect" );
+		throw_java_exception( env, IO_EXCEPTION, "writeDirect",
+			"direct buffer access not supported" );
+		return -1;
+	}
+	if( offset < 0 || count < 0 || (jlong) offset + count > capacity )
+	{
+		LEAVE( "RXTXPort:writeDirect" );
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"writeDirect", "Invalid offset/length" );
+		return -1;
+	}
+	result = write_bytes( fd, body + offset, count, interrupted );
+	LEAVE( "RXTXPort:writeDirect" );
+	if( result < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "writeDirect",
+			strerror( errno ) );
+		return -1;
+	}
+	return( result );
+}
+
+/*----------------------------------------------------------
+RXTXPort.writeGather
+
+   accept:      jparts: byte arrays and/or direct ByteBuffers
+                joffsets, jlengths: where in each part to write from
+                and how much; both null to write whole byte arrays
+                n: number of parts
+                jboolean interrupted (no events if true)
+   perform:     write the parts, in order, as one write
+   return:      number of bytes written
+   exceptions:  IOException
+   comments:    up to 4096 bytes in all are gathered on the stack and
+                written with one write(), like writeArray().  Larger
+                writes go out with writev() straight from the parts.
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL RXTXPort(writeGather)( JNIEnv *env,
+	jobject jobj, jobjectArray jparts, jintArray joffsets,
+	jintArray jlengths, jint n, jboolean interrupted )
+{
+	int fd = get_java_fd( env, jobj );
+	struct gather_part {
+		jbyteArray array;
+		jbyte *elements;
+		char *address;
+		jint offset, length;
+	} stack_parts[ 16 ], *parts = stack_parts;
+	struct iovec stack_iov[ 16 ], *iov = stack_iov;
+	char buffer[ 4096 ];
+	jlong total = 0, result = -1;
+	jint i;
+
+	ENTER( "writeGather" );
+	if( n < 0 || n > (*env)->GetArrayLength( env, jparts ) )
+	{
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"writeGather", "Invalid count" );
+		return -1;
+	}
+	if( n > 16 && ( !( parts = malloc( n * sizeof( *parts ) ) ) ||
+		!( iov = malloc( n * sizeof( *iov ) ) ) ) )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "writeGather",
+			"out of memory" );
+		n = 0;
+		goto done;
+	}
+	if( (*env)->EnsureLocalCapacity( env, n ) < 0 )
+	{
+		n = 0;
+		goto done;
+	}
+	for( i = 0; i < n; i++ )
+	{
+		struct gather_part *p = &parts[i];
+		jobject part = (*env)->GetObjectArrayElement( env, jparts, i );
+		jlong capacity;
+
+		p->elements = NULL;
+		p->array = NULL;
+		p->address = (char *) (*env)->GetDirectBufferAddress( env, part );
+		if( p->address )
+			capacity = (*env)->GetDirectBufferCapacity( env, part );
+		else
+		{
+			/* the Java side only hands us byte[] otherwise */
+			p->array = (jbyteArray) part;
+			capacity = (*env)->GetArrayLength( env, p->array );
+		}
+		if( joffsets )
+		{
+			(*env)->GetIntArrayRegion( env, joffsets, i, 1, &p->offset );
+			(*env)->GetIntArrayRegion( env, jlengths, i, 1, &p->length );
+			if( (*env)->ExceptionCheck( env ) )
+			{
+				n = i + 1;
+				goto done;
+			}
+		}
+		else
+		{
+			p->offset = 0;
+			p->length = (jint) capacity;
+		}
+		if( p->offset < 0 || p->length < 0 ||
+			(jlong) p->offset + p->length > capacity )
+		{
+			n = i + 1;
+			throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+				"writeGather", "Invalid offset/length" );
+			goto done;
+		}
+		total += p->length;
+	}
+	if( total <= (jlong) sizeof( buffer ) )
+	{
+		char *to = buffer;
+
+		for( i = 0; i < n; i++ )
+		{
+			if( parts[i].address )
+				memcpy( to, parts[i].address + parts[i].offset,
+					parts[i].length );
+			else
+				(*env)->GetByteArrayRegion( env, parts[i].array,
+					parts[i].offset, parts[i].length,
+					(jbyte *) to );
+			to += parts[i].length;
+		}
+		result = write_bytes( fd, buffer, (int) total, interrupted );
+	}
+	else
+	{
+		for( i = 0; i < n; i++ )
+		{
+			if( !parts[i].address )
+			{
+				parts[i].elements = (*env)->GetByteArrayElements( env,
+					parts[i].array, NULL );
+				if( !parts[i].elements )
+					goto done;
+				parts[i].address = (char *) parts[i].elements;
+			}
+			iov[i].iov_base = parts[i].address + parts[i].offset;
+			iov[i].iov_len = parts[i].length;
+		}
+		result = write_vector( fd, iov, n, interrupted );
+	}
+	if( result < 0 )
+		throw_java_exception( env, IO_EXCEPTION, "writeGather",
+			strerror( errno ) );
+done:
+	if( parts )
+		for( i = 0; i < n; i++ )
+			if( parts[i].elements )
+				(*env)->ReleaseByteArrayElements( env,
+					parts[i].array, parts[i].elements,
+					JNI_ABORT );
+	if( parts && parts != stack_parts ) free( parts );
+	if( iov && iov != stack_iov ) free( iov );
+	LEAVE( "RXTXPort:writeGather" );
+	return( result );
 }
 
 /*----------------------------------------------------------
@@ -1681,8 +2029,8 @@ RXTXPort.nativeDrain
 JNIEXPORT jboolean JNICALL RXTXPort(nativeDrain)( JNIEnv *env,
 	jobject jobj, jboolean interrupted )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
-	struct event_info_struct *eis = ( struct event_info_struct * ) get_java_var_long( env, jobj, "eis", "J" );
+	int fd = get_java_fd( env, jobj );
+	struct event_info_struct *eis = get_java_eis( env, jobj );
 	int result, count=0;
 
 	char message[80];
@@ -1733,7 +2081,7 @@ RXTXPort.sendBreak
 JNIEXPORT void JNICALL RXTXPort(sendBreak)( JNIEnv *env,
 	jobject jobj, jint duration )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	report_time_start( );
 	ENTER( "RXTXPort:sendBreak()" );
 	tcsendbreak( fd, (int)( duration / 250 ) );
@@ -1754,7 +2102,7 @@ JNIEXPORT jint JNICALL RXTXPort(NativegetReceiveTimeout)(
 	jobject jobj
 	)
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct termios ttyset;
 
 	ENTER( "RXTXPort:nativegetRecieveTimeout()" );
@@ -1781,7 +2129,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(NativeisReceiveTimeoutEnabled)(
 	jobject jobj
 	)
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct termios ttyset;
 	ENTER( "RXTXPort:NativeisRecieveTimeoutEnabled()" );
 	if( tcgetattr( fd, &ttyset ) < 0 ) goto fail;
@@ -1808,7 +2156,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isDSR)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isDSR" );
@@ -1838,7 +2186,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isCD)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isCD" );
@@ -1863,7 +2211,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isCTS)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isCTS" );
@@ -1889,7 +2237,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isRI)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isRI" );
@@ -1915,7 +2263,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isRTS)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isRTS" );
@@ -1942,7 +2290,7 @@ JNIEXPORT void JNICALL RXTXPort(setRTS)( JNIEnv *env,
 	jobject jobj, jboolean state )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:setRTS" );
@@ -1971,7 +2319,7 @@ JNIEXPORT void JNICALL RXTXPort(setDSR)( JNIEnv *env,
 	jobject jobj, jboolean state )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:setDSR()" );
@@ -2001,7 +2349,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(isDTR)( JNIEnv *env,
 	jobject jobj )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:isDTR" );
@@ -2027,7 +2375,7 @@ JNIEXPORT void JNICALL RXTXPort(setDTR)( JNIEnv *env,
 	jobject jobj, jboolean state )
 {
 	unsigned int result = 0;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	char message[80];
 
 	ENTER( "RXTXPort:setDTR" );
@@ -2116,7 +2464,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(nativeSetBaudBase)(
 
 #if defined(TIOCGSERIAL)
 
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct serial_struct sstruct;
 
 	if ( ioctl( fd, TIOCGSERIAL, &sstruct ) < 0 )
@@ -2162,7 +2510,7 @@ JNIEXPORT jint JNICALL RXTXPort(nativeGetBaudBase)(
 
 #if defined(TIOCGSERIAL)
 
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct serial_struct sstruct;
 
 	if ( ioctl( fd, TIOCGSERIAL, &sstruct ) < 0 )
@@ -2202,7 +2550,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(nativeSetDivisor)(
 
 #if defined(TIOCGSERIAL)
 
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct serial_struct sstruct;
 
 	if ( ioctl( fd, TIOCGSERIAL, &sstruct ) < 0 )
@@ -2246,7 +2594,7 @@ JNIEXPORT jint JNICALL RXTXPort(nativeGetDivisor)(
 
 #if defined(TIOCGSERIAL)
 
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct serial_struct sstruct;
 
 	if ( ioctl( fd, TIOCGSERIAL, &sstruct ) < 0 )
@@ -2934,7 +3282,7 @@ JNIEXPORT jbyte JNICALL RXTXPort(nativeGetParityErrorChar)( JNIEnv *env,
 	ENTER( "nativeGetParityErrorChar" );
 #ifdef WIN32
 	result = ( jbyte ) termiosGetParityErrorChar(
-			get_java_var(env, jobj, "fd", "I" ) );
+			get_java_fd( env, jobj ) );
 #else
 	/*
 	   arg!  I cant find a way to change it from \0 in Linux.  I think
@@ -2959,7 +3307,7 @@ RXTXPort.nativeGetEndOfInputChar
 JNIEXPORT jbyte JNICALL RXTXPort(nativeGetEndOfInputChar)( JNIEnv *env,
 	jobject jobj )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct termios ttyset;
 
 	ENTER( "nativeGetEndOfInputChar" );
@@ -2991,7 +3339,7 @@ JNIEXPORT jboolean JNICALL RXTXPort(nativeSetParityErrorChar)( JNIEnv *env,
 	{
 
 #ifdef WIN32
-		int fd = get_java_var( env, jobj,"fd","I" );
+		int fd = get_java_fd( env, jobj );
 		ENTER( "nativeSetParityErrorChar" );
 		termiosSetParityError( fd, ( char ) value );
 		LEAVE( "nativeSetParityErrorChar" );
@@ -3029,7 +3377,7 @@ RXTXPort.nativeSetEndOfInputChar
 JNIEXPORT jboolean JNICALL RXTXPort(nativeSetEndOfInputChar)( JNIEnv *env,
 	jobject jobj, jbyte value )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct termios ttyset;
 
 	ENTER( "nativeSetEndOfInputChar" );
@@ -3051,6 +3399,13 @@ long
 GetTickCount()
 {
 	/* return milliseconds */
+#ifdef CLOCK_MONOTONIC
+	/* read deadlines must not move when the wall clock is set */
+	struct timespec now;
+
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return (now.tv_sec * 1000) + (now.tv_nsec / 1000000);
+#else
 	struct timeval now;
 
 	gettimeofday(&now, NULL);
@@ -3061,146 +3416,941 @@ GetTickCount()
 #else
 	return (now.tv_sec * 1000) + ceil(now.tv_usec / 1000);
 #endif /* __QNX__ */
+#endif /* CLOCK_MONOTONIC */
 }
 
 #endif /* !WIN32 */
 
 /*----------------------------------------------------------
-read_byte_array
-
-   accept:      int                fd   file descriptor to read from
-                unsigned char *buffer   buffer to read data into
-                int            length   number of bytes to read
-		int           timeout   milliseconds to wait before returning
-   perform:     read bytes from the port into a buffer
-   return:      status of read
-                -1 fail (IOException)
-                 0 timeout
-                >0 number of bytes read
-   comments:    According to the Communications API spec, a receive threshold
-                of 1 is the same as having the threshold disabled.
+stamp_now
 
-		The nuts and bolts are documented in
-		NativeEnableReceiveTimeoutThreshold()
+   accept:      where to put the two times
+   perform:     read CLOCK_MONOTONIC and CLOCK_REALTIME
+   return:      none
+   exceptions:  none
+   comments:    called the moment a read() returns.  On Linux the
+                monotonic time is on the clock of System.nanoTime().
 ----------------------------------------------------------*/
+static void stamp_now( jlong *monotonic, jlong *realtime )
+{
+#ifndef WIN32
+	struct timespec now;
 
-int read_byte_array( JNIEnv *env,
-                     jobject *jobj,
-                     int fd,
-                     unsigned char *buffer,
-                     int length,
-                     int timeout )
+	clock_gettime( CLOCK_MONOTONIC, &now );
+	*monotonic = (jlong) now.tv_sec * 1000000000L + now.tv_nsec;
+	clock_gettime( CLOCK_REALTIME, &now );
+	*realtime = (jlong) now.tv_sec * 1000000000L + now.tv_nsec;
+#else
+	*monotonic = (jlong) GetTickCount() * 1000000L;
+	*realtime = 0;
+#endif /* WIN32 */
+}
+
+/* note when the length bytes at offset came in, if st is not NULL */
+static void stamp_chunk( struct read_stamps *st, int offset, int length,
+	jlong monotonic, jlong realtime )
 {
-	int ret, left, bytes = 0;
-	long timeLeft, now = 0, start = 0;
-	/* char msg[80]; */
-	struct timeval tv, *tvP;
-	fd_set rset;
-	/* TRENT */
-	int flag, count = 0;
-	struct event_info_struct *eis = ( struct event_info_struct * )
-		get_java_var_long( env, *jobj,"eis","J" );
+	jlong *p;
 
-	report_time_start();
-	flag = eis->eventflags[SPE_DATA_AVAILABLE];
-	eis->eventflags[SPE_DATA_AVAILABLE] = 0;
+	if( !st || length <= 0 )
+		return;
+	if( st->n == st->max )
+	{
+		/* out of room, the last chunk grows */
+		st->stamps[ 3 * ( st->n - 1 ) ] += length;
+		return;
+	}
+	p = &st->stamps[ 3 * st->n++ ];
+	p[ 0 ] = ( (jlong) offset << 32 ) | length;
+	p[ 1 ] = monotonic;
+	p[ 2 ] = realtime;
+}
+
+#ifndef WIN32
 /*
-	ENTER( "read_byte_array" );
-	sprintf(msg, "read_byte_array requests %i\n", length);
-	report( msg );
+	receive_ring, the optional native drain of the port (see
+	RXTXPort.setBackgroundDrain()).  ring_lock guards the Java field
+	and every ring's users count so a ring can be freed safely.
 */
-	left = length;
-	if (timeout >= 0)
-		start = GetTickCount();
-	while( bytes < length &&  count++ < 20 ) /* && !is_interrupted( eis ) )*/
+static pthread_mutex_t ring_lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t ring_released = PTHREAD_COND_INITIALIZER;
+
+/*----------------------------------------------------------
+acquire_receive_ring
+
+   accept:      the RXTXPort
+   perform:     find the port's receive_ring and hold it
+   return:      the ring or NULL if the port has none
+   exceptions:  none
+   comments:    every ring returned has to go back through
+                release_receive_ring().  Costs one field read when
+                there is no ring.
+----------------------------------------------------------*/
+static struct receive_ring *acquire_receive_ring( JNIEnv *env,
+	jobject jobj )
+{
+	struct receive_ring *r;
+
+	if( !(*env)->GetLongField( env, jobj, jfid_receiveRing ) )
+		return( NULL );
+	pthread_mutex_lock( &ring_lock );
+	r = (struct receive_ring *) (size_t)
+		(*env)->GetLongField( env, jobj, jfid_receiveRing );
+	if( r )
+		r->users++;
+	pthread_mutex_unlock( &ring_lock );
+	return( r );
+}
+
+static void release_receive_ring( struct receive_ring *r )
+{
+	pthread_mutex_lock( &ring_lock );
+	if( --r->users == 0 && r->stopping )
+		pthread_cond_broadcast( &ring_released );
+	pthread_mutex_unlock( &ring_lock );
+}
+
+/*
+	copy len bytes read at the given time in at the tail, the caller
+	has made room.  With no stamp left the newest one grows.
+*/
+static void ring_put( struct receive_ring *r, unsigned char *src, int len,
+	jlong monotonic, jlong realtime )
+{
+	int tail = ( r->head + r->count ) % r->size;
+	int first = r->size - tail < len ? r->size - tail : len;
+	struct ring_stamp *s;
+
+	if( len <= 0 )
+		return;
+	memcpy( r->buffer + tail, src, first );
+	memcpy( r->buffer, src + first, len - first );
+	r->count += len;
+	if( r->count > r->high_water )
+		r->high_water = r->count;
+	if( r->stamp_count == READ_STAMPS )
+	{
+		r->stamps[ ( r->stamp_head + READ_STAMPS - 1 ) %
+			READ_STAMPS ].left += len;
+		return;
+	}
+	s = &r->stamps[ ( r->stamp_head + r->stamp_count++ ) % READ_STAMPS ];
+	s->left = len;
+	s->monotonic = monotonic;
+	s->realtime = realtime;
+}
+
+/* copy the first len bytes out without taking them */
+static void ring_copy( struct receive_ring *r, unsigned char *dst, int len )
+{
+	int first = r->size - r->head < len ? r->size - r->head : len;
+
+	memcpy( dst, r->buffer + r->head, first );
+	memcpy( dst + first, r->buffer, len - first );
+}
+
+/*
+	take up to len bytes from the head, with when they came in if st
+	is not NULL.  Taking no more than one stamp's bytes has them all
+	arrive together.
+*/
+static int ring_take( struct receive_ring *r, unsigned char *dst, int len,
+	struct read_stamps *st )
+{
+	int n = r->count < len ? r->count : len, done = 0, k;
+	struct ring_stamp *s;
+
+	ring_copy( r, dst, n );
+	while( done < n )
 	{
-		if (timeout >= 0) {
-			now = GetTickCount();
-			if ( now-start >= timeout )
+		s = &r->stamps[ r->stamp_head ];
+		k = s->left < n - done ? s->left : n - done;
+		stamp_chunk( st, done, k, s->monotonic, s->realtime );
+		done += k;
+		if( ( s->left -= k ) == 0 )
+		{
+			r->stamp_head = ( r->stamp_head + 1 ) % READ_STAMPS;
+			r->stamp_count--;
+		}
+	}
+	if( r->count == r->size )
+		/* a throttled drain thread waits for room */
+		pthread_cond_broadcast( &r->changed );
+	r->head = ( r->head + n ) % r->size;
+	r->count -= n;
+	return( n );
+}
+
+/* let the stamps cover the first keep bytes only */
+static void ring_keep_stamps( struct receive_ring *r, int keep )
+{
+	int n = 0;
+	struct ring_stamp *s;
+
+	while( n < r->stamp_count && keep > 0 )
+	{
+		s = &r->stamps[ ( r->stamp_head + n++ ) % READ_STAMPS ];
+		if( s->left > keep )
+			s->left = keep;
+		keep -= s->left;
+	}
+	r->stamp_count = n;
+}
+
+/*
+	bytes the driver has lost to overruns so far, -1 if it does not
+	count them
+*/
+static jlong driver_overruns( int fd )
+{
+#if defined(TIOCGICOUNT)
+	struct serial_icounter_struct sis;
+
+	if( ioctl( fd, TIOCGICOUNT, &sis ) == 0 )
+		return( (jlong) sis.overrun + sis.buf_overrun );
+#endif /* TIOCGICOUNT */
+	return( -1 );
+}
+
+/*----------------------------------------------------------
+receive_ring_loop
+
+   accept:      the receive_ring
+   perform:     move whatever the port receives into the ring until
+                wakefd is written
+   return:      NULL
+   exceptions:  none
+   comments:    runs without the JVM.  Each read() takes no more than
+                the ring has room for.  While the ring is full the port
+                is left alone, so bytes wait in the driver, which holds
+                the sender off if there is flow control.  What the
+                driver overran meanwhile, if it keeps count, is counted
+                as dropped.  After a hang up or read error the port is
+                only looked at every 100ms.
+----------------------------------------------------------*/
+static void *receive_ring_loop( void *arg )
+{
+	struct receive_ring *r = (struct receive_ring *) arg;
+	unsigned char scratch[ 4096 ];
+	struct pollfd pfd[ 2 ];
+	int n, room, was_empty, idle;
+	jlong monotonic, realtime, overruns, now;
+
+	pfd[ 0 ].fd = r->wakefd[ 0 ];
+	pfd[ 0 ].events = POLLIN;
+	pfd[ 1 ].fd = r->fd;
+	pfd[ 1 ].events = POLLIN;
+	while( 1 )
+	{
+		pthread_mutex_lock( &r->lock );
+		if( r->count == r->size && !r->stopping )
+		{
+			pthread_mutex_unlock( &r->lock );
+			overruns = driver_overruns( r->fd );
+			pthread_mutex_lock( &r->lock );
+			while( r->count == r->size && !r->stopping )
+				pthread_cond_wait( &r->changed, &r->lock );
+			pthread_mutex_unlock( &r->lock );
+			now = driver_overruns( r->fd );
+			pthread_mutex_lock( &r->lock );
+			if( overruns >= 0 && now > overruns )
+				r->dropped += now - overruns;
+		}
+		idle = r->hangup || r->error;
+		n = r->stopping;
+		room = r->size - r->count;
+		pthread_mutex_unlock( &r->lock );
+		if( n )
+			break;
+		/* after a hang up look at the port again in 100ms */
+		if( idle && poll( pfd, 1, 100 ) > 0 )
+			break;
+		pfd[ 0 ].revents = pfd[ 1 ].revents = 0;
+		n = poll( pfd, 2, idle ? 0 : -1 );
+		if( n < 0 && errno != EINTR )
+		{
+			report_error( "receive_ring_loop: poll failed\n" );
+			break;
+		}
+		if( pfd[ 0 ].revents )
+			break;
+		if( n <= 0 )
+			continue;
+		n = read( r->fd, scratch,
+			room < (int) sizeof( scratch ) ? room : sizeof( scratch ) );
+		stamp_now( &monotonic, &realtime );
+		if( n < 0 && ( errno == EINTR || errno == EAGAIN ) )
+			continue;
+		pthread_mutex_lock( &r->lock );
+		if( n < 0 )
+			r->error = errno;
+		else if( n == 0 )
+			r->hangup = ( pfd[ 1 ].revents & POLLHUP ) != 0;
+		else
+		{
+			r->hangup = r->error = 0;
+			was_empty = r->count == 0;
+			/* nativeResizeReceiveRing() may have shrunk the ring */
+			room = r->size - r->count;
+			if( n > room )
 			{
-                                struct event_info_struct *eis2 = ( struct event_info_struct * )
-                                    get_java_var_long( env, *jobj,"eis","J" );
-                                if (eis2 == NULL) {
-                                        report("read_byte_array(): eis was null, this can happen if reading after RXTXPort.run() returns while reading.");
-                                } else {
-                                        eis->eventflags[SPE_DATA_AVAILABLE] = flag;
-                                }
-				return bytes;
+				r->dropped += n - room;
+				n = room;
 			}
+			ring_put( r, scratch, n, monotonic, realtime );
+			if( was_empty && n &&
+				write( r->notify[ 1 ], "", 1 ) < 0 && errno != EAGAIN )
+				report_error( "receive_ring_loop: notify failed\n" );
 		}
+		pthread_cond_broadcast( &r->changed );
+		pthread_mutex_unlock( &r->lock );
+	}
+	return( NULL );
+}
 
-		FD_ZERO(&rset);
-		FD_SET(fd, &rset);
+/* an absolute time nanos from now, on the clock r->changed uses */
+static void ring_deadline_nanos( struct timespec *until, jlong nanos )
+{
+#if defined(__linux__)
+	clock_gettime( CLOCK_MONOTONIC, until );
+#else
+	struct timeval now;
+
+	gettimeofday( &now, NULL );
+	until->tv_sec = now.tv_sec;
+	until->tv_nsec = now.tv_usec * 1000;
+#endif /* __linux__ */
+	until->tv_sec += nanos / 1000000000L;
+	until->tv_nsec += nanos % 1000000000L;
+	if( until->tv_nsec >= 1000000000L )
+	{
+		until->tv_sec++;
+		until->tv_nsec -= 1000000000L;
+	}
+}
+
+/* the same, timeout ms from now */
+static void ring_deadline( struct timespec *until, int timeout )
+{
+	ring_deadline_nanos( until, (jlong) timeout * 1000000L );
+}
+
+/*----------------------------------------------------------
+receive_ring_read
+
+   accept:      ring, buffer, minimum and length as read_byte_range()
+		int           timeout   milliseconds to wait, -1 forever
+   perform:     wait for minimum bytes in the ring, then copy up to
+                length out
+   return:      as read_byte_array()
+   exceptions:  none
+   comments:    also returns early, with what is there, after a hang
+                up, when the ring is stopped or wakeReceiveRing() is
+                called.  st, if not NULL, gets the times the drain
+                thread read the bytes.  A read error of the drain thread is handed to
+                one reader through errno.
+----------------------------------------------------------*/
+static int receive_ring_read( struct receive_ring *r, unsigned char *buffer,
+	int minimum, int length, int timeout, struct read_stamps *st )
+{
+	struct timespec until;
+	unsigned int wakeups;
+	int rc = 0, bytes;
+
+	if( timeout >= 0 )
+		ring_deadline( &until, timeout );
+	pthread_mutex_lock( &r->lock );
+	wakeups = r->wakeups;
+	while( r->count < minimum && !r->stopping && !r->hangup &&
+		!r->error && r->wakeups == wakeups && rc != ETIMEDOUT )
+	{
+		if( timeout >= 0 )
+			rc = pthread_cond_timedwait( &r->changed, &r->lock, &until );
+		else
+			pthread_cond_wait( &r->changed, &r->lock );
+	}
+	if( !r->count && r->error )
+	{
+		errno = r->error;
+		r->error = 0;
+		bytes = -1;
+	}
+	else
+		bytes = ring_take( r, buffer, length, st );
+	pthread_mutex_unlock( &r->lock );
+	return( bytes );
+}
 
-		if (timeout >= 0){
-			timeLeft = timeout - (now - start);
-			tv.tv_sec = timeLeft / 1000;
-			tv.tv_usec = 1000 * ( timeLeft % 1000 );
-			tvP = &tv;
+/*----------------------------------------------------------
+receive_ring_frame
+
+   accept:      ring, buffer and its length
+		int           timeout   milliseconds to wait for the first
+		                        byte, -1 forever
+		jlong             gap   nanoseconds without a byte that end
+		                        the frame
+		jlong       character   nanoseconds a character takes
+		int           started   true if the caller holds the start
+		                        of the frame already
+   perform:     take one frame out of the ring
+   return:      bytes taken, 0 on timeout, -1 as receive_ring_read()
+   exceptions:  none
+   comments:    the gaps are those between the drain thread's read()s,
+                so a reader that comes late still finds where each
+                frame ended.  A read() of several bytes got the first
+                of them a character time each earlier, which a late
+                drain thread or a driver handing on bytes in bursts
+                would hide otherwise.  Returns early, like
+                receive_ring_read().
+----------------------------------------------------------*/
+static int receive_ring_frame( struct receive_ring *r, unsigned char *buffer,
+	int length, int timeout, jlong gap, jlong character, int started )
+{
+	struct timespec until;
+	struct ring_stamp *s;
+	unsigned int wakeups;
+	jlong last, now, realtime;
+	int rc = 0, bytes = 0, k;
+
+	stamp_now( &last, &realtime );
+	if( timeout >= 0 )
+		ring_deadline( &until, timeout );
+	pthread_mutex_lock( &r->lock );
+	wakeups = r->wakeups;
+	while( !started && !r->count && !r->stopping && !r->hangup &&
+		!r->error && r->wakeups == wakeups && rc != ETIMEDOUT )
+	{
+		if( timeout >= 0 )
+			rc = pthread_cond_timedwait( &r->changed, &r->lock, &until );
+		else
+			pthread_cond_wait( &r->changed, &r->lock );
+	}
+	if( !started && !r->count && r->error )
+	{
+		errno = r->error;
+		r->error = 0;
+		bytes = -1;
+	}
+	else if( started || r->count )
+	{
+		while( bytes < length )
+		{
+			if( r->count )
+			{
+				/* the next read() of the drain thread, if it
+				   came after the gap it starts the next frame */
+				s = &r->stamps[ r->stamp_head ];
+				k = length - bytes;
+				if( r->stamp_count )
+				{
+					if( ( bytes || started ) && s->monotonic -
+						( s->left - 1 ) * character - last >= gap )
+						break;
+					last = s->monotonic;
+					if( s->left < k )
+						k = s->left;
+				}
+				bytes += ring_take( r, buffer + bytes, k, NULL );
+				continue;
+			}
+			if( r->stopping || r->hangup || r->error ||
+				r->wakeups != wakeups )
+				break;
+			stamp_now( &now, &realtime );
+			if( now - last >= gap )
+				break;
+			ring_deadline_nanos( &until, last + gap - now );
+			pthread_cond_timedwait( &r->changed, &r->lock, &until );
 		}
-		else{
-			tvP = NULL;
+	}
+	pthread_mutex_unlock( &r->lock );
+	return( bytes );
+}
+
+/*----------------------------------------------------------
+receive_ring_pending
+
+   accept:      the RXTXPort, whether to empty the ring's notify pipe
+   perform:     count the bytes in the ring
+   return:      bytes in the ring, 0 if the port has none
+   exceptions:  none
+   comments:    the event loops empty the pipe, before counting, so
+                bytes arriving after the count leave it readable.
+----------------------------------------------------------*/
+static int receive_ring_pending( JNIEnv *env, jobject jobj, int notified )
+{
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+	char drain[ 64 ];
+	int count;
+
+	if( !r )
+		return( 0 );
+	while( notified && read( r->notify[ 0 ], drain, sizeof( drain ) ) > 0 )
+		;
+	pthread_mutex_lock( &r->lock );
+	count = r->count;
+	pthread_mutex_unlock( &r->lock );
+	release_receive_ring( r );
+	return( count );
+}
+
+/* the fd to wait on for bytes in the port's ring, -1 if it has none */
+static int receive_ring_notify_fd( JNIEnv *env, jobject jobj )
+{
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+	int fd;
+
+	if( !r )
+		return( -1 );
+	fd = r->notify[ 0 ];
+	release_receive_ring( r );
+	return( fd );
+}
+
+/* both ends non blocking and not inherited by children */
+static int ring_pipe( int p[ 2 ] )
+{
+	int i;
+
+	if( pipe( p ) < 0 )
+		return( -1 );
+	for( i = 0; i < 2; i++ )
+	{
+		fcntl( p[ i ], F_SETFL, fcntl( p[ i ], F_GETFL ) | O_NONBLOCK );
+		fcntl( p[ i ], F_SETFD, FD_CLOEXEC );
+	}
+	return( 0 );
+}
+#endif /* !WIN32 */
+
+/*----------------------------------------------------------
+RXTXPort.nativeStartReceiveRing
+
+   accept:      size of the ring in bytes
+   perform:     start a thread which drains the port into the ring
+   return:      none
+   exceptions:  IOException
+   comments:    reads on the port are served from the ring from now
+                on.  The Java side holds the read lock so nobody is
+                reading the fd meanwhile.
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL RXTXPort(nativeStartReceiveRing)( JNIEnv *env,
+	jobject jobj, jint size )
+{
+#ifndef WIN32
+	struct receive_ring *r;
+	pthread_condattr_t attr;
+
+	if( (*env)->GetLongField( env, jobj, jfid_receiveRing ) )
+		return;
+	if( !( r = calloc( 1, sizeof( *r ) ) ) ||
+		!( r->buffer = malloc( size ) ) )
+	{
+		free( r );
+		throw_java_exception( env, IO_EXCEPTION,
+			"nativeStartReceiveRing", "out of memory" );
+		return;
+	}
+	r->fd = get_java_fd( env, jobj );
+	r->size = size;
+	if( ring_pipe( r->wakefd ) < 0 )
+		goto fail;
+	if( ring_pipe( r->notify ) < 0 )
+	{
+		close( r->wakefd[ 0 ] );
+		close( r->wakefd[ 1 ] );
+		goto fail;
+	}
+	pthread_mutex_init( &r->lock, NULL );
+	pthread_condattr_init( &attr );
+#if defined(__linux__)
+	pthread_condattr_setclock( &attr, CLOCK_MONOTONIC );
+#endif /* __linux__ */
+	pthread_cond_init( &r->changed, &attr );
+	pthread_condattr_destroy( &attr );
+	if( pthread_create( &r->tid, NULL, receive_ring_loop, r ) )
+	{
+		pthread_cond_destroy( &r->changed );
+		pthread_mutex_destroy( &r->lock );
+		close( r->wakefd[ 0 ] );
+		close( r->wakefd[ 1 ] );
+		close( r->notify[ 0 ] );
+		close( r->notify[ 1 ] );
+		goto fail;
+	}
+	pthread_mutex_lock( &ring_lock );
+	(*env)->SetLongField( env, jobj, jfid_receiveRing, ( size_t ) r );
+	pthread_mutex_unlock( &ring_lock );
+	return;
+fail:
+	throw_java_exception( env, IO_EXCEPTION, "nativeStartReceiveRing",
+		strerror( errno ) );
+	free( r->buffer );
+	free( r );
+#else
+	throw_java_exception( env, IO_EXCEPTION, "nativeStartReceiveRing",
+		"not supported" );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeStopReceiveRing
+
+   accept:      none
+   perform:     stop the drain thread and free the ring
+   return:      the bytes still in the ring, null if there was none
+   exceptions:  none
+   comments:    readers waiting in the ring return with what they
+                have.  Waits for everybody holding the ring to let go.
+----------------------------------------------------------*/
+JNIEXPORT jbyteArray JNICALL RXTXPort(nativeStopReceiveRing)( JNIEnv *env,
+	jobject jobj )
+{
+#ifndef WIN32
+	struct receive_ring *r;
+	jbyteArray left;
+	unsigned char *buffer;
+	int count;
+
+	pthread_mutex_lock( &ring_lock );
+	r = (struct receive_ring *) (size_t)
+		(*env)->GetLongField( env, jobj, jfid_receiveRing );
+	if( !r )
+	{
+		pthread_mutex_unlock( &ring_lock );
+		return( NULL );
+	}
+	(*env)->SetLongField( env, jobj, jfid_receiveRing, 0 );
+	pthread_mutex_lock( &r->lock );
+	r->stopping = 1;
+	pthread_cond_broadcast( &r->changed );
+	pthread_mutex_unlock( &r->lock );
+	while( r->users )
+		pthread_cond_wait( &ring_released, &ring_lock );
+	pthread_mutex_unlock( &ring_lock );
+
+	if( write( r->wakefd[ 1 ], "", 1 ) < 0 )
+		report_error( "nativeStopReceiveRing: wake failed\n" );
+	pthread_join( r->tid, NULL );
+	count = r->count;
+	left = (*env)->NewByteArray( env, count );
+	if( left && ( buffer = malloc( count + 1 ) ) )
+	{
+		ring_take( r, buffer, count, NULL );
+		(*env)->SetByteArrayRegion( env, left, 0, count,
+			(jbyte *) buffer );
+		free( buffer );
+	}
+	close( r->wakefd[ 0 ] );
+	close( r->wakefd[ 1 ] );
+	close( r->notify[ 0 ] );
+	close( r->notify[ 1 ] );
+	pthread_cond_destroy( &r->changed );
+	pthread_mutex_destroy( &r->lock );
+	free( r->buffer );
+	free( r );
+	return( left );
+#else
+	return( NULL );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeResizeReceiveRing
+
+   accept:      new size of the ring in bytes
+   perform:     move the ring's bytes into a buffer of the new size
+   return:      none
+   exceptions:  IOException
+   comments:    bytes that no longer fit are dropped and counted, the
+                oldest are kept.
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL RXTXPort(nativeResizeReceiveRing)( JNIEnv *env,
+	jobject jobj, jint size )
+{
+#ifndef WIN32
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+	unsigned char *buffer;
+	int count;
+
+	if( !r )
+		return;
+	if( !( buffer = malloc( size ) ) )
+	{
+		release_receive_ring( r );
+		throw_java_exception( env, IO_EXCEPTION,
+			"nativeResizeReceiveRing", "out of memory" );
+		return;
+	}
+	pthread_mutex_lock( &r->lock );
+	count = r->count < size ? r->count : size;
+	ring_copy( r, buffer, count );
+	ring_keep_stamps( r, count );
+	r->dropped += r->count - count;
+	free( r->buffer );
+	r->buffer = buffer;
+	r->size = size;
+	r->head = 0;
+	r->count = count;
+	if( r->high_water > size )
+		r->high_water = size;
+	pthread_cond_broadcast( &r->changed );
+	pthread_mutex_unlock( &r->lock );
+	release_receive_ring( r );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+RXTXPort.wakeReceiveRing
+
+   accept:      none
+   perform:     make reads waiting in the ring return what they have
+   return:      none
+   exceptions:  none
+   comments:    used by close() to get blocked readers out.
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL RXTXPort(wakeReceiveRing)( JNIEnv *env,
+	jobject jobj )
+{
+#ifndef WIN32
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+
+	if( !r )
+		return;
+	pthread_mutex_lock( &r->lock );
+	r->wakeups++;
+	pthread_cond_broadcast( &r->changed );
+	pthread_mutex_unlock( &r->lock );
+	release_receive_ring( r );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeReceiveRingHighWater
+
+   accept:      none
+   perform:     find the most bytes the ring has held
+   return:      the high water mark, 0 if there is no ring
+   exceptions:  none
+   comments:
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(nativeReceiveRingHighWater)( JNIEnv *env,
+	jobject jobj )
+{
+#ifndef WIN32
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+	jint high_water;
+
+	if( !r )
+		return( 0 );
+	pthread_mutex_lock( &r->lock );
+	high_water = r->high_water;
+	pthread_mutex_unlock( &r->lock );
+	release_receive_ring( r );
+	return( high_water );
+#else
+	return( 0 );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeReceiveRingDropped
+
+   accept:      none
+   perform:     count the bytes dropped because the ring was full
+   return:      bytes dropped, 0 if there is no ring
+   exceptions:  none
+   comments:
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL RXTXPort(nativeReceiveRingDropped)( JNIEnv *env,
+	jobject jobj )
+{
+#ifndef WIN32
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+	jlong dropped;
+
+	if( !r )
+		return( 0 );
+	pthread_mutex_lock( &r->lock );
+	dropped = r->dropped;
+	pthread_mutex_unlock( &r->lock );
+	release_receive_ring( r );
+	return( dropped );
+#else
+	return( 0 );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+read_byte_array
+
+   accept:      int                fd   file descriptor to read from
+                unsigned char *buffer   buffer to read data into
+                int            length   number of bytes to read
+		int           timeout   milliseconds to wait before returning
+   perform:     read bytes from the port into a buffer
+   return:      status of read
+                -1 fail (IOException)
+                 0 timeout
+                >0 number of bytes read
+   comments:    According to the Communications API spec, a receive threshold
+                of 1 is the same as having the threshold disabled.
+
+		The nuts and bolts are documented in
+		NativeEnableReceiveTimeoutThreshold()
+
+		The reader sleeps in poll() until data arrives or the
+		deadline (now + timeout) passes, so it wakes as soon as the
+		driver has bytes.  A negative timeout blocks until length
+		bytes have been read.
+----------------------------------------------------------*/
+
+int read_byte_array( JNIEnv *env,
+                     jobject *jobj,
+                     int fd,
+                     unsigned char *buffer,
+                     int length,
+                     int timeout )
+{
+	return read_byte_range( env, jobj, fd, buffer, length, length,
+		timeout, NULL );
+}
+
+/*----------------------------------------------------------
+read_byte_range
+
+   accept:      int                fd   file descriptor to read from
+                unsigned char *buffer   buffer to read data into
+                int           minimum   number of bytes to wait for
+                int            length   size of buffer
+		int           timeout   milliseconds to wait before returning
+		struct read_stamps *st  when each read() returned, or NULL
+   perform:     read at least minimum bytes (and whatever else is
+                already there, up to length) into a buffer
+   return:      as read_byte_array()
+   exceptions:  none
+   comments:    read_byte_array() is read_byte_range() with minimum and
+                length the same.
+----------------------------------------------------------*/
+int read_byte_range( JNIEnv *env,
+                     jobject *jobj,
+                     int fd,
+                     unsigned char *buffer,
+                     int minimum,
+                     int length,
+                     int timeout,
+                     struct read_stamps *st )
+{
+	int ret, left, bytes = 0;
+	long timeLeft = -1, deadline = 0;
+	jlong monotonic, realtime;
+	/* char msg[80]; */
+#ifndef WIN32
+	struct pollfd pfd;
+#endif /* WIN32 */
+	/* read() returning 0 with nothing to read would spin otherwise */
+	int flag = 0, empty = 0;
+	struct event_info_struct *eis = get_java_eis( env, *jobj );
+#ifndef WIN32
+	struct receive_ring *ring = acquire_receive_ring( env, *jobj );
+#endif /* WIN32 */
+
+	report_time_start();
+	if( eis )
+	{
+		flag = eis->eventflags[SPE_DATA_AVAILABLE];
+		eis->eventflags[SPE_DATA_AVAILABLE] = 0;
+	}
+/*
+	ENTER( "read_byte_array" );
+	sprintf(msg, "read_byte_array requests %i\n", length);
+	report( msg );
+*/
+	left = length;
+#ifndef WIN32
+	/* the port's drain thread has the fd, take from its ring and
+	   skip the loop below */
+	if( ring )
+	{
+		bytes = receive_ring_read( ring, buffer, minimum, length,
+			timeout, st );
+		release_receive_ring( ring );
+		left = 0;
+	}
+#endif /* WIN32 */
+	if (timeout >= 0)
+		deadline = GetTickCount() + timeout;
+	while( bytes < minimum && left > 0 && empty < 20 )
+	{
+		if (timeout >= 0) {
+			timeLeft = deadline - GetTickCount();
+			if ( timeLeft <= 0 )
+				break;
 		}
-		/* FIXME HERE Trent */
 #ifndef WIN32
+		pfd.fd = fd;
+		pfd.events = POLLIN;
+		pfd.revents = 0;
 		do {
-			ret = SELECT( fd + 1, &rset, NULL, NULL, tvP );
+			ret = poll( &pfd, 1, (int) timeLeft );
 		} while (ret < 0 && errno==EINTR);
 #else
 		ret = 1;
 #endif /* WIN32 */
 		if (ret == -1){
-			report( "read_byte_array: select returned -1\n" );
+			report( "read_byte_array: poll returned -1\n" );
 			LEAVE( "read_byte_array" );
-			eis->eventflags[SPE_DATA_AVAILABLE] = flag;
-			return -1;
+			bytes = -1;
+			break;
 		}
-		else if (ret > 0)
+		else if (ret == 0)
 		{
-			if ((ret = READ( fd, buffer + bytes, left )) < 0 ){
-				if (errno != EINTR && errno != EAGAIN){
-					report( "read_byte_array: read returned -1\n" );
-					LEAVE( "read_byte_array" );
-					eis->eventflags[SPE_DATA_AVAILABLE] = flag;
-					return -1;
-				}
-				eis->eventflags[SPE_DATA_AVAILABLE] = flag;
-				return -1;
-			}
-			else if ( ret ) {
-				bytes += ret;
-				left -= ret;
-			}
-		/*
-		The only thing that is bugging me with the new
-		version is the CPU usage when reading on the serial port.  I
-		looked at it today and find a quick fix.  It doesn't seems to
-		affect the performance for our apps (I mean in a negative way,
-		cause the CPU is back to normal, near 0-5%).  All I did is add
-		a usleep in the reading function.
-
-		Nicolas <ripley@8d.com>
-		*/
-			else {
-				/* usleep(10); */
-				usleep(1000);
-			}
+			/* deadline passed with nothing to read */
+			break;
+		}
+		ret = READ( fd, buffer + bytes, left );
+		if( ret > 0 && st )
+		{
+			stamp_now( &monotonic, &realtime );
+			stamp_chunk( st, bytes, ret, monotonic, realtime );
+		}
+		if ( ret < 0 ){
+			if (errno == EINTR || errno == EAGAIN)
+				continue;
+			report( "read_byte_array: read returned -1\n" );
+			LEAVE( "read_byte_array" );
+			bytes = -1;
+			break;
+		}
+		else if ( ret ) {
+			bytes += ret;
+			left -= ret;
+			empty = 0;
+		}
+		else {
+			empty++;
+#ifdef WIN32
+			/* serial_read() returned without data, don't spin */
+			usleep(1000);
+#else
+			/* the other end hung up; there is nothing to wait for */
+			if( pfd.revents & POLLHUP )
+				break;
+#endif /* WIN32 */
 		}
 	}
 
 /*
-	if( count > 19 )
-	{
-		throw_java_exception( env, IO_EXCEPTION, "read_byte_array",
-			"No data available" );
-	}
-
 	sprintf(msg, "read_byte_array returns %i\n", bytes);
 	report( msg );
 	LEAVE( "read_byte_array" );
 	report_time_end();
 */
-	eis->eventflags[SPE_DATA_AVAILABLE] = flag;
+	/* the port may have been closed while we were reading */
+	if( eis && get_java_eis( env, *jobj ) )
+		eis->eventflags[SPE_DATA_AVAILABLE] = flag;
+	else
+		report("read_byte_array(): eis was null, this can happen if reading after RXTXPort.run() returns while reading.");
 	return bytes;
 }
 
@@ -3340,7 +4490,7 @@ NativeEnableReceiveTimeoutThreshold
 JNIEXPORT void JNICALL RXTXPort(NativeEnableReceiveTimeoutThreshold)(
 	JNIEnv *env, jobject jobj, jint vtime, jint threshold, jint buffer)
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	struct termios ttyset;
 	int timeout;
 
@@ -3508,8 +4658,8 @@ JNIEXPORT jint JNICALL RXTXPort(readByte)( JNIEnv *env,
 {
 	int bytes;
 	unsigned char buffer[ 1 ];
-	int fd = get_java_var( env, jobj,"fd","I" );
-	int timeout = get_java_var( env, jobj, "timeout", "I" );
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
 	/* char msg[80]; */
 
 /*
@@ -3550,8 +4700,8 @@ JNIEXPORT jint JNICALL RXTXPort(readArray)( JNIEnv *env,
 	int bytes;
 	jbyte *body;
 	/* char msg[80]; */
-	int fd = get_java_var( env, jobj, "fd", "I" );
-	int timeout = get_java_var( env, jobj, "timeout", "I" );
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
 
 /*
 	ENTER( "readArray" );
@@ -3565,26 +4715,227 @@ JNIEXPORT jint JNICALL RXTXPort(readArray)( JNIEnv *env,
 		report( "RXTXPort:readArray length > SSIZE_MAX" );
 		LEAVE( "RXTXPort:readArray" );
 		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
-			"readArray", "Invalid length" );
+			"readArray", "Invalid length" );
+		return -1;
+	}
+	body = (*env)->GetByteArrayElements( env, jbarray, 0 );
+	bytes = read_byte_array( env, &jobj, fd, (unsigned char *)(body+offset), length, timeout );/* dima */
+	(*env)->ReleaseByteArrayElements( env, jbarray, body, 0 );
+	if( bytes < 0 ) {
+		report( "RXTXPort:readArray bytes < 0" );
+		LEAVE( "RXTXPort:readArray" );
+		throw_java_exception( env, IO_EXCEPTION, "readArray",
+			strerror( errno ) );
+		return -1;
+	}
+/*
+	sprintf( msg, "RXTXPort:readArray: %i %i\n", (int) length, bytes);
+	report( msg );
+	report_time_end( );
+	LEAVE( "RXTXPort:readArray" );
+*/
+	return (bytes);
+}
+
+/*----------------------------------------------------------
+RXTXPort.readDirect
+
+   accept:       jbuffer: direct java.nio.ByteBuffer to read into
+                 offset (offset to start storing data in the buffer) and
+                 Length (bytes to read)
+   perform:      read bytes from the port straight into the memory
+                 backing the buffer
+   return:       bytes read on success
+                 0 on read timeout
+   exceptions:   IOException
+   comments:     throws ArrayIndexOutOfBoundsException if the region
+                 does not fit in the buffer.  The Java side only calls
+                 this for direct buffers.
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(readDirect)( JNIEnv *env,
+	jobject jobj, jobject jbuffer, jint offset, jint length )
+{
+	int bytes;
+	unsigned char *body;
+	jlong capacity;
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
+
+	body = (unsigned char *) (*env)->GetDirectBufferAddress( env, jbuffer );
+	capacity = (*env)->GetDirectBufferCapacity( env, jbuffer );
+	if( !body )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "readDirect",
+			"direct buffer access not supported" );
+		return -1;
+	}
+	if( offset < 0 || length < 0 || (size_t) length > SSIZE_MAX ||
+		(jlong) offset + length > capacity )
+	{
+		report( "RXTXPort:readDirect invalid offset/length" );
+		LEAVE( "RXTXPort:readDirect" );
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"readDirect", "Invalid length" );
+		return -1;
+	}
+	bytes = read_byte_array( env, &jobj, fd, body + offset, length, timeout );
+	if( bytes < 0 ) {
+		report( "RXTXPort:readDirect bytes < 0" );
+		LEAVE( "RXTXPort:readDirect" );
+		throw_java_exception( env, IO_EXCEPTION, "readDirect",
+			strerror( errno ) );
+		return -1;
+	}
+	return (bytes);
+}
+
+/*----------------------------------------------------------
+RXTXPort.readStamped
+
+   accept:       jdst: a direct java.nio.ByteBuffer or a byte array,
+                 offset and length as for readDirect(), jstamps: room
+                 for READ_STAMPS chunks as in struct read_stamps
+   perform:      read bytes from the port, noting when each read()
+                 returned
+   return:       bytes read in the low 32 bits, 0 on read timeout, and
+                 the number of chunks in jstamps in the high 32 bits
+   exceptions:   IOException
+   comments:     throws ArrayIndexOutOfBoundsException if the region
+                 does not fit.  Chunk offsets count from offset.
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL RXTXPort(readStamped)( JNIEnv *env,
+	jobject jobj, jobject jdst, jint offset, jint length,
+	jlongArray jstamps )
+{
+	int bytes;
+	unsigned char *body;
+	jlong capacity;
+	jboolean direct = JNI_TRUE;
+	struct read_stamps st;
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
+
+	body = (unsigned char *) (*env)->GetDirectBufferAddress( env, jdst );
+	capacity = (*env)->GetDirectBufferCapacity( env, jdst );
+	if( !body )
+	{
+		direct = JNI_FALSE;
+		capacity = (*env)->GetArrayLength( env, (jbyteArray) jdst );
+	}
+	if( offset < 0 || length < 0 || (size_t) length > SSIZE_MAX ||
+		(jlong) offset + length > capacity ||
+		(*env)->GetArrayLength( env, jstamps ) < 3 * READ_STAMPS )
+	{
+		report( "RXTXPort:readStamped invalid offset/length" );
+		LEAVE( "RXTXPort:readStamped" );
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"readStamped", "Invalid length" );
 		return -1;
 	}
-	body = (*env)->GetByteArrayElements( env, jbarray, 0 );
-	bytes = read_byte_array( env, &jobj, fd, (unsigned char *)(body+offset), length, timeout );/* dima */
-	(*env)->ReleaseByteArrayElements( env, jbarray, body, 0 );
+	if( !direct )
+		body = (unsigned char *) (*env)->GetByteArrayElements( env,
+			(jbyteArray) jdst, 0 );
+	st.max = READ_STAMPS;
+	st.n = 0;
+	bytes = read_byte_range( env, &jobj, fd, body + offset, length,
+		length, timeout, &st );
+	if( !direct )
+		(*env)->ReleaseByteArrayElements( env, (jbyteArray) jdst,
+			(jbyte *) body, 0 );
 	if( bytes < 0 ) {
-		report( "RXTXPort:readArray bytes < 0" );
-		LEAVE( "RXTXPort:readArray" );
-		throw_java_exception( env, IO_EXCEPTION, "readArray",
+		report( "RXTXPort:readStamped bytes < 0" );
+		LEAVE( "RXTXPort:readStamped" );
+		throw_java_exception( env, IO_EXCEPTION, "readStamped",
 			strerror( errno ) );
 		return -1;
 	}
-/*
-	sprintf( msg, "RXTXPort:readArray: %i %i\n", (int) length, bytes);
-	report( msg );
-	report_time_end( );
-	LEAVE( "RXTXPort:readArray" );
-*/
-	return (bytes);
+	(*env)->SetLongArrayRegion( env, jstamps, 0, 3 * st.n, st.stamps );
+	return ( (jlong) st.n << 32 ) | (jlong) bytes;
+}
+
+/*----------------------------------------------------------
+RXTXPort.readAvailable
+
+   accept:       jdst: a direct java.nio.ByteBuffer or a byte array,
+                 offset and length as for readDirect()
+   perform:      read what the driver already has, up to length bytes
+   return:       bytes read, 0 if there was nothing, -1 after a hang up
+   exceptions:   IOException
+   comments:     never waits, for polled I/O.  The fd is blocking, so
+                 FIONREAD says how much a read() can take at once.
+                 Small reads into an array go through a slice of the
+                 stack, as in writeArray().
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(readAvailable)( JNIEnv *env,
+	jobject jobj, jobject jdst, jint offset, jint length )
+{
+#ifndef WIN32
+	int fd = get_java_fd( env, jobj );
+	int avail = 0, bytes;
+	unsigned char *body;
+	unsigned char slice[ 4096 ];
+	jlong capacity;
+	struct pollfd pfd;
+
+	body = (unsigned char *) (*env)->GetDirectBufferAddress( env, jdst );
+	capacity = body ? (*env)->GetDirectBufferCapacity( env, jdst ) :
+		(*env)->GetArrayLength( env, (jbyteArray) jdst );
+	if( offset < 0 || length < 0 || (jlong) offset + length > capacity )
+	{
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"readAvailable", "Invalid length" );
+		return -1;
+	}
+	if( ioctl( fd, FIONREAD, &avail ) < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "readAvailable",
+			strerror( errno ) );
+		return -1;
+	}
+	if( avail <= 0 )
+	{
+		/* readable with nothing to read is a hang up */
+		pfd.fd = fd;
+		pfd.events = POLLIN;
+		pfd.revents = 0;
+		if( poll( &pfd, 1, 0 ) > 0 &&
+			( pfd.revents & ( POLLHUP | POLLERR ) ) )
+			return -1;
+		return 0;
+	}
+	if( length > avail )
+		length = avail;
+	if( !body && length <= (jint) sizeof( slice ) )
+	{
+		bytes = READ( fd, slice, length );
+		if( bytes > 0 )
+			(*env)->SetByteArrayRegion( env, (jbyteArray) jdst,
+				offset, bytes, (jbyte *) slice );
+	}
+	else if( !body )
+	{
+		body = (unsigned char *) (*env)->GetByteArrayElements( env,
+			(jbyteArray) jdst, 0 );
+		bytes = READ( fd, body + offset, length );
+		(*env)->ReleaseByteArrayElements( env, (jbyteArray) jdst,
+			(jbyte *) body, 0 );
+	}
+	else
+		bytes = READ( fd, body + offset, length );
+	if( bytes < 0 && ( errno == EINTR || errno == EAGAIN ) )
+		return 0;
+	if( bytes < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "readAvailable",
+			strerror( errno ) );
+		return -1;
+	}
+	return( bytes ? bytes : -1 );
+#else
+	throw_java_exception( env, IO_EXCEPTION, "readAvailable",
+		"not supported" );
+	return -1;
+#endif /* WIN32 */
 }
 
 /*----------------------------------------------------------
@@ -3599,82 +4950,316 @@ RXTXPort.nativeClearCommInput
 JNIEXPORT jboolean JNICALL RXTXPort(nativeClearCommInput)( JNIEnv *env,
 	jobject jobj )
 {
-	int fd = get_java_var( env, jobj, "fd", "I" );
+	int fd = get_java_fd( env, jobj );
+#ifndef WIN32
+	struct receive_ring *r = acquire_receive_ring( env, jobj );
+
+	if( r )
+	{
+		pthread_mutex_lock( &r->lock );
+		r->head = r->count = 0;
+		r->stamp_head = r->stamp_count = 0;
+		pthread_cond_broadcast( &r->changed );
+		pthread_mutex_unlock( &r->lock );
+		release_receive_ring( r );
+	}
+#endif /* WIN32 */
 	if ( tcflush( fd, TCIFLUSH ) )
 		return( JNI_FALSE );
 	return( JNI_TRUE );
 }
+/*----------------------------------------------------------
+find_terminator
+
+   accept:      buffer and its length, terminator and its length
+   perform:     find the first occurrence of the terminator
+   return:      offset of the terminator in the buffer, -1 if none
+   exceptions:  none
+   comments:    memchr() for the first byte, memcmp() for the rest.
+----------------------------------------------------------*/
+static int find_terminator( unsigned char *buffer, int length,
+	unsigned char *terminator, int tlength )
+{
+	unsigned char *p = buffer, *end = buffer + length - tlength + 1;
+
+	if( tlength <= 0 || length < tlength )
+		return -1;
+	while( p < end && ( p = memchr( p, terminator[ 0 ], end - p ) ) )
+	{
+		if( !memcmp( p, terminator, tlength ) )
+			return (int) ( p - buffer );
+		p++;
+	}
+	return -1;
+}
+
 /*----------------------------------------------------------
 RXTXPort.readTerminatedArray
 
-   accept:       offset (offset to start storing data in the jbarray) and
-                 Length (bytes to read).  Terminator - 2 bytes that we
-		 dont read past
-   perform:      read bytes from the port into a byte array
-   return:       bytes read on success
-                 0 on read timeout
+   accept:       offset (offset to start storing data in the jbarray),
+                 Length (bytes to read), the terminator (any length)
+                 which we don't read past, and the bytes left over from
+                 the last call (have bytes of jrest from restOffset)
+   perform:      read bytes from the port into a byte array until the
+                 terminator, length bytes or the receive timeout
+   return:       bytes stored in jbarray in the low 32 bits, the number
+                 of bytes now left over at the start of jrest in the
+                 high 32 bits
    exceptions:   IOException
    comments:     throws ArrayIndexOutOfBoundsException if asked to
                  read more than SSIZE_MAX bytes
-		 timeout is not properly handled
+
+		 Whatever the driver has is read in one go and scanned for
+		 the terminator.  Bytes past it go back to the caller in
+		 jrest, which must hold at least max( have, length ) bytes,
+		 for the next read to start with.
 
 		 This is an extension to commapi.
 ----------------------------------------------------------*/
-JNIEXPORT jint JNICALL RXTXPort(readTerminatedArray)( JNIEnv *env,
+JNIEXPORT jlong JNICALL RXTXPort(readTerminatedArray)( JNIEnv *env,
 	jobject jobj, jbyteArray jbarray, jint offset, jint length,
-	jbyteArray jterminator )
+	jbyteArray jterminator, jbyteArray jrest, jint restOffset, jint have )
 {
-	int bytes, total = 0;
-	jbyte *body, *terminator;
+	int bytes, filled, scanned = 0, found = -1, result, size;
+	jint tlength = (*env)->GetArrayLength( env, jterminator );
+	unsigned char stack[ 4096 ], *buffer = stack;
+	unsigned char tstack[ 16 ], *terminator = tstack;
+	long deadline = 0, left = -1;
 	/* char msg[80]; */
-	int fd = get_java_var( env, jobj, "fd", "I" );
-	int timeout = get_java_var( env, jobj, "timeout", "I" );
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
 
 /*
-	ENTER( "readArray" );
+	ENTER( "readTerminatedArray" );
 	report_time_start( );
 */
-#ifdef __LCC__
-	if( (size_t) length > SSIZE_MAX ) {
-#else
-	if( (size_t) length > SSIZE_MAX || (size_t) length < 0 ) {
-#endif /* __LCC__ */
-		report( "RXTXPort:readArray length > SSIZE_MAX" );
-		LEAVE( "RXTXPort:readArray" );
+	if( length < 0 || (size_t) length > SSIZE_MAX || have < 0 ) {
+		report( "RXTXPort:readTerminatedArray length > SSIZE_MAX" );
+		LEAVE( "RXTXPort:readTerminatedArray" );
 		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
-			"readArray", "Invalid length" );
+			"readTerminatedArray", "Invalid length" );
 		return -1;
 	}
-	body = (*env)->GetByteArrayElements( env, jbarray, 0 );
-	terminator = (*env)->GetByteArrayElements( env, jterminator, 0 );
-	do
-	{
-		bytes = read_byte_array( env, &jobj, fd, (unsigned char *)(body+offset + total ), 1 , timeout );/* dima */
-		total += bytes;
-		if( bytes < 0 ) {
-			report( "RXTXPort:readArray bytes < 0" );
-			LEAVE( "RXTXPort:readArray" );
-			throw_java_exception( env, IO_EXCEPTION, "readArray",
-				strerror( errno ) );
-			return -1;
-		}
-		if ( total > 1 && terminator[1] ==  body[total -1] &&
-			terminator[ 0 ] == body[ total -2 ]
-		)
+	size = length > have ? length : have;
+	if( size > (int) sizeof( stack ) &&
+		!( buffer = malloc( size ) ) )
+		goto oom;
+	if( tlength > (jint) sizeof( tstack ) &&
+		!( terminator = malloc( tlength ) ) )
+		goto oom;
+	(*env)->GetByteArrayRegion( env, jterminator, 0, tlength,
+		(jbyte *) terminator );
+	(*env)->GetByteArrayRegion( env, jrest, restOffset, have,
+		(jbyte *) buffer );
+	if( (*env)->ExceptionCheck( env ) )
+		goto done;
+	filled = have;
+	if( timeout >= 0 )
+		deadline = GetTickCount() + timeout;
+	while( 1 )
+	{
+		/* a terminator may straddle what we had and what we read */
+		scanned = scanned > tlength - 1 ? scanned - tlength + 1 : 0;
+		found = find_terminator( buffer + scanned,
+			( filled < length ? filled : length ) - scanned,
+			terminator, tlength );
+		if( found >= 0 )
 		{
-			report("Got terminator!\n" );
+			found += scanned + tlength;
+			report( "Got terminator!\n" );
 			break;
 		}
-
-	} while ( bytes > 0 && total < length );
-	(*env)->ReleaseByteArrayElements( env, jbarray, body, 0 );
+		scanned = filled < length ? filled : length;
+		if( filled >= length )
+			break;
+		if( timeout >= 0 )
+		{
+			left = deadline - GetTickCount();
+			if( left <= 0 )
+				break;
+		}
+		/* whatever the driver has, but wait for one byte at least */
+		bytes = read_byte_range( env, &jobj, fd, buffer + filled, 1,
+			length - filled, (int) left, NULL );
+		if( bytes < 0 ) {
+			report( "RXTXPort:readTerminatedArray bytes < 0" );
+			LEAVE( "RXTXPort:readTerminatedArray" );
+			throw_java_exception( env, IO_EXCEPTION,
+				"readTerminatedArray", strerror( errno ) );
+			goto done;
+		}
+		if( bytes == 0 )
+			break;
+		filled += bytes;
+	}
+	result = found >= 0 ? found : ( filled < length ? filled : length );
+	(*env)->SetByteArrayRegion( env, jbarray, offset, result,
+		(jbyte *) buffer );
+	(*env)->SetByteArrayRegion( env, jrest, 0, filled - result,
+		(jbyte *) buffer + result );
+	if( buffer != stack ) free( buffer );
+	if( terminator != tstack ) free( terminator );
 /*
-	sprintf( msg, "RXTXPort:readArray: %i %i\n", (int) length, bytes);
+	sprintf( msg, "RXTXPort:readTerminatedArray: %i %i\n", (int) length, result);
 	report( msg );
 	report_time_end( );
-	LEAVE( "RXTXPort:readArray" );
+	LEAVE( "RXTXPort:readTerminatedArray" );
 */
-	return (bytes);
+	return ( (jlong) ( filled - result ) << 32 ) | (jlong) result;
+oom:
+	throw_java_exception( env, IO_EXCEPTION, "readTerminatedArray",
+		"out of memory" );
+done:
+	if( buffer != stack ) free( buffer );
+	if( terminator != tstack ) free( terminator );
+	return -1;
+}
+
+/*----------------------------------------------------------
+RXTXPort.readFrame
+
+   accept:      offset and length of the frame in jbarray, the number
+                of bytes of it the caller has there already (have), the
+                gap in microseconds of silence that ends a frame and
+                the nanoseconds one character takes on the line
+   perform:     read bytes from the port until the line has been idle
+                for gap, or length bytes
+   return:      the length of the frame, have included, 0 if the
+                receive timeout expired before a first byte
+   exceptions:  IOException
+   comments:    the receive timeout is how long to wait for the first
+                byte.  After that every byte has to follow the read()
+                before within gap; the frame ends when nothing can be
+                read at that deadline, so a reader that was held up
+                past it still takes bytes which came in time.  select()
+                takes the wait in microseconds; Windows only gets whole
+                milliseconds.
+                Bytes past length are the start of the next frame.
+                With the port's receive ring the drain thread's times
+                are used instead, see receive_ring_frame().
+
+		 This is an extension to commapi.
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(readFrame)( JNIEnv *env, jobject jobj,
+	jbyteArray jbarray, jint offset, jint length, jint have, jint gap,
+	jlong character )
+{
+	unsigned char stack[ 4096 ], *buffer = stack;
+	int fd = get_java_fd( env, jobj );
+	int timeout = get_java_timeout( env, jobj );
+	int size = length - have, bytes = 0, ret, flag = 0;
+	jlong last, now, wait, realtime, nanos = (jlong) gap * 1000;
+	struct event_info_struct *eis;
+#ifndef WIN32
+	struct receive_ring *ring;
+	struct timeval tv;
+	struct pollfd pfd;
+	fd_set rfds;
+#endif /* WIN32 */
+
+	if( have < 0 || length < have || gap < 0 )
+	{
+		throw_java_exception( env, ARRAY_INDEX_OUT_OF_BOUNDS,
+			"readFrame", "Invalid length" );
+		return -1;
+	}
+	if( size > (int) sizeof( stack ) && !( buffer = malloc( size ) ) )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "readFrame",
+			"out of memory" );
+		return -1;
+	}
+	/* no DATA_AVAILABLE for the bytes we are about to read */
+	eis = get_java_eis( env, jobj );
+	if( eis )
+	{
+		flag = eis->eventflags[SPE_DATA_AVAILABLE];
+		eis->eventflags[SPE_DATA_AVAILABLE] = 0;
+	}
+#ifndef WIN32
+	ring = acquire_receive_ring( env, jobj );
+	if( ring )
+	{
+		bytes = receive_ring_frame( ring, buffer, size, timeout,
+			nanos, character, have > 0 );
+		release_receive_ring( ring );
+		goto done;
+	}
+#endif /* WIN32 */
+	if( !have )
+	{
+		bytes = read_byte_range( env, &jobj, fd, buffer, 1, size,
+			timeout, NULL );
+		if( bytes <= 0 )
+			goto done;
+	}
+	stamp_now( &last, &realtime );
+	while( bytes < size )
+	{
+		stamp_now( &now, &realtime );
+		wait = last + nanos - now;
+		if( wait < 0 )
+			wait = 0;
+#ifndef WIN32
+		if( fd < FD_SETSIZE )
+		{
+			FD_ZERO( &rfds );
+			FD_SET( fd, &rfds );
+			tv.tv_sec = wait / 1000000000L;
+			tv.tv_usec = ( wait % 1000000000L + 999 ) / 1000;
+			ret = select( fd + 1, &rfds, NULL, NULL, &tv );
+		}
+		else
+		{
+			/* too high for an fd_set, wait in milliseconds */
+			pfd.fd = fd;
+			pfd.events = POLLIN;
+			ret = poll( &pfd, 1, (int) ( ( wait + 999999 ) / 1000000 ) );
+		}
+		if( ret < 0 && errno != EINTR )
+		{
+			bytes = -1;
+			break;
+		}
+		if( ret < 0 )
+			continue;
+		/* quiet until the deadline, one last look after waking */
+		if( ret == 0 && !wait )
+			break;
+		if( ret == 0 )
+			continue;
+		ret = READ( fd, buffer + bytes, size - bytes );
+		if( ret < 0 && ( errno == EINTR || errno == EAGAIN ) )
+			continue;
+#else
+		ret = read_byte_range( env, &jobj, fd, buffer + bytes, 1,
+			size - bytes, (int) ( ( wait + 999999 ) / 1000000 ), NULL );
+#endif /* WIN32 */
+		if( ret < 0 )
+		{
+			bytes = -1;
+			break;
+		}
+		/* nothing left to wait for once the other end hung up */
+		if( ret == 0 )
+			break;
+		stamp_now( &last, &realtime );
+		bytes += ret;
+	}
+done:
+	if( eis && get_java_eis( env, jobj ) )
+		eis->eventflags[SPE_DATA_AVAILABLE] = flag;
+	if( bytes < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "readFrame",
+			strerror( errno ) );
+		if( buffer != stack ) free( buffer );
+		return -1;
+	}
+	(*env)->SetByteArrayRegion( env, jbarray, offset + have, bytes,
+		(jbyte *) buffer );
+	if( buffer != stack ) free( buffer );
+	return( have + bytes );
 }
 
 /*----------------------------------------------------------
@@ -3689,7 +5274,7 @@ RXTXPort.nativeavailable
 JNIEXPORT jint JNICALL RXTXPort(nativeavailable)( JNIEnv *env,
 	jobject jobj )
 {
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 	int result=-1;
 /*
 	char message[80];
@@ -3714,6 +5299,9 @@ JNIEXPORT jint JNICALL RXTXPort(nativeavailable)( JNIEnv *env,
 	if (result == -1) {
 		goto fail;
 	}
+#ifndef WIN32
+	result += receive_ring_pending( env, jobj, 0 );
+#endif /* WIN32 */
 /*
 	sprintf(message, "    nativeavailable: FIORDCHK result %d, \
 		errno %d\n", result , result == -1 ? errno : 0);
@@ -3756,7 +5344,7 @@ JNIEXPORT void JNICALL RXTXPort(setflowcontrol)( JNIEnv *env,
 	jobject jobj, jint flowmode )
 {
 	struct termios ttyset;
-	int fd = get_java_var( env, jobj,"fd","I" );
+	int fd = get_java_fd( env, jobj );
 
 	ENTER( "RXTXPort:setflowcontrol" );
 	if( tcgetattr( fd, &ttyset ) ) goto fail;
@@ -3800,6 +5388,9 @@ unlock_monitor_thread
    return:      none
    exceptions:  none
    comments:    Events can be missed otherwise.
+
+		RXTXPort.unlockMonitorThread() wakes the threads waiting
+		in waitForTheNativeCodeSilly() straight away.
 ----------------------------------------------------------*/
 
 void unlock_monitor_thread( struct event_info_struct *eis )
@@ -3807,8 +5398,7 @@ void unlock_monitor_thread( struct event_info_struct *eis )
 	JNIEnv *env = eis->env;
 	jobject jobj = *(eis->jobj);
 
-	jfieldID jfid = (*env)->GetFieldID( env, (*env)->GetObjectClass( env, jobj ), "MonitorThreadLock", "Z" );
-	(*env)->SetBooleanField( env, jobj, jfid, (jboolean) 0 );
+	(*env)->CallVoidMethod( env, jobj, jmid_unlockMonitorThread );
 }
 
 /*----------------------------------------------------------
@@ -3954,6 +5544,10 @@ int port_has_changed_fionread( struct event_info_struct *eis )
 	char message[80];
 
 	rc = ioctl( eis->fd, FIONREAD, &change );
+#ifndef WIN32
+	if( rc != -1 )
+		change += receive_ring_pending( eis->env, *eis->jobj, 1 );
+#endif /* WIN32 */
 	sprintf( message, "port_has_changed_fionread: change is %i ret is %i\n", change, eis->ret );
 	report_verbose( message );
 #if defined(__unixware__) || defined(__sun__)
@@ -3980,6 +5574,8 @@ check_tiocmget_changes
    return:      none
    exceptions:  none
    comments:    not supported on all devices/drivers.
+		While the TIOCMIWAIT watcher runs it sends these events,
+		so only the old flags are kept up to date here.
 ----------------------------------------------------------*/
 void check_tiocmget_changes( struct event_info_struct * eis )
 {
@@ -3997,6 +5593,12 @@ void check_tiocmget_changes( struct event_info_struct * eis )
 		report( "check_tiocmget_changes: ioctl(TIOCMGET)\n" );
 		return;
 	}
+	if( (*eis->env)->GetBooleanField( eis->env, *eis->jobj,
+		jfid_modemLinesWatched ) )
+	{
+		eis->omflags = mflags;
+		return;
+	}
 
 	change = (mflags&TIOCM_CTS) - (eis->omflags&TIOCM_CTS);
 	if( eis && change ) send_event( eis, SPE_CTS, change );
@@ -4019,6 +5621,151 @@ void check_tiocmget_changes( struct event_info_struct * eis )
 	report_verbose("leaving check_tiocmget_changes\n");
 }
 
+#if defined(__linux__) && defined(TIOCMIWAIT) && defined(TIOCGICOUNT)
+/* wakes the modem watcher out of TIOCMIWAIT; the JVM leaves it alone */
+#define MODEM_WAIT_SIGNAL ( SIGRTMIN + 1 )
+
+static void modem_wait_signal( int sig )
+{
+}
+
+/*----------------------------------------------------------
+read_modem_lines
+
+   accept:      fd and room for 5 ints
+   perform:     read the CTS, DSR, RI and CD edge counts with
+		TIOCGICOUNT and the line states with TIOCMGET
+   return:      0 on success, -1 with errno set on failure
+   exceptions:  none
+   comments:    lines[4] has bit 0 to 3 set for CTS, DSR, RI and CD,
+		in the order of the SerialPortEvent constants.
+----------------------------------------------------------*/
+static int read_modem_lines( int fd, jint lines[5] )
+{
+	struct serial_icounter_struct sis;
+	unsigned int mflags;
+
+	if( ioctl( fd, TIOCGICOUNT, &sis ) || ioctl( fd, TIOCMGET, &mflags ) )
+		return -1;
+	lines[0] = sis.cts;
+	lines[1] = sis.dsr;
+	lines[2] = sis.rng;
+	lines[3] = sis.dcd;
+	lines[4] = ( mflags & TIOCM_CTS ? 1 : 0 ) |
+		( mflags & TIOCM_DSR ? 2 : 0 ) |
+		( mflags & TIOCM_RNG ? 4 : 0 ) |
+		( mflags & TIOCM_CD ? 8 : 0 );
+	return 0;
+}
+#endif /* __linux__ && TIOCMIWAIT && TIOCGICOUNT */
+
+/*----------------------------------------------------------
+RXTXPort.modemWatchInit
+
+   accept:      int lines[5]
+   perform:     get the calling thread ready to wait in TIOCMIWAIT
+		and read the starting counts and states into lines
+   return:      the calling thread's pthread_t, 0 if the port or
+		platform has no TIOCMIWAIT and TIOCGICOUNT
+   exceptions:  none
+   comments:    ptys and some USB drivers lack TIOCGICOUNT; they have
+		no TIOCMIWAIT either, so that is the test.
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL RXTXPort(modemWatchInit)( JNIEnv *env,
+	jobject jobj, jintArray jlines )
+{
+#if defined(__linux__) && defined(TIOCMIWAIT) && defined(TIOCGICOUNT)
+	static int installed = 0;
+	struct sigaction action;
+	sigset_t mask;
+	jint lines[5];
+	int fd = get_java_fd( env, jobj );
+
+	ENTER( "RXTXPort:modemWatchInit" );
+	if( read_modem_lines( fd, lines ) )
+	{
+		report( "modemWatchInit: no TIOCGICOUNT\n" );
+		LEAVE( "RXTXPort:modemWatchInit" );
+		return 0;
+	}
+	(*env)->SetIntArrayRegion( env, jlines, 0, 5, lines );
+	if( !installed )
+	{
+		/* no SA_RESTART, the ioctl has to come back with EINTR */
+		memset( &action, 0, sizeof( action ) );
+		action.sa_handler = modem_wait_signal;
+		sigemptyset( &action.sa_mask );
+		sigaction( MODEM_WAIT_SIGNAL, &action, NULL );
+		installed = 1;
+	}
+	sigemptyset( &mask );
+	sigaddset( &mask, MODEM_WAIT_SIGNAL );
+	pthread_sigmask( SIG_UNBLOCK, &mask, NULL );
+	LEAVE( "RXTXPort:modemWatchInit" );
+	return (jlong) pthread_self();
+#else
+	return 0;
+#endif /* __linux__ && TIOCMIWAIT && TIOCGICOUNT */
+}
+
+/*----------------------------------------------------------
+RXTXPort.waitModemLines
+
+   accept:      int lines[5]
+   perform:     block in TIOCMIWAIT until CTS, DSR, RI or CD changes,
+		then read the counts and states into lines
+   return:      0, or -1 if interruptModemWait() woke us up
+   exceptions:  IOException
+   comments:    called on the thread modemWatchInit() returned
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL RXTXPort(waitModemLines)( JNIEnv *env,
+	jobject jobj, jintArray jlines )
+{
+#if defined(__linux__) && defined(TIOCMIWAIT) && defined(TIOCGICOUNT)
+	jint lines[5];
+	int fd = get_java_fd( env, jobj );
+
+	if( ioctl( fd, TIOCMIWAIT, TIOCM_CTS | TIOCM_DSR | TIOCM_RNG |
+		TIOCM_CD ) )
+	{
+		if( errno == EINTR )
+			return -1;
+		throw_java_exception( env, IO_EXCEPTION, "waitModemLines",
+			strerror( errno ) );
+		return -1;
+	}
+	if( read_modem_lines( fd, lines ) )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "waitModemLines",
+			strerror( errno ) );
+		return -1;
+	}
+	(*env)->SetIntArrayRegion( env, jlines, 0, 5, lines );
+	return 0;
+#else
+	throw_java_exception( env, IO_EXCEPTION, "waitModemLines",
+		"TIOCMIWAIT is not supported" );
+	return -1;
+#endif /* __linux__ && TIOCMIWAIT && TIOCGICOUNT */
+}
+
+/*----------------------------------------------------------
+RXTXPort.interruptModemWait
+
+   accept:      pthread_t from modemWatchInit()
+   perform:     signal that thread out of TIOCMIWAIT
+   return:      none
+   exceptions:  none
+   comments:    the Java side only calls this while the thread is alive
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL RXTXPort(interruptModemWait)( JNIEnv *env,
+	jobject jobj, jlong tid )
+{
+#if defined(__linux__) && defined(TIOCMIWAIT) && defined(TIOCGICOUNT)
+	pthread_kill( (pthread_t) tid, MODEM_WAIT_SIGNAL );
+#endif /* __linux__ && TIOCMIWAIT && TIOCGICOUNT */
+}
+
 /*----------------------------------------------------------
 system_wait
 
@@ -4081,6 +5828,100 @@ int driver_has_tiocgicount( struct event_info_struct * eis )
 #endif  /*  TIOCGICOUNT */
 }
 
+/*----------------------------------------------------------
+push_received_data
+
+   accept:      event_info_struct
+   perform:     read what the driver has into RXTXPort.pushBuffer and
+                hand it to RXTXPort.dataReceived(), with the time the
+                read() returned, until it is all gone
+   return:      1 if the port has a data listener, 0 if not
+   exceptions:  none
+   comments:    the read does not block, FIONREAD says the bytes are
+                there.  A port that keeps the loop busy is let go after
+                16 rounds so the other events get a look in.  With a
+                receive_ring the bytes come out of the ring instead,
+                one read() of the drain thread at a time so they all
+                have the same time.
+----------------------------------------------------------*/
+static int push_received_data( struct event_info_struct *eis )
+{
+	JNIEnv *env = eis->env;
+	jobject jobj = *eis->jobj;
+	jbyteArray jbuffer;
+	jbyte *body;
+	jint size;
+	int avail = 0, bytes, rounds = 0;
+	jlong monotonic = 0, realtime = 0;
+#ifndef WIN32
+	struct receive_ring *ring;
+	struct read_stamps st;
+#endif /* WIN32 */
+
+	jbuffer = (jbyteArray) (*env)->GetObjectField( env, jobj,
+		jfid_pushBuffer );
+	if( !jbuffer )
+		return( 0 );
+	size = (*env)->GetArrayLength( env, jbuffer );
+#ifndef WIN32
+	ring = acquire_receive_ring( env, jobj );
+#endif /* WIN32 */
+	while( rounds++ < 16 && !eis->closing )
+	{
+#ifndef WIN32
+		if( ring )
+		{
+			pthread_mutex_lock( &ring->lock );
+			avail = ring->count;
+			pthread_mutex_unlock( &ring->lock );
+		}
+		else
+#endif /* WIN32 */
+		if( ioctl( eis->fd, FIONREAD, &avail ) < 0 )
+			break;
+		if( avail <= 0 )
+			break;
+		body = (*env)->GetPrimitiveArrayCritical( env, jbuffer, NULL );
+		if( !body )
+			break;
+#ifndef WIN32
+		if( ring )
+		{
+			st.max = 1;
+			st.n = 0;
+			pthread_mutex_lock( &ring->lock );
+			bytes = ring->count ? ring_take( ring, (unsigned char *) body,
+				ring->stamps[ ring->stamp_head ].left < size ?
+				ring->stamps[ ring->stamp_head ].left : size, &st ) : 0;
+			pthread_mutex_unlock( &ring->lock );
+			monotonic = st.stamps[ 1 ];
+			realtime = st.stamps[ 2 ];
+		}
+		else
+#endif /* WIN32 */
+		{
+			do {
+				bytes = READ( eis->fd, body,
+					avail < size ? avail : size );
+			} while( bytes < 0 && errno == EINTR );
+			stamp_now( &monotonic, &realtime );
+		}
+		(*env)->ReleasePrimitiveArrayCritical( env, jbuffer, body,
+			bytes > 0 ? 0 : JNI_ABORT );
+		if( bytes <= 0 )
+			break;
+		(*env)->CallVoidMethod( env, jobj, jmid_dataReceived, jbuffer,
+			(jint) bytes, monotonic, realtime );
+		(*env)->ExceptionClear( env );
+	}
+#ifndef WIN32
+	if( ring )
+		release_receive_ring( ring );
+#endif /* WIN32 */
+	(*env)->DeleteLocalRef( env, jbuffer );
+	return( 1 );
+}
+
 /*----------------------------------------------------------
 report_serial_events
 
@@ -4105,6 +5946,21 @@ void report_serial_events( struct event_info_struct *eis )
 	check_tiocmget_changes( eis );
 	if( eis && port_has_changed_fionread( eis ) )
 	{
+		/* a data listener has taken the bytes, no need to wait */
+		if( push_received_data( eis ) )
+			return;
+#ifndef WIN32
+		/*
+			counting emptied the ring's notify pipe, select waits
+			for new bytes without the sleeps below
+		*/
+		if( eis->ring_notify >= 0 )
+		{
+			if( eis->eventflags[SPE_DATA_AVAILABLE] )
+				send_event( eis, SPE_DATA_AVAILABLE, 1 );
+			return;
+		}
+#endif /* WIN32 */
 		if(!eis->eventflags[SPE_DATA_AVAILABLE] )
 		{
 			report_verbose("report_serial_events: ignoring DATA_AVAILABLE\n");
@@ -4179,7 +6035,7 @@ int initialise_event_info_struct( struct event_info_struct *eis )
 	eis->eventloop_interrupted = 0;
 	eis->closing = 0;
 
-	eis->fd = get_java_var( env, jobj, "fd", "I" );
+	eis->fd = get_java_fd( env, jobj );
 	eis->has_tiocsergetlsr = has_line_status_register_access( eis->fd );
 	eis->has_tiocgicount = driver_has_tiocgicount( eis );
 
@@ -4187,15 +6043,31 @@ int initialise_event_info_struct( struct event_info_struct *eis )
 		report( "initialise_event_info_struct: Port does not support events\n" );
 	}
 
-	eis->send_event = (*env)->GetMethodID( env, eis->jclazz, "sendEvent",
-		"(IZ)Z" );
+	eis->send_event = jmid_sendEvent;
 	if(eis->send_event == NULL){
 		report_error("initialise_event_info_struct: eis->send_event == NULL!\n");
 		goto fail;
 	}
 end:
 	FD_ZERO( &eis->rfds );
-	if (eis->fd < FD_SETSIZE && eis->fd > 0) {
+	if (eis->dispatcher && eis->fd > 0) {
+		/* epoll has no FD_SETSIZE limit */
+		eis->initialised = 1;
+		return( 1 );
+	} else if (eis->fd < FD_SETSIZE && eis->fd > 0) {
+#ifndef WIN32
+		/*
+			a drain thread takes the bytes, its ring says when.  The
+			port itself is left out, it stays readable while the
+			ring is full.
+		*/
+		eis->ring_notify = receive_ring_notify_fd( env, jobj );
+		if( eis->ring_notify >= FD_SETSIZE )
+			eis->ring_notify = -1;
+		if( eis->ring_notify >= 0 )
+			FD_SET( eis->ring_notify, &eis->rfds );
+		else
+#endif /* WIN32 */
 		FD_SET( eis->fd, &eis->rfds );
 		eis->tv_sleep.tv_sec = 0;
 		eis->tv_sleep.tv_usec = 100 * 1000;
@@ -4258,14 +6130,19 @@ JNIEXPORT void JNICALL RXTXPort(eventLoop)( JNIEnv *env, jobject jobj )
 	int i = 0;
 #endif /* WIN32 */
 	struct event_info_struct eis;
+	memset( &eis, 0, sizeof( eis ) );
 	eis.jclazz = (*env)->GetObjectClass( env, jobj );
 	eis.env = env;
 	eis.jobj = &jobj;
 	eis.initialised = 0;
 
 	ENTER( "eventLoop\n" );
-	if ( !initialise_event_info_struct( &eis ) ) goto end;
-	if ( !init_threads( &eis ) ) goto end;
+	if ( !initialise_event_info_struct( &eis ) || !init_threads( &eis ) )
+	{
+		/* don't leave the constructor waiting for us */
+		unlock_monitor_thread( &eis );
+		goto end;
+	}
 	unlock_monitor_thread( &eis );
 	do{
 		report_time_eventLoop( );
@@ -4289,8 +6166,9 @@ JNIEXPORT void JNICALL RXTXPort(eventLoop)( JNIEnv *env, jobject jobj )
 #ifndef WIN32
 			/* report( "." ); */
 			do {
-				eis.ret = SELECT( eis.fd + 1, &eis.rfds, NULL, NULL,
-					&eis.tv_sleep );
+				eis.ret = SELECT( ( eis.ring_notify > eis.fd ?
+					eis.ring_notify : eis.fd ) + 1, &eis.rfds, NULL,
+					NULL, &eis.tv_sleep );
 			} while (eis.ret < 0 && errno==EINTR);
 #else
 			/*
@@ -4328,6 +6206,582 @@ end:
 	LEAVE( "eventLoop:  Bailing!\n" );
 }
 
+/*----------------------------------------------------------
+wake_dispatcher
+
+   accept:      the event_dispatcher serving a port
+   perform:     interrupt its epoll_wait() so it looks at its ports
+   return:      none
+   exceptions:  none
+   comments:    a no-op where there is no dispatcher support
+----------------------------------------------------------*/
+void wake_dispatcher( struct event_dispatcher *d )
+{
+#if defined(__linux__)
+	uint64_t one = 1;
+
+	if( write( d->wakefd, &one, sizeof( one ) ) < 0 && errno != EAGAIN )
+		report_error( "wake_dispatcher: write failed\n" );
+#endif /* __linux__ */
+}
+
+#if defined(__linux__)
+/* events which cannot be seen with epoll and have to be polled for */
+static int dispatch_needs_polling( struct event_info_struct *eis )
+{
+	return( eis->dispatch_renotify ||
+		eis->eventflags[SPE_OUTPUT_BUFFER_EMPTY] ||
+		eis->eventflags[SPE_CTS] || eis->eventflags[SPE_DSR] ||
+		eis->eventflags[SPE_RI] || eis->eventflags[SPE_CD] ||
+		eis->eventflags[SPE_OE] || eis->eventflags[SPE_PE] ||
+		eis->eventflags[SPE_FE] || eis->eventflags[SPE_BI] );
+}
+
+/*
+	Send DATA_AVAILABLE if there is unread data and the listener wants
+	it.  Data left unread (or arriving while a read had the flag
+	cleared) is announced again on the next tick.
+*/
+/*
+	Bytes the driver and the port's receive_ring have.  Only the first
+	look of a round may empty the ring's notify pipe: emptied later it
+	could swallow the wake up for bytes which came in meanwhile.
+*/
+static int dispatch_pending( struct event_info_struct *eis, int *avail,
+	int notified )
+{
+	if( ioctl( eis->fd, FIONREAD, avail ) < 0 )
+		return( -1 );
+	*avail += receive_ring_pending( eis->env, *eis->jobj, notified );
+	return( 0 );
+}
+
+static void dispatch_data_available( struct event_info_struct *eis )
+{
+	int avail = 0;
+
+	if( dispatch_pending( eis, &avail, 1 ) < 0 )
+	{
+		report( "dispatch_data_available: FIONREAD failed\n" );
+		eis->dispatch_fault = 1;
+		return;
+	}
+	eis->dispatch_renotify = 0;
+	if( avail <= 0 )
+		return;
+	if( push_received_data( eis ) )
+	{
+		/* whatever a busy port left goes out on the next tick */
+		if( dispatch_pending( eis, &avail, 0 ) >= 0 && avail > 0 )
+			eis->dispatch_renotify = 1;
+		return;
+	}
+	if( eis->eventflags[SPE_DATA_AVAILABLE] )
+	{
+		send_event( eis, SPE_DATA_AVAILABLE, 1 );
+		(*eis->env)->ExceptionClear( eis->env );
+		if( dispatch_pending( eis, &avail, 0 ) < 0 || avail <= 0 )
+			return;
+	}
+	eis->dispatch_renotify = 1;
+}
+
+/*
+	A port draining into a receive_ring gets its data announced on the
+	ring's notify fd.  The old one, if any, left epoll when its ring
+	closed it.
+*/
+static void dispatch_watch_ring( struct event_dispatcher *d,
+	struct event_info_struct *eis )
+{
+	struct epoll_event ev;
+	int fd = receive_ring_notify_fd( eis->env, *eis->jobj );
+
+	if( fd == eis->ring_notify )
+		return;
+	eis->ring_notify = fd;
+	if( fd < 0 )
+		return;
+	memset( &ev, 0, sizeof( ev ) );
+	ev.events = EPOLLIN | EPOLLET;
+	ev.data.ptr = eis;
+	if( epoll_ctl( d->epfd, EPOLL_CTL_ADD, fd, &ev ) < 0 )
+		report_error( "dispatch_watch_ring: epoll_ctl failed\n" );
+	/* bytes may have come in before we were watching */
+	eis->dispatch_renotify = 1;
+}
+
+/*
+	Unhook a port from the dispatcher, tell the Java side and free it.
+*/
+static void release_dispatched_port( JNIEnv *env,
+	struct event_dispatcher *d, struct event_info_struct *eis )
+{
+	jclass jclazz = eis->jclazz;
+	jobject jobj = eis->dispatch_jobj;
+
+	/* the fd may already be closed, that removes it from epoll too */
+	epoll_ctl( d->epfd, EPOLL_CTL_DEL, eis->fd, NULL );
+	eis->jclazz = NULL;
+	finalize_event_info_struct( eis );
+	(*env)->CallVoidMethod( env, jobj, jmid_eventLoopDetached,
+		eis->dispatch_fault ? JNI_TRUE : JNI_FALSE );
+	(*env)->ExceptionClear( env );
+	(*env)->DeleteGlobalRef( env, jobj );
+	(*env)->DeleteGlobalRef( env, jclazz );
+	free( eis );
+}
+#endif /* __linux__ */
+
+/*----------------------------------------------------------
+RXTXPort.nativeOpenDispatcher
+
+   accept:      none
+   perform:     create an event dispatcher: an epoll set and an
+                eventfd to wake it
+   return:      a handle for nativeDispatch() and
+                nativeAttachDispatcher(), 0 if not supported
+   exceptions:  none
+   comments:    Linux only.  Other systems keep a MonitorThread per
+                port.
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL RXTXPort(nativeOpenDispatcher)( JNIEnv *env,
+	jclass jclazz )
+{
+#if defined(__linux__)
+	struct epoll_event ev;
+	struct event_dispatcher *d = calloc( 1, sizeof( *d ) );
+
+	if( !d )
+		return( 0 );
+	d->epfd = epoll_create1( EPOLL_CLOEXEC );
+	d->wakefd = eventfd( 0, EFD_NONBLOCK | EFD_CLOEXEC );
+	if( d->epfd < 0 || d->wakefd < 0 )
+		goto fail;
+	memset( &ev, 0, sizeof( ev ) );
+	ev.events = EPOLLIN;
+	ev.data.ptr = NULL;
+	if( epoll_ctl( d->epfd, EPOLL_CTL_ADD, d->wakefd, &ev ) < 0 )
+		goto fail;
+	pthread_mutex_init( &d->lock, NULL );
+	return( (jlong) (size_t) d );
+fail:
+	report_error( "nativeOpenDispatcher: " );
+	report_error( strerror( errno ) );
+	if( d->epfd >= 0 ) close( d->epfd );
+	if( d->wakefd >= 0 ) close( d->wakefd );
+	free( d );
+#endif /* __linux__ */
+	return( 0 );
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeAttachDispatcher
+
+   accept:      handle from nativeOpenDispatcher()
+   perform:     set up the event_info_struct of this port the way
+                eventLoop() does and hand it to the dispatcher
+   return:      true if the dispatcher now serves this port
+   exceptions:  none
+   comments:    takes the place of starting a MonitorThread.  The
+                struct lives until the dispatcher calls
+                eventLoopDetached().
+----------------------------------------------------------*/
+JNIEXPORT jboolean JNICALL RXTXPort(nativeAttachDispatcher)( JNIEnv *env,
+	jobject jobj, jlong handle )
+{
+#if defined(__linux__)
+	struct event_dispatcher *d = (struct event_dispatcher *) (size_t) handle;
+	struct event_info_struct *eis;
+	jclass jclazz;
+
+	if( !d )
+		return( JNI_FALSE );
+	eis = calloc( 1, sizeof( *eis ) );
+	if( !eis )
+		return( JNI_FALSE );
+	jclazz = (*env)->GetObjectClass( env, jobj );
+	eis->jclazz = (*env)->NewGlobalRef( env, jclazz );
+	(*env)->DeleteLocalRef( env, jclazz );
+	eis->dispatch_jobj = (*env)->NewGlobalRef( env, jobj );
+	eis->jobj = &eis->dispatch_jobj;
+	eis->env = env;
+	eis->dispatcher = d;
+	eis->ring_notify = -1;
+	if( !initialise_event_info_struct( eis ) || !init_threads( eis ) )
+	{
+		report_error( "nativeAttachDispatcher: cannot set up port\n" );
+		(*env)->DeleteGlobalRef( env, eis->dispatch_jobj );
+		if( eis->jclazz )
+			(*env)->DeleteGlobalRef( env, eis->jclazz );
+		free( eis );
+		return( JNI_FALSE );
+	}
+	/*
+		Once it is on d->pending the dispatcher owns eis and may set
+		eis->env to its own or free it, so let the Java side go first
+		with our env.
+	*/
+	(*env)->CallVoidMethod( env, jobj, jmid_unlockMonitorThread );
+	pthread_mutex_lock( &d->lock );
+	eis->dispatch_next = d->pending;
+	d->pending = eis;
+	pthread_mutex_unlock( &d->lock );
+	wake_dispatcher( d );
+	return( JNI_TRUE );
+#else
+	return( JNI_FALSE );
+#endif /* __linux__ */
+}
+
+/*----------------------------------------------------------
+RXTXPort.nativeDispatch
+
+   accept:      handle from nativeOpenDispatcher()
+   perform:     serve SerialPortEvents for every port attached to the
+                dispatcher
+   return:      none, runs for the life of the VM
+   exceptions:  none
+   comments:    DATA_AVAILABLE is driven by epoll (edge triggered) so
+                the thread sleeps until a port has new data.  Modem
+                lines, line errors and OUTPUT_BUFFER_EMPTY have no fd
+                readiness so ports that asked for them are checked
+                every tv_sleep (100ms), as eventLoop() does.  A hang up
+                or error on the fd is reported as HARDWARE_ERROR and
+                the port is released.
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL RXTXPort(nativeDispatch)( JNIEnv *env,
+	jclass jclazz, jlong handle )
+{
+#if defined(__linux__)
+	struct event_dispatcher *d = (struct event_dispatcher *) (size_t) handle;
+	struct epoll_event events[ 64 ], ev;
+	struct event_info_struct *eis, **link;
+	long next_tick = 0;
+	int i, n, wait;
+	uint64_t count;
+
+	if( !d )
+		return;
+	ENTER( "nativeDispatch" );
+	do {
+		/* take over ports attached since the last round */
+		pthread_mutex_lock( &d->lock );
+		while( ( eis = d->pending ) )
+		{
+			d->pending = eis->dispatch_next;
+			memset( &ev, 0, sizeof( ev ) );
+			ev.events = EPOLLIN | EPOLLET;
+			ev.data.ptr = eis;
+			if( epoll_ctl( d->epfd, EPOLL_CTL_ADD, eis->fd, &ev ) < 0 )
+			{
+				report_error( "nativeDispatch: epoll_ctl failed\n" );
+				eis->dispatch_fault = 1;
+			}
+			/* report anything which arrived before we were watching */
+			eis->dispatch_renotify = 1;
+			eis->env = env;
+			dispatch_watch_ring( d, eis );
+			eis->dispatch_next = d->ports;
+			d->ports = eis;
+		}
+		pthread_mutex_unlock( &d->lock );
+
+		/* only wake up on a timer if some port needs polling */
+		wait = -1;
+		for( eis = d->ports; eis; eis = eis->dispatch_next )
+		{
+			eis->env = env;
+			dispatch_watch_ring( d, eis );
+			if( wait < 0 && dispatch_needs_polling( eis ) )
+			{
+				wait = next_tick - GetTickCount();
+				if( wait < 0 ) wait = 0;
+			}
+		}
+		do {
+			n = epoll_wait( d->epfd, events, 64, wait );
+		} while( n < 0 && errno == EINTR );
+		if( n < 0 )
+		{
+			report_error( "nativeDispatch: epoll_wait failed\n" );
+			n = 0;
+		}
+
+		for( i = 0; i < n; i++ )
+		{
+			eis = (struct event_info_struct *) events[ i ].data.ptr;
+			if( !eis )
+			{
+				/* woken by wake_dispatcher() */
+				if( read( d->wakefd, &count, sizeof( count ) ) < 0 )
+					report_verbose( "nativeDispatch: wakefd empty\n" );
+				continue;
+			}
+			if( eis->closing || eis->dispatch_fault )
+				continue;
+			eis->env = env;
+			if( events[ i ].events & ( EPOLLERR | EPOLLHUP ) )
+			{
+				report( "nativeDispatch: hang up\n" );
+				eis->dispatch_fault = 1;
+				continue;
+			}
+			dispatch_data_available( eis );
+		}
+
+		if( wait >= 0 && GetTickCount() >= next_tick )
+		{
+			next_tick = GetTickCount() + 100;
+			for( eis = d->ports; eis; eis = eis->dispatch_next )
+			{
+				if( eis->closing || eis->dispatch_fault ||
+					!dispatch_needs_polling( eis ) )
+					continue;
+				eis->env = env;
+				check_line_status_register( eis );
+				if( eis->has_tiocgicount )
+					check_cgi_count( eis );
+				check_tiocmget_changes( eis );
+				if( eis->dispatch_renotify )
+					dispatch_data_available( eis );
+				(*env)->ExceptionClear( env );
+			}
+		}
+
+		/* let go of closed and broken ports */
+		link = &d->ports;
+		while( ( eis = *link ) )
+		{
+			if( eis->closing || eis->dispatch_fault )
+			{
+				*link = eis->dispatch_next;
+				release_dispatched_port( env, d, eis );
+			}
+			else
+				link = &eis->dispatch_next;
+		}
+	} while( 1 );
+#endif /* __linux__ */
+}
+
+/* SerialSelectionKey.OP_READ and OP_WRITE, as in java.nio */
+#define SELECT_OP_READ	1
+#define SELECT_OP_WRITE	4
+
+/*----------------------------------------------------------
+SerialSelector.nativeOpen
+
+   accept:      none
+   perform:     make the pipe used to wake up nativePoll()
+   return:      the read end in the high 32 bits, the write end in the
+                low 32 bits
+   exceptions:  IOException
+   comments:    poll() is not there on WIN32.
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL SerialSelector(nativeOpen)( JNIEnv *env,
+	jclass jclazz )
+{
+#ifndef WIN32
+	int fds[2];
+
+	if( pipe( fds ) < 0 )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "nativeOpen",
+			strerror( errno ) );
+		return( 0 );
+	}
+	fcntl( fds[0], F_SETFL, O_NONBLOCK );
+	fcntl( fds[1], F_SETFL, O_NONBLOCK );
+	fcntl( fds[0], F_SETFD, FD_CLOEXEC );
+	fcntl( fds[1], F_SETFD, FD_CLOEXEC );
+	return( ( (jlong) fds[0] << 32 ) | (jlong) fds[1] );
+#else
+	throw_java_exception( env, IO_EXCEPTION, "nativeOpen",
+		"not supported on this platform" );
+	return( 0 );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+SerialSelector.nativePoll
+
+   accept:      handle from nativeOpen() or 0, n port fds with the
+                operations (OP_READ, OP_WRITE) to wait for, timeout in
+                milliseconds, negative to wait forever
+   perform:     poll() the ports and the wakeup pipe
+   return:      number of ports ready; jops[] holds what each is ready for
+   exceptions:  IOException
+   comments:    a hung up or broken port counts as ready for whatever was
+                asked so the read or write finds out.  A poll()
+                interrupted by a signal is restarted for the time left;
+                the port threads signal each other often.
+----------------------------------------------------------*/
+JNIEXPORT jint JNICALL SerialSelector(nativePoll)( JNIEnv *env,
+	jclass jclazz, jlong handle, jintArray jfds, jintArray jops, jint n,
+	jlong timeout )
+{
+#ifndef WIN32
+	struct pollfd stack[ 64 ], *pfds = stack;
+	jint *fds, *ops;
+	int i, result, ready = 0, wakefd = (int) ( handle >> 32 );
+	int count = handle ? n + 1 : n;
+	long deadline, left;
+	char drain[ 64 ];
+
+	if( count > (int) ( sizeof( stack ) / sizeof( stack[0] ) ) &&
+		!( pfds = malloc( count * sizeof( struct pollfd ) ) ) )
+	{
+		throw_java_exception( env, IO_EXCEPTION, "nativePoll",
+			"out of memory" );
+		return( -1 );
+	}
+	fds = (*env)->GetIntArrayElements( env, jfds, NULL );
+	ops = (*env)->GetIntArrayElements( env, jops, NULL );
+	if( !fds || !ops )
+	{
+		/* OutOfMemoryError is pending */
+		if( fds ) (*env)->ReleaseIntArrayElements( env, jfds, fds,
+			JNI_ABORT );
+		if( pfds != stack ) free( pfds );
+		return( -1 );
+	}
+	for( i = 0; i < n; i++ )
+	{
+		pfds[i].fd = fds[i];
+		pfds[i].events =
+			( ops[i] & SELECT_OP_READ ?
+				POLLIN : 0 ) |
+			( ops[i] & SELECT_OP_WRITE ?
+				POLLOUT : 0 );
+		pfds[i].revents = 0;
+	}
+	if( handle )
+	{
+		pfds[n].fd = wakefd;
+		pfds[n].events = POLLIN;
+		pfds[n].revents = 0;
+	}
+	if( timeout > INT_MAX )
+		timeout = INT_MAX;
+	left = timeout;
+	deadline = GetTickCount() + left;
+	do
+	{
+		result = poll( pfds, count, timeout < 0 ? -1 : (int) left );
+		if( result < 0 && errno == EINTR && timeout > 0 )
+		{
+			left = deadline - GetTickCount();
+			if( left < 0 )
+				left = 0;
+		}
+	}  while( result < 0 && errno == EINTR && ( timeout < 0 || left > 0 ) );
+	if( result < 0 && errno != EINTR )
+	{
+		(*env)->ReleaseIntArrayElements( env, jfds, fds, JNI_ABORT );
+		(*env)->ReleaseIntArrayElements( env, jops, ops, JNI_ABORT );
+		if( pfds != stack ) free( pfds );
+		throw_java_exception( env, IO_EXCEPTION, "nativePoll",
+			strerror( errno ) );
+		return( -1 );
+	}
+	for( i = 0; i < n; i++ )
+	{
+		short r = pfds[i].revents;
+		int asked = ops[i];
+
+		ops[i] = 0;
+		if( r & ( POLLERR | POLLHUP | POLLNVAL ) )
+			ops[i] = asked;
+		if( r & POLLIN )
+			ops[i] |= SELECT_OP_READ;
+		if( r & POLLOUT )
+			ops[i] |= SELECT_OP_WRITE;
+		ops[i] &= asked;
+		if( ops[i] )
+			ready++;
+	}
+	if( handle && pfds[n].revents )
+		while( read( wakefd, drain, sizeof( drain ) ) > 0 );
+	(*env)->ReleaseIntArrayElements( env, jfds, fds, JNI_ABORT );
+	(*env)->ReleaseIntArrayElements( env, jops, ops, 0 );
+	if( pfds != stack ) free( pfds );
+	return( ready );
+#else
+	throw_java_exception( env, IO_EXCEPTION, "nativePoll",
+		"not supported on this platform" );
+	return( -1 );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+SerialSelector.nativeWakeup
+
+   accept:      handle from nativeOpen()
+   perform:     make the current or next nativePoll() return
+   return:      none
+   exceptions:  none
+   comments:    a full pipe already does the job
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL SerialSelector(nativeWakeup)( JNIEnv *env,
+	jclass jclazz, jlong handle )
+{
+#ifndef WIN32
+	char one = 1;
+
+	if( write( (int) ( handle & 0xffffffff ), &one, 1 ) < 0 &&
+		errno != EAGAIN )
+		report_error( "nativeWakeup: write failed\n" );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+SerialSelector.nativeClose
+
+   accept:      handle from nativeOpen()
+   perform:     close the wakeup pipe
+   return:      none
+   exceptions:  none
+   comments:
+----------------------------------------------------------*/
+JNIEXPORT void JNICALL SerialSelector(nativeClose)( JNIEnv *env,
+	jclass jclazz, jlong handle )
+{
+#ifndef WIN32
+	close( (int) ( handle >> 32 ) );
+	close( (int) ( handle & 0xffffffff ) );
+#endif /* !WIN32 */
+}
+
+/*----------------------------------------------------------
+ReadinessPoller.nativeOpen, nativePoll, nativeWakeup
+
+   accept:      as the SerialSelector natives
+   perform:     the same, for the poller RXTXPort uses for polled I/O
+   return:      as the SerialSelector natives
+   exceptions:  IOException
+   comments:    the poller lives in gnu.io, so it has its own entries
+----------------------------------------------------------*/
+JNIEXPORT jlong JNICALL ReadinessPoller(nativeOpen)( JNIEnv *env,
+	jclass jclazz )
+{
+	return SerialSelector(nativeOpen)( env, jclazz );
+}
+
+JNIEXPORT jint JNICALL ReadinessPoller(nativePoll)( JNIEnv *env,
+	jclass jclazz, jlong handle, jintArray jfds, jintArray jops, jint n,
+	jlong timeout )
+{
+	return SerialSelector(nativePoll)( env, jclazz, handle, jfds, jops, n,
+		timeout );
+}
+
+JNIEXPORT void JNICALL ReadinessPoller(nativeWakeup)( JNIEnv *env,
+	jclass jclazz, jlong handle )
+{
+	SerialSelector(nativeWakeup)( env, jclazz, handle );
+}
+
 /*----------------------------------------------------------
 RXTXVersion.nativeGetVersion
 
@@ -4943,7 +7397,7 @@ JNIEXPORT void JNICALL RXTXPort(interruptEventLoop)(JNIEnv *env,
 	jobject jobj)
 {
 	struct event_info_struct *index = master_index;
-	int fd = get_java_var( env, jobj, "fd", "I" );
+	int fd = get_java_fd( env, jobj );
 	int searching = 1;
 
 
@@ -4976,6 +7430,14 @@ JNIEXPORT void JNICALL RXTXPort(interruptEventLoop)(JNIEnv *env,
 #ifdef TIOCSERGETLSR
 	index->closing=1;
 #endif /* TIOCSERGETLSR */
+	if( index->dispatcher )
+	{
+		/* the dispatcher lets go of the port on its own thread */
+		index->closing = 1;
+		wake_dispatcher( index->dispatcher );
+		report("interruptEventLoop: dispatcher woken\n");
+		return;
+	}
 #ifdef WIN32
 	termios_interrupt_event_loop( index->fd, 1 );
 #endif /* WIN32 */
@@ -5070,6 +7532,8 @@ JNIEXPORT void JNICALL RXTXPort(nativeSetEventFlag)( JNIEnv *env,
 #ifdef WIN32
 	termios_setflags( fd, index->eventflags );
 #endif /* win32 */
+	if( index->dispatcher )
+		wake_dispatcher( index->dispatcher );
 
 }
 
@@ -5118,6 +7582,41 @@ int send_event( struct event_info_struct *eis, jint type, int flag )
 	return(result);
 }
 
+/*----------------------------------------------------------
+get_java_fd, get_java_timeout, get_java_pid, get_java_eis
+
+   accept:      env (keyhole to java)
+                jobj (java RXTXPort object)
+   return:      the fd, timeout, pid or eis field from the java object
+   exceptions:  none
+   comments:    these use the IDs resolved in RXTXPort.Initialize() and
+                are what the read/write and modem line paths should use.
+----------------------------------------------------------*/
+int get_java_fd( JNIEnv *env, jobject jobj )
+{
+	int result = (int) (*env)->GetIntField( env, jobj, jfid_fd );
+
+	if( result == 0 )
+		report_error( "get_java_fd: invalid file descriptor\n" );
+	return result;
+}
+
+int get_java_timeout( JNIEnv *env, jobject jobj )
+{
+	return (int) (*env)->GetIntField( env, jobj, jfid_timeout );
+}
+
+int get_java_pid( JNIEnv *env, jobject jobj )
+{
+	return (int) (*env)->GetIntField( env, jobj, jfid_pid );
+}
+
+struct event_info_struct *get_java_eis( JNIEnv *env, jobject jobj )
+{
+	return (struct event_info_struct *) (size_t)
+		(*env)->GetLongField( env, jobj, jfid_eis );
+}
+
 /*----------------------------------------------------------
 get_java_var
 
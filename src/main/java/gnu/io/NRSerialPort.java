@@ -67,12 +67,14 @@ import java.util.TooManyListenersException;
 
 import gnu.io.factory.RFC2217PortCreator;
 import gnu.io.factory.RxTxPortCreator;
+import gnu.io.nio.SerialChannel;
 import gnu.io.rfc2217.TelnetSerialPort;
 
 public class NRSerialPort
 {
 
     private SerialPort serial;
+    private SerialChannel channel;
     private String port = null;
     private boolean connected = false;
     private int baud = 115200;
@@ -204,6 +206,7 @@ public class NRSerialPort
                 throw new RuntimeException(e);
             }
             serial = null;
+            channel = null;
             setConnected(false);
         }
         catch (UnsatisfiedLinkError e)
@@ -354,6 +357,19 @@ public class NRSerialPort
         return (RXTXPort) serial;
      return null;
     }
+    /**
+     * Gets a {@link SerialChannel} on the port, for use with a
+     * {@link gnu.io.nio.SerialSelector} instead of a reader thread per port.
+     * This will return null until {@link #connect()} is successfully called,
+     * and for RFC 2217 ports.
+     * @return The {@link SerialChannel} instance or null.
+     */
+    public SerialChannel getChannel()
+    {
+     if(channel == null && RXTXPort.class.isInstance(serial))
+        channel = new SerialChannel((RXTXPort) serial);
+     return channel;
+    }
     /**
      * Gets the {@link SerialPort} instance.
      * This will return null until {@link #connect()} is successfully called.
@@ -59,9 +59,16 @@ package gnu.io;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.TooManyListenersException;
 import java.lang.Math;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
 * An extension of gnu.io.SerialPort
@@ -119,6 +126,128 @@ public class RXTXPort extends SerialPort
 			if (debug)
 				z.reportln( "RXTXPort:MonitorThread exiting"); 
 		}
+	/**
+	*  Hand the port to a shared EventDispatcher if they are enabled,
+	*  otherwise start this thread and run eventLoop() on it.
+	*/
+		void begin()
+		{
+			EventDispatcher d = EventDispatcher.next();
+			if ( d != null )
+			{
+				detached = new CountDownLatch( 1 );
+				monThreadisInterrupted=false;
+				if ( nativeAttachDispatcher( d.handle ) )
+				{
+					if (debug)
+						z.reportln( "RXTXPort:MonitorThread:begin() on " + d.getName()); 
+					dispatcher = d;
+					return;
+				}
+				monThreadisInterrupted=true;
+			}
+			start();
+		}
+	/**
+	*  Wait for the dispatcher to let go of the port
+	*  @param millis how long to wait
+	*/
+		void awaitDetached( long millis ) throws InterruptedException
+		{
+			/* called from a listener; the dispatcher is us */
+			if ( Thread.currentThread() == dispatcher )
+				return;
+			detached.await( millis, TimeUnit.MILLISECONDS );
+		}
+		/** the shared dispatcher serving this port, null if we run */
+		volatile EventDispatcher dispatcher = null;
+		private CountDownLatch detached;
+	}
+
+	/**
+	*  One native epoll loop delivering the events of many ports.
+	*
+	*  By default every open port gets its own MonitorThread.  Setting
+	*  the gnu.io.rxtx.EventDispatchers system property to a number N
+	*  (or to "true" for one per processor) serves all ports from N
+	*  shared threads instead.  Only Linux supports this; elsewhere
+	*  ports keep their MonitorThread.
+	*/
+	static class EventDispatcher extends Thread
+	{
+		private static EventDispatcher[] dispatchers;
+		private static int next = 0;
+		final long handle;
+
+		private EventDispatcher( long handle, int n )
+		{
+			this.handle = handle;
+			setName( "RXTXEventDispatcher-" + n );
+			setDaemon( true );
+		}
+		public void run()
+		{
+			nativeDispatch( handle );
+		}
+	/**
+	*  @return EventDispatcher the dispatcher for the next port, null
+	*  if ports should run their own MonitorThread
+	*/
+		static synchronized EventDispatcher next()
+		{
+			if ( dispatchers == null )
+			{
+				int n = 0;
+				String p = System.getProperty( "gnu.io.rxtx.EventDispatchers" );
+				if ( "true".equalsIgnoreCase( p ) )
+					n = Runtime.getRuntime().availableProcessors();
+				else if ( p != null )
+				{
+					try {
+						n = Integer.parseInt( p.trim() );
+					} catch ( NumberFormatException e ) {
+						z.reportln( "RXTXPort: ignoring gnu.io.rxtx.EventDispatchers=" + p );
+					}
+				}
+				dispatchers = new EventDispatcher[ Math.max( n, 0 ) ];
+				for ( int i = 0; i < dispatchers.length; i++ )
+				{
+					long h = nativeOpenDispatcher();
+					if ( h == 0 )
+					{
+						/* not supported here */
+						dispatchers = new EventDispatcher[ 0 ];
+						break;
+					}
+					dispatchers[ i ] = new EventDispatcher( h, i );
+					dispatchers[ i ].start();
+				}
+			}
+			if ( dispatchers.length == 0 )
+				return null;
+			next = ( next + 1 ) % dispatchers.length;
+			return dispatchers[ next ];
+		}
+	}
+	private native static long nativeOpenDispatcher();
+	private native static void nativeDispatch( long handle );
+	private native boolean nativeAttachDispatcher( long handle );
+
+	/**
+	*  Called by the EventDispatcher once it has let go of this port
+	*  @param fault true if the port went away under it
+	*/
+	void eventLoopDetached( boolean fault )
+	{
+		MonitorThread t = monThread;
+		eis = 0;
+		if ( fault )
+		{
+			HARDWARE_FAULT=true;
+			sendEvent( SerialPortEvent.HARDWARE_ERROR, true );
+		}
+		if ( t != null && t.detached != null )
+			t.detached.countDown();
 	}
 	protected boolean HARDWARE_FAULT=false;
 	protected final static boolean debug = false;
@@ -173,14 +302,31 @@ public class RXTXPort extends SerialPort
 			fd = open( name );
 			this.name = name;
 
-			MonitorThreadLock = true;
 			monThread = new MonitorThread();
 			monThread.setName("RXTXPortMonitor("+name+")");
-			monThread.start();
+			monThread.begin();
 			waitForTheNativeCodeSilly();
 			MonitorThreadAlive=true;
 	//	} catch ( PortInUseException e ){}
 		timeout = -1;	/* default disabled timeout */
+		if ( Boolean.getBoolean( "gnu.io.rxtx.PolledIO" ) )
+		{
+			try {
+				setPolledIO( true );
+			} catch ( UnsupportedCommOperationException e ) {
+				z.reportln( "RXTXPort: ignoring gnu.io.rxtx.PolledIO, " +
+					e.getMessage() );
+			}
+		}
+		if ( Boolean.getBoolean( "gnu.io.rxtx.BackgroundDrain" ) )
+		{
+			try {
+				setBackgroundDrain( true );
+			} catch ( UnsupportedCommOperationException e ) {
+				z.reportln( "RXTXPort: ignoring gnu.io.rxtx.BackgroundDrain, " +
+					e.getMessage() );
+			}
+		}
 		if (debug)
 			z.reportln( "RXTXPort:RXTXPort("+name+") returns with fd = " +
 				fd);
@@ -188,12 +334,50 @@ public class RXTXPort extends SerialPort
 	private native synchronized int open( String name )throws PortInUseException;
 
 
-	/* dont close the file while accessing the fd */
-	private final java.util.concurrent.locks.ReentrantReadWriteLock IOLockedMutex = new java.util.concurrent.locks.ReentrantReadWriteLock(true);
+	/*
+	   dont close the file while accessing the fd
+
+	   ioState goes OPEN -> CLOSING -> CLOSED by CAS in close().  Readers
+	   and writers count themselves in on their own counter, so the two
+	   directions never wait on each other, and back out if the port is
+	   no longer open.  close() waits for both counters to drain.
+	*/
+	private static final int OPEN = 0, CLOSING = 1, CLOSED = 2;
+	private volatile int ioState = OPEN;
+	private static final AtomicIntegerFieldUpdater<RXTXPort> IO_STATE =
+		AtomicIntegerFieldUpdater.newUpdater( RXTXPort.class, "ioState" );
+	private final AtomicInteger readers = new AtomicInteger();
+	private final AtomicInteger writers = new AtomicInteger();
+	private volatile Thread closer;
+
+	private void beginIO( AtomicInteger count ) throws IOException
+	{
+		count.incrementAndGet();
+		if ( ioState != OPEN )
+		{
+			endIO( count );
+			throw new IOException( "Port " + name + " closed" );
+		}
+	}
+
+	private void endIO( AtomicInteger count )
+	{
+		if ( count.decrementAndGet() == 0 && ioState == CLOSING )
+			LockSupport.unpark( closer );
+	}
 
 	/** File descriptor */
 	private int fd = 0;
 
+	/**
+	*  @return the native file descriptor, 0 once the port is closed.
+	*  Used by gnu.io.nio.SerialSelector to poll the port.
+	*/
+	public int getFileDescriptor()
+	{
+		return fd;
+	}
+
 	/** a pointer to the event info structure used to share information
 	    between threads so write threads can send output buffer empty
 	    from a pthread if need be.
@@ -537,6 +721,110 @@ public class RXTXPort extends SerialPort
 		return(threshold>0);
 	}
 
+	/** Inter-character gap control, see enableInterCharacterGap() */
+	private volatile float gapCharacters = 0;
+	private volatile int gapMicros = 0;
+
+	/**
+	*  Frame reads by the line going quiet
+	*
+	*  With a gap set, SerialInputStream.read( b[], off, len ) keeps
+	*  reading until no byte has come in for the gap, e.g. 3.5
+	*  characters for Modbus RTU, and returns what it got as one frame.
+	*  The native code waits for the gap to the microsecond, and it
+	*  follows the speed, data bits, parity and stop bits in use.  The
+	*  receive timeout is how long to wait for the first byte of a
+	*  frame, the threshold plays no role.  A frame longer than len is
+	*  cut and the rest starts the next one.  read() and
+	*  read( ByteBuffer ) are not framed.
+	*
+	*  Bytes that reach the driver before the read starts run together
+	*  into one frame, unless background drain is on: then the gaps are
+	*  those between the drain thread's reads, and a reader coming late
+	*  still gets the frames apart.  USB adapters pass bytes on in
+	*  packets, so their latency timer has to be short for this.
+	*
+	*  @param characters the gap in character times, 0 to turn it off
+	*/
+	public void enableInterCharacterGap( float characters )
+	{
+		if (debug)
+			z.reportln( "RXTXPort:enableInterCharacterGap( " + characters + " ) called");
+		if( !( characters >= 0 ) )
+			throw new IllegalArgumentException
+			(
+				"Unexpected negative gap"
+			);
+		gapMicros = 0;
+		gapCharacters = characters;
+	}
+	/**
+	*  Frame reads by a fixed gap, see enableInterCharacterGap().  Modbus
+	*  RTU asks for 1750 microseconds above 19200 baud.
+	*
+	*  @param micros the gap in microseconds, 0 to turn it off
+	*/
+	public void enableInterCharacterGapMicros( int micros )
+	{
+		if (debug)
+			z.reportln( "RXTXPort:enableInterCharacterGapMicros( " + micros + " ) called");
+		if( micros < 0 )
+			throw new IllegalArgumentException
+			(
+				"Unexpected negative gap"
+			);
+		gapCharacters = 0;
+		gapMicros = micros;
+	}
+	/**
+	*/
+	public void disableInterCharacterGap()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:disableInterCharacterGap() called");
+		gapCharacters = 0;
+		gapMicros = 0;
+	}
+	/**
+	*  @return boolean true if reads are framed by a gap
+	*/
+	public boolean isInterCharacterGapEnabled()
+	{
+		return getInterCharacterGap() > 0;
+	}
+	/**
+	*  @return int the gap in microseconds at the current settings, 0
+	*    if reads are not framed
+	*/
+	public int getInterCharacterGap()
+	{
+		if( gapMicros > 0 )
+			return gapMicros;
+		if( gapCharacters == 0 || speed <= 0 )
+			return 0;
+		return (int) Math.ceil( gapCharacters * characterNanos() / 1000 );
+	}
+	/* how long one character takes on the line */
+	private long characterNanos()
+	{
+		if( speed <= 0 )
+			return 0;
+		/* start bit, data, parity and stop bits */
+		float bits = 1 + dataBits + ( parity == PARITY_NONE ? 0 : 1 );
+		switch( stopBits )
+		{
+			case STOPBITS_2:
+				bits += 2;
+				break;
+			case STOPBITS_1_5:
+				bits += 1.5f;
+				break;
+			default:
+				bits += 1;
+		}
+		return (long) ( bits * 1000000000.0 / speed );
+	}
+
 	/** Input/output buffers */
 	/** FIXME I think this refers to
 		FOPEN(3)/SETBUF(3)/FREAD(3)/FCLOSE(3)
@@ -547,6 +835,11 @@ public class RXTXPort extends SerialPort
 	private int InputBuffer=0;
 	private int OutputBuffer=0;
 	/** 
+	*  Sets the size of the receive ring used by background drain, see
+	*  setBackgroundDrain().  A running drain moves to a ring of the
+	*  new size; bytes which no longer fit are counted as overflows.
+	*  0 means the default of 64K.
+	*
 	*  @param size
 	*/
 	public void setInputBufferSize( int size )
@@ -559,7 +852,16 @@ public class RXTXPort extends SerialPort
 			(
 				"Unexpected negative buffer size value"
 			);
-		else InputBuffer=size;
+		if( receiveRing != 0 )
+		{
+			try {
+				nativeResizeReceiveRing( size > 0 ? size :
+					DEFAULT_RECEIVE_RING );
+			} catch( IOException e ) {
+				throw new IllegalArgumentException( e.getMessage() );
+			}
+		}
+		InputBuffer=size;
 		if (debug)
 			z.reportln( "RXTXPort:setInputBufferSize( " +
 					size + ") returning");
@@ -647,8 +949,12 @@ public class RXTXPort extends SerialPort
 	*/
 	public native void sendBreak( int duration );
 	protected native void writeByte( int b, boolean i ) throws IOException;
-	protected native void writeArray( byte b[], int off, int len, boolean i )
+	protected native int writeArray( byte b[], int off, int len, boolean i )
 		throws IOException;
+	protected native int writeDirect( ByteBuffer b, int off, int len,
+		boolean i ) throws IOException;
+	protected native long writeGather( Object parts[], int off[], int len[],
+		int n, boolean i ) throws IOException;
 	protected native boolean nativeDrain( boolean i ) throws IOException;
 
 	/** RXTXPort read methods */
@@ -656,82 +962,711 @@ public class RXTXPort extends SerialPort
 	protected native int readByte() throws IOException;
 	protected native int readArray( byte b[], int off, int len )
 		throws IOException;
-	protected native int readTerminatedArray( byte b[], int off, int len, byte t[] )
+	protected native long readStamped( Object b, int off, int len,
+		long stamps[] ) throws IOException;
+	/* what the driver has, without waiting, see polledRead() */
+	private native int readAvailable( Object b, int off, int len )
+		throws IOException;
+	protected native int readDirect( ByteBuffer b, int off, int len )
 		throws IOException;
+	protected native long readTerminatedArray( byte b[], int off, int len,
+		byte t[], byte rest[], int restOff, int have ) throws IOException;
+	protected native int readFrame( byte b[], int off, int len, int have,
+		int gap, long character ) throws IOException;
+
+	/*
+	   Polled I/O, see setPolledIO().  The default comes from the
+	   gnu.io.rxtx.PolledIO system property.
+	*/
+	private volatile boolean polledIO;
+	private ReadinessPoller poller;
+	/* most bytes written after one wait for room */
+	private static final int POLLED_WRITE_CHUNK = 1024;
+
+	/**
+	*  Wait for the port in Java instead of in the native read and write
+	*
+	*  With polled I/O on, a read first takes what the driver already
+	*  has.  A read or write that has to wait parks its thread until a
+	*  shared poller thread sees the port ready, and only then calls
+	*  into the native code, which returns at once.  The thread can be
+	*  interrupted while it waits, which ends the call with an
+	*  InterruptedIOException, and a virtual thread gives its carrier
+	*  back instead of pinning it.  close() wakes parked readers and
+	*  writers.  The receive timeout and threshold work as before.
+	*
+	*  Waiting costs more this way: the poller has to be woken to take
+	*  the port on and then wakes the parked thread, where a native
+	*  read or write wakes up in poll() by itself.  On a pty pair
+	*  FullDuplexThroughputTest moves about 26 MB/s with polled I/O
+	*  against 35 MB/s without, and the EchoLatencyTest round trip
+	*  takes about 65us against 40us at the median.  Use it for
+	*  threads that must be interruptible or are virtual, not for
+	*  speed.
+	*
+	*  Terminated reads, frame reads (see enableInterCharacterGap()),
+	*  gathering writes, write( ByteBuffer ) and flush() still wait in
+	*  the native code.  Not available on
+	*  Windows.
+	*
+	*  @param enable boolean
+	*    UnsupportedCommOperationException
+	*/
+	public void setPolledIO( boolean enable )
+		throws UnsupportedCommOperationException
+	{
+		if (debug)
+			z.reportln( "RXTXPort:setPolledIO(" + enable + ")");
+		if( enable && receiveRing != 0 )
+			throw new UnsupportedCommOperationException(
+				"not with background drain" );
+		if( enable && poller == null )
+		{
+			try {
+				poller = ReadinessPoller.get();
+			} catch( IOException e ) {
+				throw new UnsupportedCommOperationException(
+					e.getMessage() );
+			}
+		}
+		polledIO = enable;
+	}
 
+	/**
+	*  @return boolean true if polled I/O is on
+	*/
+	public boolean isPolledIO()
+	{
+		return polledIO;
+	}
 
-	/** Serial Port Event listener */
-	private SerialPortEventListener SPEventListener;
+	/*
+	   The receive ring, see setBackgroundDrain().  Set and freed by the
+	   native code, 0 while reads go to the port itself.
+	*/
+	private volatile long receiveRing;
+	/* ring size while getInputBufferSize() is 0 */
+	private static final int DEFAULT_RECEIVE_RING = 65536;
 
-	/** Thread to monitor data */
-	private MonitorThread monThread;
+	/**
+	*  Drain the port into a native ring buffer on a thread of its own
+	*
+	*  With background drain on, a native thread moves whatever the
+	*  driver receives into a ring of getInputBufferSize() bytes (64K
+	*  while that is 0) outside the Java heap, and reads are served
+	*  from the ring with a memory copy.  GC pauses or a reader falling
+	*  behind then no longer overrun the small driver buffer at high
+	*  speeds.  When the ring is full the drain stops reading until
+	*  there is room, so newer bytes wait in the driver as they would
+	*  without the drain, and with RTS/CTS or XON/XOFF input flow
+	*  control the driver holds the sender off.  Timeouts, thresholds,
+	*  events and data listeners work as before.
+	*
+	*  Waits for a read in progress.  Turning it off leaves the bytes
+	*  still in the ring for the next read.  Not available on Windows
+	*  or together with polled I/O, and not once the port has a
+	*  gnu.io.nio.SerialChannel, see setSelectable().  The default
+	*  comes from the gnu.io.rxtx.BackgroundDrain system property.
+	*
+	*  @param enable boolean
+	*    UnsupportedCommOperationException
+	*/
+	public void setBackgroundDrain( boolean enable )
+		throws UnsupportedCommOperationException
+	{
+		if (debug)
+			z.reportln( "RXTXPort:setBackgroundDrain(" + enable + ")");
+		if( enable && polledIO )
+			throw new UnsupportedCommOperationException(
+				"not with polled I/O" );
+		try {
+			in.lockReads();
+			try {
+				if( enable && selectable )
+					throw new UnsupportedCommOperationException(
+						"not with a SerialChannel" );
+				beginIO( readers );
+				try {
+					if( enable )
+						nativeStartReceiveRing( InputBuffer > 0 ?
+							InputBuffer : DEFAULT_RECEIVE_RING );
+					else
+						in.addPending( nativeStopReceiveRing() );
+				} finally {
+					endIO( readers );
+				}
+			} finally {
+				in.readLock.unlock();
+			}
+		} catch( IOException e ) {
+			throw new UnsupportedCommOperationException( e.getMessage() );
+		}
+	}
 
-	/** Process SerialPortEvents */
-	native void eventLoop();
+	/* reads stay on the fd, see setSelectable() */
+	private volatile boolean selectable;
 
-	/** 
-	*  @return boolean  true if monitor thread is interrupted
+	/**
+	*  Keep reads on the port itself so that its file descriptor shows
+	*  when there is something to read
+	*
+	*  The drain thread of setBackgroundDrain() keeps the port empty,
+	*  so polling getFileDescriptor() would never find it readable.
+	*  This turns background drain off, the bytes still in the ring
+	*  coming out of the next read, and makes setBackgroundDrain( true )
+	*  fail from now on.  Used by gnu.io.nio.SerialChannel.
 	*/
-	boolean monThreadisInterrupted=true;
-	private native void interruptEventLoop( );
-	public boolean checkMonitorThread()
+	public void setSelectable()
 	{
 		if (debug)
-			z.reportln( "RXTXPort:checkMonitorThread()");
-		if(monThread != null)
-		{
-			if ( debug )
-				z.reportln( 
-					"monThreadisInterrupted = " +
-					monThreadisInterrupted );
-			return monThreadisInterrupted;
+			z.reportln( "RXTXPort:setSelectable()");
+		selectable = true;
+		if( receiveRing == 0 )
+			return;
+		try {
+			setBackgroundDrain( false );
+		} catch( UnsupportedCommOperationException e ) {
+			/* the port is closed, reads fail anyway */
+			if (debug)
+				z.reportln( "RXTXPort:setSelectable() " + e.getMessage() );
 		}
-		if ( debug )
-			z.reportln(  "monThread is null " );
-		return(true);
 	}
 
-	/** 
-	*  @param event
-	*  @param state
-	*  @return boolean true if the port is closing
+	/**
+	*  @return boolean true if background drain is on
 	*/
-	public boolean sendEvent( int event, boolean state )
+	public boolean isBackgroundDrain()
 	{
-		if (debug_events)
-			z.report( "RXTXPort:sendEvent(");
-		/* Let the native side know its time to die */
+		return receiveRing != 0;
+	}
 
-		if ( fd == 0 || SPEventListener == null || monThread == null)
-		{
-			return(true);
+	/**
+	*  @return int the most bytes the receive ring has held since
+	*  background drain was turned on, 0 without background drain
+	*/
+	public int getInputBufferHighWater()
+	{
+		return nativeReceiveRingHighWater();
+	}
+
+	/**
+	*  @return long bytes lost while the receive ring was full, as far
+	*  as the driver counts its overruns, plus those that no longer fit
+	*  when setInputBufferSize() shrank the ring; 0 without background
+	*  drain
+	*/
+	public long getInputBufferOverflows()
+	{
+		return nativeReceiveRingDropped();
+	}
+
+	private native void nativeStartReceiveRing( int size )
+		throws IOException;
+	private native byte[] nativeStopReceiveRing();
+	private native void nativeResizeReceiveRing( int size )
+		throws IOException;
+	private native void wakeReceiveRing();
+	private native int nativeReceiveRingHighWater();
+	private native long nativeReceiveRingDropped();
+
+	/*
+	   Read at least minimum and at most len bytes into dst, a byte[]
+	   or a direct ByteBuffer, parking while nothing is there.  Returns
+	   fewer on timeout or close.
+	*/
+	private int polledRead( Object dst, int off, int len, int minimum )
+		throws IOException
+	{
+		return polledRead( dst, off, len, minimum, null, 0 );
+	}
+
+	/* as above, telling sink when the bytes put at position came in */
+	private int polledRead( Object dst, int off, int len, int minimum,
+		TimestampSink sink, int position ) throws IOException
+	{
+		long deadline = timeout >= 0 ?
+			System.nanoTime() + timeout * 1000000L : -1;
+		int got = 0;
+		try {
+			while( got < minimum && ioState == OPEN )
+			{
+				if( sink == null )
+				{
+					/* the bytes are often there already, so read
+					   before parking */
+					int r = readAvailable( dst, off + got, len - got );
+					if( r < 0 )
+						break;
+					got += r;
+					if( r == 0 && ( !poller.await( fd,
+						ReadinessPoller.OP_READ, deadline ) ||
+						ioState != OPEN ) )
+						break;
+					continue;
+				}
+				int a = nativeavailable();
+				if( a == 0 )
+				{
+					if( !poller.await( fd, ReadinessPoller.OP_READ,
+						deadline ) || ioState != OPEN )
+						break;
+					/* nothing there after all means a hang up, which
+					   the native read reports */
+					a = Math.max( nativeavailable(), 1 );
+				}
+				int n = Math.min( a, len - got );
+				int r = stampedRead( dst, off + got, n, sink,
+					position + got );
+				if( r <= 0 )
+					break;
+				got += r;
+			}
+		} catch( InterruptedIOException e ) {
+			e.bytesTransferred = got;
+			throw e;
 		}
+		return got;
+	}
 
-		switch( event )
+	/* park until the driver takes more bytes, with done already written */
+	private void awaitWritable( int done ) throws IOException
+	{
+		if( ReadinessPoller.ready( fd, ReadinessPoller.OP_WRITE ) )
+			return;
+		try {
+			poller.await( fd, ReadinessPoller.OP_WRITE, -1 );
+		} catch( InterruptedIOException e ) {
+			e.bytesTransferred = done;
+			throw e;
+		}
+		if( ioState != OPEN )
+			throw new IOException( "Port " + name + " closed" );
+	}
+
+	/* write in chunks the driver has room for, parking in between */
+	private void polledWrite( byte b[], int off, int len )
+		throws IOException
+	{
+		int done = 0;
+		while( done < len )
 		{
-			case SerialPortEvent.HARDWARE_ERROR:
-			if( debug_events )
-				z.reportln( "HARDWARE_ERROR " +
-					monThread.Data + ")" );
-			break;case SerialPortEvent.DATA_AVAILABLE:
-				if( debug_events )
-					z.reportln( "DATA_AVAILABLE " +
-						monThread.Data + ")" );
-				break;
-			case SerialPortEvent.OUTPUT_BUFFER_EMPTY:
-				if( debug_events )
-					z.reportln( 
-						"OUTPUT_BUFFER_EMPTY " +
-						monThread.Output + ")" );
-				break;
-			case SerialPortEvent.CTS:
-				if( debug_events )
-					z.reportln( "CTS " +
-						monThread.CTS + ")" );
-				break;
-			case SerialPortEvent.DSR:
-				if( debug_events )
-					z.reportln( "DSR " +
+			awaitWritable( done );
+			int n = Math.min( len - done, POLLED_WRITE_CHUNK );
+			done += writeArray( b, off + done, n, monThreadisInterrupted );
+		}
+	}
+
+	/**
+	*  Read from the port up to and including a terminator
+	*
+	*  The terminator may be any number of bytes, e.g. "\r\n" for NMEA
+	*  sentences and AT responses.  Returns once the terminator has
+	*  been read, len bytes have been read or the receive timeout has
+	*  expired.  Bytes received after the terminator are returned by the
+	*  next read from the port.
+	*
+	*  @param b[] the buffer to read into
+	*  @param off
+	*  @param len
+	*  @param t[] the terminator
+	*  @return int  number of bytes read, including the terminator
+	*    IOException
+	*/
+	public int readTerminated( byte b[], int off, int len, byte t[] )
+		throws IOException
+	{
+		return in.read( b, off, len, t );
+	}
+
+	/**
+	*  Read from the port into a ByteBuffer
+	*
+	*  Direct buffers are handed to the native read() without an
+	*  intermediate copy.  Heap buffers go through readArray() on the
+	*  backing array.  The receive timeout and threshold behave as for
+	*  SerialInputStream.read( b[], off, len ).
+	*
+	*  @param dst the buffer to read into, starting at its position
+	*  @return int  number of bytes read, 0 on timeout
+	*    IOException
+	*/
+	public int read( ByteBuffer dst ) throws IOException
+	{
+		return read( dst, null );
+	}
+
+	/**
+	*  Read from the port into a ByteBuffer, with when the bytes came in
+	*
+	*  As read( ByteBuffer ), but the native code reads the clocks the
+	*  moment each read() of the port returns, or with background drain
+	*  each read() of the drain thread, and sink hears about every
+	*  chunk before this returns.  The times do not include the delays
+	*  of getting back to Java.
+	*
+	*  @param dst the buffer to read into, starting at its position
+	*  @param sink told where each chunk is in dst and when it came in
+	*  @return int  number of bytes read, 0 on timeout
+	*    IOException
+	*/
+	public int readTimestamped( ByteBuffer dst, TimestampSink sink )
+		throws IOException
+	{
+		if ( sink == null ) throw new NullPointerException();
+		return read( dst, sink );
+	}
+
+	/*
+	   When each chunk of readStamped() came in, as in struct
+	   read_stamps.  Guarded by the read lock.
+	*/
+	private static final int READ_STAMPS = 256;
+	private final long stamps[] = new long[ 3 * READ_STAMPS ];
+
+	/* read into dst, a byte[] or a direct ByteBuffer, and tell sink */
+	private int stampedRead( Object dst, int off, int len,
+		TimestampSink sink, int position ) throws IOException
+	{
+		long r = readStamped( dst, off, len, stamps );
+		int chunks = (int) ( r >>> 32 );
+		for( int i = 0; i < 3 * chunks; i += 3 )
+			sink.timestamp( position + (int) ( stamps[i] >>> 32 ),
+				(int) stamps[i], stamps[i + 1], stamps[i + 2] );
+		return (int) r;
+	}
+
+	private int read( ByteBuffer dst, TimestampSink sink ) throws IOException
+	{
+		if (debug_read)
+			z.reportln( "RXTXPort:read(ByteBuffer " + dst.remaining() + ") called");
+		if ( fd == 0 ) throw new IOException();
+		if ( dst.isReadOnly() ) throw new ReadOnlyBufferException();
+		int len = dst.remaining();
+		if ( len == 0 ) return 0;
+		/*
+		 * See how many bytes we should read, as in
+		 * SerialInputStream.read( b[], off, len )
+		 */
+		int Minimum = len;
+		/* polledRead() takes what is there up to most by itself */
+		int most = len;
+		if( threshold==0 && polledIO )
+		{
+			Minimum = 1;
+		}
+		else if( threshold==0 )
+		{
+			int a = nativeavailable();
+			if( a == 0 )
+				Minimum = 1;
+			else
+				Minimum = Math.min( Minimum, a );
+			most = Minimum;
+		}
+		else
+		{
+			Minimum = Math.min( Minimum, threshold );
+			most = Minimum;
+		}
+		if ( monThreadisInterrupted == true )
+		{
+			return(0);
+		}
+		in.lockReads();
+		try
+		{
+			if ( in.pendingLen > 0 )
+			{
+				int n = Math.min( len, in.pendingLen );
+				/* read earlier, when is not known */
+				if ( sink != null )
+					sink.timestamp( dst.position(), n, 0, 0 );
+				dst.put( in.pending, in.pendingPos, n );
+				in.pendingPos += n;
+				in.pendingLen -= n;
+				return( n );
+			}
+			beginIO( readers );
+			try
+			{
+				waitForTheNativeCodeSilly();
+				int pos = dst.position();
+				int result;
+				if ( polledIO )
+					result = dst.isDirect() ?
+						polledRead( dst, pos, most, Minimum, sink, pos ) :
+						polledRead( dst.array(), dst.arrayOffset() + pos,
+							most, Minimum, sink, pos );
+				else if ( sink != null )
+					result = dst.isDirect() ?
+						stampedRead( dst, pos, Minimum, sink, pos ) :
+						stampedRead( dst.array(), dst.arrayOffset() + pos,
+							Minimum, sink, pos );
+				else if ( dst.isDirect() )
+					result = readDirect( dst, pos, Minimum );
+				else
+					result = readArray( dst.array(),
+						dst.arrayOffset() + pos, Minimum );
+				if ( result > 0 )
+					dst.position( pos + result );
+				if (debug_read_results)
+					z.reportln( "RXTXPort:read(ByteBuffer) returned " + result + " bytes" );
+				return( result );
+			}
+			finally
+			{
+				endIO( readers );
+			}
+		}
+		finally
+		{
+			in.readLock.unlock();
+		}
+	}
+
+	/**
+	*  Write the remaining bytes of a ByteBuffer to the port
+	*
+	*  Direct buffers are handed to the native write() without an
+	*  intermediate copy.  Heap buffers go through writeArray() on the
+	*  backing array; read-only heap buffers are copied first.  The
+	*  position moves on by the count returned, which falls short of
+	*  remaining() if the driver stops taking bytes.
+	*
+	*  @param src the buffer to write from, starting at its position
+	*  @return int  number of bytes written
+	*    IOException
+	*/
+	public int write( ByteBuffer src ) throws IOException
+	{
+		if (debug_write)
+			z.reportln( "RXTXPort:write(ByteBuffer " + src.remaining() + ") called");
+		if( speed == 0 ) return 0;
+		if ( fd == 0 ) throw new IOException();
+		if ( monThreadisInterrupted == true )
+		{
+			return 0;
+		}
+		int len = src.remaining();
+		if ( len == 0 ) return 0;
+		beginIO( writers );
+		try
+		{
+			waitForTheNativeCodeSilly();
+			int pos = src.position();
+			if ( src.isDirect() )
+			{
+				len = writeDirect( src, pos, len,
+					monThreadisInterrupted );
+			}
+			else if ( src.hasArray() )
+			{
+				len = writeArray( src.array(), src.arrayOffset() + pos,
+					len, monThreadisInterrupted );
+			}
+			else
+			{
+				byte send[] = new byte[len];
+				src.duplicate().get( send );
+				len = writeArray( send, 0, len, monThreadisInterrupted );
+			}
+			src.position( pos + len );
+			if (debug_write)
+				z.reportln( "Leaving RXTXPort:write(ByteBuffer " + len + ")");
+			return len;
+		}
+		finally
+		{
+			endIO( writers );
+		}
+	}
+
+	/**
+	*  Gathering write of whole arrays
+	*
+	*  Writes e.g. a header, payload and checksum as one frame with a
+	*  single native call and a single write() or writev(), without
+	*  copying them into one array first.
+	*
+	*  @param parts the arrays to write, in order
+	*    IOException
+	*/
+	public void write( byte parts[][] ) throws IOException
+	{
+		if (debug_write)
+			z.reportln( "RXTXPort:write(byte[" + parts.length + "][]) called");
+		for ( byte part[] : parts )
+			if ( part == null ) throw new NullPointerException();
+		gather( parts, null, null, parts.length );
+	}
+
+	/**
+	*  Gathering write of the remaining bytes of some ByteBuffers
+	*
+	*  Like write( byte[][] ), for direct and heap buffers, which may be
+	*  mixed.  Read-only heap buffers are copied first.  The positions
+	*  move on by the count returned, buffer by buffer, so on a short
+	*  write the later buffers keep what did not go out.
+	*
+	*  @param srcs the buffers to write from, starting at their positions
+	*  @param offset the first buffer in srcs to write
+	*  @param length the number of buffers to write
+	*  @return long  number of bytes written
+	*    IOException
+	*/
+	public long write( ByteBuffer srcs[], int offset, int length )
+		throws IOException
+	{
+		if ( offset < 0 || length < 0 || offset > srcs.length - length )
+			throw new IndexOutOfBoundsException();
+		if (debug_write)
+			z.reportln( "RXTXPort:write(ByteBuffer[" + length + "]) called");
+		Object parts[] = new Object[length];
+		int off[] = new int[length];
+		int len[] = new int[length];
+		for ( int i = 0; i < length; i++ )
+		{
+			ByteBuffer src = srcs[offset + i];
+			len[i] = src.remaining();
+			if ( src.isDirect() )
+			{
+				parts[i] = src;
+				off[i] = src.position();
+			}
+			else if ( src.hasArray() )
+			{
+				parts[i] = src.array();
+				off[i] = src.arrayOffset() + src.position();
+			}
+			else
+			{
+				byte send[] = new byte[len[i]];
+				src.duplicate().get( send );
+				parts[i] = send;
+			}
+		}
+		long written = gather( parts, off, len, length );
+		/* only what went out is consumed, in order */
+		long left = written;
+		for ( int i = 0; i < length && left > 0; i++ )
+		{
+			ByteBuffer src = srcs[offset + i];
+			int n = (int) Math.min( left, len[i] );
+			src.position( src.position() + n );
+			left -= n;
+		}
+		return written;
+	}
+
+	/**
+	*  @param srcs the buffers to write from, starting at their positions
+	*  @return long  number of bytes written
+	*    IOException
+	*/
+	public long write( ByteBuffer srcs[] ) throws IOException
+	{
+		return write( srcs, 0, srcs.length );
+	}
+
+	private long gather( Object parts[], int off[], int len[], int n )
+		throws IOException
+	{
+		if( speed == 0 ) return 0;
+		if ( fd == 0 ) throw new IOException();
+		if ( monThreadisInterrupted == true )
+		{
+			return 0;
+		}
+		beginIO( writers );
+		try
+		{
+			waitForTheNativeCodeSilly();
+			long written = writeGather( parts, off, len, n,
+				monThreadisInterrupted );
+			if (debug_write)
+				z.reportln( "Leaving RXTXPort:gather(" + written + ")");
+			return written;
+		}
+		finally
+		{
+			endIO( writers );
+		}
+	}
+
+	/** Serial Port Event listener, wrapped to reuse one event */
+	private SerialEventListenerAdapter SPEventListener;
+
+	/** Thread to monitor data */
+	private MonitorThread monThread;
+
+	/** Process SerialPortEvents */
+	native void eventLoop();
+
+	/** 
+	*  @return boolean  true if monitor thread is interrupted
+	*/
+	boolean monThreadisInterrupted=true;
+	private native void interruptEventLoop( );
+	public boolean checkMonitorThread()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:checkMonitorThread()");
+		if(monThread != null)
+		{
+			if ( debug )
+				z.reportln( 
+					"monThreadisInterrupted = " +
+					monThreadisInterrupted );
+			return monThreadisInterrupted;
+		}
+		if ( debug )
+			z.reportln(  "monThread is null " );
+		return(true);
+	}
+
+	/** 
+	*  @param event
+	*  @param state
+	*  @return boolean true if the port is closing
+	*/
+	public boolean sendEvent( int event, boolean state )
+	{
+		if (debug_events)
+			z.report( "RXTXPort:sendEvent(");
+		/* Let the native side know its time to die */
+
+		SerialEventRing ring = eventRing;
+		if ( fd == 0 || ( SPEventListener == null && ring == null ) ||
+			monThread == null)
+		{
+			return(true);
+		}
+
+		switch( event )
+		{
+			case SerialPortEvent.HARDWARE_ERROR:
+			if( debug_events )
+				z.reportln( "HARDWARE_ERROR " +
+					monThread.Data + ")" );
+			break;case SerialPortEvent.DATA_AVAILABLE:
+				if( debug_events )
+					z.reportln( "DATA_AVAILABLE " +
+						monThread.Data + ")" );
+				break;
+			case SerialPortEvent.OUTPUT_BUFFER_EMPTY:
+				if( debug_events )
+					z.reportln( 
+						"OUTPUT_BUFFER_EMPTY " +
+						monThread.Output + ")" );
+				break;
+			case SerialPortEvent.CTS:
+				if( debug_events )
+					z.reportln( "CTS " +
+						monThread.CTS + ")" );
+				break;
+			case SerialPortEvent.DSR:
+				if( debug_events )
+					z.reportln( "DSR " +
 						monThread.Output + ")" );
 				break;
 			case SerialPortEvent.RI:
@@ -813,25 +1748,26 @@ public class RXTXPort extends SerialPort
 				System.err.println( "unknown event: " + event);
 				return(false);
 		}
-		if( debug_events ) {
-			if (debug_verbose)
-				z.reportln(  "	getting event" );
-		}
-		SerialPortEvent e = new SerialPortEvent(this, event, !state,
-			state );
-		if( debug_events ) {
-			if (debug_verbose)
-				z.reportln(  "	sending event" );
-		}
 		if(monThreadisInterrupted) 
 		{
 			if( debug_events )
 				z.reportln(  "	sendEvent return" );
 			return(true);
 		}
-		if( SPEventListener != null )
+		if( ring != null )
 		{
-			SPEventListener.serialEvent( e );
+			if( debug_events && debug_verbose )
+				z.reportln(  "	publishing event" );
+			ring.publish( eventRingId, event, !state, state );
+		}
+		SerialEventListenerAdapter lsnr = SPEventListener;
+		if( lsnr != null )
+		{
+			if( debug_events ) {
+				if (debug_verbose)
+					z.reportln(  "	sending event" );
+			}
+			lsnr.deliver( event, !state, state );
 		}
 
 		if( debug_events ) {
@@ -839,7 +1775,8 @@ public class RXTXPort extends SerialPort
 				z.reportln(  "	sendEvent return" );
 		}
 
-		if (fd == 0 ||  SPEventListener == null || monThread == null) 
+		if (fd == 0 || ( SPEventListener == null && eventRing == null ) ||
+			monThread == null) 
 		{
 			return(true);
 		}
@@ -851,11 +1788,26 @@ public class RXTXPort extends SerialPort
 
 	/**
 	*  Add an event listener
+	*
+	*  The listener is called on the event loop.  To have several
+	*  listeners, or to keep a slow one from holding up the loop, add a
+	*  SerialEventMulticaster and subscribe them to it.  The
+	*  SerialPortEvent handed to the listener is filled in again for
+	*  the next event, so a listener that keeps events past
+	*  serialEvent() has to copy them.
+	*
 	*  @param lsnr SerialPortEventListener
 	*    TooManyListenersException
 	*/
 
-	boolean MonitorThreadLock = true;
+	/*
+	   Set while the monitor thread starts up or while an event flag
+	   changes.  unlockMonitorThread() clears it and wakes whoever waits
+	   in waitForTheNativeCodeSilly().  The port starts out locked until
+	   the first eventLoop() is ready.
+	*/
+	private volatile boolean MonitorThreadLock = true;
+	private final Object MonitorThreadGate = new Object();
 
 	public void addEventListener(
 		SerialPortEventListener lsnr ) throws TooManyListenersException
@@ -870,18 +1822,334 @@ public class RXTXPort extends SerialPort
 		{
 			throw new TooManyListenersException();
 		}
-		SPEventListener = lsnr;
+		SPEventListener = new SerialEventListenerAdapter( this, lsnr );
+		startMonitorThread();
+		if (debug)
+			z.reportln( "RXTXPort:Interrupt=false");
+	}
+
+	private void startMonitorThread()
+	{
 		if( !MonitorThreadAlive )
 		{
-			MonitorThreadLock = true;
+			lockMonitorThread();
 			monThread = new MonitorThread();
 			monThread.setName("RXTXPortMonitor("+name+")");
-			monThread.start();
+			monThread.begin();
 			waitForTheNativeCodeSilly();
 			MonitorThreadAlive=true;
 		}
+	}
+
+	/** Push-mode listener, see addDataListener() */
+	private volatile SerialPortDataListener dataListener;
+	/* the event loop reads into this for dataListener, null if none */
+	private volatile byte pushBuffer[];
+
+	/**
+	*  Add a push-mode data listener
+	*
+	*  The event loop reads the bytes as they arrive and passes them to
+	*  the listener, so there is no DATA_AVAILABLE, available() and
+	*  read() round trip per chunk.  The listener owns the input while
+	*  it is set: DATA_AVAILABLE is not sent and reads from the input
+	*  stream only see bytes that arrive while the listener is busy.
+	*
+	*  @param lsnr SerialPortDataListener
+	*  @param bufferSize most bytes handed over in one call
+	*    TooManyListenersException
+	*/
+	public void addDataListener( SerialPortDataListener lsnr,
+		int bufferSize ) throws TooManyListenersException
+	{
 		if (debug)
-			z.reportln( "RXTXPort:Interrupt=false");
+			z.reportln( "RXTXPort:addDataListener()");
+		if( bufferSize <= 0 )
+			throw new IllegalArgumentException( "bufferSize " +
+				bufferSize );
+		if( dataListener != null )
+			throw new TooManyListenersException();
+		dataListener = lsnr;
+		pushBuffer = new byte[ bufferSize ];
+		startMonitorThread();
+	}
+
+	/**
+	*  Add a push-mode data listener handed up to 4096 bytes at a time
+	*  @param lsnr SerialPortDataListener
+	*    TooManyListenersException
+	*/
+	public void addDataListener( SerialPortDataListener lsnr )
+		throws TooManyListenersException
+	{
+		addDataListener( lsnr, 4096 );
+	}
+
+	/**
+	*  Remove the push-mode data listener; reads get the input again
+	*/
+	public void removeDataListener()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:removeDataListener()");
+		pushBuffer = null;
+		dataListener = null;
+	}
+
+	/** Event ring, see setEventRing() */
+	private volatile SerialEventRing eventRing;
+	private int eventRingId;
+
+	/**
+	*  Publish the events of this port into a ring
+	*
+	*  The event loop writes each event the notifyOn flags let through
+	*  into the ring and goes back to the port; the thread draining the
+	*  ring delivers them.  No SerialPortEvent is made unless an event
+	*  listener is also set, which is still called on the event loop.
+	*  Wrap a listener in a SerialEventListenerAdapter to have it called
+	*  from the ring instead.
+	*
+	*  @param ring SerialEventRing, or null to stop publishing
+	*    TooManyListenersException if another ring is set
+	*/
+	public void setEventRing( SerialEventRing ring )
+		throws TooManyListenersException
+	{
+		if (debug)
+			z.reportln( "RXTXPort:setEventRing()");
+		if( ring == null )
+		{
+			detachEventRing();
+			return;
+		}
+		if( eventRing != null )
+			throw new TooManyListenersException();
+		eventRingId = ring.register( this );
+		eventRing = ring;
+		startMonitorThread();
+	}
+
+	private void detachEventRing()
+	{
+		SerialEventRing ring = eventRing;
+		eventRing = null;
+		if( ring != null )
+			ring.unregister( eventRingId );
+	}
+
+	/**
+	*  @return the ring set with setEventRing() or null
+	*/
+	public SerialEventRing getEventRing()
+	{
+		return eventRing;
+	}
+
+	/*
+	   Modem line watcher, see startModemLineWatcher().  Index 0 to 3 of
+	   the arrays the natives fill are the CTS, DSR, RI and CD edge
+	   counts from TIOCGICOUNT; index 4 has bit i set if line i is up.
+	*/
+	private Thread modemWatcher;
+	private final Object modemWatcherLock = new Object();
+	/* pthread_t of the watcher while it may be in TIOCMIWAIT, else 0 */
+	private long modemWatcherTid;
+	/* read by check_tiocmget_changes() so the lines are not sent twice */
+	private volatile boolean modemLinesWatched;
+	private final int modemLineEdges[] = new int[ 4 ];
+	private final long modemLineEdgeTimes[] = new long[ 4 ];
+
+	private native long modemWatchInit( int lines[] );
+	private native int waitModemLines( int lines[] ) throws IOException;
+	private native void interruptModemWait( long tid );
+
+	/**
+	*  Watch CTS, DSR, RI and CD with TIOCMIWAIT
+	*
+	*  A thread blocks until the driver sees one of the lines change
+	*  and sends the events right away, instead of the event loop
+	*  finding the change on its next pass.  Edges between two wakeups
+	*  are counted by the driver (TIOCGICOUNT) and sent as well, so
+	*  short pulses are not lost.  The events come from the watcher
+	*  thread, so a listener may be called from it and the event loop
+	*  at the same time.  The notifyOn* flags still apply.
+	*
+	*  Only Linux drivers that keep TIOCGICOUNT counters support this
+	*  (UARTs and most USB adapters, not ptys).
+	*
+	*  @return boolean false if the port does not support it
+	*/
+	public boolean startModemLineWatcher()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:startModemLineWatcher()");
+		final int lines[] = new int[ 5 ];
+		final long tid[] = new long[ 1 ];
+		final CountDownLatch ready = new CountDownLatch( 1 );
+		synchronized( modemWatcherLock )
+		{
+			if( modemWatcher != null )
+				return true;
+			Thread t = new Thread( "RXTXModemWatcher(" + name + ")" )
+			{
+				public void run()
+				{
+					synchronized( modemWatcherLock )
+					{
+						tid[ 0 ] = modemWatchInit( lines );
+						modemWatcherTid = tid[ 0 ];
+					}
+					ready.countDown();
+					if( tid[ 0 ] != 0 )
+						watchModemLines( this, lines );
+				}
+			};
+			t.setDaemon( true );
+			modemLinesWatched = true;
+			modemWatcher = t;
+			t.start();
+		}
+		try {
+			ready.await();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		if( tid[ 0 ] == 0 )
+		{
+			synchronized( modemWatcherLock )
+			{
+				modemWatcher = null;
+				modemLinesWatched = false;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private void watchModemLines( Thread self, int last[] )
+	{
+		int now[] = new int[ 5 ];
+		try {
+			while( modemWatcher == self )
+			{
+				if( waitModemLines( now ) < 0 )
+					continue;
+				long t = System.nanoTime();
+				for( int i = 0; i < 4; i++ )
+				{
+					boolean on = ( now[ 4 ] & ( 1 << i ) ) != 0;
+					boolean was = ( last[ 4 ] & ( 1 << i ) ) != 0;
+					int edges = now[ i ] - last[ i ];
+					if( edges == 0 && on != was )
+						edges = 1;
+					if( edges == 0 )
+						continue;
+					synchronized( modemLineEdges )
+					{
+						modemLineEdges[ i ] += edges;
+						modemLineEdgeTimes[ i ] = t;
+					}
+					/* keep a burst short, it ends in the line's state */
+					if( edges > 16 )
+						edges = 16 - ( edges & 1 );
+					for( int k = edges - 1; k >= 0; k-- )
+						sendEvent( SerialPortEvent.CTS + i,
+							( k & 1 ) == 0 ? on : !on );
+				}
+				System.arraycopy( now, 0, last, 0, now.length );
+			}
+		} catch( IOException e ) {
+			z.reportln( "RXTXPort:watchModemLines: " + e.getMessage() );
+		} finally {
+			synchronized( modemWatcherLock )
+			{
+				modemWatcherTid = 0;
+				if( modemWatcher == self )
+				{
+					modemWatcher = null;
+					modemLinesWatched = false;
+				}
+			}
+		}
+	}
+
+	/**
+	*  Stop the thread started by startModemLineWatcher()
+	*/
+	public void stopModemLineWatcher()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:stopModemLineWatcher()");
+		Thread t;
+		synchronized( modemWatcherLock )
+		{
+			t = modemWatcher;
+			modemWatcher = null;
+		}
+		if( t == null )
+			return;
+		try {
+			/* the signal can come before the thread is in the ioctl */
+			while( t.isAlive() )
+			{
+				synchronized( modemWatcherLock )
+				{
+					if( modemWatcherTid != 0 )
+						interruptModemWait( modemWatcherTid );
+				}
+				t.join( 10 );
+			}
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		modemLinesWatched = false;
+	}
+
+	/**
+	*  @param event SerialPortEvent.CTS, DSR, RI or CD
+	*  @return int edges the watcher has seen on that line
+	*/
+	public int getModemLineEdges( int event )
+	{
+		synchronized( modemLineEdges )
+		{
+			return modemLineEdges[ modemLine( event ) ];
+		}
+	}
+
+	/**
+	*  @param event SerialPortEvent.CTS, DSR, RI or CD
+	*  @return long System.nanoTime() when the watcher woke up for the
+	*  last edge on that line, 0 if none
+	*/
+	public long getModemLineEdgeTime( int event )
+	{
+		synchronized( modemLineEdges )
+		{
+			return modemLineEdgeTimes[ modemLine( event ) ];
+		}
+	}
+
+	private static int modemLine( int event )
+	{
+		if( event < SerialPortEvent.CTS || event > SerialPortEvent.CD )
+			throw new IllegalArgumentException( "not a modem line: " +
+				event );
+		return event - SerialPortEvent.CTS;
+	}
+
+	/* called by the event loop with length bytes read into buffer at
+	   the given times, see TimestampSink */
+	void dataReceived( byte buffer[], int length, long monotonicNanos,
+		long realtimeNanos )
+	{
+		SerialPortDataListener lsnr = dataListener;
+		if( lsnr instanceof SerialPortTimestampedDataListener )
+			( (SerialPortTimestampedDataListener) lsnr ).dataReceived(
+				buffer, length, monotonicNanos, realtimeNanos );
+		else if( lsnr != null )
+			lsnr.dataReceived( buffer, length );
 	}
 	/**
 	*  Remove the serial port event listener
@@ -890,6 +2158,12 @@ public class RXTXPort extends SerialPort
 	{
 		if (debug)
 			z.reportln( "RXTXPort:removeEventListener() called");
+		if( dataListener != null || eventRing != null )
+		{
+			/* the data listener or ring still needs the monitor thread */
+			SPEventListener = null;
+			return;
+		}
 		waitForTheNativeCodeSilly();
 		//if( monThread != null && monThread.isAlive() )
 		if( monThreadisInterrupted == true )
@@ -899,7 +2173,9 @@ public class RXTXPort extends SerialPort
 			SPEventListener = null;
 			return;
 		}
-		else if( monThread != null && monThread.isAlive() && !HARDWARE_FAULT)                       
+		else if( monThread != null &&
+			( monThread.isAlive() || monThread.dispatcher != null ) &&
+			!HARDWARE_FAULT)
 		{
 			if (debug)
 				z.reportln( "	RXTXPort:Interrupt=true");
@@ -918,7 +2194,10 @@ public class RXTXPort extends SerialPort
 			try {
 
 				// wait a reasonable moment for the death of the monitor thread
-				monThread.join(3000);
+				if ( monThread.dispatcher != null )
+					monThread.awaitDetached(3000);
+				else
+					monThread.join(3000);
 			} catch (InterruptedException ex) {
 				// somebody called interrupt() on us (ie wants us to abort)
 				// we dont propagate InterruptedExceptions so lets re-set the flag 
@@ -936,7 +2215,7 @@ public class RXTXPort extends SerialPort
 		}
 		monThread = null;
 		SPEventListener = null;
-		MonitorThreadLock = false;
+		unlockMonitorThread();
 		MonitorThreadAlive=false;
 		monThreadisInterrupted=true;
 		z.reportln( "RXTXPort:removeEventListener() returning");
@@ -947,16 +2226,53 @@ public class RXTXPort extends SerialPort
 	 *
 	 *	This is important for applications that flicker the Monitor
 	 *	thread while keeping the port open.
-	 *	In worst case test cases this loops once or twice every time.
+	 *	The native code calls unlockMonitorThread() when it is ready,
+	 *	which wakes us up at once.
 	 */
 
 	protected void waitForTheNativeCodeSilly()
 	{
-		while( MonitorThreadLock )
+		if( !MonitorThreadLock )
+			return;
+		boolean interrupted = false;
+		synchronized( MonitorThreadGate )
 		{
-			try {
-				Thread.sleep(5);
-			} catch( Exception e ) {}
+			while( MonitorThreadLock )
+			{
+				try {
+					MonitorThreadGate.wait();
+				} catch( InterruptedException e ) {
+					interrupted = true;
+				}
+			}
+		}
+		if( interrupted )
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 *	Wait for the native code as above, then hold it off ourselves
+	 *	until unlockMonitorThread().
+	 */
+	private void lockMonitorThread()
+	{
+		synchronized( MonitorThreadGate )
+		{
+			waitForTheNativeCodeSilly();
+			MonitorThreadLock = true;
+		}
+	}
+
+	/**
+	 *	Let go of the native code.  Called from unlock_monitor_thread()
+	 *	once eventLoop() is listening to the hardware.
+	 */
+	void unlockMonitorThread()
+	{
+		synchronized( MonitorThreadGate )
+		{
+			MonitorThreadLock = false;
+			MonitorThreadGate.notifyAll();
 		}
 	}
 	/**
@@ -970,13 +2286,17 @@ public class RXTXPort extends SerialPort
 			z.reportln( "RXTXPort:notifyOnDataAvailable( " +
 				enable+" )");
 		
-		waitForTheNativeCodeSilly();
-
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.DATA_AVAILABLE,
-					enable );
-		monThread.Data = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.DATA_AVAILABLE,
+						enable );
+			monThread.Data = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 
 	/**
@@ -987,12 +2307,17 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnOutputEmpty( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.OUTPUT_BUFFER_EMPTY,
-					enable );
-		monThread.Output = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.OUTPUT_BUFFER_EMPTY,
+						enable );
+			monThread.Output = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 
 	/**
@@ -1003,11 +2328,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnCTS( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.CTS, enable );
-		monThread.CTS = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.CTS, enable );
+			monThread.CTS = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1017,11 +2347,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnDSR( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.DSR, enable );
-		monThread.DSR = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.DSR, enable );
+			monThread.DSR = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1031,11 +2366,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnRingIndicator( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.RI, enable );
-		monThread.RI = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.RI, enable );
+			monThread.RI = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1045,11 +2385,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnCarrierDetect( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.CD, enable );
-		monThread.CD = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.CD, enable );
+			monThread.CD = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1059,11 +2404,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnOverrunError( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.OE, enable );
-		monThread.OE = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.OE, enable );
+			monThread.OE = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1073,11 +2423,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnParityError( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.PE, enable );
-		monThread.PE = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.PE, enable );
+			monThread.PE = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1087,11 +2442,16 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnFramingError( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.FE, enable );
-		monThread.FE = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.FE, enable );
+			monThread.FE = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 	/**
 	*  @param enable
@@ -1101,64 +2461,88 @@ public class RXTXPort extends SerialPort
 		if (debug)
 			z.reportln( "RXTXPort:notifyOnBreakInterrupt( " +
 				enable+" )");
-		waitForTheNativeCodeSilly();
-		MonitorThreadLock = true;
-		nativeSetEventFlag( fd, SerialPortEvent.BI, enable );
-		monThread.BI = enable;
-		MonitorThreadLock = false;
+		lockMonitorThread();
+		try
+		{
+			nativeSetEventFlag( fd, SerialPortEvent.BI, enable );
+			monThread.BI = enable;
+		}
+		finally
+		{
+			unlockMonitorThread();
+		}
 	}
 
 	/** Close the port */
 	private native void nativeClose( String name );
 
-    public void close()
-	{
-                if (debug)
-                        z.reportln( "RXTXPort:close( " + this.name + " )"); 
-
-                try {
-                        while( !IOLockedMutex.writeLock().tryLock(500, TimeUnit.MILLISECONDS) )
-                        {
-                                if( debug )
-                                        z.reportln("IO is locked " + IOLockedMutex.getReadLockCount());
-                        }
- 
-                        if ( fd <= 0 )
-                        {
-                                z.reportln(  "RXTXPort:close detected bad File Descriptor" );
-                                return;
-                        }
-                        disableRs485();
-                        if(!HARDWARE_FAULT) setDTR(false);
-                        if(!HARDWARE_FAULT) setDSR(false);
-                        if (debug)
-                                z.reportln( "RXTXPort:close( " + this.name + " ) setting monThreadisInterrupted"); 
-                        if ( ! monThreadisInterrupted )
-                        {
-                                removeEventListener();
-                        }
-                        if (debug)
-                                z.reportln( "RXTXPort:close( " + this.name + " ) calling nativeClose"); 
-                        nativeClose( this.name );
-                        if (debug)
-                                z.reportln( "RXTXPort:close( " + this.name + " ) calling super.close"); 
-                        super.close();
-                        fd = 0;
-                        if (debug)
-                                z.reportln( "RXTXPort:close( " + this.name + " ) leaving"); 
-                } catch( InterruptedException ie ) {
-                        // somebody called interrupt() on us
-                        // we obey and return without closing the socket
-                        Thread.currentThread().interrupt();
-                        return;
-                }
-                finally
-                {
-                    if (IOLockedMutex.writeLock().isHeldByCurrentThread()) {
-                        IOLockedMutex.writeLock().unlock();
-                    }
-                }
+	public void close()
+	{
+		if (debug)
+			z.reportln( "RXTXPort:close( " + this.name + " )"); 
+		while ( !IO_STATE.compareAndSet( this, OPEN, CLOSING ) )
+		{
+			if ( ioState == CLOSED )
+				return;
+			/* somebody else is closing, let them finish */
+			LockSupport.parkNanos( this, 1000000 );
+		}
+		closer = Thread.currentThread();
+		try {
+			while ( readers.get() > 0 || writers.get() > 0 )
+			{
+				/* readers and writers parked for polled I/O see CLOSING */
+				if ( poller != null )
+					poller.wakeAll( fd );
+				if ( receiveRing != 0 )
+					wakeReceiveRing();
+				if ( debug )
+					z.reportln( "IO is locked " + readers.get() +
+						" " + writers.get() );
+				LockSupport.parkNanos( this, 500000000 );
+				if ( Thread.interrupted() )
+				{
+					// somebody called interrupt() on us
+					// we obey and return without closing the socket
+					ioState = OPEN;
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
 
+			if ( fd <= 0 )
+			{
+				z.reportln(  "RXTXPort:close detected bad File Descriptor" );
+				return;
+			}
+			disableRs485();
+			if(!HARDWARE_FAULT) setDTR(false);
+			if(!HARDWARE_FAULT) setDSR(false);
+			if (debug)
+				z.reportln( "RXTXPort:close( " + this.name + " ) setting monThreadisInterrupted"); 
+			stopModemLineWatcher();
+			removeDataListener();
+			detachEventRing();
+			if ( ! monThreadisInterrupted )
+			{
+				removeEventListener();
+			}
+			nativeStopReceiveRing();
+			if (debug)
+				z.reportln( "RXTXPort:close( " + this.name + " ) calling nativeClose"); 
+			nativeClose( this.name );
+			if (debug)
+				z.reportln( "RXTXPort:close( " + this.name + " ) calling super.close"); 
+			super.close();
+			fd = 0;
+			if (debug)
+				z.reportln( "RXTXPort:close( " + this.name + " ) leaving"); 
+		}
+		finally
+		{
+			closer = null;
+			IO_STATE.compareAndSet( this, CLOSING, CLOSED );
+		}
 	}
 
 
@@ -1192,7 +2576,7 @@ public class RXTXPort extends SerialPort
 			{
 				return;
 			}
-			IOLockedMutex.readLock().lock();
+			beginIO( writers );
 			try {
 				waitForTheNativeCodeSilly();
 				if ( fd == 0 )
@@ -1200,11 +2584,13 @@ public class RXTXPort extends SerialPort
 					System.err.println("File Descriptor for prot zero!!");
 					throw new IOException();
 				}
+				if ( polledIO )
+					awaitWritable( 0 );
 				writeByte( b, monThreadisInterrupted );
 				if (debug_write)
 					z.reportln( "Leaving RXTXPort:SerialOutputStream:write( int )");
 			} finally {
-				IOLockedMutex.readLock().unlock();
+				endIO( writers );
 			}
 		}
 	/**
@@ -1223,14 +2609,17 @@ public class RXTXPort extends SerialPort
 				return;
 			}
 			if ( fd == 0 ) throw new IOException();
-			IOLockedMutex.readLock().lock();
+			beginIO( writers );
 			try {
 				waitForTheNativeCodeSilly();
-				writeArray( b, 0, b.length, monThreadisInterrupted );
+				if ( polledIO )
+					polledWrite( b, 0, b.length );
+				else
+					writeArray( b, 0, b.length, monThreadisInterrupted );
 				if (debug_write)
 					z.reportln( "Leaving RXTXPort:SerialOutputStream:write(" +b.length  +")");
 			} finally {
-				IOLockedMutex.readLock().unlock();
+				endIO( writers );
 			}
 			
 		}
@@ -1244,33 +2633,34 @@ public class RXTXPort extends SerialPort
 			throws IOException
 		{
 			if( speed == 0 ) return;
-			if( off + len  > b.length )
+			if( off < 0 || len < 0 || off + len  > b.length )
 			{
 				throw new IndexOutOfBoundsException(
 					"Invalid offset/length passed to read"
 				);
 			}
-	 
-			byte send[] = new byte[len];
-			System.arraycopy( b, off, send, 0, len );
 			if (debug_write)
 			{
-				z.reportln( "Entering RXTXPort:SerialOutputStream:write(" + send.length + " " + off + " " + len + " " +") " /*+  new String(send) */ );
+				z.reportln( "Entering RXTXPort:SerialOutputStream:write(" + b.length + " " + off + " " + len + " " +") " /*+  new String(b) */ );
 			}
 			if ( fd == 0 ) throw new IOException();
 			if ( monThreadisInterrupted == true )
 			{
 				return;
 			}
-			IOLockedMutex.readLock().lock();
+			beginIO( writers );
 			try
 			{
 				waitForTheNativeCodeSilly();
-				writeArray( send, 0, len, monThreadisInterrupted );
+				/* writeArray takes the offset, no need for a copy */
+				if ( polledIO )
+					polledWrite( b, off, len );
+				else
+					writeArray( b, off, len, monThreadisInterrupted );
 				if( debug_write )
-					z.reportln( "Leaving RXTXPort:SerialOutputStream:write(" + send.length + " " + off + " " + len + " " +") "  /*+ new String(send)*/ );
+					z.reportln( "Leaving RXTXPort:SerialOutputStream:write(" + b.length + " " + off + " " + len + " " +") "  /*+ new String(b)*/ );
 			} finally {
-				IOLockedMutex.readLock().unlock();
+				endIO( writers );
 			}
 		}
 	/**
@@ -1287,7 +2677,7 @@ public class RXTXPort extends SerialPort
 				z.reportln( "RXTXPort:SerialOutputStream:flush() Leaving Interrupted");
 				return;
 			}
-			IOLockedMutex.readLock().lock();
+			beginIO( writers );
 			try
 			{
 				waitForTheNativeCodeSilly();
@@ -1302,7 +2692,7 @@ public class RXTXPort extends SerialPort
 			}
 			finally
 			{
-				IOLockedMutex.readLock().unlock();
+				endIO( writers );
 			}
 		}
 	}
@@ -1310,6 +2700,76 @@ public class RXTXPort extends SerialPort
 	/** Inner class for SerialInputStream */
 	class SerialInputStream extends InputStream
 	{
+		/* bytes read past the terminator by read( b[], off, len, t[] ) */
+		byte pending[] = new byte[0];
+		int pendingPos;
+		volatile int pendingLen;
+		/* one reader at a time; unlike a monitor, waiting can be interrupted */
+		final ReentrantLock readLock = new ReentrantLock();
+		private final byte one[] = new byte[1];
+
+		void lockReads() throws InterruptedIOException
+		{
+			try {
+				readLock.lockInterruptibly();
+			} catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		private int polledReadByte() throws IOException
+		{
+			return polledRead( one, 0, 1, 1 ) > 0 ? one[0] & 0xff : -1;
+		}
+
+		/* bytes which go out before anything else is read */
+		void addPending( byte b[] )
+		{
+			if ( b == null || b.length == 0 )
+				return;
+			byte grown[] = new byte[ pendingLen + b.length ];
+			System.arraycopy( pending, pendingPos, grown, 0, pendingLen );
+			System.arraycopy( b, 0, grown, pendingLen, b.length );
+			pending = grown;
+			pendingPos = 0;
+			pendingLen = grown.length;
+		}
+
+		private int readPending( byte b[], int off, int len )
+		{
+			int n = Math.min( len, pendingLen );
+			System.arraycopy( pending, pendingPos, b, off, n );
+			pendingPos += n;
+			pendingLen -= n;
+			return n;
+		}
+
+		/* one frame ended by the line going quiet, pending bytes first */
+		private int readGapFrame( byte b[], int off, int len, int gap )
+			throws IOException
+		{
+			int have = 0;
+			if ( pendingLen > 0 )
+			{
+				have = readPending( b, off, len );
+				if ( have == len )
+					return( have );
+			}
+			if ( monThreadisInterrupted == true )
+				return( have );
+			beginIO( readers );
+			try
+			{
+				waitForTheNativeCodeSilly();
+				return( readFrame( b, off, len, have, gap,
+					characterNanos() ) );
+			}
+			finally
+			{
+				endIO( readers );
+			}
+		}
 	/**
 	*  @return int the int read
 	*    IOException
@@ -1325,31 +2785,41 @@ public class RXTXPort extends SerialPort
 *0       >0      Blocks until 1 byte, magnitude of  threshold doesn't
 *                play a role
 	*/
-		public synchronized int read() throws IOException
+		public int read() throws IOException
 		{
-			if (debug_read)
-				z.reportln( "RXTXPort:SerialInputStream:read() called");
-			if ( fd == 0 ) throw new IOException();
-			if ( monThreadisInterrupted )
-			{
-				z.reportln( "+++++++++ read() monThreadisInterrupted" );
-			}
-			IOLockedMutex.readLock().lock();
+			lockReads();
 			try {
-				if (debug_read_results)
-					z.reportln(  "RXTXPort:SerialInputStream:read() L" );
-				waitForTheNativeCodeSilly();
-				if (debug_read_results)
-					z.reportln(  "RXTXPort:SerialInputStream:read() N" );
-				int result = readByte();
-				if (debug_read_results)
-					//z.reportln(  "RXTXPort:SerialInputStream:read() returns byte = " + result );
-					z.reportln(  "RXTXPort:SerialInputStream:read() returns" );
-				return( result );
-			}				
-			finally
-			{
-				IOLockedMutex.readLock().unlock();
+				if (debug_read)
+					z.reportln( "RXTXPort:SerialInputStream:read() called");
+				if ( fd == 0 ) throw new IOException();
+				if ( monThreadisInterrupted )
+				{
+					z.reportln( "+++++++++ read() monThreadisInterrupted" );
+				}
+				if ( pendingLen > 0 )
+				{
+					pendingLen--;
+					return( pending[ pendingPos++ ] & 0xff );
+				}
+				beginIO( readers );
+				try {
+					if (debug_read_results)
+						z.reportln(  "RXTXPort:SerialInputStream:read() L" );
+					waitForTheNativeCodeSilly();
+					if (debug_read_results)
+						z.reportln(  "RXTXPort:SerialInputStream:read() N" );
+					int result = polledIO ? polledReadByte() : readByte();
+					if (debug_read_results)
+						//z.reportln(  "RXTXPort:SerialInputStream:read() returns byte = " + result );
+						z.reportln(  "RXTXPort:SerialInputStream:read() returns" );
+					return( result );
+				}				
+				finally
+				{
+					endIO( readers );
+				}
+			} finally {
+				readLock.unlock();
 			}
 		}
 	/**
@@ -1365,27 +2835,32 @@ public class RXTXPort extends SerialPort
                  returns 0 on timeout
 *0       >0      blocks until reads threshold bytes
 	*/
-		public synchronized int read( byte b[] ) throws IOException
+		public int read( byte b[] ) throws IOException
 		{
-			int result;
-			if (debug_read)
-				z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + ") called");
-			if ( monThreadisInterrupted == true )
-			{
-				return(0);
-			}
-			IOLockedMutex.readLock().lock();
-			try
-			{
-				waitForTheNativeCodeSilly();
-				result = read( b, 0, b.length);
-				if (debug_read_results)
-					z.reportln(  "RXTXPort:SerialInputStream:read() returned " + result + " bytes" );
-				return( result );
-			}
-			finally
-			{
-				IOLockedMutex.readLock().unlock();
+			lockReads();
+			try {
+				int result;
+				if (debug_read)
+					z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + ") called");
+				if ( monThreadisInterrupted == true )
+				{
+					return(0);
+				}
+				beginIO( readers );
+				try
+				{
+					waitForTheNativeCodeSilly();
+					result = read( b, 0, b.length);
+					if (debug_read_results)
+						z.reportln(  "RXTXPort:SerialInputStream:read() returned " + result + " bytes" );
+					return( result );
+				}
+				finally
+				{
+					endIO( readers );
+				}
+			} finally {
+				readLock.unlock();
 			}
 		}
 /*
@@ -1408,95 +2883,116 @@ Documentation is at http://java.sun.com/products/jdk/1.2/docs/api/java/io/InputS
 *0       >0      blocks until either threshold # of bytes or len bytes,
                  whichever was lower.
 	*/
-		public synchronized int read( byte b[], int off, int len )
+		public int read( byte b[], int off, int len )
 			throws IOException
 		{
-			if (debug_read)
-				z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") called" /*+ new String(b) */ );
-			int result;
-			/*
-			 * Some sanity checks
-			 */
-			if ( fd == 0 )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() fd == 0");
-				z.reportln("+++++++ IOException()\n");
-				throw new IOException();
-			}
-
-			if( b==null )
-			{
-				z.reportln("+++++++ NullPointerException()\n");
+			lockReads();
+			try {
 				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() b == 0");
-				throw new NullPointerException();
-			}
+					z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") called" /*+ new String(b) */ );
+				int result;
+				/*
+				 * Some sanity checks
+				 */
+				if ( fd == 0 )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() fd == 0");
+					z.reportln("+++++++ IOException()\n");
+					throw new IOException();
+				}
 
-			if( (off < 0) || (len < 0) || (off+len > b.length))
-			{
-				z.reportln("+++++++ IndexOutOfBoundsException()\n");
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
-				throw new IndexOutOfBoundsException();
-			}
+				if( b==null )
+				{
+					z.reportln("+++++++ NullPointerException()\n");
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() b == 0");
+					throw new NullPointerException();
+				}
 
-			/*
-			 * Return immediately if len==0
-			 */
-			if( len==0 )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
-				return 0;
-			}
-			/*
-			 * See how many bytes we should read
-			 */
-			int Minimum = len;
+				if( (off < 0) || (len < 0) || (off+len > b.length))
+				{
+					z.reportln("+++++++ IndexOutOfBoundsException()\n");
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
+					throw new IndexOutOfBoundsException();
+				}
 
-			if( threshold==0 )
-			{
-			/*
-			 * If threshold is disabled, read should return as soon
-			 * as data are available (up to the amount of available
-			 * bytes in order to avoid blocking)
-			 * Read may return earlier depending of the receive time
-			 * out.
-			 */
-				int a = nativeavailable();
-				if( a == 0 )
+				/*
+				 * Return immediately if len==0
+				 */
+				if( len==0 )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
+					return 0;
+				}
+				int gap = getInterCharacterGap();
+				if ( gap > 0 )
+					return( readGapFrame( b, off, len, gap ) );
+				if ( pendingLen > 0 )
+					return( readPending( b, off, len ) );
+				/*
+				 * See how many bytes we should read
+				 */
+				int Minimum = len;
+				/* polledRead() takes what is there up to most by itself */
+				int most = len;
+
+				if( threshold==0 && polledIO )
+				{
 					Minimum = 1;
+				}
+				else if( threshold==0 )
+				{
+				/*
+				 * If threshold is disabled, read should return as soon
+				 * as data are available (up to the amount of available
+				 * bytes in order to avoid blocking)
+				 * Read may return earlier depending of the receive time
+				 * out.
+				 */
+					int a = nativeavailable();
+					if( a == 0 )
+						Minimum = 1;
+					else
+						Minimum = Math.min( Minimum, a );
+					most = Minimum;
+				}
 				else
-					Minimum = Math.min( Minimum, a );
-			}
-			else
-			{
-			/*
-			 * Threshold is enabled. Read should return when
-			 * 'threshold' bytes have been received (or when the
-			 * receive timeout expired)
-			 */
-				Minimum = Math.min(Minimum, threshold);
-			}
-			if ( monThreadisInterrupted == true )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() Interrupted");
-				return(0);
-			}
-			IOLockedMutex.readLock().lock();
-			try
-			{
-				waitForTheNativeCodeSilly();
-				result = readArray( b, off, Minimum);
-				if (debug_read_results)
-					z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") returned " + result + " bytes"  /*+ new String(b) */);
-				return( result );
-			}
-			finally
-			{
-				IOLockedMutex.readLock().unlock();
+				{
+				/*
+				 * Threshold is enabled. Read should return when
+				 * 'threshold' bytes have been received (or when the
+				 * receive timeout expired)
+				 */
+					Minimum = Math.min(Minimum, threshold);
+					most = Minimum;
+				}
+				if ( monThreadisInterrupted == true )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() Interrupted");
+					return(0);
+				}
+				beginIO( readers );
+				try
+				{
+					waitForTheNativeCodeSilly();
+					if ( polledIO )
+						result = polledRead( b, off, most, Minimum );
+					else
+						result = readArray( b, off, Minimum);
+					if (debug_read_results)
+						z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") returned " + result + " bytes"  /*+ new String(b) */);
+					return( result );
+				}
+				finally
+				{
+					endIO( readers );
+				}
+			} finally {
+				readLock.unlock();
 			}
 		}
 
@@ -1508,111 +3004,101 @@ Documentation is at http://java.sun.com/products/jdk/1.2/docs/api/java/io/InputS
 	*  @return int  number of bytes read
 	*    IOException
 
-	   We are trying to catch the terminator in the native code
-	   Right now it is assumed that t[] is an array of 2 bytes.
-	
-	   if the read encounters the two bytes, it will return and the
-	   array will contain the terminator.  Otherwise read behavior should
-	   be the same as read( b[], off, len ).  Timeouts have not been well
-	   tested.
+	   We are trying to catch the terminator in the native code.
+	   t[] may be any length.
+
+	   The read returns as soon as the terminator has been read, and
+	   b[] will end with it, or when len bytes or the receive timeout
+	   have been reached.  The threshold plays no role.  The native code
+	   reads whatever the driver has in one go; bytes that came in after
+	   the terminator are kept and handed out by the next read.
 	*/
 
-		public synchronized int read( byte b[], int off, int len, byte t[] )
+		public int read( byte b[], int off, int len, byte t[] )
 			throws IOException
 		{
-			if (debug_read)
-				z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") called" /*+ new String(b) */ );
-			int result;
-			/*
-			 * Some sanity checks
-			 */
-			if ( fd == 0 )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() fd == 0");
-				z.reportln("+++++++ IOException()\n");
-				throw new IOException();
-			}
-
-			if( b==null )
-			{
-				z.reportln("+++++++ NullPointerException()\n");
+			lockReads();
+			try {
 				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() b == 0");
-				throw new NullPointerException();
-			}
+					z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") called" /*+ new String(b) */ );
+				int result;
+				/*
+				 * Some sanity checks
+				 */
+				if ( fd == 0 )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() fd == 0");
+					z.reportln("+++++++ IOException()\n");
+					throw new IOException();
+				}
 
-			if( (off < 0) || (len < 0) || (off+len > b.length))
-			{
-				z.reportln("+++++++ IndexOutOfBoundsException()\n");
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
-				throw new IndexOutOfBoundsException();
-			}
+				if( b==null || t==null )
+				{
+					z.reportln("+++++++ NullPointerException()\n");
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() b == 0");
+					throw new NullPointerException();
+				}
 
-			/*
-			 * Return immediately if len==0
-			 */
-			if( len==0 )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
-				return 0;
-			}
-			/*
-			 * See how many bytes we should read
-			 */
-			int Minimum = len;
+				if( (off < 0) || (len < 0) || (off+len > b.length))
+				{
+					z.reportln("+++++++ IndexOutOfBoundsException()\n");
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
+					throw new IndexOutOfBoundsException();
+				}
 
-			if( threshold==0 )
-			{
-			/*
-			 * If threshold is disabled, read should return as soon
-			 * as data are available (up to the amount of available
-			 * bytes in order to avoid blocking)
-			 * Read may return earlier depending of the receive time
-			 * out.
-			 */
-				int a = nativeavailable();
-				if( a == 0 )
-					Minimum = 1;
-				else
-					Minimum = Math.min( Minimum, a );
-			}
-			else
-			{
-			/*
-			 * Threshold is enabled. Read should return when
-			 * 'threshold' bytes have been received (or when the
-			 * receive timeout expired)
-			 */
-				Minimum = Math.min(Minimum, threshold);
-			}
-			if ( monThreadisInterrupted == true )
-			{
-				if (debug_read)
-					z.reportln( "RXTXPort:SerialInputStream:read() Interrupted");
-				return(0);
-			}
-			IOLockedMutex.readLock().lock();
-			try
-			{
-				waitForTheNativeCodeSilly();
-				result = readTerminatedArray( b, off, Minimum, t );
-				if (debug_read_results)
-					z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") returned " + result + " bytes"  /*+ new String(b) */);
-				return( result );
-			}
-			finally
-			{
-				IOLockedMutex.readLock().unlock();
+				/*
+				 * Return immediately if len==0
+				 */
+				if( len==0 )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() off < 0 ..");
+					return 0;
+				}
+				if ( monThreadisInterrupted == true )
+				{
+					if (debug_read)
+						z.reportln( "RXTXPort:SerialInputStream:read() Interrupted");
+					return(0);
+				}
+				beginIO( readers );
+				try
+				{
+					waitForTheNativeCodeSilly();
+					/* the leftover comes back at the start of pending[] */
+					if ( pending.length < Math.max( len, pendingLen ) )
+					{
+						byte grown[] = new byte[ Math.max( len, pendingLen ) ];
+						System.arraycopy( pending, pendingPos, grown, 0,
+							pendingLen );
+						pending = grown;
+						pendingPos = 0;
+					}
+					long r = readTerminatedArray( b, off, len, t,
+						pending, pendingPos, pendingLen );
+					result = (int) r;
+					pendingPos = 0;
+					pendingLen = (int) ( r >>> 32 );
+					if (debug_read_results)
+						z.reportln( "RXTXPort:SerialInputStream:read(" + b.length + " " + off + " " + len + ") returned " + result + " bytes"  /*+ new String(b) */);
+					return( result );
+				}
+				finally
+				{
+					endIO( readers );
+				}
+			} finally {
+				readLock.unlock();
 			}
 		}
 	/**
 	*  @return int bytes available
 	*    IOException
 	*/
-		public synchronized int available() throws IOException
+		public int available() throws IOException
 		{
 			if ( monThreadisInterrupted == true )
 			{
@@ -1620,10 +3106,10 @@ Documentation is at http://java.sun.com/products/jdk/1.2/docs/api/java/io/InputS
 			}
 			if ( debug_verbose )
 				z.reportln( "RXTXPort:available() called" );
-			IOLockedMutex.readLock().lock();
+			beginIO( readers );
 			try
 			{
-				int r = nativeavailable();
+				int r = nativeavailable() + pendingLen;
 				if ( debug_verbose )
 					z.reportln( "RXTXPort:available() returning " +
 						r );
@@ -1631,7 +3117,7 @@ Documentation is at http://java.sun.com/products/jdk/1.2/docs/api/java/io/InputS
 			}
 			finally
 			{
-				IOLockedMutex.readLock().unlock();
+				endIO( readers );
 			}
 		}
 	}
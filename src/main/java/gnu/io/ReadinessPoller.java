@@ -0,0 +1,250 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   RXTX is a native interface to serial ports in java.
+|   Copyright 1997-2007 by Trent Jarvi tjarvi@qbang.org and others who
+|   actually wrote it.  See individual source files for more information.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* Waits for ports to become readable or writable on one shared thread, so
+* the threads doing the reads and writes can park in Java instead of
+* blocking in poll() inside a native call.  A parked thread can be
+* interrupted, and a virtual thread parked here gives its carrier back.
+*
+* Used by RXTXPort when polled I/O is on, see RXTXPort.setPolledIO().
+*/
+final class ReadinessPoller implements Runnable
+{
+	/* as SELECT_OP_READ and SELECT_OP_WRITE in SerialImp.c */
+	static final int OP_READ = 1;
+	static final int OP_WRITE = 4;
+
+	private static ReadinessPoller instance;
+
+	private final long handle;
+	/* guarded by itself */
+	private final Set<Waiter> waiters = new HashSet<Waiter>();
+
+	private static final class Waiter
+	{
+		final int fd;
+		final int ops;
+		final Thread thread;
+		volatile boolean ready;
+
+		Waiter( int fd, int ops, Thread thread )
+		{
+			this.fd = fd;
+			this.ops = ops;
+			this.thread = thread;
+		}
+	}
+
+	private ReadinessPoller( long handle )
+	{
+		this.handle = handle;
+	}
+
+	/**
+	*  @return the poller, started on first use
+	*  @throws IOException if the platform has no poll()
+	*/
+	static synchronized ReadinessPoller get() throws IOException
+	{
+		if( instance == null )
+		{
+			ReadinessPoller p = new ReadinessPoller( nativeOpen() );
+			Thread t = new Thread( p, "RXTXReadinessPoller" );
+			t.setDaemon( true );
+			t.start();
+			instance = p;
+		}
+		return instance;
+	}
+
+	/**
+	*  @return true if fd is ready for any of ops right now
+	*/
+	static boolean ready( int fd, int ops ) throws IOException
+	{
+		int fds[] = { fd };
+		int ready[] = { ops };
+		return nativePoll( 0, fds, ready, 1, 0 ) > 0;
+	}
+
+	/**
+	*  Park until fd is ready for one of ops
+	*  @param deadline System.nanoTime() to give up at, or -1 to wait
+	*  as long as it takes
+	*  @return false if the deadline passed first
+	*  @throws InterruptedIOException if the thread is interrupted; the
+	*  interrupt status stays set
+	*/
+	boolean await( int fd, int ops, long deadline )
+		throws InterruptedIOException
+	{
+		Waiter w = new Waiter( fd, ops, Thread.currentThread() );
+		synchronized( waiters )
+		{
+			waiters.add( w );
+		}
+		nativeWakeup( handle );
+		try {
+			while( !w.ready )
+			{
+				if( Thread.currentThread().isInterrupted() )
+					throw new InterruptedIOException();
+				if( deadline == -1 )
+					LockSupport.park( this );
+				else
+				{
+					long left = deadline - System.nanoTime();
+					if( left <= 0 )
+						return false;
+					LockSupport.parkNanos( this, left );
+				}
+			}
+			return true;
+		} finally {
+			if( !w.ready )
+			{
+				synchronized( waiters )
+				{
+					waiters.remove( w );
+				}
+			}
+		}
+	}
+
+	/**
+	*  Wake everybody waiting on fd, e.g. because the port is closing
+	*/
+	void wakeAll( int fd )
+	{
+		synchronized( waiters )
+		{
+			for( Iterator<Waiter> i = waiters.iterator(); i.hasNext(); )
+			{
+				Waiter w = i.next();
+				if( w.fd == fd )
+				{
+					i.remove();
+					w.ready = true;
+					LockSupport.unpark( w.thread );
+				}
+			}
+		}
+	}
+
+	public void run()
+	{
+		int fds[] = new int[ 16 ];
+		int ops[] = new int[ 16 ];
+		Waiter polled[] = new Waiter[ 16 ];
+		for( ;; )
+		{
+			int n = 0;
+			synchronized( waiters )
+			{
+				if( waiters.size() > fds.length )
+				{
+					int size = Integer.highestOneBit( waiters.size() ) * 2;
+					fds = new int[ size ];
+					ops = new int[ size ];
+					polled = new Waiter[ size ];
+				}
+				for( Waiter w : waiters )
+				{
+					fds[ n ] = w.fd;
+					ops[ n ] = w.ops;
+					polled[ n++ ] = w;
+				}
+			}
+			try {
+				nativePoll( handle, fds, ops, n, -1 );
+			} catch( IOException e ) {
+				/* a bad fd makes poll() flag it, this is worse */
+				System.err.println( "ReadinessPoller: " + e );
+				LockSupport.parkNanos( this, 10000000 );
+				continue;
+			}
+			synchronized( waiters )
+			{
+				for( int i = 0; i < n; i++ )
+				{
+					Waiter w = polled[ i ];
+					polled[ i ] = null;
+					if( ops[ i ] != 0 && waiters.remove( w ) )
+					{
+						w.ready = true;
+						LockSupport.unpark( w.thread );
+					}
+				}
+			}
+		}
+	}
+
+	private static native long nativeOpen() throws IOException;
+	private static native int nativePoll( long handle, int fds[],
+		int ops[], int n, long timeout ) throws IOException;
+	private static native void nativeWakeup( long handle );
+}
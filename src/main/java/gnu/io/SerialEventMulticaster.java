@@ -0,0 +1,426 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   RXTX is a native interface to serial ports in java.
+|   Copyright 1997-2007 by Trent Jarvi tjarvi@qbang.org and others who
+|   actually wrote it.  See individual source files for more information.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Hands the events of a port to any number of listeners without running
+* them on the event loop.
+*
+* Add the multicaster to a port with addEventListener() and subscribe
+* the real listeners to it.  Each subscriber has a mask of the event
+* types it wants and a bounded queue.  serialEvent() only puts the event
+* on the queues and returns; the subscriber's queue is emptied by a task
+* on an Executor, one task at a time, so a subscriber sees its events in
+* order.  A slow subscriber only makes its own queue grow, and what
+* happens when it is full is up to its OverflowPolicy.
+*
+* The notifyOn* calls on the port still decide which events are sent at
+* all; enable the union of the subscribers' masks there.
+*/
+public class SerialEventMulticaster implements SerialPortEventListener
+{
+	/** What to do with an event when a subscriber's queue is full */
+	public enum OverflowPolicy
+	{
+		/** Drop the oldest queued event to make room */
+		DROP_OLDEST,
+		/** Replace a queued event of the same type, so the
+		    subscriber only sees the latest state; drop the oldest
+		    if there is none */
+		COALESCE,
+		/** Make the event loop wait for room */
+		BLOCK
+	}
+
+	/** Mask with every event type in it */
+	public static final int ALL_EVENTS = -1;
+
+	/**
+	*  @param types SerialPortEvent types
+	*  @return the mask to subscribe to those types
+	*/
+	public static int mask( int... types )
+	{
+		int m = 0;
+		for( int type : types )
+			m |= 1 << type;
+		return m;
+	}
+
+	private final Executor executor;
+	private final CopyOnWriteArrayList<Subscription> subscriptions =
+		new CopyOnWriteArrayList<Subscription>();
+
+	/**
+	*  Deliver on a shared pool of daemon threads
+	*/
+	public SerialEventMulticaster()
+	{
+		this( DefaultExecutor.POOL );
+	}
+
+	/**
+	*  @param executor runs the tasks that deliver the events
+	*/
+	public SerialEventMulticaster( Executor executor )
+	{
+		if( executor == null )
+			throw new NullPointerException();
+		this.executor = executor;
+	}
+
+	/**
+	*  @param lsnr SerialPortEventListener
+	*  @param mask event types to deliver, see mask()
+	*  @param queueSize most events waiting for this listener
+	*  @param policy what to do when queueSize events are waiting
+	*  @return the subscription, for its metrics and to unsubscribe
+	*/
+	public Subscription subscribe( SerialPortEventListener lsnr, int mask,
+		int queueSize, OverflowPolicy policy )
+	{
+		if( lsnr == null || policy == null )
+			throw new NullPointerException();
+		if( queueSize <= 0 )
+			throw new IllegalArgumentException( "queueSize " +
+				queueSize );
+		Subscription s = new Subscription( lsnr, mask, queueSize, policy );
+		subscriptions.add( s );
+		return s;
+	}
+
+	/**
+	*  Subscribe to every event with a queue of 1024 that drops the
+	*  oldest event when full
+	*  @param lsnr SerialPortEventListener
+	*  @return the subscription
+	*/
+	public Subscription subscribe( SerialPortEventListener lsnr )
+	{
+		return subscribe( lsnr, ALL_EVENTS, 1024,
+			OverflowPolicy.DROP_OLDEST );
+	}
+
+	/**
+	*  Stop delivering to a subscriber; events already queued are
+	*  discarded.
+	*  @param s Subscription
+	*/
+	public void unsubscribe( Subscription s )
+	{
+		if( subscriptions.remove( s ) )
+			s.cancel();
+	}
+
+	/**
+	*  @return the subscribers
+	*/
+	public java.util.List<Subscription> getSubscriptions()
+	{
+		return java.util.Collections.unmodifiableList( subscriptions );
+	}
+
+	/**
+	*  @return events waiting across all subscribers
+	*/
+	public int getQueueDepth()
+	{
+		int n = 0;
+		for( Subscription s : subscriptions )
+			n += s.getQueueDepth();
+		return n;
+	}
+
+	/**
+	*  Queue the event for every subscriber that wants it
+	*  @param e SerialPortEvent
+	*/
+	public void serialEvent( SerialPortEvent e )
+	{
+		int bit = 1 << e.getEventType();
+		SerialPortEvent queued = null;
+		for( Subscription s : subscriptions )
+			if( ( s.mask & bit ) != 0 )
+			{
+				/* the port fills e in again for its next event */
+				if( queued == null )
+					queued = new SerialPortEvent(
+						(SerialPort) e.getSource(), e.getEventType(),
+						e.getOldValue(), e.getNewValue() );
+				s.offer( queued );
+			}
+	}
+
+	/** A listener with its mask and queue */
+	public final class Subscription implements Runnable
+	{
+		final SerialPortEventListener listener;
+		final int mask;
+		private final OverflowPolicy policy;
+		/* circular queue, guarded by this */
+		private final SerialPortEvent queue[];
+		private int first;
+		private int count;
+		private boolean scheduled;
+		private boolean cancelled;
+		private int maxDepth;
+		private long delivered;
+		private long dropped;
+		private long coalesced;
+
+		Subscription( SerialPortEventListener listener, int mask,
+			int queueSize, OverflowPolicy policy )
+		{
+			this.listener = listener;
+			this.mask = mask;
+			this.policy = policy;
+			this.queue = new SerialPortEvent[ queueSize ];
+		}
+
+		void offer( SerialPortEvent e )
+		{
+			boolean schedule;
+			synchronized( this )
+			{
+				if( cancelled )
+					return;
+				if( policy == OverflowPolicy.COALESCE &&
+					replace( e ) )
+					return;
+				if( count == queue.length )
+				{
+					if( policy == OverflowPolicy.BLOCK )
+					{
+						while( count == queue.length && !cancelled )
+						{
+							try {
+								wait();
+							} catch( InterruptedException ex ) {
+								Thread.currentThread().interrupt();
+								dropped++;
+								return;
+							}
+						}
+						if( cancelled )
+							return;
+					}
+					else
+					{
+						queue[ first ] = null;
+						first = ( first + 1 ) % queue.length;
+						count--;
+						dropped++;
+					}
+				}
+				queue[ ( first + count ) % queue.length ] = e;
+				count++;
+				if( count > maxDepth )
+					maxDepth = count;
+				schedule = !scheduled;
+				scheduled = true;
+			}
+			if( schedule )
+				submit();
+		}
+
+		/* swap in e for a queued event of the same type */
+		private boolean replace( SerialPortEvent e )
+		{
+			int type = e.getEventType();
+			for( int i = 0; i < count; i++ )
+			{
+				int j = ( first + i ) % queue.length;
+				if( queue[ j ].getEventType() == type )
+				{
+					queue[ j ] = e;
+					coalesced++;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void submit()
+		{
+			try {
+				executor.execute( this );
+			} catch( RejectedExecutionException ex ) {
+				/* leave the events queued for the next offer */
+				synchronized( this )
+				{
+					scheduled = false;
+				}
+			}
+		}
+
+		/** Deliver what is queued; runs on the executor */
+		public void run()
+		{
+			for( ;; )
+			{
+				SerialPortEvent e;
+				synchronized( this )
+				{
+					if( count == 0 || cancelled )
+					{
+						scheduled = false;
+						return;
+					}
+					e = queue[ first ];
+					queue[ first ] = null;
+					first = ( first + 1 ) % queue.length;
+					count--;
+					delivered++;
+					if( policy == OverflowPolicy.BLOCK )
+						notifyAll();
+				}
+				try {
+					listener.serialEvent( e );
+				} catch( RuntimeException ex ) {
+					System.err.println( "SerialEventMulticaster: exception from listener " +
+						listener + ": " + ex );
+				}
+			}
+		}
+
+		synchronized void cancel()
+		{
+			cancelled = true;
+			while( count > 0 )
+			{
+				queue[ first ] = null;
+				first = ( first + 1 ) % queue.length;
+				count--;
+			}
+			notifyAll();
+		}
+
+		/**
+		*  @return the listener
+		*/
+		public SerialPortEventListener getListener()
+		{
+			return listener;
+		}
+
+		/**
+		*  @return events waiting to be delivered
+		*/
+		public synchronized int getQueueDepth()
+		{
+			return count;
+		}
+
+		/**
+		*  @return most events that have been waiting at once
+		*/
+		public synchronized int getMaxQueueDepth()
+		{
+			return maxDepth;
+		}
+
+		/**
+		*  @return events handed to the listener
+		*/
+		public synchronized long getDelivered()
+		{
+			return delivered;
+		}
+
+		/**
+		*  @return events dropped because the queue was full
+		*/
+		public synchronized long getDropped()
+		{
+			return dropped;
+		}
+
+		/**
+		*  @return events replaced by a newer one of the same type
+		*/
+		public synchronized long getCoalesced()
+		{
+			return coalesced;
+		}
+	}
+
+	/* created on first use of the no-argument constructor */
+	private static class DefaultExecutor
+	{
+		static final ExecutorService POOL =
+			Executors.newCachedThreadPool( new ThreadFactory()
+		{
+			private final AtomicInteger n = new AtomicInteger();
+			public Thread newThread( Runnable r )
+			{
+				Thread t = new Thread( r, "SerialEventMulticaster-" +
+					n.incrementAndGet() );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+	}
+}
@@ -0,0 +1,337 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   RXTX is a native interface to serial ports in java.
+|   Copyright 1997-2007 by Trent Jarvi tjarvi@qbang.org and others who
+|   actually wrote it.  See individual source files for more information.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* A fixed size ring of serial port events.
+*
+* Ports attached with setEventRing() write each event as a record of
+* primitives (port id, type, old and new value, timestamp) into slots
+* that are allocated once, and return to their event loop right away.
+* One consumer, usually the thread from start(), takes the records out
+* and hands them to a SerialEventHandler.  Nothing is allocated per
+* event on either side.
+*
+* Any number of ports may share a ring.  When the consumer falls
+* behind and the ring is full, new events are dropped and counted in
+* getDropped() rather than blocking the event loop.
+*
+* @see SerialEventListenerAdapter
+*/
+public class SerialEventRing
+{
+	private static final int SPINS = 100;
+
+	private final int mask;
+	private final int types[];
+	private final boolean oldValues[];
+	private final boolean newValues[];
+	private final int portIds[];
+	private final long timestamps[];
+	/* sequence + 1 once a slot's record is complete */
+	private final AtomicLongArray published;
+	/* next sequence to claim and next to consume */
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile SerialPort ports[] = new SerialPort[ 8 ];
+
+	private volatile Thread consumer;
+	private volatile boolean parked;
+	private volatile boolean running;
+
+	/**
+	*  @param capacity number of events the ring holds, rounded up to a
+	*  power of two
+	*/
+	public SerialEventRing( int capacity )
+	{
+		if( capacity <= 0 || capacity > ( 1 << 30 ) )
+			throw new IllegalArgumentException( "capacity " +
+				capacity );
+		int size = Integer.highestOneBit( capacity );
+		if( size < capacity )
+			size <<= 1;
+		mask = size - 1;
+		types = new int[ size ];
+		oldValues = new boolean[ size ];
+		newValues = new boolean[ size ];
+		portIds = new int[ size ];
+		timestamps = new long[ size ];
+		published = new AtomicLongArray( size );
+	}
+
+	/**
+	*  @return the number of events the ring holds
+	*/
+	public int getCapacity()
+	{
+		return mask + 1;
+	}
+
+	/**
+	*  Give a port an id for its records
+	*  @param port SerialPort
+	*  @return the id, see getPort()
+	*/
+	public synchronized int register( SerialPort port )
+	{
+		SerialPort p[] = ports;
+		int id = 0;
+		while( id < p.length && p[ id ] != null )
+			id++;
+		if( id == p.length )
+		{
+			SerialPort grown[] = new SerialPort[ p.length * 2 ];
+			System.arraycopy( p, 0, grown, 0, p.length );
+			p = grown;
+		}
+		p[ id ] = port;
+		ports = p;
+		return id;
+	}
+
+	/**
+	*  Let go of a port id; records still in the ring for it are
+	*  delivered with the id but getPort() returns null.
+	*  @param id from register()
+	*/
+	public synchronized void unregister( int id )
+	{
+		SerialPort p[] = ports;
+		if( id >= 0 && id < p.length )
+		{
+			p[ id ] = null;
+			ports = p;
+		}
+	}
+
+	/**
+	*  @param id from register()
+	*  @return the port with that id or null
+	*/
+	public SerialPort getPort( int id )
+	{
+		SerialPort p[] = ports;
+		return id >= 0 && id < p.length ? p[ id ] : null;
+	}
+
+	/**
+	*  Add an event to the ring.  Safe to call from several threads.
+	*  @param portId from register()
+	*  @param type one of the SerialPortEvent constants
+	*  @param oldValue
+	*  @param newValue
+	*  @return false if the ring was full and the event was dropped
+	*/
+	public boolean publish( int portId, int type, boolean oldValue,
+		boolean newValue )
+	{
+		long seq;
+		do
+		{
+			seq = tail.get();
+			if( seq - head.get() > mask )
+			{
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while( !tail.compareAndSet( seq, seq + 1 ) );
+		int i = (int) seq & mask;
+		types[ i ] = type;
+		oldValues[ i ] = oldValue;
+		newValues[ i ] = newValue;
+		portIds[ i ] = portId;
+		timestamps[ i ] = System.nanoTime();
+		/* a full store so the parked check below can't pass it */
+		published.set( i, seq + 1 );
+		if( parked )
+			LockSupport.unpark( consumer );
+		return true;
+	}
+
+	/**
+	*  Hand every complete record to the handler.  Only one thread may
+	*  drain a ring at a time.
+	*  @param handler SerialEventHandler
+	*  @return the number of events handled
+	*/
+	public int drain( SerialEventHandler handler )
+	{
+		long seq = head.get();
+		int n = 0;
+		for( ;; )
+		{
+			int i = (int) seq & mask;
+			if( published.get( i ) != seq + 1 )
+				break;
+			int type = types[ i ];
+			boolean oldValue = oldValues[ i ];
+			boolean newValue = newValues[ i ];
+			int portId = portIds[ i ];
+			long timestamp = timestamps[ i ];
+			/* the slot is free again once it has been copied out */
+			head.lazySet( ++seq );
+			n++;
+			handler.handleEvent( portId, type, oldValue, newValue,
+				timestamp );
+		}
+		return n;
+	}
+
+	/**
+	*  Start a daemon thread that drains the ring into the handler
+	*  until stop() is called.  Exceptions from the handler are printed
+	*  and the thread carries on.
+	*  @param handler SerialEventHandler
+	*/
+	public synchronized void start( final SerialEventHandler handler )
+	{
+		if( consumer != null )
+			throw new IllegalStateException( "already started" );
+		running = true;
+		consumer = new Thread( "SerialEventRing" )
+		{
+			public void run()
+			{
+				consume( handler );
+			}
+		};
+		consumer.setDaemon( true );
+		consumer.start();
+	}
+
+	/**
+	*  Stop the thread from start() after it has handled what is in
+	*  the ring.
+	*/
+	public void stop() throws InterruptedException
+	{
+		Thread t;
+		synchronized( this )
+		{
+			t = consumer;
+			running = false;
+		}
+		if( t == null )
+			return;
+		LockSupport.unpark( t );
+		t.join();
+		synchronized( this )
+		{
+			if( consumer == t )
+				consumer = null;
+		}
+	}
+
+	private void consume( SerialEventHandler handler )
+	{
+		int idle = 0;
+		while( running )
+		{
+			try
+			{
+				if( drain( handler ) > 0 )
+				{
+					idle = 0;
+					continue;
+				}
+				/* events tend to come in bursts, look again
+				   before paying for park and unpark */
+				if( ++idle < SPINS )
+				{
+					Thread.yield();
+					continue;
+				}
+				parked = true;
+				/* an event may have come in before parked was seen */
+				if( published.get( (int) head.get() & mask ) !=
+					head.get() + 1 && running )
+					LockSupport.parkNanos( this, 100000000L );
+				parked = false;
+			}
+			catch( RuntimeException e )
+			{
+				parked = false;
+				System.err.println( "SerialEventRing: exception from handler: " + e );
+			}
+		}
+		drain( handler );
+	}
+
+	/**
+	*  @return the number of events waiting in the ring
+	*/
+	public int size()
+	{
+		return (int) ( tail.get() - head.get() );
+	}
+
+	/**
+	*  @return the number of events dropped because the ring was full
+	*/
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+}
@@ -93,6 +93,13 @@ public class SerialPortEvent extends EventObject
 		NewValue=newvalue;
 		eventType=eventtype;
 	}
+	/* refill an event for reuse, see SerialEventListenerAdapter */
+	void set( int eventtype, boolean oldvalue, boolean newvalue )
+	{
+		OldValue=oldvalue;
+		NewValue=newvalue;
+		eventType=eventtype;
+	}
 	public int getEventType()
 	{
 		return(eventType);
@@ -6,11 +6,18 @@ import java.net.UnknownHostException;
 import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
 import gnu.io.UnsupportedCommOperationException;
+import gnu.io.rfc2217.NioTelnetSerialPort;
 import gnu.io.rfc2217.TelnetSerialPort;
 
 public class RFC2217PortCreator implements SerialPortCreator<TelnetSerialPort> {
 
 	private final static String PROTOCOL = "rfc2217";
+
+	/**
+	 * Set this system property to true to get {@link NioTelnetSerialPort}s, which share
+	 * the threads of a {@link gnu.io.rfc2217.TelnetEngine}, instead of a reader thread per port.
+	 */
+	public final static String NON_BLOCKING_PROPERTY = "gnu.io.rfc2217.NonBlocking";
 	
 	@Override
 	public boolean isApplicable(String portName, Class<TelnetSerialPort> expectedClass) {
@@ -35,8 +42,15 @@ public class RFC2217PortCreator implements SerialPortCreator<TelnetSerialPort> {
 		 URI url = URI.create(portName);
 	      try
 	      {
+	        if(Boolean.getBoolean(NON_BLOCKING_PROPERTY)) {
+	          NioTelnetSerialPort nioSerialPort = new NioTelnetSerialPort();
+	          nioSerialPort.connect(url.getHost(), url.getPort());
+	          nioSerialPort.enableReceiveTimeout(100);
+	          return nioSerialPort;
+	        }
 	        TelnetSerialPort telnetSerialPort = new TelnetSerialPort();
 	        telnetSerialPort.getTelnetClient().connect(url.getHost(), url.getPort());
+	        telnetSerialPort.enableReceiveTimeout(100);
 	        return telnetSerialPort;
 	      }
 	      catch(UnknownHostException e) {
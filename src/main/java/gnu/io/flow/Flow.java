@@ -0,0 +1,58 @@
+package gnu.io.flow;
+
+/**
+ * The interfaces of {@code java.util.concurrent.Flow}, for Java 8.
+ * <p>
+ * They have the same methods and contracts as the Java 9 ones (and as
+ * Reactive Streams), so on a newer JVM a {@link Publisher} can be handed
+ * to a {@code java.util.concurrent.Flow.Subscriber} with a wrapper that
+ * only forwards the calls.
+ */
+public final class Flow {
+
+	private Flow() {
+	}
+
+	/**
+	 * A source of items that sends them to a subscriber only as fast as it
+	 * asks for them.
+	 */
+	public interface Publisher<T> {
+		/**
+		 * Calls {@link Subscriber#onSubscribe(Subscription)}, or
+		 * {@link Subscriber#onError(Throwable)} if the subscriber cannot
+		 * be taken on.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * Receives the items. The calls for one subscription are never made
+	 * at the same time.
+	 */
+	public interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * The link between one publisher and one subscriber.
+	 */
+	public interface Subscription {
+		/**
+		 * Allows n more items to be sent. A non-positive n is an error
+		 * that ends the subscription.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the items, possibly after a few already on their way.
+		 */
+		void cancel();
+	}
+}
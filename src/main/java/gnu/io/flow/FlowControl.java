@@ -0,0 +1,76 @@
+package gnu.io.flow;
+
+import java.io.IOException;
+
+import gnu.io.SerialPort;
+import gnu.io.rfc2217.TelnetSerialPort;
+
+/**
+ * Tells the other end of a port to stop and start sending.
+ * <p>
+ * {@link SerialPublisher} suspends when its subscriber has no demand left
+ * and resumes when it asks for more, so the bytes wait in the sender (or
+ * the driver) instead of piling up in memory.
+ */
+public interface FlowControl {
+
+	/** Asks the other end to stop sending. */
+	void suspend() throws IOException;
+
+	/** Asks the other end to send again. */
+	void resume() throws IOException;
+
+	/** No flow control: bytes wait in the driver until it overruns. */
+	FlowControl NONE = new FlowControl() {
+		public void suspend() {
+		}
+
+		public void resume() {
+		}
+	};
+
+	/**
+	 * Drops RTS to suspend and raises it to resume. Use it with the flow
+	 * control mode of the port set to none, so the driver does not drive
+	 * RTS itself, and a peer that honours CTS.
+	 */
+	static FlowControl rts(final SerialPort port) {
+		return new FlowControl() {
+			public void suspend() {
+				port.setRTS(false);
+			}
+
+			public void resume() {
+				port.setRTS(true);
+			}
+		};
+	}
+
+	/** Sends XOFF to suspend and XON to resume, for a peer with XON/XOFF output flow control. */
+	static FlowControl xonXoff(final SerialPort port) {
+		return new FlowControl() {
+			public void suspend() throws IOException {
+				port.getOutputStream().write(0x13);
+				port.getOutputStream().flush();
+			}
+
+			public void resume() throws IOException {
+				port.getOutputStream().write(0x11);
+				port.getOutputStream().flush();
+			}
+		};
+	}
+
+	/** Sends the RFC 2217 FLOWCONTROL-SUSPEND and FLOWCONTROL-RESUME commands. */
+	static FlowControl rfc2217(final TelnetSerialPort port) {
+		return new FlowControl() {
+			public void suspend() {
+				port.suspendInbound();
+			}
+
+			public void resume() {
+				port.resumeInbound();
+			}
+		};
+	}
+}
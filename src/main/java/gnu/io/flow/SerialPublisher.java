@@ -0,0 +1,202 @@
+package gnu.io.flow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.rfc2217.TelnetSerialPort;
+
+/**
+ * A {@link Flow.Publisher} of what a port receives.
+ * <p>
+ * Each item is a buffer holding the bytes of one read from the port, at
+ * most the buffer size given to the constructor. Demand is counted in
+ * buffers. When the subscriber has no demand left the publisher stops
+ * reading and suspends the sender through its {@link FlowControl}, so
+ * the bytes wait on the other end rather than in memory, and resumes it
+ * when {@link Flow.Subscription#request(long)} comes in.
+ * <p>
+ * The port is read on a thread started for each subscription, which also
+ * makes all the calls to the subscriber. One subscriber at a time; the
+ * publisher takes another once the subscription has ended. A cancelled
+ * subscription lets go of the port when its read returns, so use a
+ * receive timeout, or {@link RXTXPort#setPolledIO(boolean)} which lets
+ * cancel() interrupt the read.
+ */
+public class SerialPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private final SerialPort port;
+	private final FlowControl flowControl;
+	private final int bufferSize;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	/**
+	 * @param port        an open port
+	 * @param flowControl how to stop the sender while there is no demand
+	 * @param bufferSize  most bytes in one item
+	 */
+	public SerialPublisher(SerialPort port, FlowControl flowControl, int bufferSize) {
+		if (port == null || flowControl == null)
+			throw new NullPointerException();
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize " + bufferSize);
+		this.port = port;
+		this.flowControl = flowControl;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Publishes items of up to 4096 bytes.
+	 */
+	public SerialPublisher(SerialPort port, FlowControl flowControl) {
+		this(port, flowControl, 4096);
+	}
+
+	/**
+	 * @return a publisher that drops RTS while there is no demand
+	 */
+	public static SerialPublisher of(RXTXPort port) {
+		return new SerialPublisher(port, FlowControl.rts(port));
+	}
+
+	/**
+	 * @return a publisher that sends FLOWCONTROL-SUSPEND while there is no
+	 *         demand
+	 */
+	public static SerialPublisher of(TelnetSerialPort port) {
+		return new SerialPublisher(port, FlowControl.rfc2217(port));
+	}
+
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException();
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(NO_SUBSCRIPTION);
+			subscriber.onError(new IllegalStateException("already subscribed"));
+			return;
+		}
+		InputStream in;
+		try {
+			in = port.getInputStream();
+		} catch (IOException e) {
+			subscribed.set(false);
+			subscriber.onSubscribe(NO_SUBSCRIPTION);
+			subscriber.onError(e);
+			return;
+		}
+		Reader reader = new Reader(subscriber, in);
+		subscriber.onSubscribe(reader);
+		reader.start();
+	}
+
+	private static final Flow.Subscription NO_SUBSCRIPTION = new Flow.Subscription() {
+		public void request(long n) {
+		}
+
+		public void cancel() {
+		}
+	};
+
+	private class Reader extends Thread implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final InputStream in;
+		private final AtomicLong demand = new AtomicLong();
+		private volatile boolean cancelled;
+		private volatile Throwable badRequest;
+
+		Reader(Flow.Subscriber<? super ByteBuffer> subscriber, InputStream in) {
+			super("SerialPublisher(" + port.getName() + ")");
+			setDaemon(true);
+			this.subscriber = subscriber;
+			this.in = in;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				badRequest = new IllegalArgumentException("request " + n + ", must be positive");
+			} else {
+				long d, sum;
+				do {
+					d = demand.get();
+					sum = d + n;
+					if (sum < 0)
+						sum = Long.MAX_VALUE;
+				} while (!demand.compareAndSet(d, sum));
+			}
+			LockSupport.unpark(this);
+		}
+
+		public void cancel() {
+			if (cancelled)
+				return;
+			cancelled = true;
+			/* only a polled read notices */
+			if (Thread.currentThread() != this)
+				interrupt();
+		}
+
+		@Override
+		public void run() {
+			byte buf[] = new byte[bufferSize];
+			boolean suspended = false;
+			try {
+				while (!cancelled) {
+					if (badRequest != null) {
+						cancelled = true;
+						subscriber.onError(badRequest);
+						return;
+					}
+					if (demand.get() == 0) {
+						if (!suspended) {
+							flowControl.suspend();
+							suspended = true;
+						}
+						LockSupport.park(this);
+						continue;
+					}
+					if (suspended) {
+						flowControl.resume();
+						suspended = false;
+					}
+					int n = in.read(buf);
+					if (n < 0) {
+						cancelled = true;
+						subscriber.onComplete();
+						return;
+					}
+					if (n == 0 || cancelled)
+						continue;
+					demand.decrementAndGet();
+					subscriber.onNext(ByteBuffer.wrap(Arrays.copyOf(buf, n)));
+				}
+			} catch (IOException e) {
+				if (!cancelled) {
+					cancelled = true;
+					subscriber.onError(e);
+				}
+			} catch (RuntimeException e) {
+				/* a subscriber that throws has cancelled */
+				cancelled = true;
+				System.err.println(getName() + ": exception from subscriber: " + e);
+			} finally {
+				Thread.interrupted();
+				/* leave the sender running for whoever reads next */
+				if (suspended) {
+					try {
+						flowControl.resume();
+					} catch (Exception e) {
+						// port closed under us
+					}
+				}
+				subscribed.set(false);
+			}
+		}
+	}
+}
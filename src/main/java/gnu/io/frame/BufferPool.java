@@ -0,0 +1,58 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Buffers of one size, handed out and taken back so that readers coming and
+ * going do not allocate. Safe to share between threads.
+ * <p>
+ * Direct buffers let {@link gnu.io.RXTXPort#read(ByteBuffer)} read into them
+ * without a copy; reading from an {@link java.io.InputStream}, as for
+ * {@link gnu.io.rfc2217.TelnetSerialPort}, needs heap buffers.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final boolean direct;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * @param bufferSize bytes in each buffer, the longest frame that fits
+	 * @param direct     true for direct buffers, false for heap buffers
+	 */
+	public BufferPool(int bufferSize, boolean direct) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize " + bufferSize);
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+	}
+
+	/**
+	 * @return a cleared buffer, a new one if none is free
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+		if (buf == null)
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * @param buf a buffer from {@link #acquire()}, no longer used
+	 */
+	public void release(ByteBuffer buf) {
+		if (buf.capacity() != bufferSize || buf.isDirect() != direct)
+			throw new IllegalArgumentException("not from this pool");
+		free.offer(buf);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+}
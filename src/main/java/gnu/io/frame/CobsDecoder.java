@@ -0,0 +1,61 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames in Consistent Overhead Byte Stuffing, each ending with a zero byte.
+ * Frames that do not decode are dropped and counted; empty frames are not
+ * handed on.
+ */
+public class CobsDecoder implements FrameDecoder {
+
+	private int scanned;
+	private boolean discarding;
+	private long malformed;
+
+	public void decode(ByteBuffer buf, FrameHandler handler) {
+		int start = buf.position(), limit = buf.limit(), i = start + scanned;
+		while ((i = Frames.indexOf(buf, (byte) 0, i, limit)) < limit) {
+			if (!discarding && i > start) {
+				int end = decode(buf, start, i);
+				if (end < 0)
+					malformed++;
+				else
+					Frames.deliver(buf, start, end, handler);
+			}
+			discarding = false;
+			start = ++i;
+		}
+		if (discarding)
+			start = limit;
+		scanned = limit - start;
+		buf.position(start);
+	}
+
+	/* decode from..to in place, returning the new end or -1 */
+	private static int decode(ByteBuffer buf, int from, int to) {
+		int r = from, w = from;
+		while (r < to) {
+			int code = buf.get(r++) & 0xff;
+			if (r + code - 1 > to)
+				return -1;
+			for (int k = 1; k < code; k++)
+				buf.put(w++, buf.get(r++));
+			if (code < 0xff && r < to)
+				buf.put(w++, (byte) 0);
+		}
+		return w;
+	}
+
+	public void overflow(int dropped) {
+		discarding = true;
+		scanned = 0;
+	}
+
+	/**
+	 * @return how many frames did not decode
+	 */
+	public long getMalformed() {
+		return malformed;
+	}
+}
@@ -0,0 +1,59 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames that end with a delimiter of one or more bytes, such as
+ * {@code "\r\n"}. The handler gets the bytes before the delimiter, which may
+ * be none.
+ */
+public class DelimiterDecoder implements FrameDecoder {
+
+	private final byte[] delimiter;
+	/* bytes after the position that cannot start the delimiter */
+	private int scanned;
+	/* after an overflow, until the end of that frame */
+	private boolean discarding;
+
+	/**
+	 * @param delimiter the bytes that end a frame
+	 */
+	public DelimiterDecoder(byte... delimiter) {
+		if (delimiter.length == 0)
+			throw new IllegalArgumentException("empty delimiter");
+		this.delimiter = delimiter.clone();
+	}
+
+	public void decode(ByteBuffer buf, FrameHandler handler) {
+		int start = buf.position(), limit = buf.limit();
+		int last = limit - delimiter.length + 1, i = start + scanned;
+		byte first = delimiter[0];
+		while ((i = Frames.indexOf(buf, first, i, last)) < last) {
+			if (!matches(buf, i)) {
+				i++;
+				continue;
+			}
+			if (!discarding)
+				Frames.deliver(buf, start, i, handler);
+			discarding = false;
+			start = i += delimiter.length;
+		}
+		i = Math.max(i, start);
+		if (discarding)
+			start = i;
+		scanned = i - start;
+		buf.position(start);
+	}
+
+	private boolean matches(ByteBuffer buf, int at) {
+		for (int k = 1; k < delimiter.length; k++)
+			if (buf.get(at + k) != delimiter[k])
+				return false;
+		return true;
+	}
+
+	public void overflow(int dropped) {
+		discarding = true;
+		scanned = 0;
+	}
+}
@@ -0,0 +1,39 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of a fixed number of bytes.
+ */
+public class FixedLengthDecoder implements FrameDecoder {
+
+	private final int length;
+	private int skip;
+
+	/**
+	 * @param length bytes in a frame
+	 */
+	public FixedLengthDecoder(int length) {
+		if (length <= 0)
+			throw new IllegalArgumentException("length " + length);
+		this.length = length;
+	}
+
+	public void decode(ByteBuffer buf, FrameHandler handler) {
+		int start = buf.position(), limit = buf.limit();
+		if (skip > 0) {
+			int n = Math.min(skip, limit - start);
+			start += n;
+			skip -= n;
+		}
+		while (limit - start >= length) {
+			Frames.deliver(buf, start, start + length, handler);
+			start += length;
+		}
+		buf.position(start);
+	}
+
+	public void overflow(int dropped) {
+		skip = Math.max(length - dropped, 0);
+	}
+}
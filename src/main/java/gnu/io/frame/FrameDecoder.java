@@ -0,0 +1,34 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds frames in the bytes read from a port.
+ * <p>
+ * {@link FrameReader} calls {@link #decode} after every read with the bytes
+ * it holds between the position and the limit of its buffer. The decoder
+ * hands each complete frame to the handler and leaves the position at the
+ * start of the first frame not yet complete. Those bytes come back unchanged
+ * in the next call, followed by the ones read since, so a decoder may
+ * remember how far into them it has looked. Escaped frames are unescaped in
+ * place before they are handed on.
+ * <p>
+ * A decoder keeps the state of one stream and is not thread safe.
+ */
+public interface FrameDecoder {
+
+	/**
+	 * @param buf     the bytes read, from its position to its limit
+	 * @param handler gets each complete frame
+	 */
+	void decode(ByteBuffer buf, FrameHandler handler);
+
+	/**
+	 * The frame at the start of the buffer did not fit into it and its first
+	 * bytes have been thrown away. The decoder skips the rest of that frame
+	 * as it comes in and starts over with the one after it.
+	 *
+	 * @param dropped how many bytes of the frame were thrown away
+	 */
+	void overflow(int dropped);
+}
@@ -0,0 +1,22 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gets the frames a {@link FrameDecoder} finds.
+ */
+public interface FrameHandler {
+
+	/**
+	 * Called with each complete frame, without any delimiter, length prefix
+	 * or escapes.
+	 * <p>
+	 * The frame is the bytes between the position and the limit of the
+	 * reader's own buffer, not a copy, and is only valid until this returns.
+	 * Copy out what has to be kept. The handler may move the position; it
+	 * must not write to the buffer.
+	 *
+	 * @param frame the frame, from its position to its limit
+	 */
+	void frame(ByteBuffer frame);
+}
@@ -0,0 +1,148 @@
+package gnu.io.frame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+
+/**
+ * Reads a port into a pooled buffer and hands the frames found there to a
+ * handler.
+ * <p>
+ * Each call to one of the read methods does a single read from the port,
+ * appending to the bytes held from before, and runs the decoder over them.
+ * Complete frames go to the {@link FrameHandler} straight out of the buffer;
+ * the start of an incomplete one is moved to the front of the buffer to
+ * wait for the rest. A frame longer than the buffer is thrown away and
+ * counted, see {@link #getOverflows()}.
+ *
+ * <pre>
+ * FrameReader reader = new FrameReader(new DelimiterDecoder((byte) '\n'), handler, pool);
+ * while (reader.read(port) &gt;= 0)
+ * 	;
+ * reader.close();
+ * </pre>
+ *
+ * Not thread safe: read from one thread, which is also the one that calls
+ * the handler.
+ */
+public class FrameReader {
+
+	private final FrameDecoder decoder;
+	private final FrameHandler handler;
+	private final BufferPool pool;
+	/* between reads the bytes held are from 0 to the position */
+	private ByteBuffer buf;
+	private long overflows;
+
+	/**
+	 * @param decoder how frames are delimited
+	 * @param handler gets every frame
+	 * @param pool    where the buffer comes from and goes back to on close
+	 */
+	public FrameReader(FrameDecoder decoder, FrameHandler handler, BufferPool pool) {
+		if (decoder == null || handler == null)
+			throw new NullPointerException();
+		this.decoder = decoder;
+		this.handler = handler;
+		this.pool = pool;
+		this.buf = pool.acquire();
+	}
+
+	/**
+	 * Reads with a heap buffer of 4096 bytes of its own.
+	 */
+	public FrameReader(FrameDecoder decoder, FrameHandler handler) {
+		this(decoder, handler, new BufferPool(4096, false));
+	}
+
+	/**
+	 * Reads an {@link RXTXPort} with {@link RXTXPort#read(ByteBuffer)}, any
+	 * other port through its input stream.
+	 *
+	 * @return bytes read, 0 if the read timed out, -1 at the end of the
+	 *         stream
+	 */
+	public int read(SerialPort port) throws IOException {
+		if (port instanceof RXTXPort) {
+			ensureOpen();
+			return decode(((RXTXPort) port).read(buf));
+		}
+		return read(port.getInputStream());
+	}
+
+	/**
+	 * Reads a channel, e.g. a non-blocking {@link gnu.io.nio.SerialChannel}
+	 * the selector found readable.
+	 *
+	 * @return bytes read, -1 at the end of the stream
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		ensureOpen();
+		return decode(channel.read(buf));
+	}
+
+	/**
+	 * Reads a stream into the backing array of a heap buffer.
+	 *
+	 * @return bytes read, -1 at the end of the stream
+	 * @throws IllegalStateException if the pool has direct buffers
+	 */
+	public int read(InputStream in) throws IOException {
+		ensureOpen();
+		if (!buf.hasArray())
+			throw new IllegalStateException("reading a stream needs heap buffers");
+		int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		if (n > 0)
+			buf.position(buf.position() + n);
+		return decode(n);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (buf == null)
+			throw new IOException("FrameReader closed");
+	}
+
+	private int decode(int n) {
+		if (n <= 0)
+			return n;
+		buf.flip();
+		decoder.decode(buf, handler);
+		if (buf.position() == 0 && buf.limit() == buf.capacity()) {
+			overflows++;
+			decoder.overflow(buf.limit());
+			buf.clear();
+		} else {
+			buf.compact();
+		}
+		return n;
+	}
+
+	/**
+	 * @return bytes held of a frame that is not complete yet
+	 */
+	public int getPending() {
+		return buf == null ? 0 : buf.position();
+	}
+
+	/**
+	 * @return frames thrown away for not fitting into the buffer
+	 */
+	public long getOverflows() {
+		return overflows;
+	}
+
+	/**
+	 * Gives the buffer back to the pool, dropping an incomplete frame. Does
+	 * not close the port.
+	 */
+	public void close() {
+		if (buf != null) {
+			pool.release(buf);
+			buf = null;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/* what the decoders share */
+final class Frames {
+
+	private Frames() {
+	}
+
+	/* hand the bytes from..to of buf on as a frame, leaving the limit alone */
+	static void deliver(ByteBuffer buf, int from, int to, FrameHandler handler) {
+		int limit = buf.limit();
+		buf.limit(to).position(from);
+		try {
+			handler.frame(buf);
+		} finally {
+			buf.limit(limit);
+		}
+	}
+
+	/* the first index of b at or after from, before to, or to */
+	static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+		for (int i = from; i < to; i++)
+			if (buf.get(i) == b)
+				return i;
+		return to;
+	}
+}
@@ -0,0 +1,73 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Frames that start with their length, an unsigned number of one, two or
+ * four bytes. The length counts the bytes after it; the handler gets those
+ * without the prefix.
+ */
+public class LengthPrefixDecoder implements FrameDecoder {
+
+	private final int prefix;
+	private final ByteOrder order;
+	/* bytes of an oversized frame still to come */
+	private long skip;
+	/* prefix and length of the incomplete frame at the position, -1 if unknown */
+	private long want = -1;
+
+	/**
+	 * @param prefix bytes in the length, 1, 2 or 4
+	 * @param order  byte order of the length
+	 */
+	public LengthPrefixDecoder(int prefix, ByteOrder order) {
+		if (prefix != 1 && prefix != 2 && prefix != 4)
+			throw new IllegalArgumentException("prefix " + prefix);
+		if (order == null)
+			throw new NullPointerException();
+		this.prefix = prefix;
+		this.order = order;
+	}
+
+	/**
+	 * A big endian length of two bytes.
+	 */
+	public LengthPrefixDecoder() {
+		this(2, ByteOrder.BIG_ENDIAN);
+	}
+
+	public void decode(ByteBuffer buf, FrameHandler handler) {
+		int start = buf.position(), limit = buf.limit();
+		if (skip > 0) {
+			int n = (int) Math.min(skip, limit - start);
+			start += n;
+			skip -= n;
+		}
+		want = -1;
+		while (limit - start >= prefix) {
+			long length = length(buf, start);
+			if (length > limit - start - prefix) {
+				want = prefix + length;
+				break;
+			}
+			Frames.deliver(buf, start + prefix, start + prefix + (int) length, handler);
+			start += prefix + (int) length;
+		}
+		buf.position(start);
+	}
+
+	private long length(ByteBuffer buf, int at) {
+		long length = 0;
+		for (int i = 0; i < prefix; i++) {
+			int b = buf.get(order == ByteOrder.BIG_ENDIAN ? at + i : at + prefix - 1 - i) & 0xff;
+			length = length << 8 | b;
+		}
+		return length;
+	}
+
+	public void overflow(int dropped) {
+		skip = want > dropped ? want - dropped : 0;
+		want = -1;
+	}
+}
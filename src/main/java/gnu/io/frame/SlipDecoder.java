@@ -0,0 +1,57 @@
+package gnu.io.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SLIP frames, RFC 1055: each frame ends with END (0xC0), and END and ESC
+ * (0xDB) within it are sent as ESC ESC_END (0xDB 0xDC) and ESC ESC_ESC
+ * (0xDB 0xDD). Empty frames, as from an END sent before a frame to flush
+ * line noise, are not handed on.
+ */
+public class SlipDecoder implements FrameDecoder {
+
+	public static final byte END = (byte) 0xC0;
+	public static final byte ESC = (byte) 0xDB;
+	public static final byte ESC_END = (byte) 0xDC;
+	public static final byte ESC_ESC = (byte) 0xDD;
+
+	private int scanned;
+	private boolean discarding;
+
+	public void decode(ByteBuffer buf, FrameHandler handler) {
+		int start = buf.position(), limit = buf.limit(), i = start + scanned;
+		while ((i = Frames.indexOf(buf, END, i, limit)) < limit) {
+			if (!discarding && i > start)
+				Frames.deliver(buf, start, unescape(buf, start, i), handler);
+			discarding = false;
+			start = ++i;
+		}
+		if (discarding)
+			start = limit;
+		scanned = limit - start;
+		buf.position(start);
+	}
+
+	/* unescape from..to in place, returning the new end */
+	private static int unescape(ByteBuffer buf, int from, int to) {
+		int w = from;
+		for (int r = from; r < to; r++) {
+			byte b = buf.get(r);
+			if (b == ESC && r + 1 < to) {
+				b = buf.get(++r);
+				if (b == ESC_END)
+					b = END;
+				else if (b == ESC_ESC)
+					b = ESC;
+				/* anything else after ESC is left as it is, as RFC 1055 does */
+			}
+			buf.put(w++, b);
+		}
+		return w;
+	}
+
+	public void overflow(int dropped) {
+		discarding = true;
+		scanned = 0;
+	}
+}
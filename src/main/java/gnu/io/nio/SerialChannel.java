@@ -0,0 +1,301 @@
+package gnu.io.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import gnu.io.RXTXPort;
+
+/**
+ * A {@link ByteChannel} on an open {@link RXTXPort}.
+ * <p>
+ * In blocking mode (the default) reads and writes behave like the port's
+ * {@link RXTXPort#read(ByteBuffer)} and {@link RXTXPort#write(ByteBuffer)},
+ * so the receive timeout and threshold apply and a read may return 0 when
+ * the timeout expires. In non-blocking mode a read returns what the driver
+ * already has, and a write gives the driver only what it can take without
+ * waiting and returns that count, which may be 0. Register non-blocking
+ * channels with a {@link SerialSelector} to wait for them.
+ * <p>
+ * Event listeners on the port still run on its monitor thread; see
+ * gnu.io.rxtx.EventDispatchers to share those threads between ports too.
+ * The port's background drain is turned off, as a selector watches the
+ * port itself; see {@link RXTXPort#setSelectable()}.
+ */
+public class SerialChannel implements ByteChannel, GatheringByteChannel, ScatteringByteChannel {
+
+	/*
+	 * Most bytes written after one poll for room. Linux reports a tty
+	 * writable while fewer than WAKEUP_CHARS (256) bytes are queued, and
+	 * drivers buffer far more than that, so this much always fits.
+	 */
+	private static final int WRITE_CHUNK = 256;
+
+	private final RXTXPort port;
+	private final List<SerialSelectionKey> keys = new CopyOnWriteArrayList<SerialSelectionKey>();
+	private volatile boolean open = true;
+	private volatile boolean blocking = true;
+	/* the drain handed bytes back to the port, which its fd does not show */
+	private volatile boolean handedBack;
+
+	/**
+	 * @param port an open port; closing the channel closes the port
+	 */
+	public SerialChannel(RXTXPort port) {
+		if (port == null)
+			throw new NullPointerException();
+		this.port = port;
+		boolean drained = port.isBackgroundDrain();
+		port.setSelectable();
+		try {
+			handedBack = drained && port.getInputStream().available() > 0;
+		} catch (IOException e) {
+			/* closed, reads will say so */
+		}
+	}
+
+	public RXTXPort getPort() {
+		return port;
+	}
+
+	/**
+	 * @param block false to make reads and writes return at once
+	 * @return this channel
+	 */
+	public SerialChannel configureBlocking(boolean block) throws IOException {
+		ensureOpen();
+		if (!block) {
+			blocking = false;
+			return this;
+		}
+		for (SerialSelectionKey key : keys)
+			if (key.isValid())
+				throw new IllegalBlockingModeException();
+		blocking = true;
+		return this;
+	}
+
+	public boolean isBlocking() {
+		return blocking;
+	}
+
+	/**
+	 * Registers this channel with a selector. The channel must be in
+	 * non-blocking mode.
+	 * 
+	 * @param selector   the selector to watch this channel
+	 * @param ops        {@link SerialSelectionKey#OP_READ} and/or
+	 *                   {@link SerialSelectionKey#OP_WRITE}
+	 * @param attachment handed back by {@link SerialSelectionKey#attachment()}
+	 * @return the new key, or the existing one with ops and attachment updated
+	 */
+	public SerialSelectionKey register(SerialSelector selector, int ops, Object attachment)
+			throws ClosedChannelException {
+		ensureOpen();
+		if (blocking)
+			throw new IllegalBlockingModeException();
+		synchronized (keys) {
+			SerialSelectionKey key = keyFor(selector);
+			if (key != null) {
+				key.interestOps(ops);
+				key.attach(attachment);
+				return key;
+			}
+			key = selector.register(this, ops, attachment);
+			keys.add(key);
+			return key;
+		}
+	}
+
+	public SerialSelectionKey register(SerialSelector selector, int ops) throws ClosedChannelException {
+		return register(selector, ops, null);
+	}
+
+	/**
+	 * @return the valid key registering this channel with selector, or null
+	 */
+	public SerialSelectionKey keyFor(SerialSelector selector) {
+		for (SerialSelectionKey key : keys)
+			if (key.selector() == selector && key.isValid())
+				return key;
+		return null;
+	}
+
+	void removeKey(SerialSelectionKey key) {
+		keys.remove(key);
+	}
+
+	int fd() {
+		return open ? port.getFileDescriptor() : 0;
+	}
+
+	boolean handedBack() {
+		return handedBack;
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!open)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		return read(dst, blocking);
+	}
+
+	private int read(ByteBuffer dst, boolean block) throws IOException {
+		if (block)
+			return port.read(dst);
+		int available = port.getInputStream().available();
+		if (available <= 0)
+			handedBack = false;
+		if (available <= 0 || !dst.hasRemaining())
+			return 0;
+		/* don't let the threshold make us wait for more than is there */
+		int limit = dst.limit();
+		if (dst.remaining() > available)
+			dst.limit(dst.position() + available);
+		try {
+			int n = port.read(dst);
+			if (n >= available)
+				handedBack = false;
+			return n;
+		} finally {
+			dst.limit(limit);
+		}
+	}
+
+	/**
+	 * Fills the buffers in turn. Only the first read may block; the rest
+	 * take what the driver already has.
+	 */
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > dsts.length - length)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		long total = 0;
+		boolean block = blocking;
+		for (int i = offset; i < offset + length; i++) {
+			ByteBuffer dst = dsts[i];
+			while (dst.hasRemaining()) {
+				int n = read(dst, block);
+				if (n <= 0)
+					return total;
+				total += n;
+				block = false;
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts) throws IOException {
+		return read(dsts, 0, dsts.length);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		ensureOpen();
+		if (blocking)
+			return port.write(src);
+		int total = 0;
+		while (src.hasRemaining() && writable()) {
+			int limit = src.limit();
+			src.limit(src.position() + Math.min(src.remaining(), WRITE_CHUNK));
+			int n;
+			try {
+				n = port.write(src);
+			} finally {
+				src.limit(limit);
+			}
+			if (n <= 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the buffers as one frame with
+	 * {@link RXTXPort#write(ByteBuffer[], int, int)}. In non-blocking mode
+	 * the frame may go out in pieces, and only partly.
+	 */
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > srcs.length - length)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		if (blocking)
+			return port.write(srcs, offset, length);
+		long total = 0;
+		while (true) {
+			while (length > 0 && !srcs[offset].hasRemaining()) {
+				offset++;
+				length--;
+			}
+			if (length == 0 || !writable())
+				return total;
+			/* gather up to WRITE_CHUNK bytes, cutting the last buffer short */
+			int budget = WRITE_CHUNK;
+			int n = 0;
+			ByteBuffer cut = null;
+			int cutLimit = 0;
+			for (; n < length && budget > 0; n++) {
+				ByteBuffer src = srcs[offset + n];
+				if (src.remaining() > budget) {
+					cut = src;
+					cutLimit = src.limit();
+					src.limit(src.position() + budget);
+				}
+				budget -= src.remaining();
+			}
+			long written;
+			try {
+				written = port.write(srcs, offset, n);
+			} finally {
+				if (cut != null)
+					cut.limit(cutLimit);
+			}
+			if (written <= 0)
+				return total;
+			total += written;
+		}
+	}
+
+	/* a closed port throws from the write that follows */
+	private boolean writable() throws IOException {
+		int fd = fd();
+		return fd <= 0 || SerialSelector.ready(fd, SerialSelectionKey.OP_WRITE) != 0;
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs) throws IOException {
+		return write(srcs, 0, srcs.length);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Cancels the channel's keys and closes the port.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open)
+			return;
+		open = false;
+		for (SerialSelectionKey key : keys)
+			key.cancel();
+		port.close();
+	}
+}
@@ -0,0 +1,114 @@
+package gnu.io.nio;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * The registration of a {@link SerialChannel} with a {@link SerialSelector}.
+ * <p>
+ * Works like {@link SelectionKey}: it holds the operations the selector
+ * watches for, the ones it found ready in the last select, and an optional
+ * attachment.
+ */
+public class SerialSelectionKey {
+
+	/** The channel has bytes to read. */
+	public static final int OP_READ = SelectionKey.OP_READ;
+	/** The driver will take more bytes to write. */
+	public static final int OP_WRITE = SelectionKey.OP_WRITE;
+
+	private final SerialChannel channel;
+	private final SerialSelector selector;
+	private volatile int interestOps;
+	volatile int readyOps;
+	private volatile Object attachment;
+	private volatile boolean valid = true;
+
+	SerialSelectionKey(SerialChannel channel, SerialSelector selector, int ops, Object attachment) {
+		this.channel = channel;
+		this.selector = selector;
+		this.interestOps = check(ops);
+		this.attachment = attachment;
+	}
+
+	private static int check(int ops) {
+		if ((ops & ~(OP_READ | OP_WRITE)) != 0)
+			throw new IllegalArgumentException("Invalid operations " + ops);
+		return ops;
+	}
+
+	public SerialChannel channel() {
+		return channel;
+	}
+
+	public SerialSelector selector() {
+		return selector;
+	}
+
+	public int interestOps() {
+		if (!valid)
+			throw new CancelledKeyException();
+		return interestOps;
+	}
+
+	/**
+	 * Changes the operations to watch for. Unlike {@link SelectionKey}, this
+	 * takes effect in a select() that is already running.
+	 * 
+	 * @param ops {@link #OP_READ} and/or {@link #OP_WRITE}
+	 * @return this key
+	 */
+	public SerialSelectionKey interestOps(int ops) {
+		if (!valid)
+			throw new CancelledKeyException();
+		if (interestOps != check(ops)) {
+			interestOps = ops;
+			selector.changed();
+		}
+		return this;
+	}
+
+	/**
+	 * @return the operations found ready in the last select that added this
+	 *         key to the selected set
+	 */
+	public int readyOps() {
+		if (!valid)
+			throw new CancelledKeyException();
+		return readyOps;
+	}
+
+	public boolean isReadable() {
+		return (readyOps() & OP_READ) != 0;
+	}
+
+	public boolean isWritable() {
+		return (readyOps() & OP_WRITE) != 0;
+	}
+
+	public Object attach(Object attachment) {
+		Object previous = this.attachment;
+		this.attachment = attachment;
+		return previous;
+	}
+
+	public Object attachment() {
+		return attachment;
+	}
+
+	/**
+	 * Stops the selector watching the channel. The key is dropped from the
+	 * selector's key set by its next select.
+	 */
+	public void cancel() {
+		if (valid) {
+			valid = false;
+			channel.removeKey(this);
+			selector.changed();
+		}
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+}
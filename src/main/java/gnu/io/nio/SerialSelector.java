@@ -0,0 +1,260 @@
+package gnu.io.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import gnu.io.SerialManager;
+
+/**
+ * Waits for any number of {@link SerialChannel}s to become readable or
+ * writable, so a few threads can serve many ports.
+ * <p>
+ * This follows {@link java.nio.channels.Selector}: channels are registered
+ * with {@link SerialChannel#register(SerialSelector, int, Object)}, one of
+ * the select methods waits for some of them to be ready and
+ * {@link #selectedKeys()} names them. The caller removes the keys it has
+ * dealt with from the selected set. Ports are polled natively with poll(2),
+ * which is not available on Windows.
+ * <p>
+ * Channels can be registered and keys changed or cancelled while another
+ * thread is in select(); it is woken up to take notice.
+ */
+public class SerialSelector implements Closeable {
+
+	static {
+		SerialManager.getInstance();
+	}
+
+	private final long handle;
+	private final Set<SerialSelectionKey> keys = new HashSet<SerialSelectionKey>();
+	private final Set<SerialSelectionKey> selected = new HashSet<SerialSelectionKey>();
+	private final Object selectLock = new Object();
+	private volatile boolean open = true;
+	/* a select is in poll(), guarded by keys */
+	private boolean polling;
+
+	/* reused between selects, guarded by selectLock */
+	private int fds[] = new int[16];
+	private int ops[] = new int[16];
+	private SerialSelectionKey polled[] = new SerialSelectionKey[16];
+
+	private SerialSelector(long handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * @return a new selector
+	 * @throws IOException if the native side cannot set one up
+	 */
+	public static SerialSelector open() throws IOException {
+		return new SerialSelector(nativeOpen());
+	}
+
+	/**
+	 * Waits until at least one channel is ready or {@link #wakeup()} is
+	 * called.
+	 * 
+	 * @return the number of keys whose ready set was updated
+	 * @throws IOException
+	 */
+	public int select() throws IOException {
+		return doSelect(-1);
+	}
+
+	/**
+	 * @param timeout milliseconds to wait at most, 0 to wait as long as
+	 *                {@link #select()}
+	 * @return the number of keys whose ready set was updated
+	 * @throws IOException
+	 */
+	public int select(long timeout) throws IOException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Negative timeout");
+		return doSelect(timeout == 0 ? -1 : timeout);
+	}
+
+	/**
+	 * @return the number of keys whose ready set was updated, without
+	 *         waiting
+	 * @throws IOException
+	 */
+	public int selectNow() throws IOException {
+		return doSelect(0);
+	}
+
+	private int doSelect(long timeout) throws IOException {
+		synchronized (selectLock) {
+			int count = 0;
+			boolean handedBack = false;
+			synchronized (keys) {
+				if (!open)
+					throw new ClosedSelectorException();
+				if (fds.length < keys.size()) {
+					int size = Math.max(keys.size(), fds.length * 2);
+					fds = new int[size];
+					ops = new int[size];
+					polled = new SerialSelectionKey[size];
+				}
+				for (Iterator<SerialSelectionKey> i = keys.iterator(); i.hasNext();) {
+					SerialSelectionKey key = i.next();
+					int fd = key.channel().fd();
+					if (!key.isValid() || fd <= 0) {
+						/* cancelled, or the port went away under us */
+						i.remove();
+						selected.remove(key);
+						continue;
+					}
+					int interest = key.interestOps();
+					if (interest == 0)
+						continue;
+					if ((interest & SerialSelectionKey.OP_READ) != 0 && key.channel().handedBack())
+						handedBack = true;
+					fds[count] = fd;
+					ops[count] = interest;
+					polled[count++] = key;
+				}
+				polling = true;
+			}
+			try {
+				nativePoll(handle, fds, ops, count, handedBack ? 0 : timeout);
+			} finally {
+				synchronized (keys) {
+					polling = false;
+				}
+			}
+			int updated = 0;
+			synchronized (keys) {
+				for (int i = 0; i < count; i++) {
+					SerialSelectionKey key = polled[i];
+					polled[i] = null;
+					if (!key.isValid())
+						continue;
+					if (key.channel().handedBack())
+						ops[i] |= key.interestOps() & SerialSelectionKey.OP_READ;
+					if (ops[i] == 0)
+						continue;
+					if (selected.add(key)) {
+						key.readyOps = ops[i];
+						updated++;
+					} else if ((key.readyOps | ops[i]) != key.readyOps) {
+						key.readyOps |= ops[i];
+						updated++;
+					}
+				}
+			}
+			return updated;
+		}
+	}
+
+	/**
+	 * @return the keys found ready; remove the ones dealt with
+	 */
+	public Set<SerialSelectionKey> selectedKeys() {
+		if (!open)
+			throw new ClosedSelectorException();
+		return selected;
+	}
+
+	/**
+	 * @return a snapshot of the registered keys
+	 */
+	public Set<SerialSelectionKey> keys() {
+		synchronized (keys) {
+			if (!open)
+				throw new ClosedSelectorException();
+			return Collections.unmodifiableSet(new HashSet<SerialSelectionKey>(keys));
+		}
+	}
+
+	/**
+	 * Makes a select that is running, or else the next one, return at once.
+	 * 
+	 * @return this selector
+	 */
+	public SerialSelector wakeup() {
+		synchronized (keys) {
+			if (open)
+				nativeWakeup(handle);
+		}
+		return this;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Cancels all keys and releases the native resources. The channels stay
+	 * open.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (keys) {
+			if (!open)
+				return;
+			open = false;
+			for (SerialSelectionKey key : keys)
+				key.channel().removeKey(key);
+			keys.clear();
+			nativeWakeup(handle);
+		}
+		/* wait for a select to see the wakeup */
+		synchronized (selectLock) {
+			synchronized (keys) {
+				selected.clear();
+				nativeClose(handle);
+			}
+		}
+	}
+
+	SerialSelectionKey register(SerialChannel channel, int ops, Object attachment) {
+		SerialSelectionKey key = new SerialSelectionKey(channel, this, ops, attachment);
+		synchronized (keys) {
+			if (!open)
+				throw new ClosedSelectorException();
+			keys.add(key);
+			changed();
+		}
+		return key;
+	}
+
+	/*
+	 * Called when a key is added or changed. Only a select already polling
+	 * needs waking; the next one builds its poll set afresh, and waking it
+	 * would make it return early with nothing selected.
+	 */
+	void changed() {
+		synchronized (keys) {
+			if (open && polling)
+				nativeWakeup(handle);
+		}
+	}
+
+	/**
+	 * @return the operations out of ops that fd is ready for right now
+	 */
+	static int ready(int fd, int ops) throws IOException {
+		int fds[] = { fd };
+		int ready[] = { ops };
+		nativePoll(0, fds, ready, 1, 0);
+		return ready[0];
+	}
+
+	private static native long nativeOpen() throws IOException;
+
+	/*
+	 * Polls the first n fds for the operations in ops[], and the wakeup
+	 * channel of handle unless it is 0. Replaces ops[] with the operations
+	 * ready and returns how many fds had any.
+	 */
+	private static native int nativePoll(long handle, int fds[], int ops[], int n, long timeout) throws IOException;
+
+	private static native void nativeWakeup(long handle);
+
+	private static native void nativeClose(long handle);
+}
@@ -0,0 +1,1037 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   Copyright 2010 by Archie L. Cobbs and others.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io.rfc2217;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+import gnu.io.UnsupportedCommOperationException;
+import gnu.io.nio.SerialChannel;
+import gnu.io.nio.SerialSelectionKey;
+import gnu.io.nio.SerialSelector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TooManyListenersException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static gnu.io.rfc2217.RFC2217.CONTROL_BREAK_OFF;
+import static gnu.io.rfc2217.RFC2217.CONTROL_BREAK_ON;
+import static gnu.io.rfc2217.RFC2217.CONTROL_BREAK_REQUEST;
+import static gnu.io.rfc2217.RFC2217.CONTROL_DTR_OFF;
+import static gnu.io.rfc2217.RFC2217.CONTROL_DTR_ON;
+import static gnu.io.rfc2217.RFC2217.CONTROL_DTR_REQUEST;
+import static gnu.io.rfc2217.RFC2217.CONTROL_INBOUND_FLOW_HARDWARE;
+import static gnu.io.rfc2217.RFC2217.CONTROL_INBOUND_FLOW_NONE;
+import static gnu.io.rfc2217.RFC2217.CONTROL_INBOUND_FLOW_REQUEST;
+import static gnu.io.rfc2217.RFC2217.CONTROL_INBOUND_FLOW_XON_XOFF;
+import static gnu.io.rfc2217.RFC2217.CONTROL_OUTBOUND_FLOW_HARDWARE;
+import static gnu.io.rfc2217.RFC2217.CONTROL_OUTBOUND_FLOW_NONE;
+import static gnu.io.rfc2217.RFC2217.CONTROL_OUTBOUND_FLOW_REQUEST;
+import static gnu.io.rfc2217.RFC2217.CONTROL_OUTBOUND_FLOW_XON_XOFF;
+import static gnu.io.rfc2217.RFC2217.CONTROL_RTS_OFF;
+import static gnu.io.rfc2217.RFC2217.CONTROL_RTS_ON;
+import static gnu.io.rfc2217.RFC2217.CONTROL_RTS_REQUEST;
+import static gnu.io.rfc2217.RFC2217.LINESTATE_BREAK_DETECT;
+import static gnu.io.rfc2217.RFC2217.LINESTATE_FRAMING_ERROR;
+import static gnu.io.rfc2217.RFC2217.LINESTATE_OVERRUN_ERROR;
+import static gnu.io.rfc2217.RFC2217.LINESTATE_PARITY_ERROR;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_CARRIER_DETECT;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_CTS;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_DELTA_CARRIER_DETECT;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_DELTA_CTS;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_DELTA_DSR;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_DSR;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_RING_INDICATOR;
+import static gnu.io.rfc2217.RFC2217.MODEMSTATE_TRAILING_EDGE_RING_DETECTOR;
+
+/**
+ * Implements the access server side of <a href="http://tools.ietf.org/html/rfc2217">RFC 2217</a>,
+ * making local {@link RXTXPort}s available to {@link TelnetSerialPort}s and other RFC 2217 clients.
+ *
+ *  
+ * Each {@linkplain #export exported} port listens on its own TCP address and serves one client at a time;
+ * further connections are closed until that client goes away. All sockets are serviced by one thread
+ * with a {@link Selector}, and all ports by another with a {@link SerialSelector}, so the number of ports
+ * and clients does not add threads. Both sides move data in batches: whatever the socket or the port
+ * has is read at once, and IACs are doubled and undoubled with {@link TelnetCodec}. When a client does
+ * not keep up, the server stops reading its port, and when a port does not keep up, the server stops
+ * reading the client's socket, so the slow side holds back the fast one instead of losing data.
+ *  
+ *
+ *  
+ * COM-PORT-OPTION commands from the client are applied to the port and answered with its actual setting.
+ * Modem line changes and line errors reported by the port's events are sent as {@code NOTIFY-MODEMSTATE}
+ * and {@code NOTIFY-LINESTATE}, subject to the masks the client set. The server takes each port's event
+ * listener for this; with many ports set gnu.io.rxtx.EventDispatchers so those share threads as well.
+ *  
+ *
+ *  
+ * Ports are polled with poll(2), which is not available on Windows.
+ *  
+ *
+ * @see TelnetSerialPort
+ */
+public class AccessServer implements Closeable {
+
+    private static final int SOCKET_READ_SIZE = 16384;
+    private static final int SERIAL_READ_SIZE = 4096;
+    private static final int TO_SERIAL_SIZE = 4096;
+    private static final int TO_CLIENT_SIZE = 8192;
+
+    // Options we enable on our side, and want the client to enable on theirs
+    private static final int LOCAL_OPTIONS = TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA;
+    private static final int REMOTE_OPTIONS = TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA | TelnetProtocol.BIT_COM_PORT;
+
+    private static final int BREAK_MILLIS = 250;
+
+    private final Selector selector;
+    private final SerialSelector serialSelector;
+    private final Thread networkThread;
+    private final Thread serialThread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final List<Export> exports = new CopyOnWriteArrayList<Export>();
+
+    // Used only by the network thread
+    private final ByteBuffer socketBuffer = ByteBuffer.allocate(SOCKET_READ_SIZE);
+    private final ByteBuffer dataBuffer = this.socketBuffer.duplicate();
+
+    // Used only by the serial thread
+    private final ByteBuffer serialBuffer = ByteBuffer.allocate(SERIAL_READ_SIZE);
+
+    private volatile String signature = "jvser v" + Version.JVSER_VERSION;
+    private volatile boolean closed;
+    private ExecutorService breakExecutor;
+
+    /**
+     * Constructor. Starts the server's two threads.
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public AccessServer() throws IOException {
+        this.selector = Selector.open();
+        try {
+            this.serialSelector = SerialSelector.open();
+        } catch (IOException e) {
+            this.selector.close();
+            throw e;
+        }
+        this.networkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AccessServer.this.runNetwork();
+            }
+        }, "RFC2217 server");
+        this.serialThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AccessServer.this.runSerial();
+            }
+        }, "RFC2217 server serial");
+        this.networkThread.setDaemon(true);
+        this.serialThread.setDaemon(true);
+        this.networkThread.start();
+        this.serialThread.start();
+    }
+
+    /**
+     * Get the signature sent to clients that ask for it.
+     */
+    public String getSignature() {
+        return this.signature;
+    }
+
+    /**
+     * Set the signature sent to clients that ask for it.
+     */
+    public void setSignature(String signature) {
+        if (signature == null)
+            throw new IllegalArgumentException("null signature");
+        this.signature = signature;
+    }
+
+    /**
+     * Serve a port to clients connecting to the given address.
+     *
+     * @param port an open port; it is switched to non-blocking operation and its event listener is taken
+     * @param address local address to listen on; port 0 picks a free one
+     * @return the address actually listened on
+     * @throws IOException if the address cannot be bound
+     * @throws TooManyListenersException if the port already has an event listener
+     * @throws IllegalStateException if this server is closed
+     */
+    public InetSocketAddress export(RXTXPort port, SocketAddress address) throws IOException, TooManyListenersException {
+        if (this.closed)
+            throw new IllegalStateException("server is closed");
+        final Export export = new Export(port);
+        port.addEventListener(export);
+        port.notifyOnCTS(true);
+        port.notifyOnDSR(true);
+        port.notifyOnRingIndicator(true);
+        port.notifyOnCarrierDetect(true);
+        port.notifyOnBreakInterrupt(true);
+        port.notifyOnFramingError(true);
+        port.notifyOnParityError(true);
+        port.notifyOnOverrunError(true);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.bind(address);
+            server.configureBlocking(false);
+            export.channel.configureBlocking(false);
+            export.serialKey = export.channel.register(this.serialSelector, 0, export);
+        } catch (IOException e) {
+            server.close();
+            port.removeEventListener();
+            throw e;
+        }
+        export.server = server;
+        this.exports.add(export);
+        this.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    export.server.register(AccessServer.this.selector, SelectionKey.OP_ACCEPT, export);
+                } catch (IOException e) {
+                    System.err.println("RFC2217 server: can't listen for " + export.port.getName() + ": " + e.getMessage());
+                }
+            }
+        });
+        return (InetSocketAddress)server.getLocalAddress();
+    }
+
+    /**
+     * Disconnect all clients, stop listening and stop the threads. The ports stay open
+     * but lose their event listener.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.selector.wakeup();
+        this.serialSelector.wakeup();
+        try {
+            this.networkThread.join();
+            this.serialThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Export export : this.exports) {
+            Connection connection = export.connection;
+            if (connection != null)
+                connection.close();
+            export.server.close();
+            export.port.removeEventListener();
+        }
+        this.selector.close();
+        this.serialSelector.close();
+        synchronized (this) {
+            if (this.breakExecutor != null)
+                this.breakExecutor.shutdown();
+        }
+    }
+
+    // Run a task on the network thread
+    private void execute(Runnable task) {
+        this.tasks.add(task);
+        if (Thread.currentThread() != this.networkThread)
+            this.selector.wakeup();
+    }
+
+    private synchronized void sendBreak(final RXTXPort port) {
+        if (this.breakExecutor == null) {
+            this.breakExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RFC2217 server break");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.breakExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                port.sendBreak(BREAK_MILLIS);
+            }
+        });
+    }
+
+// Network thread
+
+    private void runNetwork() {
+        try {
+            while (!this.closed) {
+                if (this.tasks.isEmpty())
+                    this.selector.select();
+                else
+                    this.selector.selectNow();
+                Runnable task;
+                while ((task = this.tasks.poll()) != null)
+                    task.run();
+                Iterator<SelectionKey> i = this.selector.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    if (key.attachment() instanceof Export) {
+                        this.accept((Export)key.attachment());
+                        continue;
+                    }
+                    Connection connection = (Connection)key.attachment();
+                    try {
+                        if (key.isReadable())
+                            connection.socketReadable();
+                        if (key.isValid() && key.isWritable())
+                            connection.socketWritable();
+                    } catch (CancelledKeyException e) {
+                        connection.close();
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("RFC2217 server: " + e.getMessage());
+        } catch (ClosedSelectorException e) {
+            // closed
+        }
+    }
+
+    private void accept(Export export) {
+        SocketChannel socket;
+        try {
+            socket = export.server.accept();
+            if (socket == null)
+                return;
+        } catch (IOException e) {
+            System.err.println("RFC2217 server: accept failed for " + export.port.getName() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            if (export.connection != null) {
+                socket.close();                                 // port is busy
+                return;
+            }
+            socket.configureBlocking(false);
+            socket.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(export, socket);
+            connection.key = socket.register(this.selector, SelectionKey.OP_READ, connection);
+            export.connection = connection;
+            connection.start();
+            export.updateInterest();
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException e2) {
+                //
+            }
+        }
+    }
+
+// Serial thread
+
+    private void runSerial() {
+        try {
+            while (!this.closed) {
+                this.serialSelector.select();
+                Iterator<SerialSelectionKey> i = this.serialSelector.selectedKeys().iterator();
+                while (i.hasNext()) {
+                    SerialSelectionKey key = i.next();
+                    i.remove();
+                    Export export = (Export)key.attachment();
+                    Connection connection = export.connection;
+                    if (connection == null)
+                        continue;
+                    try {
+                        if (key.isReadable())
+                            connection.serialReadable(this.serialBuffer);
+                        if (key.isWritable())
+                            connection.serialWritable();
+                    } catch (IOException e) {
+                        System.err.println("RFC2217 server: " + export.port.getName() + ": " + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("RFC2217 server: " + e.getMessage());
+        } catch (ClosedSelectorException e) {
+            // closed
+        }
+    }
+
+// Exported ports
+
+    private final class Export implements SerialPortEventListener {
+
+        final RXTXPort port;
+        final SerialChannel channel;
+        ServerSocketChannel server;
+        SerialSelectionKey serialKey;
+        volatile Connection connection;
+
+        Export(RXTXPort port) {
+            this.port = port;
+            this.channel = new SerialChannel(port);
+        }
+
+        // Set what the serial thread waits for from the state of the connection
+        synchronized void updateInterest() {
+            Connection connection = this.connection;
+            int ops = 0;
+            if (connection != null) {
+                if (!connection.suspended && !connection.serialReadPaused)
+                    ops |= SerialSelectionKey.OP_READ;
+                if (connection.hasDataForSerial())
+                    ops |= SerialSelectionKey.OP_WRITE;
+            }
+            if (this.serialKey.isValid())
+                this.serialKey.interestOps(ops);
+        }
+
+        @Override
+        public void serialEvent(SerialPortEvent event) {
+            Connection connection = this.connection;
+            if (connection == null)
+                return;
+            switch (event.getEventType()) {
+            case SerialPortEvent.CTS:
+            case SerialPortEvent.DSR:
+            case SerialPortEvent.RI:
+            case SerialPortEvent.CD:
+                connection.modemStateChanged();
+                break;
+            case SerialPortEvent.BI:
+                connection.lineState(LINESTATE_BREAK_DETECT);
+                break;
+            case SerialPortEvent.FE:
+                connection.lineState(LINESTATE_FRAMING_ERROR);
+                break;
+            case SerialPortEvent.PE:
+                connection.lineState(LINESTATE_PARITY_ERROR);
+                break;
+            case SerialPortEvent.OE:
+                connection.lineState(LINESTATE_OVERRUN_ERROR);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+// Client connections
+
+    private final class Connection {
+
+        final Export export;
+        final SocketChannel socket;
+        SelectionKey key;
+
+        final TelnetProtocol telnet = new TelnetProtocol(LOCAL_OPTIONS, REMOTE_OPTIONS) {
+
+            @Override
+            protected void send(int... bytes) throws IOException {
+                synchronized (Connection.this.toClient) {
+                    Connection.this.reserve(bytes.length);
+                    for (int b : bytes)
+                        Connection.this.output.put((byte)b);
+                    Connection.this.flush();
+                }
+            }
+
+            @Override
+            protected void subnegotiation(int[] data, int length) {
+                Connection.this.subnegotiation(data, length);
+            }
+        };
+
+        // Data for the port; guarded by itself, written by the network thread and drained by the serial thread
+        private final ByteBuffer toSerial = ByteBuffer.allocate(TO_SERIAL_SIZE);
+        private boolean socketReadPaused;
+
+        // Data and commands for the client, in write mode; guarded by toClient
+        private final Object toClient = new Object();
+        private ByteBuffer output = ByteBuffer.allocate(TO_CLIENT_SIZE);
+        private boolean writeInterest;
+
+        volatile boolean suspended;                     // client sent FLOWCONTROL-SUSPEND
+        volatile boolean serialReadPaused;              // no room for more data to the client
+
+        private volatile int lineStateMask;
+        private volatile int modemStateMask = 0xff;
+        private int modemStateLast;                     // guarded by toClient
+        private volatile boolean closed;
+
+        Connection(Export export, SocketChannel socket) {
+            this.export = export;
+            this.socket = socket;
+        }
+
+        void start() throws IOException {
+            byte[] request = this.telnet.request(LOCAL_OPTIONS, REMOTE_OPTIONS);
+            synchronized (this.toClient) {
+                this.output.put(request);
+                this.flush();
+            }
+        }
+
+        boolean hasDataForSerial() {
+            synchronized (this.toSerial) {
+                return this.toSerial.position() > 0;
+            }
+        }
+
+        void close() {
+            if (this.closed)
+                return;
+            this.closed = true;
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                //
+            }
+            synchronized (this.export) {
+                if (this.export.connection == this)
+                    this.export.connection = null;
+                this.export.updateInterest();
+            }
+        }
+
+    // Client to port
+
+        // Network thread: read what the socket has, as far as it will fit on the way to the port
+        void socketReadable() throws IOException {
+            int room;
+            synchronized (this.toSerial) {
+                room = this.toSerial.remaining();
+                if (room == 0) {
+                    this.socketReadPaused = true;
+                    this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            ByteBuffer buffer = AccessServer.this.socketBuffer;
+            ByteBuffer data = AccessServer.this.dataBuffer;
+            buffer.clear();
+            buffer.limit(Math.min(room, buffer.capacity()));
+            if (this.socket.read(buffer) < 0) {
+                this.close();
+                return;
+            }
+            buffer.flip();
+            data.clear();
+            this.telnet.decode(buffer, data);
+            data.flip();
+            if (!data.hasRemaining())
+                return;
+            synchronized (this.toSerial) {
+                this.toSerial.put(data);
+                if (!this.toSerial.hasRemaining()) {
+                    this.socketReadPaused = true;
+                    this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+            this.export.updateInterest();
+        }
+
+        // Serial thread: write what the port can take without blocking
+        void serialWritable() throws IOException {
+            boolean resume = false;
+            synchronized (this.toSerial) {
+                this.toSerial.flip();
+                this.export.channel.write(this.toSerial);
+                this.toSerial.compact();
+                if (this.socketReadPaused && this.toSerial.position() <= this.toSerial.capacity() / 2) {
+                    this.socketReadPaused = false;
+                    resume = true;
+                }
+            }
+            this.export.updateInterest();
+            if (resume) {
+                AccessServer.this.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Connection.this.interest(SelectionKey.OP_READ, true);
+                    }
+                });
+            }
+        }
+
+    // Port to client
+
+        // Serial thread: read what the port has, as far as it will fit escaped on the way to the client
+        void serialReadable(ByteBuffer buffer) throws IOException {
+            int room;
+            synchronized (this.toClient) {
+                room = this.output.remaining() / 2;
+                if (room == 0) {
+                    this.serialReadPaused = true;
+                    this.export.updateInterest();
+                    return;
+                }
+            }
+            buffer.clear();
+            buffer.limit(Math.min(room, buffer.capacity()));
+            this.export.channel.read(buffer);
+            buffer.flip();
+            if (!buffer.hasRemaining())
+                return;
+            synchronized (this.toClient) {
+                TelnetCodec.escape(buffer, this.output);
+                this.flush();
+            }
+        }
+
+        // Network thread: write what the socket will take
+        void socketWritable() throws IOException {
+            boolean resume = false;
+            synchronized (this.toClient) {
+                this.output.flip();
+                this.socket.write(this.output);
+                this.output.compact();
+                if (this.output.position() == 0) {
+                    this.writeInterest = false;
+                    this.interest(SelectionKey.OP_WRITE, false);
+                }
+                if (this.serialReadPaused && this.output.remaining() >= this.output.capacity() / 2) {
+                    this.serialReadPaused = false;
+                    resume = true;
+                }
+            }
+            if (resume)
+                this.export.updateInterest();
+        }
+
+        // Make room in the output buffer; caller holds toClient. Commands are small, so just grow it.
+        private void reserve(int length) {
+            if (this.output.remaining() >= length)
+                return;
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(this.output.capacity() * 2, this.output.position() + length));
+            this.output.flip();
+            buffer.put(this.output);
+            this.output = buffer;
+        }
+
+        // Write what the socket will take now and leave the rest to the network thread; caller holds toClient
+        private void flush() throws IOException {
+            if (this.writeInterest || this.output.position() == 0 || this.closed)
+                return;
+            this.output.flip();
+            this.socket.write(this.output);
+            this.output.compact();
+            if (this.output.position() > 0) {
+                this.writeInterest = true;
+                AccessServer.this.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Connection.this.interest(SelectionKey.OP_WRITE, true);
+                    }
+                });
+            }
+        }
+
+        private void interest(int ops, boolean on) {
+            try {
+                this.key.interestOps(on ? this.key.interestOps() | ops : this.key.interestOps() & ~ops);
+            } catch (CancelledKeyException e) {
+                // closed
+            }
+        }
+
+    // COM-PORT-OPTION
+
+        private void send(ComPortCommand command) {
+            int[] bytes = command.getBytes();
+            try {
+                synchronized (this.toClient) {
+                    this.reserve(4 + 2 * bytes.length);
+                    this.output.put((byte)TelnetProtocol.IAC).put((byte)TelnetProtocol.SB);
+                    for (int b : bytes) {
+                        this.output.put((byte)b);
+                        if ((b & 0xff) == TelnetProtocol.IAC)
+                            this.output.put((byte)TelnetProtocol.IAC);
+                    }
+                    this.output.put((byte)TelnetProtocol.IAC).put((byte)TelnetProtocol.SE);
+                    this.flush();
+                }
+            } catch (IOException e) {
+                this.close();
+            }
+        }
+
+        // Any thread: the port's modem lines may have changed
+        void modemStateChanged() {
+            RXTXPort port = this.export.port;
+            int state = (port.isCD() ? MODEMSTATE_CARRIER_DETECT : 0)
+              | (port.isRI() ? MODEMSTATE_RING_INDICATOR : 0)
+              | (port.isDSR() ? MODEMSTATE_DSR : 0)
+              | (port.isCTS() ? MODEMSTATE_CTS : 0);
+            NotifyModemStateCommand command;
+            synchronized (this.toClient) {
+                int changed = state ^ this.modemStateLast;
+                this.modemStateLast = state;
+                if ((changed & MODEMSTATE_CARRIER_DETECT) != 0)
+                    state |= MODEMSTATE_DELTA_CARRIER_DETECT;
+                if ((changed & MODEMSTATE_RING_INDICATOR) != 0 && (state & MODEMSTATE_RING_INDICATOR) == 0)
+                    state |= MODEMSTATE_TRAILING_EDGE_RING_DETECTOR;
+                if ((changed & MODEMSTATE_DSR) != 0)
+                    state |= MODEMSTATE_DELTA_DSR;
+                if ((changed & MODEMSTATE_CTS) != 0)
+                    state |= MODEMSTATE_DELTA_CTS;
+                if (((changed | state & 0x0f) & this.modemStateMask) == 0)
+                    return;
+                command = new NotifyModemStateCommand(false, state & this.modemStateMask);
+            }
+            this.send(command);
+        }
+
+        // Any thread: the port reported a line condition
+        void lineState(int bit) {
+            int mask = this.lineStateMask;
+            if ((bit & mask) != 0)
+                this.send(new NotifyLineStateCommand(false, bit));
+        }
+
+        // Network thread: a subnegotiation from the client
+        private void subnegotiation(int[] data, int length) {
+            if (data[0] != RFC2217.COM_PORT_OPTION || !this.telnet.isRemote(TelnetProtocol.BIT_COM_PORT))
+                return;
+            int[] bytes = new int[length];
+            System.arraycopy(data, 0, bytes, 0, length);
+            ComPortCommand command;
+            try {
+                command = RFC2217.decodeComPortCommand(bytes);
+            } catch (IllegalArgumentException e) {
+                System.err.println("RFC2217 server: " + this.export.port.getName()
+                  + ": rec'd invalid COM-PORT-OPTION command: " + e.getMessage());
+                return;
+            }
+            if (command.isServerCommand())
+                return;
+            command.visit(new CommandHandler());
+        }
+
+        // Applies client commands to the port and answers with what the port ended up with
+        private class CommandHandler extends AbstractComPortCommandSwitch {
+
+            private final RXTXPort port = Connection.this.export.port;
+
+            @Override
+            public void caseSignature(SignatureCommand command) {
+                if (command.getSignature().length() == 0)
+                    Connection.this.send(new SignatureCommand(false, AccessServer.this.signature));
+            }
+
+            @Override
+            public void caseBaudRate(BaudRateCommand command) {
+                if (command.getBaudRate() != 0)
+                    this.setParams(command.getBaudRate(), this.port.getDataBits(), this.port.getStopBits(), this.port.getParity());
+                Connection.this.send(new BaudRateCommand(false, this.port.getBaudRate()));
+            }
+
+            @Override
+            public void caseDataSize(DataSizeCommand command) {
+                if (command.getDataSize() != RFC2217.DATASIZE_REQUEST) {
+                    this.setParams(this.port.getBaudRate(), AccessServer.dataBits(command.getDataSize()),
+                      this.port.getStopBits(), this.port.getParity());
+                }
+                Connection.this.send(new DataSizeCommand(false, AccessServer.dataSize(this.port.getDataBits())));
+            }
+
+            @Override
+            public void caseParity(ParityCommand command) {
+                if (command.getParity() != RFC2217.PARITY_REQUEST) {
+                    this.setParams(this.port.getBaudRate(), this.port.getDataBits(), this.port.getStopBits(),
+                      AccessServer.parity(command.getParity()));
+                }
+                Connection.this.send(new ParityCommand(false, AccessServer.rfc2217Parity(this.port.getParity())));
+            }
+
+            @Override
+            public void caseStopSize(StopSizeCommand command) {
+                if (command.getStopSize() != RFC2217.STOPSIZE_REQUEST) {
+                    this.setParams(this.port.getBaudRate(), this.port.getDataBits(),
+                      AccessServer.stopBits(command.getStopSize()), this.port.getParity());
+                }
+                Connection.this.send(new StopSizeCommand(false, AccessServer.stopSize(this.port.getStopBits())));
+            }
+
+            @Override
+            public void caseControl(ControlCommand command) {
+                int flow = this.port.getFlowControlMode();
+                int in = flow & (SerialPort.FLOWCONTROL_RTSCTS_IN | SerialPort.FLOWCONTROL_XONXOFF_IN);
+                int out = flow & (SerialPort.FLOWCONTROL_RTSCTS_OUT | SerialPort.FLOWCONTROL_XONXOFF_OUT);
+                int reply;
+                switch (command.getControl()) {
+                case CONTROL_OUTBOUND_FLOW_NONE:
+                    this.setFlowControl(in);
+                    reply = AccessServer.outboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_OUTBOUND_FLOW_REQUEST:
+                    reply = AccessServer.outboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_OUTBOUND_FLOW_XON_XOFF:
+                    this.setFlowControl(in | SerialPort.FLOWCONTROL_XONXOFF_OUT);
+                    reply = AccessServer.outboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_OUTBOUND_FLOW_HARDWARE:
+                    this.setFlowControl(in | SerialPort.FLOWCONTROL_RTSCTS_OUT);
+                    reply = AccessServer.outboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_INBOUND_FLOW_NONE:
+                    this.setFlowControl(out);
+                    reply = AccessServer.inboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_INBOUND_FLOW_REQUEST:
+                    reply = AccessServer.inboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_INBOUND_FLOW_XON_XOFF:
+                    this.setFlowControl(out | SerialPort.FLOWCONTROL_XONXOFF_IN);
+                    reply = AccessServer.inboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_INBOUND_FLOW_HARDWARE:
+                    this.setFlowControl(out | SerialPort.FLOWCONTROL_RTSCTS_IN);
+                    reply = AccessServer.inboundFlow(this.port.getFlowControlMode());
+                    break;
+                case CONTROL_BREAK_ON:
+                    AccessServer.this.sendBreak(this.port);
+                    reply = CONTROL_BREAK_ON;
+                    break;
+                case CONTROL_BREAK_REQUEST:
+                case CONTROL_BREAK_OFF:
+                    reply = CONTROL_BREAK_OFF;
+                    break;
+                case CONTROL_DTR_ON:
+                case CONTROL_DTR_OFF:
+                    this.port.setDTR(command.getControl() == CONTROL_DTR_ON);
+                    reply = this.port.isDTR() ? CONTROL_DTR_ON : CONTROL_DTR_OFF;
+                    break;
+                case CONTROL_DTR_REQUEST:
+                    reply = this.port.isDTR() ? CONTROL_DTR_ON : CONTROL_DTR_OFF;
+                    break;
+                case CONTROL_RTS_ON:
+                case CONTROL_RTS_OFF:
+                    this.port.setRTS(command.getControl() == CONTROL_RTS_ON);
+                    reply = this.port.isRTS() ? CONTROL_RTS_ON : CONTROL_RTS_OFF;
+                    break;
+                case CONTROL_RTS_REQUEST:
+                    reply = this.port.isRTS() ? CONTROL_RTS_ON : CONTROL_RTS_OFF;
+                    break;
+                default:
+                    return;                                     // DCD, DTR and DSR flow control are not supported
+                }
+                Connection.this.send(new ControlCommand(false, reply));
+            }
+
+            @Override
+            public void caseFlowControlSuspend(FlowControlSuspendCommand command) {
+                Connection.this.suspended = true;
+                Connection.this.export.updateInterest();
+            }
+
+            @Override
+            public void caseFlowControlResume(FlowControlResumeCommand command) {
+                Connection.this.suspended = false;
+                Connection.this.export.updateInterest();
+            }
+
+            @Override
+            public void caseLineStateMask(LineStateMaskCommand command) {
+                Connection.this.lineStateMask = command.getLineStateMask();
+                Connection.this.send(new LineStateMaskCommand(false, command.getLineStateMask()));
+            }
+
+            @Override
+            public void caseModemStateMask(ModemStateMaskCommand command) {
+                Connection.this.modemStateMask = command.getModemStateMask();
+                Connection.this.send(new ModemStateMaskCommand(false, command.getModemStateMask()));
+                Connection.this.modemStateChanged();            // let the client know where the lines are
+            }
+
+            @Override
+            public void casePurgeData(PurgeDataCommand command) {
+                if (command.isPurgeReceiveDataBuffer()) {
+                    try {
+                        this.port.getInputStream().skip(this.port.getInputStream().available());
+                    } catch (IOException e) {
+                        //
+                    }
+                }
+                if (command.isPurgeTransmitDataBuffer()) {
+                    synchronized (Connection.this.toSerial) {
+                        Connection.this.toSerial.clear();
+                    }
+                }
+                int purged = (command.isPurgeReceiveDataBuffer() ? RFC2217.PURGE_DATA_RECEIVE_DATA_BUFFER : 0)
+                  | (command.isPurgeTransmitDataBuffer() ? RFC2217.PURGE_DATA_TRANSMIT_DATA_BUFFER : 0);
+                Connection.this.send(new PurgeDataCommand(false, purged));
+            }
+
+            @Override
+            protected void caseDefault(ComPortCommand command) {
+                //
+            }
+
+            private void setParams(int baudRate, int dataBits, int stopBits, int parity) {
+                try {
+                    this.port.setSerialPortParams(baudRate, dataBits, stopBits, parity);
+                } catch (UnsupportedCommOperationException e) {
+                    // the reply tells the client what we have instead
+                }
+            }
+
+            private void setFlowControl(int flowControl) {
+                this.port.setFlowControlMode(flowControl);
+            }
+        }
+    }
+
+// Conversions between RFC 2217 and SerialPort values
+
+    private static int dataBits(int dataSize) {
+        return dataSize;                                        // DATASIZE_5..8 and DATABITS_5..8 are both 5..8
+    }
+
+    private static int dataSize(int dataBits) {
+        return dataBits;
+    }
+
+    private static int stopBits(int stopSize) {
+        switch (stopSize) {
+        case RFC2217.STOPSIZE_2:
+            return SerialPort.STOPBITS_2;
+        case RFC2217.STOPSIZE_1_5:
+            return SerialPort.STOPBITS_1_5;
+        default:
+            return SerialPort.STOPBITS_1;
+        }
+    }
+
+    private static int stopSize(int stopBits) {
+        switch (stopBits) {
+        case SerialPort.STOPBITS_2:
+            return RFC2217.STOPSIZE_2;
+        case SerialPort.STOPBITS_1_5:
+            return RFC2217.STOPSIZE_1_5;
+        default:
+            return RFC2217.STOPSIZE_1;
+        }
+    }
+
+    private static int parity(int parity) {
+        switch (parity) {
+        case RFC2217.PARITY_ODD:
+            return SerialPort.PARITY_ODD;
+        case RFC2217.PARITY_EVEN:
+            return SerialPort.PARITY_EVEN;
+        case RFC2217.PARITY_MARK:
+            return SerialPort.PARITY_MARK;
+        case RFC2217.PARITY_SPACE:
+            return SerialPort.PARITY_SPACE;
+        default:
+            return SerialPort.PARITY_NONE;
+        }
+    }
+
+    private static int rfc2217Parity(int parity) {
+        switch (parity) {
+        case SerialPort.PARITY_ODD:
+            return RFC2217.PARITY_ODD;
+        case SerialPort.PARITY_EVEN:
+            return RFC2217.PARITY_EVEN;
+        case SerialPort.PARITY_MARK:
+            return RFC2217.PARITY_MARK;
+        case SerialPort.PARITY_SPACE:
+            return RFC2217.PARITY_SPACE;
+        default:
+            return RFC2217.PARITY_NONE;
+        }
+    }
+
+    private static int outboundFlow(int flowControl) {
+        if ((flowControl & SerialPort.FLOWCONTROL_RTSCTS_OUT) != 0)
+            return CONTROL_OUTBOUND_FLOW_HARDWARE;
+        if ((flowControl & SerialPort.FLOWCONTROL_XONXOFF_OUT) != 0)
+            return CONTROL_OUTBOUND_FLOW_XON_XOFF;
+        return CONTROL_OUTBOUND_FLOW_NONE;
+    }
+
+    private static int inboundFlow(int flowControl) {
+        if ((flowControl & SerialPort.FLOWCONTROL_RTSCTS_IN) != 0)
+            return CONTROL_INBOUND_FLOW_HARDWARE;
+        if ((flowControl & SerialPort.FLOWCONTROL_XONXOFF_IN) != 0)
+            return CONTROL_INBOUND_FLOW_XON_XOFF;
+        return CONTROL_INBOUND_FLOW_NONE;
+    }
+}
@@ -0,0 +1,653 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   Copyright 2010 by Archie L. Cobbs and others.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io.rfc2217;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.telnet.TelnetClient;
+
+/**
+ * A {@link TelnetSerialPort} that does its own telnet on a non-blocking socket, serviced by a
+ * {@link TelnetEngine}, instead of using a {@link TelnetClient} with a reader thread of its own.
+ *
+ *  
+ * To "open" the port, create an instance, configure it as required and invoke {@link #connect(String, int)}.
+ * Everything else works as for {@link TelnetSerialPort}; {@link #getTelnetClient} returns null.
+ *  
+ *
+ *  
+ * The engine thread negotiates BINARY, SUPPRESS-GO-AHEAD, TERMINAL-TYPE and COM-PORT-OPTION, handles the
+ * access server's COM-PORT-OPTION commands and moves received data into a buffer whose size can be set
+ * with {@link #setInputBufferSize}. While that buffer is full the engine stops reading the socket, so
+ * a slow reader holds back the access server through TCP rather than losing data. Writes go straight to
+ * the socket when it has room; the rest is buffered and left to the engine, and {@code write()} only
+ * blocks while that buffer is full.
+ *  
+ *
+ *  
+ * Event listeners are called on the engine's thread and must not block.
+ *  
+ */
+public class NioTelnetSerialPort extends TelnetSerialPort {
+
+    private static final int DEFAULT_INPUT_BUFFER_SIZE = 16384;
+    private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+    private static final int TTYPE_IS = 0;
+    private static final int TTYPE_SEND = 1;
+
+    private final TelnetEngine engine;
+    private final NioInputStream inputStream = new NioInputStream();
+    private final NioOutputStream outputStream = new NioOutputStream();
+
+    private volatile SocketChannel channel;
+    private volatile TelnetEngine.Loop loop;
+    private volatile SelectionKey key;
+    private volatile boolean disconnected;
+
+    // Received data; guarded by inputLock
+    private final Object inputLock = new Object();
+    private byte[] input = new byte[DEFAULT_INPUT_BUFFER_SIZE];
+    private int inputStart;
+    private int inputLength;
+    private boolean readPaused;
+    private boolean endOfInput;
+    private IOException failure;
+
+    // Data and commands not yet written, in write mode; guarded by outputLock
+    private final Object outputLock = new Object();
+    private ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    private boolean writeInterest;
+    private boolean outputSuspended;                    // access server sent FLOWCONTROL-SUSPEND; guarded by outputLock
+
+    // Telnet state; only touched by the engine thread once connected
+    private final TelnetProtocol telnet = new TelnetProtocol(
+      TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA | TelnetProtocol.BIT_TTYPE | TelnetProtocol.BIT_COM_PORT,
+      TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA) {
+
+        @Override
+        protected void send(int... bytes) throws IOException {
+            NioTelnetSerialPort.this.writeCommand(bytes);
+        }
+
+        @Override
+        protected void enabled(int bit) {
+            if (bit == TelnetProtocol.BIT_COM_PORT)
+                NioTelnetSerialPort.this.startSubnegotiation();
+        }
+
+        @Override
+        protected void subnegotiation(int[] data, int length) {
+            NioTelnetSerialPort.this.subnegotiation(data, length);
+        }
+    };
+
+    private final Runnable resumeRead = new Runnable() {
+        @Override
+        public void run() {
+            NioTelnetSerialPort.this.interest(SelectionKey.OP_READ, true);
+        }
+    };
+
+    private final Runnable requestWrite = new Runnable() {
+        @Override
+        public void run() {
+            NioTelnetSerialPort.this.interest(SelectionKey.OP_WRITE, true);
+        }
+    };
+
+    /**
+     * Constructor using the {@linkplain TelnetEngine#getDefault default engine}.
+     *
+     * @throws IOException if the default engine cannot be started
+     */
+    public NioTelnetSerialPort() throws IOException {
+        this(TelnetEngine.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param engine engine to service this port
+     */
+    public NioTelnetSerialPort(TelnetEngine engine) {
+        if (engine == null)
+            throw new IllegalArgumentException("null engine");
+        this.engine = engine;
+    }
+
+    /**
+     * No {@link TelnetClient} is used by this class.
+     *
+     * @return null
+     */
+    @Override
+    protected TelnetClient createTelnetClient() {
+        return null;
+    }
+
+    /**
+     * Connect to an access server. Blocks until the TCP connection is made; option negotiation
+     * then proceeds in the background.
+     *
+     * @param host access server host
+     * @param port access server TCP port
+     * @throws IOException if the connection cannot be made
+     * @throws IllegalStateException if this instance is already connected or closed
+     */
+    public void connect(String host, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved())
+            throw new UnknownHostException(host);
+        this.connect(address);
+    }
+
+    /**
+     * Connect to an access server. Blocks until the TCP connection is made; option negotiation
+     * then proceeds in the background.
+     *
+     * @param address access server address
+     * @throws IOException if the connection cannot be made
+     * @throws IllegalStateException if this instance is already connected or closed
+     */
+    public void connect(SocketAddress address) throws IOException {
+        this.checkNotClosed();
+        TelnetEngine.Loop loop = this.engine.next();
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        synchronized (this) {
+            if (this.channel != null) {
+                channel.close();
+                throw new IllegalStateException("already connected");
+            }
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        // Ask for what we want before the engine gets to see any replies
+        byte[] request = this.telnet.request(
+          TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA | TelnetProtocol.BIT_COM_PORT,
+          TelnetProtocol.BIT_BINARY | TelnetProtocol.BIT_SGA);
+        loop.register(this, channel);
+        synchronized (this.outputLock) {
+            this.reserve(request.length);
+            this.output.put(request);
+            this.flush();
+        }
+    }
+
+    /**
+     * Get the engine servicing this port.
+     */
+    public TelnetEngine getEngine() {
+        return this.engine;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        this.checkNotClosed();
+        return this.inputStream;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        this.checkNotClosed();
+        return this.outputStream;
+    }
+
+    /**
+     * Set the size of the receive buffer. Never shrinks it below what it currently holds.
+     */
+    @Override
+    public void setInputBufferSize(int size) {
+        this.checkNotClosed();
+        synchronized (this.inputLock) {
+            byte[] buffer = new byte[Math.max(Math.max(size, 1), this.inputLength)];
+            int first = Math.min(this.inputLength, this.input.length - this.inputStart);
+            System.arraycopy(this.input, this.inputStart, buffer, 0, first);
+            System.arraycopy(this.input, 0, buffer, first, this.inputLength - first);
+            this.input = buffer;
+            this.inputStart = 0;
+            this.resumeIfDrained();
+        }
+    }
+
+    @Override
+    public int getInputBufferSize() {
+        this.checkNotClosed();
+        synchronized (this.inputLock) {
+            return this.input.length;
+        }
+    }
+
+    @Override
+    protected void disconnect() throws IOException {
+        this.disconnected = true;
+        synchronized (this.inputLock) {
+            this.inputLock.notifyAll();
+        }
+        synchronized (this.outputLock) {
+            this.outputLock.notifyAll();
+        }
+        SocketChannel channel = this.channel;
+        if (channel != null)
+            channel.close();
+    }
+
+    @Override
+    protected void writeSubnegotiation(int[] bytes) throws IOException {
+        synchronized (this.outputLock) {
+            this.reserve(4 + 2 * bytes.length);
+            this.output.put((byte)TelnetProtocol.IAC).put((byte)TelnetProtocol.SB);
+            for (int b : bytes) {
+                this.output.put((byte)b);
+                if ((b & 0xff) == TelnetProtocol.IAC)
+                    this.output.put((byte)TelnetProtocol.IAC);
+            }
+            this.output.put((byte)TelnetProtocol.IAC).put((byte)TelnetProtocol.SE);
+            this.flush();
+        }
+    }
+
+    // RFC 2217 says both data and commands stop, so while suspended nothing leaves the output buffer.
+    // Writers wait in reserve() once it is full, as they would for a slow socket.
+    @Override
+    void outputSuspendChanged(boolean suspended) {
+        synchronized (this.outputLock) {
+            this.outputSuspended = suspended;
+            if (suspended)
+                return;
+            try {
+                this.flush();
+            } catch (IOException e) {
+                // the engine will see it too
+            }
+            this.outputLock.notifyAll();
+        }
+    }
+
+    // Engine callbacks
+
+    void registered(SelectionKey key) {
+        this.key = key;
+        if (this.disconnected)
+            key.cancel();
+    }
+
+    void readable(ByteBuffer buffer, ByteBuffer data) throws IOException {
+        int room;
+        synchronized (this.inputLock) {
+            room = this.input.length - this.inputLength;
+            if (room == 0) {
+                this.readPaused = true;
+                this.interest(SelectionKey.OP_READ, false);
+                return;
+            }
+        }
+
+        // Decoding never makes the data longer, so this much always fits
+        buffer.clear();
+        buffer.limit(Math.min(room, buffer.capacity()));
+        if (this.channel.read(buffer) < 0) {
+            this.failed(null);
+            return;
+        }
+        buffer.flip();
+        data.clear();
+        this.telnet.decode(buffer, data);
+        data.flip();
+        int length = data.remaining();
+        if (length == 0)
+            return;
+
+        synchronized (this.inputLock) {
+            int end = (this.inputStart + this.inputLength) % this.input.length;
+            int first = Math.min(length, this.input.length - end);
+            data.get(this.input, end, first);
+            data.get(this.input, 0, length - first);
+            this.inputLength += length;
+            if (this.inputLength == this.input.length) {
+                this.readPaused = true;
+                this.interest(SelectionKey.OP_READ, false);
+            }
+            this.inputLock.notifyAll();
+        }
+        this.dataAvailable();
+    }
+
+    void writable() throws IOException {
+        synchronized (this.outputLock) {
+            if (this.outputSuspended) {
+                this.writeInterest = false;
+                this.interest(SelectionKey.OP_WRITE, false);
+                return;
+            }
+            this.output.flip();
+            this.channel.write(this.output);
+            this.output.compact();
+            if (this.output.position() == 0) {
+                this.writeInterest = false;
+                this.interest(SelectionKey.OP_WRITE, false);
+            }
+            this.outputLock.notifyAll();
+        }
+    }
+
+    // Connection is gone; e is null for an orderly end of stream
+    void failed(IOException e) {
+        synchronized (this.inputLock) {
+            if (this.endOfInput)
+                return;
+            this.endOfInput = true;
+            this.failure = e;
+            this.inputLock.notifyAll();
+        }
+        synchronized (this.outputLock) {
+            this.outputLock.notifyAll();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e2) {
+            //
+        }
+        if (!this.disconnected)
+            this.dataAvailable();
+    }
+
+    // Telnet receive side
+
+    private void subnegotiation(int[] data, int length) {
+        switch (data[0]) {
+        case RFC2217.COM_PORT_OPTION:
+            if (!this.telnet.isLocal(TelnetProtocol.BIT_COM_PORT))
+                return;
+            int[] bytes = new int[length];
+            System.arraycopy(data, 0, bytes, 0, length);
+            ComPortCommand command;
+            try {
+                command = RFC2217.decodeComPortCommand(bytes);
+            } catch (IllegalArgumentException e) {
+                System.err.println(this.getName() + ": rec'd invalid COM-PORT-OPTION command: " + e.getMessage());
+                return;
+            }
+            this.handleCommand(command);
+            break;
+        case TelnetProtocol.OPTION_TTYPE:
+            if (!this.telnet.isLocal(TelnetProtocol.BIT_TTYPE) || length < 2 || data[1] != TTYPE_SEND)
+                return;
+            byte[] type = DEFAULT_TERMINAL_TYPE.getBytes(StandardCharsets.US_ASCII);
+            int[] reply = new int[2 + type.length];
+            reply[0] = TelnetProtocol.OPTION_TTYPE;
+            reply[1] = TTYPE_IS;
+            for (int i = 0; i < type.length; i++)
+                reply[2 + i] = type[i];
+            try {
+                this.writeSubnegotiation(reply);
+            } catch (IOException e) {
+                // connection is going away
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    // Telnet send side
+
+    private void writeCommand(int... bytes) throws IOException {
+        synchronized (this.outputLock) {
+            this.reserve(bytes.length);
+            for (int b : bytes)
+                this.output.put((byte)b);
+            this.flush();
+        }
+    }
+
+    private void writeData(byte[] buf, int off, int len) throws IOException {
+        synchronized (this.outputLock) {
+            while (len > 0) {
+                this.reserve(2);
+                if (this.telnet.isLocalBinary()) {
+                    int n = TelnetCodec.escape(buf, off, len, this.output);
+                    off += n;
+                    len -= n;
+                } else {
+                    ByteBuffer out = this.output;
+                    while (len > 0 && out.remaining() >= 2) {
+                        byte b = buf[off++];
+                        len--;
+                        out.put(b);
+                        if (b == (byte)TelnetProtocol.IAC)
+                            out.put(b);
+                        else if (b == '\r')
+                            out.put((byte)0);
+                    }
+                }
+                this.flush();
+            }
+        }
+    }
+
+    // Wait for room in the output buffer; the engine thread never waits on itself, it grows the buffer instead
+    private void reserve(int length) throws IOException {
+        while (true) {
+            this.checkWritable();
+            if (this.output.remaining() >= length)
+                return;
+            if (Thread.currentThread() == this.loop || length > this.output.capacity()) {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.max(this.output.capacity() * 2, this.output.position() + length));
+                this.output.flip();
+                buffer.put(this.output);
+                this.output = buffer;
+                return;
+            }
+            try {
+                this.outputLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting to write");
+            }
+        }
+    }
+
+    // Write what the socket will take now; leave the rest to the engine
+    private void flush() throws IOException {
+        if (this.writeInterest || this.outputSuspended || this.output.position() == 0)
+            return;
+        this.output.flip();
+        this.channel.write(this.output);
+        this.output.compact();
+        if (this.output.position() > 0) {
+            this.writeInterest = true;
+            this.loop.execute(this.requestWrite);
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (this.disconnected)
+            throw new IOException("port is closed");
+        if (this.channel == null)
+            throw new IOException("not connected");
+        synchronized (this.inputLock) {
+            if (this.endOfInput)
+                throw new IOException("connection to access server lost", this.failure);
+        }
+    }
+
+    private void interest(int ops, boolean on) {
+        SelectionKey key = this.key;
+        if (key == null)
+            return;
+        try {
+            key.interestOps(on ? key.interestOps() | ops : key.interestOps() & ~ops);
+        } catch (CancelledKeyException e) {
+            // closed
+        }
+    }
+
+    // Let the engine read again once a reader has made room; caller holds inputLock
+    private void resumeIfDrained() {
+        if (this.readPaused && this.inputLength <= this.input.length / 2) {
+            this.readPaused = false;
+            TelnetEngine.Loop loop = this.loop;
+            if (loop != null)
+                loop.execute(this.resumeRead);
+        }
+    }
+
+    private class NioInputStream extends InputStream {
+
+        // Returns -1 on timeout as well as at end of stream, like RXTXPort
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            return this.read(buf, 0, 1) <= 0 ? -1 : buf[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > buf.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+            NioTelnetSerialPort port = NioTelnetSerialPort.this;
+            int threshold = port.receiveThreshold;
+            int timeout = port.receiveTimeout;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            synchronized (port.inputLock) {
+
+                // A threshold beyond the buffer could never be met, as reading from the socket stops when it's full
+                int want = threshold > 0 ? Math.min(Math.min(len, threshold), port.input.length) : 1;
+                while (port.inputLength < want) {
+                    if (port.disconnected)
+                        throw new IOException("port is closed");
+                    if (port.endOfInput) {
+                        if (port.inputLength > 0)
+                            break;
+                        if (port.failure != null)
+                            throw new IOException("connection to access server lost", port.failure);
+                        return -1;
+                    }
+                    try {
+                        if (timeout <= 0)
+                            port.inputLock.wait();
+                        else {
+                            long nanos = deadline - System.nanoTime();
+                            if (nanos <= 0)
+                                break;
+                            TimeUnit.NANOSECONDS.timedWait(port.inputLock, nanos);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted waiting for data");
+                    }
+                }
+                int length = Math.min(len, port.inputLength);
+                int first = Math.min(length, port.input.length - port.inputStart);
+                System.arraycopy(port.input, port.inputStart, buf, off, first);
+                System.arraycopy(port.input, 0, buf, off + first, length - first);
+                port.inputStart = (port.inputStart + length) % port.input.length;
+                port.inputLength -= length;
+                port.resumeIfDrained();
+                return length;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            NioTelnetSerialPort port = NioTelnetSerialPort.this;
+            synchronized (port.inputLock) {
+                if (port.disconnected)
+                    throw new IOException("port is closed");
+                return port.inputLength;
+            }
+        }
+    }
+
+    private class NioOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > buf.length - off)
+                throw new IndexOutOfBoundsException();
+            NioTelnetSerialPort.this.writeData(buf, off, len);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   Copyright 2010 by Archie L. Cobbs and others.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io.rfc2217;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk IAC doubling and undoubling for the telnet data stream.
+ * <p>
+ * Searches eight bytes at a time for {@code 0xFF} and copies the runs in between whole, so data
+ * without any {@code 0xFF} in it costs one scan and one copy. Heap buffers are copied with
+ * {@link System#arraycopy}; direct buffers with bulk {@code put()}.
+ */
+public final class TelnetCodec {
+
+    /**
+     * The telnet "interpret as command" byte, which has to be doubled in the data stream.
+     */
+    public static final byte IAC = (byte)0xff;
+
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
+    private TelnetCodec() {
+    }
+
+    /**
+     * Find the first {@link #IAC} between two absolute positions of a buffer.
+     *
+     * @param buf buffer to search; its position and limit are not used
+     * @param from first index to look at
+     * @param to index after the last one to look at
+     * @return index of the first {@link #IAC}, or {@code to} if there is none
+     */
+    public static int indexOfIac(ByteBuffer buf, int from, int to) {
+        int i = from;
+        if (to - from >= 8) {
+            boolean little = buf.order() == ByteOrder.LITTLE_ENDIAN;
+            for (; i <= to - 8; i += 8) {
+
+                // Exact per byte test: a byte of v is zero where the data had 0xFF, which sets its top bit in t
+                long v = ~buf.getLong(i);
+                long t = ~(((v & LOW7) + LOW7) | v | LOW7);
+                if (t != 0)
+                    return i + ((little ? Long.numberOfTrailingZeros(t) : Long.numberOfLeadingZeros(t)) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buf.get(i) == IAC)
+                return i;
+        }
+        return to;
+    }
+
+    /**
+     * Copy data from {@code src} to {@code dst}, doubling every {@link #IAC}, until {@code src} is
+     * used up or {@code dst} is full. An {@link #IAC} is never split from its double, so up to one
+     * byte of {@code dst} may stay unused.
+     *
+     * @param src data; its position is advanced past what was copied
+     * @param dst telnet stream; its position is advanced past what was written
+     */
+    public static void escape(ByteBuffer src, ByteBuffer dst) {
+        if (src.hasArray() && dst.hasArray()) {
+            TelnetCodec.escapeArray(src, dst);
+            return;
+        }
+        int pos = src.position();
+        int limit = src.limit();
+        while (pos < limit && dst.hasRemaining()) {
+            if (src.get(pos) == IAC) {
+                if (dst.remaining() < 2)
+                    break;
+                dst.put(IAC);
+                dst.put(IAC);
+                pos++;
+                continue;
+            }
+            int iac = TelnetCodec.indexOfIac(src, pos + 1, Math.min(limit, pos + dst.remaining()));
+            TelnetCodec.copy(src, pos, iac, dst);
+            pos = iac;
+        }
+        src.position(pos);
+    }
+
+    private static void escapeArray(ByteBuffer src, ByteBuffer dst) {
+        byte[] in = src.array();
+        int base = src.arrayOffset();
+        int pos = src.position();
+        int limit = src.limit();
+        byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        int outLimit = dst.arrayOffset() + dst.limit();
+        while (pos < limit && outPos < outLimit) {
+
+            // Double a run of IACs in a tight loop, so dense ones don't pay for a search each
+            if (in[base + pos] == IAC) {
+                int i = base + pos;
+                int end = i + Math.min(limit - pos, (outLimit - outPos) >> 1);
+                if (i == end)
+                    break;
+                do {
+                    out[outPos++] = IAC;
+                    out[outPos++] = IAC;
+                } while (++i < end && in[i] == IAC);
+                pos = i - base;
+                continue;
+            }
+            int iac = TelnetCodec.indexOfIac(src, pos + 1, Math.min(limit, pos + outLimit - outPos));
+            System.arraycopy(in, base + pos, out, outPos, iac - pos);
+            outPos += iac - pos;
+            pos = iac;
+        }
+        src.position(pos);
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    /**
+     * Copy data from an array to {@code dst}, doubling every {@link #IAC}, until the data is used up
+     * or {@code dst} is full.
+     *
+     * @param buf data
+     * @param off offset of the data in {@code buf}
+     * @param len length of the data
+     * @param dst telnet stream; its position is advanced past what was written
+     * @return the number of bytes of {@code buf} consumed
+     */
+    public static int escape(byte[] buf, int off, int len, ByteBuffer dst) {
+        ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+        TelnetCodec.escape(src, dst);
+        return src.position() - off;
+    }
+
+    /**
+     * Copy data from {@code src} to {@code dst}, turning each doubled {@link #IAC} back into one,
+     * until {@code src} is used up, {@code dst} is full, or an {@link #IAC} that does not have its
+     * double right after it in {@code src} is reached. The caller then handles the telnet command,
+     * or keeps the lone {@link #IAC} at the end for when more input arrives.
+     * <p>
+     * {@code src} and {@code dst} may share a backing array, as long as {@code dst}'s position does not
+     * start ahead of {@code src}'s, to decode in place.
+     *
+     * @param src telnet stream; its position is advanced past what was consumed and is left at
+     *  the {@link #IAC} that stopped it, if any
+     * @param dst data; its position is advanced past what was written
+     */
+    public static void unescape(ByteBuffer src, ByteBuffer dst) {
+        if (src.hasArray() && dst.hasArray()) {
+            TelnetCodec.unescapeArray(src, dst);
+            return;
+        }
+        int pos = src.position();
+        int limit = src.limit();
+        while (pos < limit && dst.hasRemaining()) {
+            if (src.get(pos) == IAC) {
+                if (pos + 1 == limit || src.get(pos + 1) != IAC)
+                    break;
+                dst.put(IAC);
+                pos += 2;
+                continue;
+            }
+            int iac = TelnetCodec.indexOfIac(src, pos + 1, Math.min(limit, pos + dst.remaining()));
+            TelnetCodec.copy(src, pos, iac, dst);
+            pos = iac;
+        }
+        src.position(pos);
+    }
+
+    private static void unescapeArray(ByteBuffer src, ByteBuffer dst) {
+        byte[] in = src.array();
+        int base = src.arrayOffset();
+        int pos = src.position();
+        int limit = src.limit();
+        byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        int outLimit = dst.arrayOffset() + dst.limit();
+        while (pos < limit && outPos < outLimit) {
+            if (in[base + pos] == IAC) {
+                int i = base + pos;
+                int end = i + 2 * Math.min((limit - pos) >> 1, outLimit - outPos);
+                if (i == end || in[i + 1] != IAC)
+                    break;
+                do {
+                    out[outPos++] = IAC;
+                    i += 2;
+                } while (i < end && in[i] == IAC && in[i + 1] == IAC);
+                pos = i - base;
+                continue;
+            }
+            int iac = TelnetCodec.indexOfIac(src, pos + 1, Math.min(limit, pos + outLimit - outPos));
+            System.arraycopy(in, base + pos, out, outPos, iac - pos);
+            outPos += iac - pos;
+            pos = iac;
+        }
+        src.position(pos);
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    // Copy src[from, to) to dst at its position; short runs aren't worth a duplicate()
+    private static void copy(ByteBuffer src, int from, int to, ByteBuffer dst) {
+        if (to - from < 16) {
+            for (int i = from; i < to; i++)
+                dst.put(src.get(i));
+            return;
+        }
+        ByteBuffer run = src.duplicate();
+        run.limit(to);
+        run.position(from);
+        dst.put(run);
+    }
+}
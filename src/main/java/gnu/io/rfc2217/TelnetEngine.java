@@ -0,0 +1,249 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   Copyright 2010 by Archie L. Cobbs and others.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io.rfc2217;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of selector threads serving any number of {@link NioTelnetSerialPort}s.
+ *
+ *  
+ * Each connection is handed to one of the threads when it is established and stays there. That thread
+ * reads the socket, does the telnet option negotiation and COM-PORT-OPTION handling, and writes whatever
+ * output could not be written straight away by the thread calling {@code write()}. So a thousand ports
+ * cost as many threads as the engine was created with, instead of a reader thread each.
+ *  
+ *
+ *  
+ * Serial port event listeners of ports using an engine are called on its threads and must not block.
+ *  
+ *
+ * @see NioTelnetSerialPort
+ */
+public class TelnetEngine implements Closeable {
+
+    /**
+     * System property giving the number of threads of the {@linkplain #getDefault default engine}.
+     */
+    public static final String THREADS_PROPERTY = "gnu.io.rfc2217.EngineThreads";
+
+    private static final int DEFAULT_THREADS = 2;
+
+    // Size of each thread's socket read buffer
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    private static TelnetEngine defaultEngine;
+
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Start an engine.
+     *
+     * @param threads number of selector threads
+     * @throws IllegalArgumentException if {@code threads} is less than one
+     * @throws IOException if a selector cannot be opened
+     */
+    public TelnetEngine(int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads < 1");
+        this.loops = new Loop[threads];
+        try {
+            for (int i = 0; i < threads; i++)
+                this.loops[i] = new Loop(i);
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+        for (Loop loop : this.loops)
+            loop.start();
+    }
+
+    /**
+     * Get the engine shared by all {@link NioTelnetSerialPort}s not given one of their own, starting it
+     * if necessary. Its size is taken from the {@value #THREADS_PROPERTY} system property and defaults to two.
+     */
+    public static synchronized TelnetEngine getDefault() throws IOException {
+        if (TelnetEngine.defaultEngine == null) {
+            int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+            TelnetEngine.defaultEngine = new TelnetEngine(Math.max(threads, 1));
+        }
+        return TelnetEngine.defaultEngine;
+    }
+
+    /**
+     * Get the number of selector threads.
+     */
+    public int getThreads() {
+        return this.loops.length;
+    }
+
+    /**
+     * Stop the threads and drop every connection still registered.
+     */
+    @Override
+    public void close() {
+        for (Loop loop : this.loops) {
+            if (loop == null)
+                continue;
+            loop.closed = true;
+            loop.selector.wakeup();
+        }
+    }
+
+    // Pick the thread for a new connection
+    Loop next() throws IOException {
+        Loop loop = this.loops[(this.next.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length];
+        if (loop.closed)
+            throw new IOException("engine is closed");
+        return loop;
+    }
+
+    /**
+     * One selector thread.
+     */
+    final class Loop extends Thread {
+
+        final Selector selector;
+        // Socket reads land in readBuffer and are decoded in place through dataBuffer
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final ByteBuffer dataBuffer = this.readBuffer.duplicate();
+
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private volatile boolean closed;
+
+        Loop(int index) throws IOException {
+            super("RFC2217 engine " + index);
+            this.setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        // Register a connected, non-blocking channel with this thread
+        void register(final NioTelnetSerialPort port, final SocketChannel channel) {
+            this.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        port.registered(channel.register(Loop.this.selector, SelectionKey.OP_READ, port));
+                    } catch (IOException e) {
+                        port.failed(e);
+                    }
+                }
+            });
+        }
+
+        // Run a task on this thread, e.g. to change a key's interest set
+        void execute(Runnable task) {
+            this.tasks.add(task);
+            if (Thread.currentThread() != this)
+                this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!this.closed) {
+                    if (this.tasks.isEmpty())
+                        this.selector.select();
+                    else
+                        this.selector.selectNow();
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null)
+                        task.run();
+                    Iterator<SelectionKey> i = this.selector.selectedKeys().iterator();
+                    while (i.hasNext()) {
+                        SelectionKey key = i.next();
+                        i.remove();
+                        NioTelnetSerialPort port = (NioTelnetSerialPort)key.attachment();
+                        try {
+                            if (key.isReadable())
+                                port.readable(this.readBuffer, this.dataBuffer);
+                            if (key.isValid() && key.isWritable())
+                                port.writable();
+                        } catch (CancelledKeyException e) {
+                            // port was closed
+                        } catch (IOException e) {
+                            port.failed(e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(this.getName() + ": " + e.getMessage());
+            } catch (ClosedSelectorException e) {
+                // closed
+            } finally {
+                for (SelectionKey key : new ArrayList<SelectionKey>(this.selector.keys()))
+                    ((NioTelnetSerialPort)key.attachment()).failed(new IOException("engine is closed"));
+                try {
+                    this.selector.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+}
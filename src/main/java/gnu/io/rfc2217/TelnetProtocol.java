@@ -0,0 +1,350 @@
+/*-------------------------------------------------------------------------
+|   RXTX License v 2.1 - LGPL v 2.1 + Linking Over Controlled Interface.
+|   Copyright 2010 by Archie L. Cobbs and others.
+|
+|   A copy of the LGPL v 2.1 may be found at
+|   http://www.gnu.org/licenses/lgpl.txt on March 4th 2007.  A copy is
+|   here for your convenience.
+|
+|   This library is free software; you can redistribute it and/or
+|   modify it under the terms of the GNU Lesser General Public
+|   License as published by the Free Software Foundation; either
+|   version 2.1 of the License, or (at your option) any later version.
+|
+|   This library is distributed in the hope that it will be useful,
+|   but WITHOUT ANY WARRANTY; without even the implied warranty of
+|   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+|   Lesser General Public License for more details.
+|
+|   An executable that contains no derivative of any portion of RXTX, but
+|   is designed to work with RXTX by being dynamically linked with it,
+|   is considered a "work that uses the Library" subject to the terms and
+|   conditions of the GNU Lesser General Public License.
+|
+|   The following has been added to the RXTX License to remove
+|   any confusion about linking to RXTX.   We want to allow in part what
+|   section 5, paragraph 2 of the LGPL does not permit in the special
+|   case of linking over a controlled interface.  The intent is to add a
+|   Java Specification Request or standards body defined interface in the 
+|   future as another exception but one is not currently available.
+|
+|   http://www.fsf.org/licenses/gpl-faq.html#LinkingOverControlledInterface
+|
+|   As a special exception, the copyright holders of RXTX give you
+|   permission to link RXTX with independent modules that communicate with
+|   RXTX solely through the Sun Microsytems CommAPI interface version 2,
+|   regardless of the license terms of these independent modules, and to copy
+|   and distribute the resulting combined work under terms of your choice,
+|   provided that every copy of the combined work is accompanied by a complete
+|   copy of the source code of RXTX (the version of RXTX used to produce the
+|   combined work), being distributed under the terms of the GNU Lesser General
+|   Public License plus this exception.  An independent module is a
+|   module which is not derived from or based on RXTX.
+|
+|   Note that people who make modified versions of RXTX are not obligated
+|   to grant this special exception for their modified versions; it is
+|   their choice whether to do so.  The GNU Lesser General Public License
+|   gives permission to release a modified version without this exception; this
+|   exception also makes it possible to release a modified version which
+|   carries forward this exception.
+|
+|   You should have received a copy of the GNU Lesser General Public
+|   License along with this library; if not, write to the Free
+|   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+|   All trademarks belong to their respective owners.
+--------------------------------------------------------------------------*/
+package gnu.io.rfc2217;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The receive side of a telnet connection and its option negotiation, shared by
+ * {@link NioTelnetSerialPort} and {@link AccessServer}.
+ *
+ *  
+ * Options are tracked as bits, for just the few this package cares about; anything else the peer offers
+ * or asks for is refused. Negotiation follows RFC 1143 loosely: a request we made is not answered again
+ * when the peer agrees to it, and nothing is answered that would not change the option's state.
+ *  
+ *
+ *  
+ * Not thread safe: {@link #decode} and the callbacks run on the one thread servicing the connection.
+ *  
+ */
+abstract class TelnetProtocol {
+
+    // Telnet commands and options (RFC 854, 856, 858, 1091)
+    static final int IAC = 255;
+    static final int DONT = 254;
+    static final int DO = 253;
+    static final int WONT = 252;
+    static final int WILL = 251;
+    static final int SB = 250;
+    static final int SE = 240;
+    static final int OPTION_BINARY = 0;
+    static final int OPTION_SGA = 3;
+    static final int OPTION_TTYPE = 24;
+
+    // Options we negotiate, as bits
+    static final int BIT_BINARY = 0x01;
+    static final int BIT_SGA = 0x02;
+    static final int BIT_TTYPE = 0x04;
+    static final int BIT_COM_PORT = 0x08;
+
+    private static final int[] OPTIONS = { OPTION_BINARY, OPTION_SGA, OPTION_TTYPE, RFC2217.COM_PORT_OPTION };
+
+    // Receive states
+    private static final int STATE_DATA = 0;
+    private static final int STATE_CR = 1;
+    private static final int STATE_IAC = 2;
+    private static final int STATE_OPTION = 3;
+    private static final int STATE_SB = 4;
+    private static final int STATE_SB_IAC = 5;
+
+    private static final int MAX_SUBNEGOTIATION = 1024;
+
+    private final int acceptLocal;
+    private final int acceptRemote;
+
+    private int receiveState = STATE_DATA;
+    private int verb;
+    private int[] subnegotiation = new int[64];
+    private int subnegotiationLength;
+    private int localOptions;
+    private int remoteOptions;
+    private int localRequested;
+    private int remoteRequested;
+    private volatile boolean localBinary;
+
+    /**
+     * Constructor.
+     *
+     * @param acceptLocal options we agree to enable on our side when asked with DO
+     * @param acceptRemote options we agree to let the peer enable when offered with WILL
+     */
+    TelnetProtocol(int acceptLocal, int acceptRemote) {
+        this.acceptLocal = acceptLocal;
+        this.acceptRemote = acceptRemote;
+    }
+
+    /**
+     * Offer options on our side and ask for options on the peer's. Call before {@link #decode} sees any input.
+     *
+     * @param will options to send WILL for
+     * @param doo options to send DO for
+     * @return the commands to send
+     */
+    byte[] request(int will, int doo) {
+        this.localRequested |= will;
+        this.remoteRequested |= doo;
+        byte[] commands = new byte[3 * (Integer.bitCount(will) + Integer.bitCount(doo))];
+        int length = TelnetProtocol.addCommands(commands, 0, WILL, will);
+        TelnetProtocol.addCommands(commands, length, DO, doo);
+        return commands;
+    }
+
+    private static int addCommands(byte[] commands, int length, int verb, int bits) {
+        for (int i = 0; i < OPTIONS.length; i++) {
+            if ((bits & (1 << i)) == 0)
+                continue;
+            commands[length++] = (byte)IAC;
+            commands[length++] = (byte)verb;
+            commands[length++] = (byte)OPTIONS[i];
+        }
+        return length;
+    }
+
+    /**
+     * Whether an option is enabled on our side.
+     */
+    boolean isLocal(int bit) {
+        return (this.localOptions & bit) != 0;
+    }
+
+    /**
+     * Whether an option is enabled on the peer's side.
+     */
+    boolean isRemote(int bit) {
+        return (this.remoteOptions & bit) != 0;
+    }
+
+    /**
+     * Whether we send binary; safe to call from any thread.
+     */
+    boolean isLocalBinary() {
+        return this.localBinary;
+    }
+
+    /**
+     * Move the data in {@code src} to {@code dst}, which may be the same memory, acting on telnet commands
+     * along the way. A command split across calls is picked up where it was left.
+     */
+    void decode(ByteBuffer src, ByteBuffer dst) {
+        while (src.hasRemaining()) {
+
+            // Copy runs of binary data in bulk, up to the next command
+            if (this.receiveState == STATE_DATA && (this.remoteOptions & BIT_BINARY) != 0) {
+                TelnetCodec.unescape(src, dst);
+                if (!src.hasRemaining())
+                    break;
+            }
+            int b = src.get() & 0xff;
+            switch (this.receiveState) {
+            case STATE_CR:
+                this.receiveState = STATE_DATA;
+                if (b != 0)
+                    this.decodeData(b, dst);
+                break;
+            case STATE_DATA:
+                this.decodeData(b, dst);
+                break;
+            case STATE_IAC:
+                switch (b) {
+                case IAC:
+                    dst.put((byte)b);
+                    this.receiveState = STATE_DATA;
+                    break;
+                case WILL:
+                case WONT:
+                case DO:
+                case DONT:
+                    this.verb = b;
+                    this.receiveState = STATE_OPTION;
+                    break;
+                case SB:
+                    this.subnegotiationLength = 0;
+                    this.receiveState = STATE_SB;
+                    break;
+                default:
+                    this.receiveState = STATE_DATA;             // NOP, GA, etc.
+                    break;
+                }
+                break;
+            case STATE_OPTION:
+                this.receiveState = STATE_DATA;
+                this.negotiate(this.verb, b);
+                break;
+            case STATE_SB:
+                if (b == IAC)
+                    this.receiveState = STATE_SB_IAC;
+                else
+                    this.addSubnegotiation(b);
+                break;
+            case STATE_SB_IAC:
+                if (b == IAC) {
+                    this.addSubnegotiation(b);
+                    this.receiveState = STATE_SB;
+                    break;
+                }
+                this.receiveState = STATE_DATA;
+                if (b == SE && this.subnegotiationLength > 0)
+                    this.subnegotiation(this.subnegotiation, this.subnegotiationLength);
+                break;
+            default:
+                throw new RuntimeException("internal error");
+            }
+        }
+    }
+
+    private void decodeData(int b, ByteBuffer dst) {
+        if (b == IAC) {
+            this.receiveState = STATE_IAC;
+            return;
+        }
+        dst.put((byte)b);
+        if (b == '\r' && (this.remoteOptions & BIT_BINARY) == 0)
+            this.receiveState = STATE_CR;
+    }
+
+    /**
+     * Send raw telnet command bytes to the peer.
+     */
+    protected abstract void send(int... bytes) throws IOException;
+
+    /**
+     * Invoked when an option has been enabled on our side.
+     *
+     * @param bit the option
+     */
+    protected void enabled(int bit) {
+    }
+
+    /**
+     * Invoked for each subnegotiation received, with {@code data[0]} the option.
+     * The array is reused; copy what is needed.
+     */
+    protected abstract void subnegotiation(int[] data, int length);
+
+    private void addSubnegotiation(int b) {
+        if (this.subnegotiationLength == this.subnegotiation.length) {
+            if (this.subnegotiationLength == MAX_SUBNEGOTIATION)
+                return;
+            int[] array = new int[this.subnegotiationLength * 2];
+            System.arraycopy(this.subnegotiation, 0, array, 0, this.subnegotiationLength);
+            this.subnegotiation = array;
+        }
+        this.subnegotiation[this.subnegotiationLength++] = b;
+    }
+
+    private void negotiate(int verb, int option) {
+        int bit = TelnetProtocol.optionBit(option);
+        try {
+            switch (verb) {
+            case DO:
+                if ((bit & this.acceptLocal) == 0) {
+                    this.send(IAC, WONT, option);
+                    break;
+                }
+                if ((this.localOptions & bit) != 0)
+                    break;
+                this.localOptions |= bit;
+                if ((this.localRequested & bit) == 0)
+                    this.send(IAC, WILL, option);
+                this.localRequested &= ~bit;
+                this.localBinary = (this.localOptions & BIT_BINARY) != 0;
+                this.enabled(bit);
+                break;
+            case DONT:
+                this.localRequested &= ~bit;
+                if ((this.localOptions & bit) == 0)
+                    break;
+                this.localOptions &= ~bit;
+                this.localBinary = (this.localOptions & BIT_BINARY) != 0;
+                this.send(IAC, WONT, option);
+                break;
+            case WILL:
+                if ((bit & this.acceptRemote) == 0) {
+                    this.send(IAC, DONT, option);
+                    break;
+                }
+                if ((this.remoteOptions & bit) != 0)
+                    break;
+                this.remoteOptions |= bit;
+                if ((this.remoteRequested & bit) == 0)
+                    this.send(IAC, DO, option);
+                this.remoteRequested &= ~bit;
+                break;
+            case WONT:
+                this.remoteRequested &= ~bit;
+                if ((this.remoteOptions & bit) == 0)
+                    break;
+                this.remoteOptions &= ~bit;
+                this.send(IAC, DONT, option);
+                break;
+            default:
+                break;
+            }
+        } catch (IOException e) {
+            // connection is going away
+        }
+    }
+
+    private static int optionBit(int option) {
+        for (int i = 0; i < OPTIONS.length; i++) {
+            if (OPTIONS[i] == option)
+                return 1 << i;
+        }
+        return 0;
+    }
+}
@@ -55,16 +55,22 @@
 --------------------------------------------------------------------------*/
 package gnu.io.rfc2217;
 
+import gnu.io.SerialEventRing;
 import gnu.io.SerialPort;
 import gnu.io.SerialPortEvent;
 import gnu.io.SerialPortEventListener;
 import gnu.io.UnsupportedCommOperationException;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.TooManyListenersException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.net.telnet.EchoOptionHandler;
 import org.apache.commons.net.telnet.InvalidTelnetOptionException;
@@ -127,10 +133,13 @@ import static gnu.io.rfc2217.RFC2217.STOPSIZE_2;
  *  
  *
  *  
+ * Receive threshold and receive timeout work as for {@link gnu.io.RXTXPort}, with the timeout
+ * measured from when the read starts waiting for data the access server has not sent yet.
+ *  
+ *
+ *  
  * The following optional functionality is not implemented and/or inappropriate for a networked connection:
  * <ul>
- * <li>Receive threshold</li>
- * <li>Receive timeout</li>
  * <li>Receive framing byte</li>
  * <li>Input buffer size</li>
  * <li>Output buffer size</li>
@@ -153,7 +162,7 @@ public class TelnetSerialPort extends SerialPort {
 
     private static final int DEFAULT_BAUD_RATE = 9600;
 
-    private static final String DEFAULT_TERMINAL_TYPE = "VT100";
+    static final String DEFAULT_TERMINAL_TYPE = "VT100";
 
     // Modem state bits we always want the server to report to us regardless of what listener wants.
     // This is so we can always stay up-to-date with their values in case isCD(), etc. is invoked.
@@ -167,6 +176,7 @@ public class TelnetSerialPort extends SerialPort {
     // States
     private enum State {
         INITIAL(false, false),
+        ESTABLISHING(false, false),
         ESTABLISHED(true, false),
         CLOSED(false, true);
 
@@ -194,6 +204,8 @@ public class TelnetSerialPort extends SerialPort {
     private String signature;
     private State state;
     private SerialPortEventListener listener;
+    private SerialEventRing eventRing;
+    private int eventRingId;
 
     private int baudRate = DEFAULT_BAUD_RATE;
     private int dataSize = DATASIZE_8;
@@ -216,6 +228,18 @@ public class TelnetSerialPort extends SerialPort {
     private int modemStateMask = MODEMSTATE_ALWAYS_MONITOR;     // which modem state changes access server notifies us about
     private int modemStateLast;                                 // most recent modem state rec'd from access server
 
+    private boolean outputSuspended;                            // access server sent FLOWCONTROL-SUSPEND
+    private long outputSuspendedSince;                          // System.nanoTime() of the current suspension
+    private long outputSuspendedNanos;                          // total of the suspensions that have ended
+    private long outputSuspendCount;
+
+    // Read without locking by the input streams
+    volatile int receiveThreshold;                              // 0 if disabled
+    volatile int receiveTimeout = -1;                           // -1 if disabled
+
+    private long inputArrivals;                                 // bumped by dataAvailable()
+    private ThresholdInputStream inputStream;
+
     /**
      * Constructor.
      */
@@ -224,16 +248,13 @@ public class TelnetSerialPort extends SerialPort {
         this.name = getClass().getSimpleName();
         this.signature = "jvser v" + Version.JVSER_VERSION;
         this.telnetClient = this.createTelnetClient();
+        if (this.telnetClient == null)
+            return;
         this.telnetClient.registerInputListener(new TelnetInputListener() {
 
             @Override
             public void telnetInputAvailable() {
-                boolean notify;
-                synchronized (TelnetSerialPort.this) {
-                    notify = (TelnetSerialPort.this.lineStateNotify & LINESTATE_DATA_READY) != 0;
-                }
-                if (notify)
-                    TelnetSerialPort.this.sendEvent(SerialPortEvent.DATA_AVAILABLE);
+                TelnetSerialPort.this.dataAvailable();
             }
         });
     }
@@ -271,7 +292,8 @@ public class TelnetSerialPort extends SerialPort {
     }
 
     /**
-     * Get the {@link TelnetClient} associated with this instance.
+     * Get the {@link TelnetClient} associated with this instance, or null if the subclass
+     * does its own telnet, like {@link NioTelnetSerialPort}.
      */
     public TelnetClient getTelnetClient() {
         return this.telnetClient;
@@ -279,6 +301,7 @@ public class TelnetSerialPort extends SerialPort {
 
     /**
      * Construct and configure the {@link TelnetClient} to be used for this instance.
+     * Subclasses that talk telnet themselves return null.
      */
     protected TelnetClient createTelnetClient() {
         TelnetClient tc = new TelnetClient(DEFAULT_TERMINAL_TYPE);
@@ -297,19 +320,22 @@ public class TelnetSerialPort extends SerialPort {
         return tc;
     }
 
-    // We wrap the telnet port's InputStream in a NotifyInputStream so we can detect when there
-    // is new data available to be read. It would be nice if the TelnetClient provided a way to
-    // notify us directly, but it doesn't, so we have to use this hack.
+    // We wrap the telnet port's InputStream in a ThresholdInputStream so reads can wait for the
+    // receive threshold with the receive timeout; the TelnetInputListener tells it when data comes in.
     @Override
     public synchronized InputStream getInputStream() throws IOException {
         this.state.checkNotClosed();
-        return this.telnetClient.getInputStream();
+        if (this.inputStream == null)
+            this.inputStream = new ThresholdInputStream(this.telnetClient.getInputStream());
+        return this.inputStream;
     }
 
+    // Likewise the telnet port's OutputStream goes in a SuspendableOutputStream so writes wait
+    // while the access server has suspended us.
     @Override
     public synchronized OutputStream getOutputStream() throws IOException {
         this.state.checkNotClosed();
-        return this.telnetClient.getOutputStream();
+        return new SuspendableOutputStream(this.telnetClient.getOutputStream());
     }
 
     @Override
@@ -317,13 +343,31 @@ public class TelnetSerialPort extends SerialPort {
         if (this.state == State.CLOSED)
             return;
         this.state = State.CLOSED;
+        this.notifyAll();                                           // wake writers waiting out a suspension
+        if (this.eventRing != null) {
+            this.eventRing.unregister(this.eventRingId);
+            this.eventRing = null;
+        }
         try {
-            this.telnetClient.disconnect();
+            this.disconnect();
         } catch (IOException e) {
         	//
         }
     }
 
+    /**
+     * Close the connection to the access server. Invoked once by {@link #close}.
+     */
+    protected void disconnect() throws IOException {
+        this.telnetClient.disconnect();
+    }
+
+    // For subclasses in this package which provide their own streams
+
+    synchronized void checkNotClosed() {
+        this.state.checkNotClosed();
+    }
+
     @Override
     public synchronized int getBaudRate() {
         this.state.checkNotClosed();
@@ -394,6 +438,73 @@ public class TelnetSerialPort extends SerialPort {
         commandList.send();
     }
 
+    /**
+     * Ask the access server to stop sending us data, by sending {@code FLOWCONTROL-SUSPEND}.
+     * Data the server receives in the meantime is held (or flow controlled) on its side.
+     * Does nothing unless the connection is established.
+     *
+     * @see #resumeInbound
+     */
+    public void suspendInbound() {
+        synchronized (this) {
+            this.state.checkNotClosed();
+            if (this.state != State.ESTABLISHED)
+                return;
+        }
+        this.sendSubnegotiation(new FlowControlSuspendCommand(true));
+    }
+
+    /**
+     * Ask the access server to start sending us data again, by sending {@code FLOWCONTROL-RESUME}.
+     * Does nothing unless the connection is established.
+     *
+     * @see #suspendInbound
+     */
+    public void resumeInbound() {
+        synchronized (this) {
+            this.state.checkNotClosed();
+            if (this.state != State.ESTABLISHED)
+                return;
+        }
+        this.sendSubnegotiation(new FlowControlResumeCommand(true));
+    }
+
+    /**
+     * Determine whether the access server has asked us to stop sending, by sending {@code FLOWCONTROL-SUSPEND},
+     * and not yet allowed us to start again with {@code FLOWCONTROL-RESUME}.
+     *
+     *  
+     * While suspended, writes to the output stream wait for the resume; no thread is set aside for this,
+     * the waiting is done by the writer.
+     *  
+     */
+    public synchronized boolean isOutputSuspended() {
+        return this.outputSuspended;
+    }
+
+    /**
+     * Get the total time output has been suspended by the access server, including any suspension now
+     * in progress.
+     *
+     * @return nanoseconds spent suspended since the port was created
+     * @see #isOutputSuspended
+     */
+    public synchronized long getOutputSuspendedNanos() {
+        long nanos = this.outputSuspendedNanos;
+        if (this.outputSuspended)
+            nanos += System.nanoTime() - this.outputSuspendedSince;
+        return nanos;
+    }
+
+    /**
+     * Get the number of times the access server has suspended output.
+     *
+     * @see #isOutputSuspended
+     */
+    public synchronized long getOutputSuspendCount() {
+        return this.outputSuspendCount;
+    }
+
     @Override
     public void setFlowControlMode(int flowControl) throws UnsupportedCommOperationException {
 
@@ -604,11 +715,12 @@ public class TelnetSerialPort extends SerialPort {
 
     void startSubnegotiation() {
         CommandList commandList = new CommandList(12);
+        int[] sent;
         synchronized (this) {
 
             // Update state
             this.state.checkNotClosed();
-            this.state = State.ESTABLISHED;
+            this.state = State.ESTABLISHING;
 
             // Request signature from peer
             commandList.add(new SignatureCommand(true));
@@ -618,15 +730,44 @@ public class TelnetSerialPort extends SerialPort {
                 commandList.add(new SignatureCommand(true, this.signature));
 
             // Send all configuration information
-            this.addSerialPortGeometry(commandList);
-            commandList.add(new LineStateMaskCommand(true, this.lineStateMask));
-            commandList.add(new ModemStateMaskCommand(true, this.modemStateMask));
-            commandList.add(new ControlCommand(true, this.flowControlInbound));
-            commandList.add(new ControlCommand(true, this.flowControlOutbound));
-            commandList.add(new ControlCommand(true, this.dtr ? CONTROL_DTR_ON : CONTROL_DTR_OFF));
-            commandList.add(new ControlCommand(true, this.rts ? CONTROL_RTS_ON : CONTROL_RTS_OFF));
+            sent = this.getConfiguration();
+            this.addConfiguration(commandList);
         }
         commandList.send();
+
+        // Setters invoked meanwhile didn't send anything, as we weren't established yet, and if we were they
+        // could have overtaken the commands above. So only become established once what we sent is current.
+        while (true) {
+            synchronized (this) {
+                if (this.state != State.ESTABLISHING)
+                    return;
+                int[] current = this.getConfiguration();
+                if (Arrays.equals(current, sent)) {
+                    this.state = State.ESTABLISHED;
+                    return;
+                }
+                sent = current;
+                this.addConfiguration(commandList);
+            }
+            commandList.send();
+        }
+    }
+
+    private int[] getConfiguration() {
+        return new int[] {
+            this.baudRate, this.dataSize, this.parity, this.stopSize, this.lineStateMask, this.modemStateMask,
+            this.flowControlInbound, this.flowControlOutbound, this.dtr ? 1 : 0, this.rts ? 1 : 0
+        };
+    }
+
+    private void addConfiguration(CommandList commandList) {
+        this.addSerialPortGeometry(commandList);
+        commandList.add(new LineStateMaskCommand(true, this.lineStateMask));
+        commandList.add(new ModemStateMaskCommand(true, this.modemStateMask));
+        commandList.add(new ControlCommand(true, this.flowControlInbound));
+        commandList.add(new ControlCommand(true, this.flowControlOutbound));
+        commandList.add(new ControlCommand(true, this.dtr ? CONTROL_DTR_ON : CONTROL_DTR_OFF));
+        commandList.add(new ControlCommand(true, this.rts ? CONTROL_RTS_ON : CONTROL_RTS_OFF));
     }
 
     // Method to send serial port "geometry" in the order recommended by RFC 2217 (section 2)
@@ -710,6 +851,16 @@ public class TelnetSerialPort extends SerialPort {
                 }
             }
 
+            @Override
+            public void caseFlowControlSuspend(FlowControlSuspendCommand command) {
+                TelnetSerialPort.this.setOutputSuspended(true);
+            }
+
+            @Override
+            public void caseFlowControlResume(FlowControlResumeCommand command) {
+                TelnetSerialPort.this.setOutputSuspended(false);
+            }
+
             @Override
             public void caseNotifyLineState(NotifyLineStateCommand command) {
                 int lineState = command.getLineState();
@@ -735,11 +886,13 @@ public class TelnetSerialPort extends SerialPort {
             public void caseNotifyModemState(NotifyModemStateCommand command) {
                 int modemState = command.getModemState();
                 int notify;
+                int modemStatePrevious;
                 synchronized (TelnetSerialPort.this) {
                     notify = TelnetSerialPort.this.modemStateNotify;
+                    modemStatePrevious = TelnetSerialPort.this.modemStateLast;
                     TelnetSerialPort.this.modemStateLast = modemState;
                 }
-                notify &= modemState ^ modemStateLast;                  // notify only if bit has changed
+                notify &= modemState ^ modemStatePrevious;              // notify only if bit has changed
                 if ((notify & MODEMSTATE_CARRIER_DETECT) != 0)
                     TelnetSerialPort.this.sendEvent(SerialPortEvent.CD, (modemState & MODEMSTATE_CARRIER_DETECT) != 0);
                 if ((notify & MODEMSTATE_RING_INDICATOR) != 0)
@@ -772,6 +925,35 @@ public class TelnetSerialPort extends SerialPort {
         this.listener = null;
     }
 
+    /**
+     * Publish the events of this port into a {@link SerialEventRing} as primitive records instead of
+     * allocating a {@link SerialPortEvent} for each. They are delivered by whichever thread drains the ring.
+     * A listener added with {@link #addEventListener addEventListener()} is still called as well.
+     *
+     * @param ring ring to publish to, or null to stop publishing
+     * @throws TooManyListenersException if a different ring is already set
+     */
+    public synchronized void setEventRing(SerialEventRing ring) throws TooManyListenersException {
+        if (ring == null) {
+            if (this.eventRing != null)
+                this.eventRing.unregister(this.eventRingId);
+            this.eventRing = null;
+            return;
+        }
+        this.state.checkNotClosed();
+        if (this.eventRing != null)
+            throw new TooManyListenersException("only one event ring allowed");
+        this.eventRingId = ring.register(this);
+        this.eventRing = ring;
+    }
+
+    /**
+     * Get the ring set by {@link #setEventRing setEventRing()}, if any.
+     */
+    public synchronized SerialEventRing getEventRing() {
+        return this.eventRing;
+    }
+
     // Notification configuration
 
     @Override
@@ -879,17 +1061,95 @@ public class TelnetSerialPort extends SerialPort {
         commandList.send();
     }
 
+    // Flow control from the access server
+
+    private void setOutputSuspended(boolean suspended) {
+        synchronized (this) {
+            if (suspended == this.outputSuspended)
+                return;
+            this.outputSuspended = suspended;
+            if (suspended) {
+                this.outputSuspendedSince = System.nanoTime();
+                this.outputSuspendCount++;
+            } else
+                this.outputSuspendedNanos += System.nanoTime() - this.outputSuspendedSince;
+            this.notifyAll();
+        }
+        this.outputSuspendChanged(suspended);
+    }
+
+    /**
+     * Invoked, without any lock held, when the access server suspends or resumes our output.
+     * Subclasses which provide their own streams hold back what they send accordingly.
+     */
+    void outputSuspendChanged(boolean suspended) {
+    }
+
+    // Wait until the access server lets us send
+    private synchronized void awaitOutputResumed() throws IOException {
+        while (this.outputSuspended) {
+            if (this.state == State.CLOSED)
+                throw new IOException("port is closed");
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for FLOWCONTROL-RESUME");
+            }
+        }
+    }
+
+    // Wait until dataAvailable() has been invoked since it had been invoked arrivals times, or for nanos if not 0
+    private synchronized void awaitInput(long arrivals, long nanos) throws IOException {
+        if (this.inputArrivals != arrivals)
+            return;
+        if (this.state == State.CLOSED)
+            throw new IOException("port is closed");
+        try {
+            if (nanos > 0)
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            else
+                this.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for data");
+        }
+    }
+
+    private synchronized long getInputArrivals() {
+        return this.inputArrivals;
+    }
+
     // Methods for sending event notifications
 
+    // Invoked when new data has been received, or the connection is gone
+
+    void dataAvailable() {
+        boolean notify;
+        synchronized (this) {
+            notify = (this.lineStateNotify & LINESTATE_DATA_READY) != 0;
+            this.inputArrivals++;
+            this.notifyAll();
+        }
+        if (notify)
+            this.sendEvent(SerialPortEvent.DATA_AVAILABLE);
+    }
+
     private void sendEvent(int type) {
         this.sendEvent(type, true);
     }
 
     private void sendEvent(int type, boolean newValue) {
         SerialPortEventListener currentListener;
+        SerialEventRing currentRing;
+        int ringId;
         synchronized (this) {
             currentListener = this.listener;
+            currentRing = this.eventRing;
+            ringId = this.eventRingId;
         }
+        if (currentRing != null)
+            currentRing.publish(ringId, type, !newValue, newValue);
         if (currentListener == null)
             return;
         SerialPortEvent event = new SerialPortEvent(this, type, !newValue, newValue);
@@ -906,12 +1166,19 @@ public class TelnetSerialPort extends SerialPort {
     private void sendSubnegotiation(ComPortCommand command) {
         assert !Thread.holdsLock(TelnetSerialPort.this);            // otherwise we can deadlock
         try {
-            this.telnetClient.sendSubnegotiation(command.getBytes());
+            this.writeSubnegotiation(command.getBytes());
         } catch (IOException e) {
         	System.err.println(this.name + ": exception sending subcommand: " + e.getMessage());
         }
     }
 
+    /**
+     * Send a subnegotiation, starting with the option code, to the access server.
+     */
+    protected void writeSubnegotiation(int[] bytes) throws IOException {
+        this.telnetClient.sendSubnegotiation(bytes);
+    }
+
     // Update line state notifications; return true if we need to send new mask to access server
     private synchronized boolean updateLineStateMask(int bit, boolean value) {
         int previous = this.lineStateMask;
@@ -940,54 +1207,67 @@ public class TelnetSerialPort extends SerialPort {
         return this.modemStateMask != previous;
     }
 
-    // Unimplemented methods
+    // Receive threshold and timeout
 
     @Override
     public synchronized void enableReceiveThreshold(int threshold) throws UnsupportedCommOperationException {
         this.state.checkNotClosed();
-        throw new UnsupportedCommOperationException();
+        if (threshold < 0)
+            throw new IllegalArgumentException("negative threshold " + threshold);
+        this.receiveThreshold = threshold;
     }
 
     @Override
     public synchronized void disableReceiveThreshold() {
         this.state.checkNotClosed();
+        this.receiveThreshold = 0;
     }
 
     @Override
     public synchronized boolean isReceiveThresholdEnabled() {
         this.state.checkNotClosed();
-        return false;
+        return this.receiveThreshold > 0;
     }
 
     @Override
     public synchronized int getReceiveThreshold() {
         this.state.checkNotClosed();
-        return 0;
+        return this.receiveThreshold;
     }
 
+    /**
+     * Enable the receive timeout. A read waiting for data returns after {@code timeout} milliseconds
+     * with whatever has arrived: zero bytes, or -1 from the single byte {@code read()}, if nothing has.
+     * A timeout of zero waits indefinitely, like {@link gnu.io.RXTXPort}.
+     */
     @Override
     public synchronized void enableReceiveTimeout(int timeout) throws UnsupportedCommOperationException {
         this.state.checkNotClosed();
-        throw new UnsupportedCommOperationException();
+        if (timeout < 0)
+            throw new IllegalArgumentException("negative timeout " + timeout);
+        this.receiveTimeout = timeout;
     }
 
     @Override
     public synchronized void disableReceiveTimeout() {
         this.state.checkNotClosed();
+        this.receiveTimeout = -1;
     }
 
     @Override
     public synchronized boolean isReceiveTimeoutEnabled() {
         this.state.checkNotClosed();
-        return false;
+        return this.receiveTimeout >= 0;
     }
 
     @Override
     public synchronized int getReceiveTimeout() {
         this.state.checkNotClosed();
-        return 0;
+        return Math.max(this.receiveTimeout, 0);
     }
 
+    // Unimplemented methods
+
     @Override
     public synchronized void enableReceiveFraming(int framingByte) throws UnsupportedCommOperationException {
         this.state.checkNotClosed();
@@ -1033,7 +1313,97 @@ public class TelnetSerialPort extends SerialPort {
         return 0;
     }
 
-    // Utility class
+    // Utility classes
+
+    // Reads wait for the receive threshold until the receive timeout. Commons-net only tells us about data
+    // arriving in an empty buffer, so while waiting we move whatever it has into our own.
+    private class ThresholdInputStream extends FilterInputStream {
+
+        private byte[] staged = new byte[64];
+        private volatile int stagedLength;                      // guarded by this, read without it by available()
+
+        ThresholdInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            return this.read(buf, 0, 1) <= 0 ? -1 : buf[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > buf.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+            TelnetSerialPort port = TelnetSerialPort.this;
+            int threshold = port.receiveThreshold;
+            int timeout = port.receiveTimeout;
+            int want = threshold > 0 ? Math.min(len, threshold) : 1;
+            if (want == 1 && timeout <= 0 && this.stagedLength == 0)
+                return this.in.read(buf, off, len);                     // a plain blocking read will do
+            synchronized (this) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (this.stagedLength < want) {
+                    long arrivals = port.getInputArrivals();
+                    int available = this.in.available();
+                    if (available > 0) {
+                        this.stage(available);
+                        continue;
+                    }
+                    if (!port.telnetClient.isConnected()) {
+                        if (this.stagedLength == 0)
+                            return this.in.read(buf, off, len);         // let the stream report how it ended
+                        break;
+                    }
+                    long nanos = 0;
+                    if (timeout > 0 && (nanos = deadline - System.nanoTime()) <= 0)
+                        break;
+                    port.awaitInput(arrivals, nanos);
+                }
+                int length = Math.min(len, this.stagedLength);
+                System.arraycopy(this.staged, 0, buf, off, length);
+                System.arraycopy(this.staged, length, this.staged, 0, this.stagedLength - length);
+                this.stagedLength -= length;
+                return length;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.stagedLength + this.in.available();
+        }
+
+        // Move length bytes, which the stream has, into the staging buffer
+        private void stage(int length) throws IOException {
+            if (this.stagedLength + length > this.staged.length)
+                this.staged = Arrays.copyOf(this.staged, Math.max(this.staged.length * 2, this.stagedLength + length));
+            int r = this.in.read(this.staged, this.stagedLength, length);
+            if (r > 0)
+                this.stagedLength += r;
+        }
+    }
+
+    private class SuspendableOutputStream extends FilterOutputStream {
+
+        SuspendableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            TelnetSerialPort.this.awaitOutputResumed();
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            TelnetSerialPort.this.awaitOutputResumed();
+            this.out.write(buf, off, len);
+        }
+    }
 
     @SuppressWarnings("serial")
     private class CommandList extends ArrayList<ComPortCommand> {
@@ -0,0 +1,165 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.rfc2217.AccessServer;
+import gnu.io.rfc2217.NioTelnetSerialPort;
+import gnu.io.rfc2217.TelnetSerialPort;
+
+/**
+ * A local port served by AccessServer to a TelnetSerialPort on localhost.
+ *
+ * The first port is exported and the second plays the device behind it.
+ * The client is a TelnetSerialPort over commons-net, or a
+ * NioTelnetSerialPort if "nio" is given as third argument.  Checks that a
+ * baud rate set by the client reaches the port and is answered, that
+ * 256KB of every byte value cross both ways at once (the rates are
+ * printed), that suspendInbound() holds device data back until
+ * resumeInbound(), that a second client is turned away and that a new
+ * client can connect once the first has gone.  Exits with status 1 on
+ * failure.
+ */
+public class AccessServerTest {
+	private static final int BULK = 256 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = args.length > 2 && args[2].equals("nio");
+		RXTXPort[] ports = LinkedPorts.open(args, "AccessServerTest <exported port> <device port> [nio]");
+		final RXTXPort exported = ports[0];
+		final RXTXPort device = ports[1];
+		exported.setSerialPortParams(9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		AccessServer server = new AccessServer();
+		InetSocketAddress address = server.export(exported, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		TelnetSerialPort client = connect(address, nio);
+		setBaudRate(client, exported, 57600);
+
+		/* both directions at once */
+		final TelnetSerialPort c = client;
+		final Exception[] failure = new Exception[1];
+		long start = System.nanoTime();
+		Thread up = new Thread(() -> {
+			try {
+				write(c.getOutputStream());
+				check("device", device.getInputStream());
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		up.start();
+		write(device.getOutputStream());
+		check("client", client.getInputStream());
+		up.join();
+		if (failure[0] != null)
+			fail(failure[0].getMessage());
+		System.out.printf("%d KB each way in %.1f ms%n", BULK / 1024, (System.nanoTime() - start) / 1e6);
+
+		/* FLOWCONTROL-SUSPEND stops the server reading the port */
+		client.suspendInbound();
+		Thread.sleep(200);
+		device.getOutputStream().write("held".getBytes());
+		Thread.sleep(300);
+		if (client.getInputStream().available() != 0)
+			fail("data delivered while suspended");
+		client.resumeInbound();
+		byte[] held = new byte[4];
+		readFully(client.getInputStream(), held);
+		if (!new String(held).equals("held"))
+			fail("held data garbled after resume");
+
+		/* one client per port */
+		Socket second = new Socket(address.getAddress(), address.getPort());
+		second.setSoTimeout(2000);
+		try {
+			if (second.getInputStream().read() != -1)
+				fail("second client was served");
+		} catch (SocketTimeoutException e) {
+			fail("second client was not closed");
+		} catch (IOException e) {
+			// reset, also fine
+		}
+		second.close();
+
+		client.close();
+		Thread.sleep(200);
+		client = connect(address, nio);
+		setBaudRate(client, exported, 19200);
+		client.getOutputStream().write('x');
+		client.getOutputStream().flush();
+		if (device.getInputStream().read() != 'x')
+			fail("no data after reconnect");
+
+		client.close();
+		server.close();
+		exported.close();
+		device.close();
+		System.out.println("all checks passed");
+	}
+
+	private static TelnetSerialPort connect(InetSocketAddress address, boolean nio) throws IOException {
+		if (nio) {
+			NioTelnetSerialPort port = new NioTelnetSerialPort();
+			port.connect(address);
+			return port;
+		}
+		TelnetSerialPort port = new TelnetSerialPort();
+		port.getTelnetClient().connect(address.getAddress(), address.getPort());
+		return port;
+	}
+
+	private static void setBaudRate(TelnetSerialPort client, RXTXPort exported, int baudRate) throws Exception {
+		client.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (exported.getBaudRate() != baudRate || client.getBaudRate() != baudRate) {
+			if (System.currentTimeMillis() > deadline)
+				fail("baud rate " + baudRate + " not applied: port " + exported.getBaudRate() + ", client "
+						+ client.getBaudRate());
+			Thread.sleep(10);
+		}
+	}
+
+	private static void write(OutputStream out) throws IOException {
+		byte[] b = new byte[1000];
+		for (int sent = 0; sent < BULK; sent += b.length) {
+			for (int i = 0; i < b.length; i++)
+				b[i] = (byte) (sent + i);
+			out.write(b, 0, Math.min(b.length, BULK - sent));
+		}
+		out.flush();
+	}
+
+	private static void check(String side, InputStream in) throws IOException {
+		byte[] b = new byte[4096];
+		for (int received = 0; received < BULK;) {
+			int n = in.read(b, 0, Math.min(b.length, BULK - received));
+			if (n < 0)
+				throw new IOException(side + ": end of stream after " + received + " bytes");
+			for (int i = 0; i < n; i++, received++)
+				if (b[i] != (byte) received)
+					throw new IOException(side + ": data garbled at byte " + received);
+		}
+	}
+
+	private static void readFully(InputStream in, byte[] b) throws IOException {
+		for (int off = 0; off < b.length;) {
+			int n = in.read(b, off, b.length - off);
+			if (n < 0)
+				throw new IOException("end of stream");
+			off += n;
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
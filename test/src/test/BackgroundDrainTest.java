@@ -0,0 +1,227 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.UnsupportedCommOperationException;
+import gnu.io.nio.SerialChannel;
+import gnu.io.nio.SerialSelectionKey;
+import gnu.io.nio.SerialSelector;
+
+/**
+ * Background drain of a port into its native receive ring.
+ *
+ * A burst is written to the second port while its reader is paused, as in
+ * a long GC pause, once read directly and once with background drain, and
+ * the time the writer was held up is printed; with the drain the ring
+ * takes the burst.  Then a ring too small for the burst must still hand
+ * on every byte, as the driver holds what does not fit, bytes left in the
+ * ring when the drain is turned off must come out of the next read, a
+ * SerialChannel must turn the drain off and still select the bytes it
+ * handed back, and DATA_AVAILABLE must still arrive.
+ */
+public class BackgroundDrainTest {
+	private static final int BURST = 256 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "BackgroundDrainTest <writer port> <drained port>");
+		RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(3000000, writer, reader);
+			reader.enableReceiveTimeout(500);
+
+			burst("direct", writer, reader);
+			reader.setInputBufferSize(1024 * 1024);
+			reader.setBackgroundDrain(true);
+			burst("drained", writer, reader);
+			System.out.printf("ring high water %d bytes, %d dropped%n", reader.getInputBufferHighWater(),
+					reader.getInputBufferOverflows());
+			if (reader.getInputBufferOverflows() != 0)
+				throw new Exception("bytes dropped from a ring big enough for the burst");
+
+			overflow(writer, reader);
+			handBack(writer, reader);
+			/* the other way round, the reader's drain is needed below */
+			channel(reader, writer);
+			reader.setBackgroundDrain(true);
+			/* last, removeEventListener() leaves the port unusable */
+			events(writer, reader);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	/* write BURST bytes while the reader sleeps, then read and check them */
+	private static void burst(String kind, final RXTXPort writer, RXTXPort reader) throws Exception {
+		final long[] wrote = new long[1];
+		final Exception[] failure = new Exception[1];
+		Thread t = new Thread(() -> {
+			try {
+				byte[] b = new byte[BURST];
+				for (int i = 0; i < b.length; i++)
+					b[i] = (byte) i;
+				writer.getOutputStream().write(b);
+				wrote[0] = System.nanoTime();
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		long start = System.nanoTime();
+		t.start();
+		Thread.sleep(300);
+		InputStream in = reader.getInputStream();
+		byte[] b = new byte[4096];
+		int received = 0;
+		while (received < BURST) {
+			int n = in.read(b);
+			if (n <= 0)
+				throw new Exception(kind + ": timed out after " + received + " bytes");
+			for (int i = 0; i < n; i++, received++)
+				if (b[i] != (byte) received)
+					throw new Exception(kind + ": mismatch at byte " + received);
+		}
+		t.join();
+		if (failure[0] != null)
+			throw failure[0];
+		System.out.printf("%-8s writer done after %5.1f ms of a 300 ms reader pause%n", kind,
+				(wrote[0] - start) / 1e6);
+	}
+
+	/* a ring smaller than the burst leaves the rest in the driver */
+	private static void overflow(final RXTXPort writer, RXTXPort reader) throws Exception {
+		reader.setInputBufferSize(4096);
+		long before = reader.getInputBufferOverflows();
+		final byte[] sent = new byte[65536];
+		for (int i = 0; i < sent.length; i++)
+			sent[i] = (byte) (i * 7);
+		final Exception[] failure = new Exception[1];
+		Thread t = new Thread(() -> {
+			try {
+				writer.getOutputStream().write(sent);
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		t.start();
+		Thread.sleep(300);
+		byte[] b = new byte[4096];
+		int received = 0, n;
+		InputStream in = reader.getInputStream();
+		while ((n = in.read(b)) > 0)
+			for (int i = 0; i < n; i++, received++)
+				if (received >= sent.length || b[i] != sent[received])
+					throw new Exception("4K ring: mismatch at byte " + received);
+		t.join();
+		if (failure[0] != null)
+			throw failure[0];
+		long dropped = reader.getInputBufferOverflows() - before;
+		System.out.printf("4K ring: %d of %d bytes read, high water %d, %d dropped%n", received, sent.length,
+				reader.getInputBufferHighWater(), dropped);
+		if (received != sent.length || dropped != 0)
+			throw new Exception("bytes lost behind a full ring");
+	}
+
+	/* DATA_AVAILABLE comes from the ring's notify pipe */
+	private static void events(RXTXPort writer, final RXTXPort reader) throws Exception {
+		final CountDownLatch[] latch = new CountDownLatch[1];
+		final long[] arrived = new long[1];
+		reader.addEventListener(ev -> {
+			if (ev.getEventType() != SerialPortEvent.DATA_AVAILABLE)
+				return;
+			try {
+				InputStream in = reader.getInputStream();
+				while (in.available() > 0)
+					in.read();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			arrived[0] = System.nanoTime();
+			latch[0].countDown();
+		});
+		reader.notifyOnDataAvailable(true);
+		OutputStream out = writer.getOutputStream();
+		long[] latency = new long[200];
+		for (int i = 0; i < latency.length; i++) {
+			latch[0] = new CountDownLatch(1);
+			long start = System.nanoTime();
+			out.write(i);
+			if (!latch[0].await(2, TimeUnit.SECONDS))
+				throw new Exception("no DATA_AVAILABLE for round " + i);
+			latency[i] = arrived[0] - start;
+			/* let the listener's event loop go back to waiting */
+			Thread.sleep(1);
+		}
+		reader.removeEventListener();
+		Arrays.sort(latency);
+		System.out.printf("DATA_AVAILABLE p50 %.1f us p99 %.1f us%n", latency[latency.length / 2] / 1e3,
+				latency[latency.length * 99 / 100] / 1e3);
+	}
+
+	/*
+	 * a SerialChannel turns the drain off, as a selector polls the port,
+	 * and must still find the bytes the ring handed back
+	 */
+	private static void channel(RXTXPort writer, RXTXPort drained) throws Exception {
+		drained.setBackgroundDrain(true);
+		writer.getOutputStream().write("handed back".getBytes());
+		Thread.sleep(100);
+		SerialChannel channel = new SerialChannel(drained);
+		if (drained.isBackgroundDrain())
+			throw new Exception("still draining with a SerialChannel");
+		try {
+			drained.setBackgroundDrain(true);
+			throw new Exception("background drain turned on for a SerialChannel");
+		} catch (UnsupportedCommOperationException e) {
+			/* expected */
+		}
+		channel.configureBlocking(false);
+		SerialSelector selector = SerialSelector.open();
+		SerialSelectionKey key = channel.register(selector, SerialSelectionKey.OP_READ);
+		try {
+			selectAndRead(selector, channel, "handed back");
+			writer.getOutputStream().write("polled".getBytes());
+			selectAndRead(selector, channel, "polled");
+		} finally {
+			key.cancel();
+			selector.close();
+		}
+		System.out.println("SerialChannel: drain off, handed back and new bytes selected");
+	}
+
+	private static void selectAndRead(SerialSelector selector, SerialChannel channel, String expected)
+			throws Exception {
+		ByteBuffer b = ByteBuffer.allocate(64);
+		long until = System.nanoTime() + 2000000000L;
+		while (b.position() < expected.length() && System.nanoTime() < until) {
+			selector.select(500);
+			selector.selectedKeys().clear();
+			channel.read(b);
+		}
+		String s = new String(b.array(), 0, b.position());
+		if (!s.equals(expected))
+			throw new Exception("SerialChannel read \"" + s + "\", expected \"" + expected + "\"");
+	}
+
+	/* turning the drain off keeps what the ring held */
+	private static void handBack(RXTXPort writer, RXTXPort reader) throws Exception {
+		writer.getOutputStream().write("left in the ring".getBytes());
+		Thread.sleep(100);
+		reader.setBackgroundDrain(false);
+		if (reader.isBackgroundDrain())
+			throw new Exception("still draining");
+		byte[] b = new byte[64];
+		int n = reader.getInputStream().read(b);
+		String s = new String(b, 0, Math.max(n, 0));
+		System.out.println("after drain off: \"" + s + "\"");
+		if (!s.equals("left in the ring"))
+			throw new Exception("lost the ring's bytes");
+	}
+}
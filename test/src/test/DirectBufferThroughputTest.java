@@ -0,0 +1,73 @@
+package test;
+
+import java.nio.ByteBuffer;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Throughput check for RXTXPort.read(ByteBuffer)/write(ByteBuffer).
+ *
+ * Bytes are pushed from the first port to the second through direct
+ * buffers and then through heap buffers, checked, and the rate of each is
+ * printed.
+ */
+public class DirectBufferThroughputTest {
+	private static final int CHUNK = 4096;
+	private static final int TOTAL = 8 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "DirectBufferThroughputTest <writer port> <reader port>");
+		RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(3000000, writer, reader);
+			reader.enableReceiveTimeout(1000);
+			run("direct", writer, reader, ByteBuffer.allocateDirect(CHUNK), ByteBuffer.allocateDirect(CHUNK));
+			run("heap", writer, reader, ByteBuffer.allocate(CHUNK), ByteBuffer.allocate(CHUNK));
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static void run(String kind, final RXTXPort writer, RXTXPort reader, final ByteBuffer out,
+			ByteBuffer in) throws Exception {
+		final Exception[] failure = new Exception[1];
+		Thread t = new Thread(() -> {
+			try {
+				int sent = 0;
+				while (sent < TOTAL) {
+					out.clear();
+					while (out.hasRemaining())
+						out.put((byte) (sent + out.position()));
+					out.flip();
+					sent += writer.write(out);
+				}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		long start = System.nanoTime();
+		t.start();
+		int received = 0;
+		while (received < TOTAL) {
+			in.clear();
+			int n = reader.read(in);
+			if (n == 0)
+				throw new Exception(kind + ": timed out after " + received + " bytes");
+			in.flip();
+			while (in.hasRemaining()) {
+				byte b = in.get();
+				if (b != (byte) received)
+					throw new Exception(kind + ": mismatch at byte " + received);
+				received++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		t.join();
+		if (failure[0] != null)
+			throw failure[0];
+		System.out.printf("%-6s %d bytes in %.1f ms, %.2f MB/s%n", kind, received, elapsed / 1e6,
+				received / (elapsed / 1e9) / (1024 * 1024));
+	}
+}
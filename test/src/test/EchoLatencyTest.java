@@ -0,0 +1,81 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Round-trip latency of a one byte echo between two linked ports.
+ *
+ * The second port echoes every byte back to the first; the median and
+ * tail round-trip times are printed once with the receive timeout
+ * disabled, once with it enabled and once while another thread keeps
+ * switching an event notification on and off.
+ */
+public class EchoLatencyTest {
+	private static final int ROUNDS = 5000;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "EchoLatencyTest <port> <echo port>");
+		final RXTXPort port = ports[0];
+		final RXTXPort echo = ports[1];
+		try {
+			LinkedPorts.configure(115200, port, echo);
+			Thread echoer = new Thread(() -> {
+				try {
+					InputStream in = echo.getInputStream();
+					OutputStream out = echo.getOutputStream();
+					int b;
+					while ((b = in.read()) != 'q')
+						if (b >= 0)
+							out.write(b);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			echoer.start();
+
+			port.disableReceiveTimeout();
+			run("blocking", port);
+			port.enableReceiveTimeout(1000);
+			run("timeout", port);
+			final boolean[] done = new boolean[1];
+			Thread toggler = new Thread(() -> {
+				for (boolean on = true; !done[0]; on = !on)
+					port.notifyOnCTS(on);
+			});
+			toggler.start();
+			try {
+				run("toggling", port);
+			} finally {
+				done[0] = true;
+				toggler.join();
+			}
+
+			port.getOutputStream().write('q');
+			echoer.join();
+		} finally {
+			port.close();
+			echo.close();
+		}
+	}
+
+	private static void run(String kind, RXTXPort port) throws Exception {
+		InputStream in = port.getInputStream();
+		OutputStream out = port.getOutputStream();
+		long[] rtt = new long[ROUNDS];
+		for (int i = 0; i < ROUNDS; i++) {
+			int b = 'a' + i % 16;
+			long start = System.nanoTime();
+			out.write(b);
+			if (in.read() != b)
+				throw new Exception(kind + ": echo lost at round " + i);
+			rtt[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(rtt);
+		System.out.printf("%-8s p50 %6.1f us  p99 %7.1f us  max %7.1f us%n", kind, rtt[ROUNDS / 2] / 1e3,
+				rtt[ROUNDS * 99 / 100] / 1e3, rtt[ROUNDS - 1] / 1e3);
+	}
+}
@@ -0,0 +1,84 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.TooManyListenersException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPortEvent;
+
+/**
+ * Thread count and DATA_AVAILABLE latency with many ports open.
+ *
+ * Takes any number of linked port pairs.  A byte is written on the first
+ * port of each pair and the time until the second port's listener sees
+ * DATA_AVAILABLE is recorded.  Run it once
+ * as is and once with -Dgnu.io.rxtx.EventDispatchers=1 to compare a
+ * MonitorThread per port with the shared dispatcher.  Then the listeners
+ * are removed and added again a few times, checking DATA_AVAILABLE after
+ * each.
+ */
+public class EventDispatchTest {
+	private static final int ROUNDS = 200, CYCLES = 5;
+
+	public static void main(String[] args) throws Exception {
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		RXTXPort[] ports = LinkedPorts.openPairs(args, "EventDispatchTest <port> <linked port> [<port> <linked port> ...]");
+		final long[] arrived = new long[1];
+		final CountDownLatch[] latch = new CountDownLatch[1];
+		for (int i = 1; i < ports.length; i += 2)
+			listen(ports[i], arrived, latch);
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+		long[] latency = new long[ROUNDS];
+		for (int r = 0; r < ROUNDS; r++)
+			latency[r] = round(ports, r, arrived, latch);
+		Arrays.sort(latency);
+		System.out.printf("%d ports, %d event threads, DATA_AVAILABLE p50 %.1f us p99 %.1f us%n", ports.length,
+				threads, latency[ROUNDS / 2] / 1e3, latency[ROUNDS * 99 / 100] / 1e3);
+
+		/* a port must come back to its event loop after losing its listener */
+		for (int cycle = 0; cycle < CYCLES; cycle++) {
+			for (int i = 1; i < ports.length; i += 2) {
+				ports[i].removeEventListener();
+				listen(ports[i], arrived, latch);
+			}
+			for (int r = 0; r < ports.length / 2; r++)
+				round(ports, r, arrived, latch);
+		}
+		System.out.printf("DATA_AVAILABLE after %d listener remove/add cycles%n", CYCLES);
+
+		for (RXTXPort port : ports)
+			port.close();
+	}
+
+	private static void listen(final RXTXPort port, final long[] arrived, final CountDownLatch[] latch)
+			throws TooManyListenersException {
+		port.addEventListener(ev -> {
+			if (ev.getEventType() != SerialPortEvent.DATA_AVAILABLE)
+				return;
+			try {
+				while (port.getInputStream().available() > 0)
+					port.getInputStream().read();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			arrived[0] = System.nanoTime();
+			latch[0].countDown();
+		});
+		port.notifyOnDataAvailable(true);
+	}
+
+	/* writes a byte on the first port of a pair and returns how long its DATA_AVAILABLE took */
+	private static long round(RXTXPort[] ports, int r, long[] arrived, CountDownLatch[] latch) throws Exception {
+		RXTXPort port = ports[2 * (r % (ports.length / 2))];
+		latch[0] = new CountDownLatch(1);
+		long start = System.nanoTime();
+		port.getOutputStream().write(r);
+		if (!latch[0].await(2, TimeUnit.SECONDS))
+			throw new Exception("no DATA_AVAILABLE for round " + r);
+		return arrived[0] - start;
+	}
+}
@@ -0,0 +1,91 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialEventListenerAdapter;
+import gnu.io.SerialEventRing;
+import gnu.io.SerialPortEvent;
+
+/**
+ * Cost of delivering events through a listener and through a SerialEventRing.
+ *
+ * CTS events are sent through RXTXPort.sendEvent(), the way the event
+ * loop does, first to a listener and then to a ring drained by its own
+ * thread; the rate and the bytes allocated by the sending thread are
+ * printed for each.  Then a byte is written to the second port to check
+ * that a real DATA_AVAILABLE reaches a listener wrapped in a
+ * SerialEventListenerAdapter.  Exits with status 1 if either path
+ * allocated.
+ */
+public class EventRingTest {
+	private static final int EVENTS = 1000000;
+
+	/* keeps the listener's events from being optimized away */
+	static volatile SerialPortEvent last;
+
+	public static void main(String[] args) throws Exception {
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long self = Thread.currentThread().getId();
+		RXTXPort[] ports = LinkedPorts.open(args, "EventRingTest <port> <linked port>");
+		RXTXPort port = ports[0];
+		RXTXPort writer = ports[1];
+		try {
+			port.addEventListener(ev -> last = ev);
+			port.notifyOnCTS(true);
+			send(port, EVENTS); /* warm up */
+			long before = mx.getThreadAllocatedBytes(self);
+			long start = System.nanoTime();
+			send(port, EVENTS);
+			long elapsed = System.nanoTime() - start;
+			long listenerAllocated = mx.getThreadAllocatedBytes(self) - before;
+			print("listener", elapsed, listenerAllocated);
+			port.removeEventListener();
+
+			final SerialEventRing ring = new SerialEventRing(65536);
+			final AtomicLong handled = new AtomicLong();
+			ring.start((id, type, oldValue, newValue, timestamp) -> handled.lazySet(handled.get() + 1));
+			port.setEventRing(ring);
+			port.notifyOnCTS(true);
+			send(port, EVENTS);
+			before = mx.getThreadAllocatedBytes(self);
+			start = System.nanoTime();
+			send(port, EVENTS);
+			elapsed = System.nanoTime() - start;
+			long allocated = mx.getThreadAllocatedBytes(self) - before;
+			print("ring", elapsed, allocated);
+			ring.stop();
+			System.out.printf("ring delivered %d, dropped %d%n", handled.get(), ring.getDropped());
+
+			final CountDownLatch arrived = new CountDownLatch(1);
+			ring.start(new SerialEventListenerAdapter(ring, ev -> {
+				if (ev.getEventType() == SerialPortEvent.DATA_AVAILABLE && ev.getSource() == port)
+					arrived.countDown();
+			}));
+			port.notifyOnDataAvailable(true);
+			writer.getOutputStream().write('x');
+			if (!arrived.await(2, TimeUnit.SECONDS))
+				throw new Exception("no DATA_AVAILABLE through the ring");
+			System.out.println("DATA_AVAILABLE delivered through the ring");
+			port.setEventRing(null);
+			ring.stop();
+			System.exit(listenerAllocated < 1024 && allocated < 1024 ? 0 : 1);
+		} finally {
+			port.close();
+			writer.close();
+		}
+	}
+
+	private static void send(RXTXPort port, int n) {
+		for (int i = 0; i < n; i++)
+			port.sendEvent(SerialPortEvent.CTS, (i & 1) == 0);
+	}
+
+	private static void print(String kind, long elapsed, long allocated) {
+		System.out.printf("%-8s %.1f M events/s, %d bytes allocated (%.2f per event)%n", kind,
+				EVENTS / (elapsed / 1e9) / 1e6, allocated, (double) allocated / EVENTS);
+	}
+}
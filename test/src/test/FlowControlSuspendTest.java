@@ -0,0 +1,157 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.rfc2217.NioTelnetSerialPort;
+import gnu.io.rfc2217.RFC2217;
+import gnu.io.rfc2217.TelnetSerialPort;
+
+/**
+ * FLOWCONTROL-SUSPEND from the access server holds back TelnetSerialPort
+ * output until FLOWCONTROL-RESUME.
+ *
+ * Needs no serial ports: a small access server is started on localhost
+ * which negotiates like a real one and counts the data it receives.  The
+ * client is a TelnetSerialPort over commons-net, or a NioTelnetSerialPort
+ * if "nio" is given as argument.  Once the client is up the server
+ * suspends it, a writer thread starts on 64KB, and nothing may arrive
+ * until the server resumes it; then all of it must, in order.  Prints
+ * the suspended time the port reports.  Exits with status 1 on failure.
+ */
+public class FlowControlSuspendTest {
+	private static final int IAC = 255, DO = 253, WILL = 251, SB = 250, SE = 240;
+	private static final int BULK = 64 * 1024;
+	private static final long HOLD = 300;
+
+	private static volatile int commands;
+	private static volatile int received;
+	private static volatile String failure;
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = args.length > 0 && args[0].equals("nio");
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		TelnetSerialPort client;
+		if (nio) {
+			NioTelnetSerialPort port = new NioTelnetSerialPort();
+			port.connect("localhost", server.getLocalPort());
+			client = port;
+		} else {
+			client = new TelnetSerialPort();
+			client.getTelnetClient().connect(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		}
+		Socket socket = server.accept();
+		socket.setTcpNoDelay(true);
+		OutputStream out = socket.getOutputStream();
+		out.write(new byte[] { (byte) IAC, (byte) WILL, 0, (byte) IAC, (byte) DO, 0, (byte) IAC, (byte) WILL, 3,
+				(byte) IAC, (byte) DO, 3, (byte) IAC, (byte) DO, (byte) RFC2217.COM_PORT_OPTION });
+		Thread reader = new Thread(() -> receive(socket), "test server");
+		reader.setDaemon(true);
+		reader.start();
+		await(() -> commands > 0, "no COM-PORT-OPTION from the client");
+
+		command(out, RFC2217.FLOWCONTROL_SUSPEND + RFC2217.SERVER_OFFSET);
+		await(client::isOutputSuspended, "client not suspended");
+		final TelnetSerialPort c = client;
+		final Exception[] error = new Exception[1];
+		Thread writer = new Thread(() -> {
+			try {
+				byte[] b = new byte[BULK];
+				for (int i = 0; i < BULK; i++)
+					b[i] = pattern(i);
+				c.getOutputStream().write(b);
+				c.getOutputStream().flush();
+			} catch (Exception e) {
+				error[0] = e;
+			}
+		});
+		writer.start();
+		Thread.sleep(HOLD);
+		if (received != 0)
+			fail(received + " bytes sent while suspended");
+		if (!writer.isAlive())
+			fail("writer got through while suspended");
+
+		command(out, RFC2217.FLOWCONTROL_RESUME + RFC2217.SERVER_OFFSET);
+		writer.join(5000);
+		if (error[0] != null)
+			throw error[0];
+		await(() -> received == BULK || failure != null, "only " + received + " bytes after resume");
+		if (failure != null)
+			fail(failure);
+		if (client.isOutputSuspended() || client.getOutputSuspendCount() != 1)
+			fail("suspend state " + client.isOutputSuspended() + ", count " + client.getOutputSuspendCount());
+		long suspended = TimeUnit.NANOSECONDS.toMillis(client.getOutputSuspendedNanos());
+		if (suspended < HOLD)
+			fail("suspended for only " + suspended + " ms");
+		System.out.printf("suspended for %d ms, %d bytes delivered after resume%n", suspended, received);
+
+		client.close();
+		socket.close();
+		server.close();
+		System.out.println("all checks passed");
+	}
+
+	private static byte pattern(int i) {
+		byte b = (byte) (i * 7);
+		return b == '\r' ? 0 : b;                               // binary or not, no CR NUL to undo
+	}
+
+	private static void command(OutputStream out, int command) throws IOException {
+		out.write(new byte[] { (byte) IAC, (byte) SB, (byte) RFC2217.COM_PORT_OPTION, (byte) command, (byte) IAC,
+				(byte) SE });
+		out.flush();
+	}
+
+	/* count data and subnegotiations from the client; options need no reply as we asked first */
+	private static void receive(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			int c;
+			while ((c = in.read()) >= 0) {
+				if (c == IAC) {
+					c = in.read();
+					if (c == SB) {
+						while (in.read() != IAC || in.read() != SE)
+							;
+						commands++;
+						continue;
+					}
+					if (c != IAC) {
+						in.read();
+						continue;
+					}
+				}
+				if ((byte) c != pattern(received))
+					failure = "data garbled at byte " + received;
+				received++;
+			}
+		} catch (IOException e) {
+			// closed
+		}
+	}
+
+	private interface Condition {
+		boolean holds();
+	}
+
+	private static void await(Condition condition, String message) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.holds())
+			if (System.currentTimeMillis() > deadline)
+				fail(message);
+			else
+				Thread.sleep(1);
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,134 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.flow.Flow;
+import gnu.io.flow.FlowControl;
+import gnu.io.flow.SerialPublisher;
+
+/**
+ * Backpressure through SerialPublisher.
+ *
+ * The first port writes a counting pattern with XON/XOFF output flow
+ * control; the second is published with XON/XOFF and read by a subscriber
+ * that asks for a few buffers at a time and only asks for more a little
+ * after it has run out.  The data must arrive whole and in order, and no
+ * more buffers may be delivered than were requested.  Prints how often
+ * the sender was suspended and the rate.
+ */
+public class FlowPublisherTest {
+	private static final int TOTAL = 256 * 1024;
+	private static final int BATCH = 4;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "FlowPublisherTest <writer port> <published port>");
+		final RXTXPort writer = ports[0];
+		final RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(115200, writer, reader);
+			writer.setFlowControlMode(SerialPort.FLOWCONTROL_XONXOFF_OUT);
+			reader.enableReceiveTimeout(100);
+
+			final AtomicInteger suspends = new AtomicInteger();
+			final FlowControl xon = FlowControl.xonXoff(reader);
+			FlowControl counted = new FlowControl() {
+				public void suspend() throws IOException {
+					suspends.incrementAndGet();
+					xon.suspend();
+				}
+
+				public void resume() throws IOException {
+					xon.resume();
+				}
+			};
+			SerialPublisher publisher = new SerialPublisher(reader, counted, 512);
+			Checker checker = new Checker();
+			long start = System.nanoTime();
+			publisher.subscribe(checker);
+
+			OutputStream out = writer.getOutputStream();
+			byte[] chunk = new byte[1024];
+			for (int sent = 0; sent < TOTAL; sent += chunk.length) {
+				for (int i = 0; i < chunk.length; i++)
+					chunk[i] = (byte) (sent + i);
+				out.write(chunk);
+			}
+			if (!checker.done.await(60, TimeUnit.SECONDS))
+				throw new Exception("only " + checker.received + " of " + TOTAL + " bytes arrived");
+			long elapsed = System.nanoTime() - start;
+			if (checker.failure != null)
+				throw checker.failure;
+			checker.subscription.cancel();
+			System.out.printf("%d bytes in %d buffers, %d suspends, %.1f kB/s%n", checker.received,
+					checker.buffers, suspends.get(), checker.received / (elapsed / 1e9) / 1024);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static class Checker implements Flow.Subscriber<ByteBuffer> {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Flow.Subscription subscription;
+		volatile Exception failure;
+		final ScheduledExecutorService later = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		volatile int received, buffers;
+		volatile long requested, outstanding;
+
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			request();
+		}
+
+		private synchronized void request() {
+			outstanding += BATCH;
+			requested += BATCH;
+			subscription.request(BATCH);
+		}
+
+		public synchronized void onNext(ByteBuffer b) {
+			if (--outstanding < 0)
+				fail(new Exception("buffer " + buffers + " delivered beyond the " + requested + " requested"));
+			buffers++;
+			while (b.hasRemaining()) {
+				if (b.get() != (byte) received)
+					fail(new Exception("mismatch at byte " + received));
+				received++;
+			}
+			if (received >= TOTAL) {
+				done.countDown();
+				return;
+			}
+			/* ask for more later, from elsewhere, so demand runs out */
+			if (outstanding == 0)
+				later.schedule(() -> request(), 2, TimeUnit.MILLISECONDS);
+		}
+
+		public void onError(Throwable t) {
+			fail(new Exception("onError", t));
+		}
+
+		public void onComplete() {
+			fail(new Exception("onComplete after " + received + " bytes"));
+		}
+
+		private void fail(Exception e) {
+			if (failure == null)
+				failure = e;
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.io.frame.BufferPool;
+import gnu.io.frame.CobsDecoder;
+import gnu.io.frame.DelimiterDecoder;
+import gnu.io.frame.FixedLengthDecoder;
+import gnu.io.frame.FrameDecoder;
+import gnu.io.frame.FrameReader;
+import gnu.io.frame.LengthPrefixDecoder;
+import gnu.io.frame.SlipDecoder;
+
+/**
+ * The frame decoders of gnu.io.frame, fed through a FrameReader in chunks
+ * as reads from a port would return them.  Frames are written as strings
+ * of ISO-8859-1 characters, one per byte.
+ */
+public class FrameDecoderTest {
+	private static final String END = "\u00c0", ESC = "\u00db", ESC_END = "\u00dc", ESC_ESC = "\u00dd";
+
+	private final List<String> frames = new ArrayList<String>();
+	private long overflows;
+
+	@Test
+	public void lengthPrefixSplitAcrossReads() throws Exception {
+		decode(new LengthPrefixDecoder(), 64, "\0", "\5ab", "cde\0\2x", "y");
+		assertEquals(Arrays.asList("abcde", "xy"), frames);
+	}
+
+	@Test
+	public void lengthPrefixLittleEndian() throws Exception {
+		decode(new LengthPrefixDecoder(4, ByteOrder.LITTLE_ENDIAN), 64, "\3\0", "\0\0abc");
+		assertEquals(Arrays.asList("abc"), frames);
+	}
+
+	@Test
+	public void delimiterSplitAcrossReads() throws Exception {
+		decode(new DelimiterDecoder((byte) '\r', (byte) '\n'), 64, "abc\r", "\ndef", "\r", "\n\r\n");
+		assertEquals(Arrays.asList("abc", "def", ""), frames);
+	}
+
+	@Test
+	public void delimiterFalseStartAtEdge() throws Exception {
+		decode(new DelimiterDecoder((byte) '\r', (byte) '\n'), 64, "a\r", "b\r\r", "\n");
+		assertEquals(Arrays.asList("a\rb\r"), frames);
+	}
+
+	@Test
+	public void delimiterOneByteAtATime() throws Exception {
+		decode(new DelimiterDecoder((byte) '+', (byte) '+', (byte) '+'), 64, "o", "k", "+", "+", "+", "+", "+", "+");
+		assertEquals(Arrays.asList("ok", ""), frames);
+	}
+
+	@Test
+	public void slipSplitAcrossReads() throws Exception {
+		decode(new SlipDecoder(), 64, END + "ab", "c" + END + END + "d", "e" + END);
+		assertEquals(Arrays.asList("abc", "de"), frames);
+	}
+
+	@Test
+	public void slipEscapeAtEdge() throws Exception {
+		decode(new SlipDecoder(), 64, END + "a" + ESC, ESC_END + "b" + ESC, ESC_ESC + END);
+		assertEquals(Arrays.asList("a" + END + "b" + ESC), frames);
+	}
+
+	@Test
+	public void cobsSplitAcrossReads() throws Exception {
+		/* "ab\0c" */
+		decode(new CobsDecoder(), 64, "\3a", "b", "\2", "c\0");
+		assertEquals(Arrays.asList("ab\0c"), frames);
+	}
+
+	@Test
+	public void cobsMalformedIsDropped() throws Exception {
+		CobsDecoder decoder = new CobsDecoder();
+		decode(decoder, 64, "\5ab\0\3xy\0");
+		assertEquals(Arrays.asList("xy"), frames);
+		assertEquals(1, decoder.getMalformed());
+	}
+
+	@Test
+	public void oversizedLengthPrefixFrameIsSkipped() throws Exception {
+		decode(new LengthPrefixDecoder(), 16, "\0\2ok\0\50" + repeat('x', 20), repeat('x', 20) + "\0\3y", "es");
+		assertEquals(Arrays.asList("ok", "yes"), frames);
+		assertEquals(1, overflows);
+	}
+
+	@Test
+	public void oversizedDelimitedFrameIsSkipped() throws Exception {
+		decode(new DelimiterDecoder((byte) '\r', (byte) '\n'), 16, "ok\r\n" + repeat('x', 20) + "\r",
+				"\nyes\r\n");
+		assertEquals(Arrays.asList("ok", "yes"), frames);
+		assertEquals(1, overflows);
+	}
+
+	@Test
+	public void oversizedSlipFrameIsSkipped() throws Exception {
+		decode(new SlipDecoder(), 16, END + "ok" + END + repeat('x', 20) + ESC, ESC_END + END + "yes" + END);
+		assertEquals(Arrays.asList("ok", "yes"), frames);
+		assertEquals(1, overflows);
+	}
+
+	@Test
+	public void oversizedCobsFrameIsSkipped() throws Exception {
+		decode(new CobsDecoder(), 16, "\3ok\0\25" + repeat('x', 20) + "\0", "\4yes\0");
+		assertEquals(Arrays.asList("ok", "yes"), frames);
+		assertEquals(1, overflows);
+	}
+
+	/* random frames in random chunks, one of them too long for the buffer */
+	@Test
+	public void randomFramesRoundTrip() throws Exception {
+		roundTrip(new LengthPrefixDecoder(), false, (f, out) -> {
+			out.write(f.length >> 8);
+			out.write(f.length);
+			out.write(f, 0, f.length);
+		});
+		roundTrip(new DelimiterDecoder((byte) '\r', (byte) '\n'), true, (f, out) -> {
+			out.write(f, 0, f.length);
+			out.write('\r');
+			out.write('\n');
+		});
+		roundTrip(new SlipDecoder(), false, FrameDecoderTest::slip);
+		roundTrip(new CobsDecoder(), false, FrameDecoderTest::cobs);
+		roundTrip(new FixedLengthDecoder(16), false, (f, out) -> out.write(f, 0, f.length));
+	}
+
+	interface Encoder {
+		void encode(byte[] frame, ByteArrayOutputStream out);
+	}
+
+	private void roundTrip(FrameDecoder decoder, boolean text, Encoder encoder) throws Exception {
+		final int buffer = 1024;
+		boolean fixed = decoder instanceof FixedLengthDecoder;
+		Random random = new Random(decoder.getClass().getName().hashCode());
+		List<String> sent = new ArrayList<String>();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < 2000; i++) {
+			int length = fixed ? 16 : 1 + random.nextInt(200);
+			if (i == 1000 && !fixed)
+				length = 3 * buffer;
+			byte[] f = new byte[length];
+			random.nextBytes(f);
+			if (text)
+				for (int k = 0; k < f.length; k++)
+					f[k] = (byte) ('a' + (f[k] & 0xff) % 26);
+			encoder.encode(f, stream);
+			if (length < buffer)
+				sent.add(new String(f, StandardCharsets.ISO_8859_1));
+		}
+		byte[] bytes = stream.toByteArray();
+		List<String> chunks = new ArrayList<String>();
+		for (int off = 0; off < bytes.length;) {
+			int n = Math.min(1 + random.nextInt(300), bytes.length - off);
+			chunks.add(new String(bytes, off, n, StandardCharsets.ISO_8859_1));
+			off += n;
+		}
+		frames.clear();
+		decode(decoder, buffer, chunks.toArray(new String[chunks.size()]));
+		assertEquals(decoder.getClass().getSimpleName(), sent, frames);
+		assertEquals(decoder.getClass().getSimpleName(), fixed ? 0 : 1, overflows);
+	}
+
+	/* reads the chunks, one per read, into a FrameReader with a buffer of the given size */
+	private void decode(FrameDecoder decoder, int buffer, String... chunks) throws Exception {
+		FrameReader reader = new FrameReader(decoder,
+				frame -> frames.add(StandardCharsets.ISO_8859_1.decode(frame).toString()),
+				new BufferPool(buffer, false));
+		ReadableByteChannel channel = new Chunks(chunks);
+		while (reader.read(channel) >= 0)
+			;
+		overflows = reader.getOverflows();
+		reader.close();
+	}
+
+	private static class Chunks implements ReadableByteChannel {
+		private final Deque<ByteBuffer> chunks = new ArrayDeque<ByteBuffer>();
+
+		Chunks(String... chunks) {
+			for (String c : chunks)
+				this.chunks.add(ByteBuffer.wrap(c.getBytes(StandardCharsets.ISO_8859_1)));
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			ByteBuffer chunk = chunks.peek();
+			if (chunk == null)
+				return -1;
+			int n = Math.min(chunk.remaining(), dst.remaining());
+			ByteBuffer slice = chunk.duplicate();
+			slice.limit(slice.position() + n);
+			dst.put(slice);
+			chunk.position(chunk.position() + n);
+			if (!chunk.hasRemaining())
+				chunks.poll();
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static String repeat(char c, int n) {
+		char[] chars = new char[n];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static void slip(byte[] f, ByteArrayOutputStream out) {
+		out.write(SlipDecoder.END);
+		for (byte b : f) {
+			if (b == SlipDecoder.END) {
+				out.write(SlipDecoder.ESC);
+				out.write(SlipDecoder.ESC_END);
+			} else if (b == SlipDecoder.ESC) {
+				out.write(SlipDecoder.ESC);
+				out.write(SlipDecoder.ESC_ESC);
+			} else
+				out.write(b);
+		}
+		out.write(SlipDecoder.END);
+	}
+
+	private static void cobs(byte[] f, ByteArrayOutputStream out) {
+		byte[] block = new byte[255];
+		int n = 1;
+		for (byte b : f) {
+			if (b != 0)
+				block[n++] = b;
+			if (b == 0 || n == 255) {
+				block[0] = (byte) n;
+				out.write(block, 0, n);
+				n = 1;
+			}
+		}
+		block[0] = (byte) n;
+		out.write(block, 0, n);
+		out.write(0);
+	}
+}
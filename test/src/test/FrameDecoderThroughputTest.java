@@ -0,0 +1,87 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import gnu.io.RXTXPort;
+import gnu.io.frame.BufferPool;
+import gnu.io.frame.DelimiterDecoder;
+import gnu.io.frame.FrameReader;
+
+/**
+ * Cost of reading lines from a real port with a DelimiterDecoder.
+ *
+ * NMEA sentences are written to the first port and read from the second,
+ * once a byte at a time from the InputStream, the way hand written
+ * parsers do it, and once with a DelimiterDecoder.  The CPU time and
+ * bytes allocated per line of the reading thread are printed.  The
+ * decoders themselves are checked by FrameDecoderTest.
+ */
+public class FrameDecoderThroughputTest {
+	private static final int LINES = 20000;
+	private static final int BUFFER = 1024;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "FrameDecoderThroughputTest <writer port> <reader port>");
+		RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		try {
+			reader.enableReceiveTimeout(2000);
+			lines(writer, reader, new BufferPool(BUFFER, true));
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	/* the same lines, parsed by hand and decoded */
+	private static void lines(final RXTXPort writer, RXTXPort reader, BufferPool pool) throws Exception {
+		final byte[] line = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n".getBytes("US-ASCII");
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long self = Thread.currentThread().getId();
+		for (int round = 0; round < 2; round++) {
+			for (String kind : new String[] { "bytewise", "decoder" }) {
+				Thread t = new Thread(() -> {
+					try {
+						OutputStream out = writer.getOutputStream();
+						for (int i = 0; i < LINES; i++)
+							out.write(line);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				});
+				final int[] count = new int[1];
+				long cpu = mx.getCurrentThreadCpuTime(), allocated = mx.getThreadAllocatedBytes(self);
+				t.start();
+				if (kind.equals("bytewise")) {
+					InputStream in = reader.getInputStream();
+					ByteArrayOutputStream current = new ByteArrayOutputStream();
+					int b;
+					while (count[0] < LINES && (b = in.read()) >= 0) {
+						if (b == '\n') {
+							count[0]++;
+							current.reset();
+						} else if (b != '\r')
+							current.write(b);
+					}
+				} else {
+					FrameReader frames = new FrameReader(new DelimiterDecoder((byte) '\r', (byte) '\n'),
+							frame -> count[0]++, pool);
+					while (count[0] < LINES)
+						if (frames.read(reader) == 0)
+							throw new Exception("timed out after " + count[0] + " lines");
+					frames.close();
+				}
+				cpu = mx.getCurrentThreadCpuTime() - cpu;
+				allocated = mx.getThreadAllocatedBytes(self) - allocated;
+				t.join();
+				/* the first round warms up */
+				if (round == 1)
+					System.out.printf("%-9s %d lines, reader CPU %6.1f ms, %.1f bytes allocated per line%n", kind,
+							count[0], cpu / 1e6, (double) allocated / count[0]);
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPortEvent;
+
+/**
+ * Concurrent read and write throughput on both ends of a link.
+ *
+ * Each port has a thread writing to it and another reading from it at the
+ * same time, while a DATA_AVAILABLE listener on each port calls
+ * available() as event driven code would.  The bytes are checked and the
+ * combined rate of the four streams is printed.
+ */
+public class FullDuplexThroughputTest {
+	private static final int CHUNK = 1024;
+	private static final int TOTAL = 8 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "FullDuplexThroughputTest <port> <linked port>");
+		final RXTXPort a = ports[0];
+		final RXTXPort b = ports[1];
+		final AtomicLong events = new AtomicLong();
+		try {
+			LinkedPorts.configure(3000000, a, b);
+			for (final RXTXPort p : new RXTXPort[] { a, b }) {
+				p.enableReceiveTimeout(2000);
+				p.addEventListener(ev -> {
+					if (ev.getEventType() != SerialPortEvent.DATA_AVAILABLE)
+						return;
+					try {
+						p.getInputStream().available();
+						events.incrementAndGet();
+					} catch (Exception e) {
+						// closed under us
+					}
+				});
+				p.notifyOnDataAvailable(true);
+			}
+			final Exception[] failure = new Exception[1];
+			Thread[] threads = { writer(a, failure), writer(b, failure), reader(a, failure), reader(b, failure) };
+			long start = System.nanoTime();
+			for (Thread t : threads)
+				t.start();
+			for (Thread t : threads)
+				t.join();
+			long elapsed = System.nanoTime() - start;
+			if (failure[0] != null)
+				throw failure[0];
+			System.out.printf("%d bytes each way in %.1f ms, %.2f MB/s combined, %d events%n", TOTAL, elapsed / 1e6,
+					2.0 * TOTAL / (elapsed / 1e9) / (1024 * 1024), events.get());
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	private static Thread writer(final RXTXPort port, final Exception[] failure) {
+		return new Thread(() -> {
+			try {
+				OutputStream out = port.getOutputStream();
+				byte[] buf = new byte[CHUNK];
+				for (int sent = 0; sent < TOTAL; sent += CHUNK) {
+					for (int i = 0; i < CHUNK; i++)
+						buf[i] = (byte) (sent + i);
+					out.write(buf);
+				}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+	}
+
+	private static Thread reader(final RXTXPort port, final Exception[] failure) {
+		return new Thread(() -> {
+			try {
+				InputStream in = port.getInputStream();
+				byte[] buf = new byte[CHUNK];
+				int received = 0;
+				while (received < TOTAL) {
+					int n = in.read(buf);
+					if (n <= 0)
+						throw new Exception(port.getName() + ": timed out after " + received + " bytes");
+					for (int i = 0; i < n; i++, received++)
+						if (buf[i] != (byte) received)
+							throw new Exception(port.getName() + ": mismatch at byte " + received);
+				}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+	}
+}
@@ -0,0 +1,162 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Frames told apart by the line going quiet, as Modbus RTU does it.
+ *
+ * A pty has no baud rate, so the test throttles the first port itself:
+ * the bytes of a frame go out one at a time a character time at 2400 8N1
+ * apart, with 8 character times between frames.  The low speed keeps
+ * scheduling hiccups well inside the gap.  The second port reads with a
+ * 3.5 character gap, once with receive timeouts in Java for comparison,
+ * once natively and once natively with background drain and a reader that
+ * falls behind.  For each the frames that came back whole, split or run
+ * together and how long after the gap the read returned are printed.
+ * Exits with status 1 if a native framed read did not return every frame
+ * whole.
+ */
+public class GapFramingTest {
+	private static final int BAUD = 2400;
+	private static final int FRAMES = 50;
+	/* start, 8 data and a stop bit */
+	private static final long CHAR_NANOS = 10 * 1000000000L / BAUD;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "GapFramingTest <writer port> <reader port>");
+		RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		boolean ok;
+		try {
+			LinkedPorts.configure(BAUD, writer, reader);
+			reader.enableInterCharacterGap(3.5f);
+			int gap = reader.getInterCharacterGap();
+			System.out.printf("3.5 characters at %d 8N1: %d us%n", BAUD, gap);
+			reader.disableInterCharacterGap();
+
+			reader.enableReceiveTimeout((gap + 999) / 1000);
+			run("java", writer, reader, gap, 0);
+			reader.enableReceiveTimeout(1000);
+			reader.enableInterCharacterGap(3.5f);
+			ok = run("native", writer, reader, gap, 0);
+			reader.setBackgroundDrain(true);
+			ok &= run("drained", writer, reader, gap, 100);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static boolean run(String kind, final RXTXPort writer, RXTXPort reader, int gap, int late)
+			throws Exception {
+		Random random = new Random(kind.hashCode());
+		final byte[][] frames = new byte[FRAMES][];
+		for (int i = 0; i < FRAMES; i++) {
+			frames[i] = new byte[4 + random.nextInt(29)];
+			random.nextBytes(frames[i]);
+		}
+		int total = 0;
+		for (byte[] f : frames)
+			total += f.length;
+		/* when each byte went out */
+		final long[] sent = new long[total];
+		Thread t = new Thread(() -> {
+			try {
+				OutputStream out = writer.getOutputStream();
+				long next = System.nanoTime() + 20000000L;
+				for (int i = 0, k = 0; i < FRAMES; i++) {
+					for (byte b : frames[i]) {
+						while (System.nanoTime() < next)
+							;
+						out.write(b);
+						sent[k++] = System.nanoTime();
+						next += CHAR_NANOS;
+					}
+					next += 8 * CHAR_NANOS;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		if (late > 0)
+			Thread.sleep(late);
+
+		InputStream in = reader.getInputStream();
+		/* where each frame ends in the stream, as sent and as read */
+		boolean[] sentEnd = new boolean[total + 1], readEnd = new boolean[total + 1];
+		readEnd[0] = true;
+		for (int i = 0, at = 0; i < FRAMES; i++) {
+			at += frames[i].length;
+			sentEnd[at] = true;
+		}
+		byte[] stream = new byte[total];
+		long[] overshoot = new long[FRAMES];
+		int got = 0, ends = 0;
+		byte[] b = new byte[256];
+		while (got < total) {
+			int len = kind.equals("java") ? readJava(in, b) : in.read(b, 0, b.length);
+			if (len == 0)
+				throw new Exception(kind + ": timed out after " + got + " bytes");
+			long now = System.nanoTime();
+			len = Math.min(len, total - got);
+			System.arraycopy(b, 0, stream, got, len);
+			got += len;
+			readEnd[got] = true;
+			if (sentEnd[got])
+				overshoot[ends++] = now - sent[got - 1] - gap * 1000L;
+		}
+		t.join();
+
+		int whole = 0, split = 0, merged = 0, stalls = 0;
+		for (int i = 0, at = 0; i < FRAMES; i++) {
+			int from = at;
+			at += frames[i].length;
+			if (!Arrays.equals(Arrays.copyOfRange(stream, from, at), frames[i]))
+				throw new Exception(kind + ": bytes of frame " + i + " differ");
+			boolean inside = false;
+			for (int k = from + 1; k < at; k++) {
+				inside |= readEnd[k];
+				/* the writer did not keep pace, so the line really was quiet */
+				if (sent[k] - sent[k - 1] >= gap * 1000L)
+					stalls++;
+			}
+			if (inside)
+				split++;
+			else if (!readEnd[at] || !readEnd[from])
+				merged++;
+			else
+				whole++;
+		}
+		long[] o = Arrays.copyOf(overshoot, Math.max(ends, 1));
+		Arrays.sort(o);
+		System.out.printf("%-7s %3d of %d whole, %d split, %d run together", kind, whole, FRAMES, split, merged);
+		if (late > 0)
+			System.out.printf(", reader started %d ms late%n", late);
+		else
+			System.out.printf(", read returned after the gap p50 %6.1f us max %7.1f us%n", o[o.length / 2] / 1e3,
+					o[o.length - 1] / 1e3);
+		if (stalls > 0)
+			System.out.printf("%-7s the writer stalled for longer than the gap inside %d frames%n", kind, stalls);
+		return whole + stalls >= FRAMES;
+	}
+
+	/* what an application does without native framing */
+	private static int readJava(InputStream in, byte[] b) throws Exception {
+		int len = 0;
+		while (len < b.length) {
+			int n = in.read(b, len, 1);
+			if (n > 0)
+				len += n;
+			else if (len > 0)
+				break;
+		}
+		return len;
+	}
+}
@@ -0,0 +1,109 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Header + payload + checksum frames written three ways.
+ *
+ * Each frame is written by copying its pieces into one array, by three
+ * OutputStream.write() calls and by one gathering RXTXPort.write(
+ * byte[][] ).  The second port checks every frame and the time per frame
+ * of each way is printed.
+ */
+public class GatherWriteTest {
+	private static final int FRAMES = 50000;
+	private static final int PAYLOAD = 32;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "GatherWriteTest <writer port> <reader port>");
+		final RXTXPort writer = ports[0];
+		final RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(3000000, writer, reader);
+			reader.enableReceiveTimeout(2000);
+			for (int mode = 0; mode < 3; mode++)
+				run(mode, writer, reader);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static void run(final int mode, final RXTXPort writer, RXTXPort reader) throws Exception {
+		final Exception[] failure = new Exception[1];
+		Thread t = new Thread(() -> {
+			try {
+				OutputStream out = writer.getOutputStream();
+				byte[] header = new byte[4];
+				byte[] payload = new byte[PAYLOAD];
+				byte[] crc = new byte[2];
+				byte[] frame = new byte[header.length + PAYLOAD + crc.length];
+				byte[][] parts = { header, payload, crc };
+				for (int i = 0; i < FRAMES; i++) {
+					fill(i, header, payload, crc);
+					switch (mode) {
+					case 0:
+						System.arraycopy(header, 0, frame, 0, header.length);
+						System.arraycopy(payload, 0, frame, header.length, PAYLOAD);
+						System.arraycopy(crc, 0, frame, header.length + PAYLOAD, crc.length);
+						out.write(frame);
+						break;
+					case 1:
+						out.write(header);
+						out.write(payload);
+						out.write(crc);
+						break;
+					default:
+						writer.write(parts);
+					}
+				}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		long start = System.nanoTime();
+		t.start();
+		InputStream in = reader.getInputStream();
+		byte[] got = new byte[4 + PAYLOAD + 2];
+		byte[] header = new byte[4];
+		byte[] payload = new byte[PAYLOAD];
+		byte[] crc = new byte[2];
+		for (int i = 0; i < FRAMES; i++) {
+			for (int n = 0; n < got.length;) {
+				int r = in.read(got, n, got.length - n);
+				if (r <= 0)
+					throw new Exception("timed out in frame " + i);
+				n += r;
+			}
+			fill(i, header, payload, crc);
+			for (int j = 0; j < got.length; j++) {
+				byte want = j < 4 ? header[j] : j < 4 + PAYLOAD ? payload[j - 4] : crc[j - 4 - PAYLOAD];
+				if (got[j] != want)
+					throw new Exception("mode " + mode + ": frame " + i + " differs at byte " + j);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		t.join();
+		if (failure[0] != null)
+			throw failure[0];
+		System.out.printf("%-8s %.2f us per frame%n", new String[] { "copy", "3 writes", "gather" }[mode],
+				elapsed / 1e3 / FRAMES);
+	}
+
+	private static void fill(int i, byte[] header, byte[] payload, byte[] crc) {
+		header[0] = 0x7e;
+		header[1] = (byte) (i >> 8);
+		header[2] = (byte) i;
+		header[3] = (byte) payload.length;
+		int sum = 0;
+		for (int j = 0; j < payload.length; j++) {
+			payload[j] = (byte) (i * 31 + j);
+			sum += payload[j] & 0xff;
+		}
+		crc[0] = (byte) (sum >> 8);
+		crc[1] = (byte) sum;
+	}
+}
@@ -0,0 +1,59 @@
+package test;
+
+import gnu.io.PortInUseException;
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+
+/**
+ * Opens the linked ports the port tests take as arguments; test/README.md
+ * says how to make them.
+ */
+final class LinkedPorts {
+
+	private LinkedPorts() {
+	}
+
+	/**
+	 * Opens the first two arguments, or prints the usage line and exits if
+	 * there are fewer.
+	 *
+	 * @param usage the test and its arguments
+	 * @return the two ports in argument order
+	 */
+	static RXTXPort[] open(String[] args, String usage) throws PortInUseException {
+		if (args.length < 2)
+			usage(usage);
+		return new RXTXPort[] { new RXTXPort(args[0]), new RXTXPort(args[1]) };
+	}
+
+	/**
+	 * Opens all arguments, which come as linked pairs, or prints the usage
+	 * line and exits if they don't.
+	 *
+	 * @param usage the test and its arguments
+	 * @return the ports in argument order
+	 */
+	static RXTXPort[] openPairs(String[] args, String usage) throws PortInUseException {
+		if (args.length < 2 || args.length % 2 != 0)
+			usage(usage);
+		RXTXPort[] ports = new RXTXPort[args.length];
+		for (int i = 0; i < args.length; i++)
+			ports[i] = new RXTXPort(args[i]);
+		return ports;
+	}
+
+	/**
+	 * Sets the ports to baud 8N1.
+	 */
+	static void configure(int baud, RXTXPort... ports) throws UnsupportedCommOperationException {
+		for (RXTXPort p : ports)
+			p.setSerialPortParams(baud, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	}
+
+	private static void usage(String usage) {
+		System.err.println("usage: " + usage);
+		System.err.println("see test/README.md for linked ports");
+		System.exit(1);
+	}
+}
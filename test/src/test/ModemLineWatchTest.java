@@ -0,0 +1,76 @@
+package test;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPortEvent;
+
+/**
+ * CTS latency with the event loop polling the lines and with the
+ * TIOCMIWAIT watcher.
+ *
+ * Needs a real port with RTS wired to CTS, e.g. a loopback plug on a
+ * UART or USB adapter; ptys have no modem lines to watch.  Run with
+ * -Dgnu.io.rxtx.SerialPorts=/dev/ttyUSB0 so RXTX will open it.  RTS is
+ * toggled and the time until the listener sees the CTS event is
+ * recorded, first with the event loop alone and then with
+ * startModemLineWatcher().  Also checks that the watcher counted every
+ * edge.  Exits with status 2 if the port cannot be watched.
+ */
+public class ModemLineWatchTest {
+	private static final int ROUNDS = 200;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: ModemLineWatchTest <port with RTS looped to CTS>");
+			System.exit(1);
+		}
+		RXTXPort port = new RXTXPort(args[0]);
+		try {
+			final BlockingQueue<Long> seen = new ArrayBlockingQueue<Long>(ROUNDS);
+			port.addEventListener(ev -> {
+				if (ev.getEventType() == SerialPortEvent.CTS)
+					seen.offer(System.nanoTime());
+			});
+			port.notifyOnCTS(true);
+			if (!port.startModemLineWatcher()) {
+				System.out.println(args[0] + " does not support TIOCMIWAIT");
+				System.exit(2);
+			}
+			port.stopModemLineWatcher();
+			run("polled", port, seen);
+			port.startModemLineWatcher();
+			int before = port.getModemLineEdges(SerialPortEvent.CTS);
+			run("watched", port, seen);
+			int edges = port.getModemLineEdges(SerialPortEvent.CTS) - before;
+			System.out.printf("watcher counted %d CTS edges for %d toggles%n", edges, ROUNDS);
+			port.stopModemLineWatcher();
+			if (edges != ROUNDS)
+				System.exit(1);
+		} finally {
+			port.close();
+		}
+	}
+
+	private static void run(String kind, RXTXPort port, BlockingQueue<Long> seen) throws Exception {
+		long[] latency = new long[ROUNDS];
+		boolean rts = port.isRTS();
+		for (int i = 0; i < ROUNDS; i++) {
+			rts = !rts;
+			long start = System.nanoTime();
+			port.setRTS(rts);
+			Long at = seen.poll(1, TimeUnit.SECONDS);
+			if (at == null)
+				throw new Exception(kind + ": no CTS event for round " + i);
+			latency[i] = at - start;
+			Thread.sleep(5);
+			seen.clear();
+		}
+		Arrays.sort(latency);
+		System.out.printf("%-8s CTS p50 %8.1f us  p99 %8.1f us  max %8.1f us%n", kind, latency[ROUNDS / 2] / 1e3,
+				latency[ROUNDS * 99 / 100] / 1e3, latency[ROUNDS - 1] / 1e3);
+	}
+}
@@ -0,0 +1,94 @@
+package test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialEventMulticaster;
+import gnu.io.SerialEventMulticaster.OverflowPolicy;
+import gnu.io.SerialEventMulticaster.Subscription;
+import gnu.io.SerialPortEvent;
+
+/**
+ * How long a slow listener holds up the event loop, with and without a
+ * SerialEventMulticaster.
+ *
+ * CTS events are sent through RXTXPort.sendEvent(), the way the event
+ * loop does, to a listener that takes 2 ms per event and a quick one that
+ * counts them.  The time sendEvent() takes is printed with both listeners
+ * called inline and with both subscribed to a multicaster, once for each
+ * overflow policy, along with the slow subscriber's queue metrics.  Then
+ * a byte is written to the second port to check that a real
+ * DATA_AVAILABLE reaches both subscribers.
+ */
+public class MulticastEventTest {
+	private static final int EVENTS = 200;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "MulticastEventTest <port> <linked port>");
+		final RXTXPort port = ports[0];
+		RXTXPort writer = ports[1];
+		try {
+			final int[] fast = new int[1];
+			port.addEventListener(ev -> {
+				slow(ev);
+				fast[0]++;
+			});
+			port.notifyOnCTS(true);
+			run("inline", port);
+			port.removeEventListener();
+
+			for (OverflowPolicy policy : OverflowPolicy.values()) {
+				SerialEventMulticaster m = new SerialEventMulticaster();
+				Subscription s = m.subscribe(MulticastEventTest::slow,
+						SerialEventMulticaster.mask(SerialPortEvent.CTS), 16, policy);
+				m.subscribe(ev -> fast[0]++);
+				port.addEventListener(m);
+				port.notifyOnCTS(true);
+				run(policy.toString().toLowerCase(), port);
+				System.out.printf("  slow subscriber: depth %d max %d delivered %d dropped %d coalesced %d%n",
+						s.getQueueDepth(), s.getMaxQueueDepth(), s.getDelivered(), s.getDropped(),
+						s.getCoalesced());
+				port.removeEventListener();
+			}
+
+			final CountDownLatch arrived = new CountDownLatch(2);
+			SerialEventMulticaster m = new SerialEventMulticaster();
+			for (int i = 0; i < 2; i++)
+				m.subscribe(ev -> {
+					if (ev.getEventType() == SerialPortEvent.DATA_AVAILABLE)
+						arrived.countDown();
+				}, SerialEventMulticaster.mask(SerialPortEvent.DATA_AVAILABLE), 4, OverflowPolicy.COALESCE);
+			port.addEventListener(m);
+			port.notifyOnDataAvailable(true);
+			writer.getOutputStream().write('x');
+			if (!arrived.await(2, TimeUnit.SECONDS))
+				throw new Exception("DATA_AVAILABLE did not reach both subscribers");
+			System.out.println("DATA_AVAILABLE reached both subscribers");
+		} finally {
+			port.close();
+			writer.close();
+		}
+	}
+
+	private static void slow(SerialPortEvent ev) {
+		try {
+			Thread.sleep(2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void run(String kind, RXTXPort port) {
+		long[] took = new long[EVENTS];
+		for (int i = 0; i < EVENTS; i++) {
+			long start = System.nanoTime();
+			port.sendEvent(SerialPortEvent.CTS, (i & 1) == 0);
+			took[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(took);
+		System.out.printf("%-11s sendEvent p50 %8.1f us  max %8.1f us%n", kind, took[EVENTS / 2] / 1e3,
+				took[EVENTS - 1] / 1e3);
+	}
+}
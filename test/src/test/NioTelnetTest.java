@@ -0,0 +1,254 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.rfc2217.BaudRateCommand;
+import gnu.io.rfc2217.ComPortCommand;
+import gnu.io.rfc2217.NioTelnetSerialPort;
+import gnu.io.rfc2217.RFC2217;
+import gnu.io.rfc2217.TelnetEngine;
+
+/**
+ * Many NioTelnetSerialPorts on a two thread TelnetEngine.
+ *
+ * Needs no serial ports: a small access server is started on localhost
+ * which negotiates like a real one, answers COM-PORT-OPTION commands
+ * (capping the baud rate at 115200 so the reply can be told from the
+ * request) and echoes data.  Opens the number of ports given as the
+ * first argument (default 200), checks negotiation, echo of every byte
+ * value, DATA_AVAILABLE and a slow reader behind a small input buffer,
+ * and prints the client thread count and one byte round-trip times.
+ * Exits with status 1 on failure.
+ */
+public class NioTelnetTest {
+	private static final int IAC = 255, DONT = 254, DO = 253, WONT = 252, WILL = 251, SB = 250, SE = 240;
+	private static final int ROUNDS = 2000;
+	private static final int BULK = 256 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final ServerSocket server = new ServerSocket(0, count, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(() -> {
+			try {
+				for (int i = 0;; i++) {
+					Socket s = server.accept();
+					Thread t = new Thread(() -> serve(s), "test server " + i);
+					t.setDaemon(true);
+					t.start();
+				}
+			} catch (IOException e) {
+				// closed
+			}
+		}, "test server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		int threadsBefore = clientThreads();
+		TelnetEngine engine = new TelnetEngine(2);
+		NioTelnetSerialPort[] ports = new NioTelnetSerialPort[count];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			ports[i] = new NioTelnetSerialPort(engine);
+			ports[i].connect("localhost", server.getLocalPort());
+			ports[i].setSerialPortParams(230400, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for (NioTelnetSerialPort port : ports)
+			while (port.getBaudRate() != 115200)
+				if (System.nanoTime() > deadline)
+					fail("no SET-BAUDRATE reply on " + port.getName());
+				else
+					Thread.sleep(1);
+		System.out.printf("%d ports negotiated in %.1f ms, %d client threads%n", count,
+				(System.nanoTime() - start) / 1e6, clientThreads() - threadsBefore);
+
+		/* every byte value, including IAC and CR NUL, written on all ports before any is read */
+		byte[] pattern = new byte[512];
+		for (int i = 0; i < pattern.length; i++)
+			pattern[i] = (byte) (i % 2 == 0 ? i / 2 : i % 4 == 1 ? 0xff : '\r');
+		for (NioTelnetSerialPort port : ports)
+			port.getOutputStream().write(pattern);
+		byte[] back = new byte[pattern.length];
+		for (NioTelnetSerialPort port : ports) {
+			readFully(port.getInputStream(), back);
+			if (!Arrays.equals(back, pattern))
+				fail("echo garbled on " + port.getName());
+		}
+
+		long[] rtt = new long[ROUNDS];
+		for (int r = 0; r < ROUNDS; r++) {
+			NioTelnetSerialPort port = ports[r % count];
+			long t = System.nanoTime();
+			port.getOutputStream().write(r);
+			if (port.getInputStream().read() != (r & 0xff))
+				fail("echo lost at round " + r);
+			rtt[r] = System.nanoTime() - t;
+		}
+		Arrays.sort(rtt);
+		System.out.printf("echo p50 %.1f us  p99 %.1f us%n", rtt[ROUNDS / 2] / 1e3, rtt[ROUNDS * 99 / 100] / 1e3);
+
+		/* a slow reader with a 256 byte buffer must hold the server back, not lose data */
+		final NioTelnetSerialPort slow = ports[count > 1 ? 1 : 0];
+		slow.setInputBufferSize(256);
+		final Exception[] failure = new Exception[1];
+		Thread writer = new Thread(() -> {
+			try {
+				byte[] b = new byte[1000];
+				for (int sent = 0; sent < BULK; sent += b.length) {
+					for (int i = 0; i < b.length; i++)
+						b[i] = (byte) (sent + i);
+					slow.getOutputStream().write(b, 0, Math.min(b.length, BULK - sent));
+				}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		writer.start();
+		InputStream in = slow.getInputStream();
+		byte[] b = new byte[100];
+		for (int received = 0; received < BULK;) {
+			int n = in.read(b);
+			if (n < 0)
+				fail("end of stream after " + received + " bytes");
+			for (int i = 0; i < n; i++, received++)
+				if (b[i] != (byte) received)
+					fail("bulk echo garbled at byte " + received);
+			if (received % 16384 < n)
+				Thread.sleep(1);
+		}
+		writer.join();
+		if (failure[0] != null)
+			throw failure[0];
+
+		final CountDownLatch available = new CountDownLatch(1);
+		ports[0].addEventListener(ev -> {
+			if (ev.getEventType() == SerialPortEvent.DATA_AVAILABLE)
+				available.countDown();
+		});
+		ports[0].notifyOnDataAvailable(true);
+		ports[0].getOutputStream().write('x');
+		if (!available.await(2, TimeUnit.SECONDS))
+			fail("no DATA_AVAILABLE");
+
+		for (NioTelnetSerialPort port : ports)
+			port.close();
+		engine.close();
+		server.close();
+		System.out.println("all checks passed");
+	}
+
+	private static int clientThreads() {
+		int n = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet())
+			if (!t.getName().startsWith("test server"))
+				n++;
+		return n;
+	}
+
+	private static void readFully(InputStream in, byte[] b) throws IOException {
+		for (int off = 0; off < b.length;) {
+			int n = in.read(b, off, b.length - off);
+			if (n < 0)
+				throw new IOException("end of stream");
+			off += n;
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+
+	/* access server side of one connection: accepts BINARY, SGA and COM-PORT-OPTION, echoes data */
+	private static void serve(Socket s) {
+		try {
+			s.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			boolean[] local = new boolean[256], remote = new boolean[256];
+			out.write(new byte[] { (byte) IAC, (byte) DO, (byte) RFC2217.COM_PORT_OPTION, (byte) IAC, (byte) WILL, 0,
+					(byte) IAC, (byte) DO, 0, (byte) IAC, (byte) WILL, 3, (byte) IAC, (byte) DO, 3 });
+			local[0] = local[3] = remote[0] = remote[3] = remote[RFC2217.COM_PORT_OPTION] = true;
+			out.flush();
+			int[] sb = new int[256];
+			while (true) {
+				if (in.available() == 0)
+					out.flush();
+				int c = in.read();
+				if (c < 0)
+					break;
+				if (c != IAC) {
+					out.write(c);
+					continue;
+				}
+				c = in.read();
+				if (c == IAC) {
+					out.write(IAC);
+					out.write(IAC);
+				} else if (c == WILL || c == DO) {
+					int option = in.read();
+					boolean ok = option == 0 || option == 3 || (c == WILL && option == RFC2217.COM_PORT_OPTION);
+					boolean[] state = c == WILL ? remote : local;
+					if (!ok)
+						out.write(new byte[] { (byte) IAC, (byte) (c == WILL ? DONT : WONT), (byte) option });
+					else if (!state[option]) {
+						state[option] = true;
+						out.write(new byte[] { (byte) IAC, (byte) (c == WILL ? DO : WILL), (byte) option });
+					}
+				} else if (c == WONT || c == DONT) {
+					in.read();
+				} else if (c == SB) {
+					int n = 0;
+					while (true) {
+						c = in.read();
+						if (c == IAC && (c = in.read()) == SE)
+							break;
+						sb[n++] = c;
+					}
+					if (sb[0] == RFC2217.COM_PORT_OPTION)
+						reply(out, Arrays.copyOf(sb, n));
+				}
+			}
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+				//
+			}
+		}
+	}
+
+	private static void reply(OutputStream out, int[] request) throws IOException {
+		ComPortCommand command = RFC2217.decodeComPortCommand(request);
+		int[] bytes;
+		if (command instanceof BaudRateCommand)
+			bytes = new BaudRateCommand(false, Math.min(((BaudRateCommand) command).getBaudRate(), 115200)).getBytes();
+		else {
+			bytes = command.getBytes().clone();
+			bytes[1] += RFC2217.SERVER_OFFSET;
+		}
+		out.write(IAC);
+		out.write(SB);
+		for (int b : bytes) {
+			out.write(b);
+			if (b == IAC)
+				out.write(b);
+		}
+		out.write(IAC);
+		out.write(SE);
+	}
+}
@@ -0,0 +1,83 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPortEvent;
+
+/**
+ * Messages per second through DATA_AVAILABLE + read() and through a
+ * push-mode SerialPortDataListener.
+ *
+ * 16 byte messages are written to the first port one at a time, each once
+ * the last has arrived whole on the second port.  They are received first
+ * as ReadTest does, reading available() bytes on DATA_AVAILABLE, then by
+ * a data listener.  Every byte is checked.
+ */
+public class PushReceiveTest {
+	private static final int MESSAGES = 2000;
+	private static final int SIZE = 16;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "PushReceiveTest <writer port> <reader port>");
+		final RXTXPort writer = ports[0];
+		final RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(115200, writer, reader);
+			final Semaphore arrived = new Semaphore(0);
+			final int[] received = new int[1];
+
+			final InputStream in = reader.getInputStream();
+			reader.addEventListener(ev -> {
+				if (ev.getEventType() != SerialPortEvent.DATA_AVAILABLE)
+					return;
+				try {
+					while (in.available() > 0)
+						check(in.read(), received, arrived);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			reader.notifyOnDataAvailable(true);
+			run("DATA_AVAILABLE", writer, arrived);
+			reader.removeEventListener();
+
+			received[0] = 0;
+			reader.addDataListener((buffer, length) -> {
+				for (int i = 0; i < length; i++)
+					check(buffer[i] & 0xff, received, arrived);
+			});
+			run("push", writer, arrived);
+			reader.removeDataListener();
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static void check(int b, int[] received, Semaphore arrived) {
+		if (b != (received[0] & 0xff))
+			throw new IllegalStateException("mismatch at byte " + received[0]);
+		if (++received[0] % SIZE == 0)
+			arrived.release();
+	}
+
+	private static void run(String kind, RXTXPort writer, Semaphore arrived) throws Exception {
+		OutputStream out = writer.getOutputStream();
+		byte[] message = new byte[SIZE];
+		long start = System.nanoTime();
+		for (int m = 0; m < MESSAGES; m++) {
+			for (int i = 0; i < SIZE; i++)
+				message[i] = (byte) (m * SIZE + i);
+			out.write(message);
+			if (!arrived.tryAcquire(2, TimeUnit.SECONDS))
+				throw new Exception(kind + ": message " + m + " did not arrive");
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-14s %d messages in %.1f ms, %.0f per second%n", kind, MESSAGES, elapsed / 1e6,
+				MESSAGES / (elapsed / 1e9));
+	}
+}
@@ -0,0 +1,119 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.rfc2217.AccessServer;
+import gnu.io.rfc2217.NioTelnetSerialPort;
+import gnu.io.rfc2217.TelnetSerialPort;
+
+/**
+ * Receive timeout and threshold behave alike on a local port and on the
+ * same port reached over RFC 2217.
+ *
+ * The second port plays the device.  The same checks run first on the
+ * first port itself, then on a TelnetSerialPort (over commons-net, or
+ * NioTelnetSerialPort if "nio" is given as third argument) to which
+ * AccessServer exports it: a timed out read returns 0, or -1 from read();
+ * a threshold read gathers bytes sent in two pieces; a threshold read
+ * that is not met returns what came at the timeout.  Exits with status 1
+ * on failure.
+ */
+public class ReceiveTimeoutTest {
+	private static final int TIMEOUT = 300;
+
+	public static void main(String[] args) throws Exception {
+		boolean nio = args.length > 2 && args[2].equals("nio");
+		RXTXPort[] ports = LinkedPorts.open(args, "ReceiveTimeoutTest <port> <device port> [nio]");
+		RXTXPort local = ports[0];
+		RXTXPort device = ports[1];
+		OutputStream out = device.getOutputStream();
+		check("local", local, out);
+
+		AccessServer server = new AccessServer();
+		InetSocketAddress address = server.export(local, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		TelnetSerialPort remote;
+		if (nio) {
+			NioTelnetSerialPort port = new NioTelnetSerialPort();
+			port.connect(address);
+			remote = port;
+		} else {
+			remote = new TelnetSerialPort();
+			remote.getTelnetClient().connect(address.getAddress(), address.getPort());
+		}
+		check("remote", remote, out);
+
+		remote.close();
+		server.close();
+		local.close();
+		device.close();
+		System.out.println("all checks passed");
+	}
+
+	private static void check(String kind, SerialPort port, OutputStream device) throws Exception {
+		InputStream in = port.getInputStream();
+		byte[] b = new byte[64];
+
+		port.disableReceiveThreshold();
+		port.enableReceiveTimeout(TIMEOUT);
+		long start = System.nanoTime();
+		int n = in.read(b);
+		long ms = (System.nanoTime() - start) / 1000000;
+		if (n != 0 || ms < TIMEOUT - 50 || ms > TIMEOUT + 500)
+			fail(kind + ": idle read returned " + n + " after " + ms + " ms");
+		if (in.read() != -1)
+			fail(kind + ": idle read() did not return -1");
+		System.out.printf("%-6s idle read timed out after %d ms%n", kind, ms);
+
+		port.enableReceiveThreshold(10);
+		port.enableReceiveTimeout(5000);
+		device.write("1234".getBytes());
+		Thread later = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				device.write("567890abcd".getBytes());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		later.start();
+		start = System.nanoTime();
+		n = in.read(b);
+		ms = (System.nanoTime() - start) / 1000000;
+		later.join();
+		if (n < 10 || !new String(b, 0, n).startsWith("1234567890"))
+			fail(kind + ": threshold read returned " + new String(b, 0, Math.max(n, 0)));
+		if (ms < 80)
+			fail(kind + ": threshold read returned after only " + ms + " ms");
+		/* whether the rest came along is up to the port */
+		while (n < 14) {
+			int r = in.read(b, n, 14 - n);
+			if (r <= 0)
+				fail(kind + ": rest after threshold read lost");
+			n += r;
+		}
+		if (!new String(b, 0, n).equals("1234567890abcd"))
+			fail(kind + ": threshold read garbled " + new String(b, 0, n));
+
+		port.enableReceiveTimeout(TIMEOUT);
+		device.write("xyz".getBytes());
+		start = System.nanoTime();
+		n = in.read(b);
+		ms = (System.nanoTime() - start) / 1000000;
+		if (n != 3 || !new String(b, 0, n).equals("xyz") || ms < TIMEOUT - 50)
+			fail(kind + ": short threshold read returned " + n + " bytes after " + ms + " ms");
+		System.out.printf("%-6s threshold read gathered 10 bytes, short one returned after %d ms%n", kind, ms);
+
+		port.disableReceiveThreshold();
+		port.disableReceiveTimeout();
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,90 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import gnu.io.RXTXPort;
+import gnu.io.nio.SerialChannel;
+import gnu.io.nio.SerialSelectionKey;
+import gnu.io.nio.SerialSelector;
+
+/**
+ * Many ports read by one thread through a SerialSelector.
+ *
+ * Takes any number of linked port pairs and is best run with
+ * -Dgnu.io.rxtx.EventDispatchers=1 so the ports don't each start a
+ * monitor thread.  One thread writes numbered bytes to the first port of
+ * every pair in turn while the main thread reads the second ports through
+ * non-blocking channels registered with one selector.  Every port must
+ * see its bytes in order; the threads started for the ports and the rate
+ * are printed.
+ */
+public class SelectorFanInTest {
+	private static final int BYTES = 20000;
+
+	public static void main(String[] args) throws Exception {
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		RXTXPort[] ports = LinkedPorts.openPairs(args, "SelectorFanInTest <port> <linked port> [<port> <linked port> ...]");
+		final int pairs = ports.length / 2;
+		final RXTXPort[] writers = new RXTXPort[pairs];
+		SerialChannel[] channels = new SerialChannel[pairs];
+		SerialSelector selector = SerialSelector.open();
+		for (int i = 0; i < pairs; i++) {
+			writers[i] = ports[2 * i];
+			channels[i] = new SerialChannel(ports[2 * i + 1]);
+			channels[i].configureBlocking(false);
+			channels[i].register(selector, SerialSelectionKey.OP_READ, new int[] { i, 0 });
+		}
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+		final Exception[] failure = new Exception[1];
+		Thread writer = new Thread(() -> {
+			try {
+				byte[] chunk = new byte[100];
+				for (int sent = 0; sent < BYTES; sent += chunk.length)
+					for (RXTXPort port : writers) {
+						for (int i = 0; i < chunk.length; i++)
+							chunk[i] = (byte) (sent + i);
+						port.getOutputStream().write(chunk);
+					}
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		long start = System.nanoTime();
+		writer.start();
+		ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+		int done = 0;
+		while (done < pairs) {
+			if (selector.select(2000) == 0 && selector.selectedKeys().isEmpty())
+				throw new Exception("nothing to read, " + done + " of " + pairs + " ports done");
+			for (Iterator<SerialSelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+				SerialSelectionKey key = i.next();
+				i.remove();
+				int[] state = (int[]) key.attachment();
+				buf.clear();
+				key.channel().read(buf);
+				buf.flip();
+				while (buf.hasRemaining())
+					if (buf.get() != (byte) state[1]++)
+						throw new Exception("port " + state[0] + ": mismatch at byte " + (state[1] - 1));
+				if (state[1] == BYTES) {
+					key.cancel();
+					done++;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		writer.join();
+		if (failure[0] != null)
+			throw failure[0];
+		System.out.printf("%d ports, %d threads started for them, %d bytes each read by one thread in %.1f ms%n",
+				pairs, threads, BYTES, elapsed / 1e6);
+		selector.close();
+		for (int i = 0; i < pairs; i++) {
+			writers[i].close();
+			channels[i].close();
+		}
+	}
+}
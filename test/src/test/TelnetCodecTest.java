@@ -0,0 +1,149 @@
+package test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import gnu.io.rfc2217.TelnetCodec;
+
+/**
+ * Correctness and speed of TelnetCodec against a byte at a time codec.
+ *
+ * Needs no serial ports.  Random payloads, payloads with one byte in
+ * sixteen 0xFF and payloads of nothing but 0xFF are escaped and
+ * unescaped through heap and direct buffers, in chunks of odd sizes so
+ * IAC pairs get split, and checked against a straightforward per byte
+ * implementation.  Then both are timed on each payload and the rates
+ * printed.  Exits with status 1 on a mismatch.
+ */
+public class TelnetCodecTest {
+	private static final int SIZE = 1 << 20;
+	private static final int PASSES = 200;
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(2217);
+		byte[] plain = new byte[SIZE];
+		random.nextBytes(plain);
+		for (int i = 0; i < SIZE; i++)
+			if (plain[i] == (byte) 0xff)
+				plain[i] = 0;
+		byte[] randomData = new byte[SIZE];
+		random.nextBytes(randomData);
+		byte[] heavy = plain.clone();
+		for (int i = 0; i < SIZE; i += 16)
+			heavy[i + random.nextInt(16)] = (byte) 0xff;
+		byte[] all = new byte[SIZE];
+		Arrays.fill(all, (byte) 0xff);
+
+		String[] names = { "no 0xFF", "random", "1/16 0xFF", "all 0xFF" };
+		byte[][] payloads = { plain, randomData, heavy, all };
+		for (int p = 0; p < payloads.length; p++) {
+			check(names[p], payloads[p], false, random);
+			check(names[p], payloads[p], true, random);
+		}
+
+		System.out.printf("%-10s %10s %10s %10s %10s%n", "MB/s", "escape", "per byte", "unescape", "per byte");
+		for (int p = 0; p < payloads.length; p++) {
+			byte[] data = payloads[p];
+			byte[] stream = escapeBytewise(data);
+			ByteBuffer out = ByteBuffer.allocate(stream.length);
+			ByteBuffer back = ByteBuffer.allocate(SIZE);
+			double escape = rate(() -> {
+				out.clear();
+				TelnetCodec.escape(ByteBuffer.wrap(data), out);
+			});
+			double escapeBytewise = rate(() -> {
+				out.clear();
+				escapeBytewise(ByteBuffer.wrap(data), out);
+			});
+			double unescape = rate(() -> {
+				back.clear();
+				TelnetCodec.unescape(ByteBuffer.wrap(stream), back);
+			});
+			double unescapeBytewise = rate(() -> {
+				back.clear();
+				unescapeBytewise(ByteBuffer.wrap(stream), back);
+			});
+			System.out.printf("%-10s %10.0f %10.0f %10.0f %10.0f%n", names[p], escape, escapeBytewise, unescape,
+					unescapeBytewise);
+		}
+	}
+
+	/* escape and unescape in random chunk sizes, into a buffer that is never quite big enough */
+	private static void check(String name, byte[] data, boolean direct, Random random) {
+		byte[] expected = escapeBytewise(data);
+		ByteBuffer stream = allocate(expected.length, direct);
+		ByteBuffer src = allocate(data.length, direct);
+		src.put(data).flip();
+		while (src.hasRemaining()) {
+			ByteBuffer window = stream.duplicate();
+			window.limit(Math.min(stream.capacity(), stream.position() + 1 + random.nextInt(100)));
+			TelnetCodec.escape(src, window);
+			stream.position(window.position());
+		}
+		stream.flip();
+		byte[] got = new byte[stream.remaining()];
+		stream.duplicate().get(got);
+		if (!Arrays.equals(got, expected))
+			fail(name + (direct ? " direct" : " heap") + ": escape differs");
+
+		/* decode in place, handing on a trailing lone IAC as a decoder would */
+		ByteBuffer dst = stream.duplicate();
+		dst.clear();
+		int end = 0;
+		while (stream.position() < stream.capacity()) {
+			end = Math.min(stream.capacity(), Math.max(end, stream.position() + 1) + random.nextInt(100));
+			stream.limit(end);
+			TelnetCodec.unescape(stream, dst);
+			if (end == stream.capacity() && stream.hasRemaining())
+				fail(name + (direct ? " direct" : " heap") + ": unescape stuck at " + stream.position());
+		}
+		dst.flip();
+		got = new byte[dst.remaining()];
+		dst.get(got);
+		if (!Arrays.equals(got, data))
+			fail(name + (direct ? " direct" : " heap") + ": unescape differs");
+	}
+
+	private static ByteBuffer allocate(int size, boolean direct) {
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	private static double rate(Runnable r) {
+		for (int i = 0; i < PASSES / 4; i++)
+			r.run();
+		long start = System.nanoTime();
+		for (int i = 0; i < PASSES; i++)
+			r.run();
+		return (double) SIZE * PASSES / (1 << 20) / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static byte[] escapeBytewise(byte[] data) {
+		ByteBuffer out = ByteBuffer.allocate(2 * data.length);
+		escapeBytewise(ByteBuffer.wrap(data), out);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	private static void escapeBytewise(ByteBuffer src, ByteBuffer dst) {
+		while (src.hasRemaining()) {
+			byte b = src.get();
+			dst.put(b);
+			if (b == (byte) 0xff)
+				dst.put(b);
+		}
+	}
+
+	private static void unescapeBytewise(ByteBuffer src, ByteBuffer dst) {
+		while (src.hasRemaining()) {
+			byte b = src.get();
+			if (b == (byte) 0xff)
+				src.get();
+			dst.put(b);
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
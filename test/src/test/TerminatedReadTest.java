@@ -0,0 +1,73 @@
+package test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Line reads with RXTXPort.readTerminated() against a multi-byte
+ * terminator.
+ *
+ * NMEA style sentences ending in "\r\n" are written to the first port in
+ * large bursts, so several sentences and partial ones arrive together,
+ * and read back one at a time from the second port. Every sentence must
+ * come back whole, in order, and ending in the terminator.  The rate of
+ * sentences read is printed.
+ */
+public class TerminatedReadTest {
+	private static final int LINES = 20000;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "TerminatedReadTest <writer port> <reader port>");
+		final RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(115200, writer, reader);
+			reader.enableReceiveTimeout(2000);
+			final Exception[] failure = new Exception[1];
+			Thread t = new Thread(() -> {
+				try {
+					OutputStream out = writer.getOutputStream();
+					StringBuilder burst = new StringBuilder();
+					for (int i = 0; i < LINES; i++) {
+						burst.append(sentence(i));
+						if (burst.length() > 3000 || i == LINES - 1) {
+							out.write(burst.toString().getBytes(StandardCharsets.US_ASCII));
+							burst.setLength(0);
+						}
+					}
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			});
+			byte[] crlf = { '\r', '\n' };
+			byte[] b = new byte[256];
+			long start = System.nanoTime();
+			t.start();
+			for (int i = 0; i < LINES; i++) {
+				int n = reader.readTerminated(b, 0, b.length, crlf);
+				String got = new String(b, 0, n, StandardCharsets.US_ASCII);
+				if (!got.equals(sentence(i)))
+					throw new Exception("line " + i + ": expected " + sentence(i).trim() + ", got " + got.trim());
+			}
+			long elapsed = System.nanoTime() - start;
+			t.join();
+			if (failure[0] != null)
+				throw failure[0];
+			System.out.printf("%d sentences in %.1f ms, %.0f per second%n", LINES, elapsed / 1e6,
+					LINES / (elapsed / 1e9));
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static String sentence(int i) {
+		String body = "GPGGA," + i + ",4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,";
+		int sum = 0;
+		for (int c = 0; c < body.length(); c++)
+			sum ^= body.charAt(c);
+		return String.format("$%s*%02X\r\n", body, sum);
+	}
+}
@@ -0,0 +1,95 @@
+package test;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import gnu.io.RXTXPort;
+import gnu.io.TimestampSink;
+
+/**
+ * Receive timestamps from RXTXPort.readTimestamped().
+ *
+ * Single bytes are written to the first port and read from the second,
+ * and the time from the write to the native timestamp and to
+ * System.nanoTime() after the read are printed.  Reading the port
+ * directly the reader is already waiting when the byte arrives. With
+ * background drain it only gets round to reading 5 ms later, as a busy or
+ * paused application would, and the timestamp, taken by the drain thread,
+ * must still be close to the write.
+ */
+public class TimestampedReadTest {
+	private static final int ROUNDS = 200;
+	private static final long LATE = 5000000;
+
+	public static void main(String[] args) throws Exception {
+		RXTXPort[] ports = LinkedPorts.open(args, "TimestampedReadTest <writer port> <reader port>");
+		RXTXPort writer = ports[0];
+		RXTXPort reader = ports[1];
+		try {
+			LinkedPorts.configure(115200, writer, reader);
+			reader.enableReceiveTimeout(1000);
+			boolean ok = run("direct", writer, reader, false);
+			reader.setBackgroundDrain(true);
+			ok &= run("drained", writer, reader, true);
+			System.exit(ok ? 0 : 1);
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	private static boolean run(String kind, RXTXPort writer, RXTXPort reader, boolean late) throws Exception {
+		final OutputStream out = writer.getOutputStream();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+		final long[] stamp = new long[2];
+		final int[] chunks = new int[1];
+		TimestampSink sink = (position, length, monotonic, realtime) -> {
+			chunks[0]++;
+			stamp[0] = monotonic;
+			stamp[1] = realtime;
+		};
+		long[] nativeAge = new long[ROUNDS], javaAge = new long[ROUNDS];
+		long skew = 0;
+		final long[] wrote = new long[1];
+		for (int i = 0; i < ROUNDS; i++) {
+			final int b = i;
+			Thread t = new Thread(() -> {
+				try {
+					Thread.sleep(1);
+					wrote[0] = System.nanoTime();
+					out.write(b);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			t.start();
+			if (late) {
+				t.join();
+				/* the byte waits in the ring meanwhile */
+				while (System.nanoTime() - wrote[0] < LATE)
+					;
+			}
+			buffer.clear();
+			chunks[0] = 0;
+			if (reader.readTimestamped(buffer, sink) != 1 || chunks[0] != 1)
+				throw new Exception(kind + ": round " + i + " read " + buffer.position() + " bytes in "
+						+ chunks[0] + " chunks");
+			long now = System.nanoTime();
+			t.join();
+			if (stamp[0] < wrote[0] || stamp[0] > now)
+				throw new Exception(kind + ": round " + i + " stamped outside the read");
+			nativeAge[i] = stamp[0] - wrote[0];
+			javaAge[i] = now - wrote[0];
+			skew = Math.max(skew, Math.abs(stamp[1] / 1000000 - System.currentTimeMillis()
+					+ (now - stamp[0]) / 1000000));
+		}
+		Arrays.sort(nativeAge);
+		Arrays.sort(javaAge);
+		System.out.printf("%-8s write to timestamp p50 %7.1f us p99 %7.1f us, to Java p50 %7.1f us; "
+				+ "realtime within %d ms%n", kind, nativeAge[ROUNDS / 2] / 1e3, nativeAge[ROUNDS * 99 / 100] / 1e3,
+				javaAge[ROUNDS / 2] / 1e3, skew);
+		return nativeAge[ROUNDS / 2] < javaAge[ROUNDS / 2] && (!late || nativeAge[ROUNDS / 2] < LATE / 2)
+				&& skew < 50;
+	}
+}
@@ -0,0 +1,142 @@
+package test;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gnu.io.RXTXPort;
+
+/**
+ * One thread per port with polled I/O, virtual threads where the JVM
+ * has them.
+ *
+ * Takes any number of linked port pairs and is run with
+ * -Dgnu.io.rxtx.EventDispatchers=1 so the ports don't each start a
+ * monitor thread; 500 pairs give 1000 ports.  Every port is served by its
+ * own thread with polled I/O on: the first port of each pair sends
+ * numbered messages and waits for them to come back, the second echoes
+ * them.  On Java 21 and later these are virtual threads, and the platform
+ * threads the JVM started for them are printed next to the round trip
+ * rate; add -Djdk.tracePinnedThreads=full to see any that pin their
+ * carrier.  Finally a thread blocked in read() is interrupted and must
+ * come out with an InterruptedIOException.
+ */
+public class VirtualThreadPortTest {
+	private static final int ROUNDS = 50;
+
+	public static void main(String[] args) throws Exception {
+		final RXTXPort[] ports = LinkedPorts.openPairs(args,
+				"VirtualThreadPortTest <port> <linked port> [<port> <linked port> ...]");
+		for (RXTXPort port : ports)
+			port.setPolledIO(true);
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		final CountDownLatch done = new CountDownLatch(ports.length);
+		final AtomicInteger failures = new AtomicInteger();
+		long start = System.nanoTime();
+		for (int i = 0; i < ports.length; i++) {
+			final RXTXPort port = ports[i];
+			final boolean sender = i % 2 == 0;
+			start(() -> {
+				try {
+					if (sender)
+						send(port);
+					else
+						echo(port);
+				} catch (Exception e) {
+					failures.incrementAndGet();
+					e.printStackTrace();
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		boolean finished = done.await(120, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+		int threads = ManagementFactory.getThreadMXBean().getPeakThreadCount() - threadsBefore;
+		System.out.printf("%d ports on %s threads, %d platform threads added, %.0f round trips/s%n", ports.length,
+				virtual == null ? "platform" : "virtual", threads,
+				ports.length / 2 * ROUNDS / (elapsed / 1e9));
+
+		final RXTXPort idle = ports[1];
+		final Exception[] caught = new Exception[1];
+		final CountDownLatch out = new CountDownLatch(1);
+		Thread reader = start(() -> {
+			try {
+				idle.getInputStream().read();
+			} catch (Exception e) {
+				caught[0] = e;
+			}
+			out.countDown();
+		});
+		Thread.sleep(200);
+		long interrupted = System.nanoTime();
+		reader.interrupt();
+		boolean woke = out.await(2, TimeUnit.SECONDS);
+		System.out.printf("interrupted read: %s after %.1f ms%n", caught[0],
+				(System.nanoTime() - interrupted) / 1e6);
+
+		for (RXTXPort port : ports)
+			port.close();
+		System.exit(finished && failures.get() == 0 && woke && caught[0] instanceof InterruptedIOException ? 0 : 1);
+	}
+
+	private static void send(RXTXPort port) throws Exception {
+		InputStream in = port.getInputStream();
+		OutputStream out = port.getOutputStream();
+		byte[] msg = new byte[16];
+		byte[] back = new byte[16];
+		for (int r = 0; r < ROUNDS; r++) {
+			for (int i = 0; i < msg.length; i++)
+				msg[i] = (byte) (r + i);
+			out.write(msg);
+			for (int got = 0; got < back.length;)
+				got += in.read(back, got, back.length - got);
+			for (int i = 0; i < msg.length; i++)
+				if (back[i] != msg[i])
+					throw new Exception(port.getName() + ": wrong echo in round " + r);
+		}
+		out.write(new byte[] { -1 });
+	}
+
+	private static void echo(RXTXPort port) throws Exception {
+		InputStream in = port.getInputStream();
+		OutputStream out = port.getOutputStream();
+		byte[] b = new byte[64];
+		for (;;) {
+			int n = in.read(b);
+			if (n > 0 && b[n - 1] == -1)
+				return;
+			out.write(b, 0, n);
+		}
+	}
+
+	/* Thread.ofVirtual(), looked up so this builds for Java 8 */
+	private static final Object virtual;
+	private static final Method startVirtual;
+	static {
+		Object builder = null;
+		Method start = null;
+		try {
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+		} catch (Exception e) {
+			// before Java 21
+		}
+		virtual = builder;
+		startVirtual = start;
+	}
+
+	private static Thread start(Runnable r) throws Exception {
+		if (virtual != null)
+			return (Thread) startVirtual.invoke(virtual, r);
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+}
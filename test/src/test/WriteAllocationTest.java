@@ -0,0 +1,62 @@
+package test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import gnu.io.RXTXPort;
+
+/**
+ * Checks that SerialOutputStream.write(b[], off, len) does not allocate.
+ *
+ * Small slices of a larger buffer are written to the first port while the
+ * second one is drained, and the bytes allocated by the writing thread
+ * are read from the ThreadMXBean.  Exits with status 1 if the write path
+ * allocated.
+ */
+public class WriteAllocationTest {
+	private static final int WRITES = 100000;
+
+	public static void main(String[] args) throws Exception {
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		RXTXPort[] ports = LinkedPorts.open(args, "WriteAllocationTest <writer port> <reader port>");
+		final RXTXPort writer = ports[0];
+		final RXTXPort reader = ports[1];
+		/* so the drain thread lets go of the port for close() */
+		reader.enableReceiveTimeout(100);
+		Thread drain = new Thread(() -> {
+			try {
+				InputStream in = reader.getInputStream();
+				byte[] b = new byte[4096];
+				while (in.read(b) >= 0 && !Thread.interrupted())
+					;
+			} catch (Exception e) {
+				// closed under us
+			}
+		});
+		drain.setDaemon(true);
+		drain.start();
+
+		OutputStream out = writer.getOutputStream();
+		byte[] frame = new byte[1024];
+		for (int i = 0; i < frame.length; i++)
+			frame[i] = (byte) i;
+		long self = Thread.currentThread().getId();
+
+		/* warm up so class loading and JIT don't count */
+		for (int i = 0; i < WRITES; i++)
+			out.write(frame, i % 1000, 16);
+
+		long before = mx.getThreadAllocatedBytes(self);
+		for (int i = 0; i < WRITES; i++)
+			out.write(frame, i % 1000, 16);
+		long allocated = mx.getThreadAllocatedBytes(self) - before;
+
+		System.out.printf("%d writes of 16 bytes allocated %d bytes (%.2f per write)%n", WRITES, allocated,
+				(double) allocated / WRITES);
+		writer.close();
+		reader.close();
+		/* allow a little for the measurement itself */
+		System.exit(allocated < 1024 ? 0 : 1);
+	}
+}